@@ -51,11 +51,13 @@ import org.json.simple.parser.ParseException;
  * Light weight REST API interface to manage figshare API calls, optionally authenticated.
  * The API URL is hard-coded, as figshare is a singularly global system.
  * A retry count can be set but defaults to a single request.
+ * A RateLimiter can be set, shared between connections, to space out every request and retry.
  * A timeout of 30,000 milliseconds is set by default.
  * <p>
  * The output of a successful action is either placed in responseJSON or responseArrayJSON,
  * depending on if a JSON object or array is returned.
  * See the JSON Simple library for more info on navigating the output.
+ * Each returned object is a FigshareJSONObject, which also holds its original JSON text.
  * <p>
  * All actions leverage the generic call() method.
  * Actions such as privateArticleDetails() setup the REST URL and inputs,
@@ -109,8 +111,11 @@ public class FigshareConnection {
     private String authorization = null;
     private int readTimeout = 30000;
     private int retryCount = 0;
+    private RateLimiter rateLimiter = null;
     private String apiURI = "https://api.figshare.com/v2";
     private static String apiURIsecure = "https://api.figshare.com/v2";
+    private static final StringInterner interner = new StringInterner(4096);
+    private static final LatencyHistogram latency = new LatencyHistogram();
     //private static String apiURIinsecure = "http://api.figshare.com/v2";
 
     /**
@@ -164,6 +169,24 @@ public class FigshareConnection {
     public FigshareConnection() {
     }
     
+    /**
+     * Shared table used to deduplicate repeated article values (license, type,
+     * category, funder and custom field names) once responses are decoded.
+     * @return the shared StringInterner, eg. to report the dedup hit rate.
+     */
+    public static StringInterner getStringInterner() {
+        return interner;
+    }
+    
+    /**
+     * Shared histogram of the time each API request attempt takes to respond,
+     * not counting any wait for the rate limiter.
+     * @return the shared LatencyHistogram, eg. to report latency percentiles.
+     */
+    public static LatencyHistogram getLatencyHistogram() {
+        return latency;
+    }
+    
     /**
      * Set a Personal Token for login use via account.
      * @param authToken
@@ -212,6 +235,14 @@ public class FigshareConnection {
         retryCount = count;
     }
     
+    /**
+     * Set a rate limiter, acquired before every request including retries.
+     * @param rateLimiter shared rate limiter, or null for none (default).
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+    
     /**
      * Logged in get article details.
      * @param articleID Article ID.
@@ -398,9 +429,20 @@ public class FigshareConnection {
             errorMessage = null;
             lastError = -1;
 
+            if (rateLimiter != null) {
+                try {
+                    rateLimiter.acquire();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    errorMessage = "Interrupted waiting for the rate limiter";
+                    break;
+                }
+            }
+            long started = System.nanoTime();
             try {
                 url = new URL(apiURI + path);
-                LOG.log(Level.FINE, "call() connecting to "+url.toString());
+                if (LOG.isLoggable(Level.FINE))
+                    LOG.log(Level.FINE, "call() connecting to "+url.toString());
 
                 urlConnection = (HttpURLConnection) url.openConnection(); // tends to succeed, so no real connection happening here
                 LOG.log(Level.FINER, "call() connected...");
@@ -441,25 +483,35 @@ public class FigshareConnection {
                     br = new BufferedReader(new InputStreamReader(is));
                     response = br.lines().collect(Collectors.joining());
                     errorMessage = response;
-                    LOG.log(Level.FINER, "call() errorMessage="+response);
+                    if (LOG.isLoggable(Level.FINER))
+                        LOG.log(Level.FINER, "call() errorMessage="+response);
                 } finally {
                     if (br!=null) br.close();
                 }
                 try {
                     LOG.log(Level.FINER, "call() attempting to parse JSON...");
                     JSONParser parser = new JSONParser();
-                    Object obj = parser.parse(response);
+                    Object obj = parser.parse(response, FigshareJSONObject.CONTAINER_FACTORY);
                     if (obj instanceof JSONObject) {
                         LOG.log(Level.FINER, "call() found JSONObject");
                         responseJSON = (JSONObject)obj;
+                        ((FigshareJSONObject)obj).setRawJSON(response.trim());
+                        interner.internArticle(responseJSON);
                     }
                     if (obj instanceof JSONArray) {
                         LOG.log(Level.FINER, "call() found JSONArray");
                         responseArrayJSON = (JSONArray)obj;
+                        FigshareJSONObject.setRawJSON(responseArrayJSON, response);
+                        for (Object item: responseArrayJSON) {
+                            if (item instanceof JSONObject)
+                                interner.internArticle((JSONObject)item);
+                        }
                     }
                 }catch(ParseException pe) {
-                    LOG.log(Level.FINE, "call() ParseException: "+pe.toString());
-                    LOG.log(Level.FINE, "... on response="+response);
+                    if (LOG.isLoggable(Level.FINE)) {
+                        LOG.log(Level.FINE, "call() ParseException: "+pe.toString());
+                        LOG.log(Level.FINE, "... on response="+response);
+                    }
                     if (errorMessage == null)
                         errorMessage = pe.getMessage();
                     else 
@@ -475,12 +527,14 @@ public class FigshareConnection {
                 lastError = 0;
 
             } catch (IOException e) {
-                LOG.log(Level.FINE, "call() IOException: "+e.getMessage());
+                if (LOG.isLoggable(Level.FINE))
+                    LOG.log(Level.FINE, "call() IOException: "+e.getMessage());
                 errorMessage = e.getMessage();
                 lastError = -1;
                 retryable = true;
             } catch (Exception e) {
-                LOG.log(Level.FINE, "call() "+e.getClass().getName()+": "+e.getMessage());
+                if (LOG.isLoggable(Level.FINE))
+                    LOG.log(Level.FINE, "call() "+e.getClass().getName()+": "+e.getMessage());
                 errorMessage = e.getMessage();
                 lastError = -1;
             } finally {
@@ -489,30 +543,36 @@ public class FigshareConnection {
                     try {
                     statusCode = urlConnection.getResponseCode();
                     } catch (IOException e) {
-                        LOG.log(Level.FINER, "call() response code IOException:"+e.getMessage());
+                        if (LOG.isLoggable(Level.FINER))
+                            LOG.log(Level.FINER, "call() response code IOException:"+e.getMessage());
                         retryable = true;
                     }
                     try {
                     statusMessage = urlConnection.getResponseMessage();
                     } catch (IOException e) {
-                        LOG.log(Level.FINER, "call() response message IOException:"+e.getMessage());
+                        if (LOG.isLoggable(Level.FINER))
+                            LOG.log(Level.FINER, "call() response message IOException:"+e.getMessage());
                         retryable = true;
                     }
-                    LOG.log(Level.FINER, "call() response code="+statusCode+" message="+statusMessage);
+                    if (LOG.isLoggable(Level.FINER))
+                        LOG.log(Level.FINER, "call() response code="+statusCode+" message="+statusMessage);
                     //urlConnection.disconnect();  // do not disconnect for keep-alive
                 }
+                latency.record(System.nanoTime() - started);
             }
             
             if (!retryable) break;
             if (thistry>1) {
-                LOG.log(Level.FINE, "call() retrying, sleeping, countdown="+thistry);
+                if (LOG.isLoggable(Level.FINE))
+                    LOG.log(Level.FINE, "call() retrying, sleeping, countdown="+thistry);
                 try {
                     Thread.sleep(500);
                 } catch (InterruptedException ex) {
                 }
             }
         }
-        LOG.log(Level.FINE, "call() return="+lastError);
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "call() return="+lastError);
         return lastError;
     }
     
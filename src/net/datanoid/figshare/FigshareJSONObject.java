@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.figshare;
+
+import java.util.List;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContainerFactory;
+
+/**
+ * A decoded JSON object that also keeps its original JSON text from the figshare response.
+ * <p>
+ * FigshareConnection decodes every object of a response as a FigshareJSONObject.
+ * The article objects of a response (the response itself, or each item of a returned
+ * array) also hold their slice of the response text, so it can be output as is
+ * rather than re-serialising the decoded form. Nested objects have no raw JSON.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class FigshareJSONObject extends JSONObject {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates FigshareJSONObject and JSONArray containers when parsing.
+     */
+    static final ContainerFactory CONTAINER_FACTORY = new ContainerFactory() {
+        @Override
+        public Map createObjectContainer() {
+            return new FigshareJSONObject();
+        }
+        @Override
+        public List creatArrayContainer() {
+            return new JSONArray();
+        }
+    };
+
+    private String rawJSON = null;
+
+    /**
+     * @return the original JSON text of this object, or null if not known.
+     */
+    public String getRawJSON() {
+        return rawJSON;
+    }
+
+    /**
+     * @param rawJSON the original JSON text of this object.
+     */
+    void setRawJSON(String rawJSON) {
+        this.rawJSON = rawJSON;
+    }
+
+    /**
+     * Set the raw JSON of each object item of a decoded array, from the text it was decoded from.
+     * The text is scanned once for the boundaries of the top level items.
+     * @param array array decoded from json.
+     * @param json JSON text of the array.
+     */
+    static void setRawJSON(JSONArray array, String json) {
+        int depth = 0;
+        int index = 0;
+        int start = -1;
+        boolean inString = false;
+        for (int i=0; i<json.length(); i++) {
+            char c = json.charAt(i);
+            if (inString) {
+                if (c == '\\')
+                    i++;
+                else if (c == '"')
+                    inString = false;
+                continue;
+            }
+            switch (c) {
+                case '"':
+                    inString = true;
+                    break;
+                case '{':
+                case '[':
+                    if ( (depth == 1) && (c == '{') )
+                        start = i;
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    depth--;
+                    if ( (depth == 1) && (c == '}') && (start >= 0) && (index < array.size()) ) {
+                        Object item = array.get(index);
+                        if (item instanceof FigshareJSONObject)
+                            ((FigshareJSONObject)item).rawJSON = json.substring(start, i+1);
+                        start = -1;
+                    }
+                    break;
+                case ',':
+                    if (depth == 1)
+                        index++;
+                    break;
+            }
+        }
+    }
+}
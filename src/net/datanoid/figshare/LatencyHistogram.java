@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.figshare;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of request latencies, for percentiles of the time figshare takes to respond.
+ * <p>
+ * Latencies are counted in microsecond buckets, 8 for each power of two, so a percentile
+ * is within about 6% of the true value. Recording is lock-free and takes no allocation,
+ * so every request of every connection can be recorded. Percentiles read while requests
+ * are recorded may miss the most recent ones.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class LatencyHistogram {
+
+    /** Buckets for each power of two, as a power of two. */
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray((64-SUB_BITS+1)*SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Constructor.
+     */
+    public LatencyHistogram() {
+    }
+
+    private static int bucket(long micros) {
+        if (micros < SUB_BUCKETS)
+            return (int)micros;
+        int msb = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = msb - SUB_BITS;
+        return (shift+1)*SUB_BUCKETS + (int)((micros >>> shift) & (SUB_BUCKETS-1));
+    }
+
+    /**
+     * @return the middle of the range of latencies counted in the bucket, in microseconds.
+     */
+    private static double bucketValue(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket/SUB_BUCKETS - 1;
+        long lower = (long)(SUB_BUCKETS + bucket%SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) - 1) / 2.0;
+    }
+
+    /**
+     * Count a request.
+     * @param nanos time the request took, in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000L);
+        buckets.incrementAndGet(bucket(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * @return number of requests counted.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @param percentile from 0 to 100, eg. 99 for the latency 99% of requests were faster than.
+     * @return the latency in milliseconds, 0 if nothing is counted.
+     */
+    public double getPercentileMillis(double percentile) {
+        long total = 0;
+        for (int i=0; i<buckets.length(); i++)
+            total += buckets.get(i);
+        if (total == 0)
+            return 0.0;
+        long rank = Math.max(1, (long)Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i=0; i<buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return Math.min(bucketValue(i), maxMicros.get()) / 1000.0;
+        }
+        return maxMicros.get() / 1000.0;
+    }
+
+    /**
+     * @return mean latency in milliseconds, 0 if nothing is counted.
+     */
+    public double getMeanMillis() {
+        long n = count.get();
+        if (n == 0)
+            return 0.0;
+        return totalMicros.get() / 1000.0 / n;
+    }
+
+    /**
+     * @return highest latency in milliseconds.
+     */
+    public double getMaxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+
+    /**
+     * Forget all requests counted, eg. at the start of a harvest.
+     */
+    public void reset() {
+        for (int i=0; i<buckets.length(); i++)
+            buckets.set(i, 0);
+        count.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count="+count.get()+String.format(" p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+                getPercentileMillis(50), getPercentileMillis(90), getPercentileMillis(99), getMaxMillis());
+    }
+}
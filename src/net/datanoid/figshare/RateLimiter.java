@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.figshare;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out figshare API requests to a maximum rate, shared by any number of
+ * connections and threads.
+ * <p>
+ * Each acquire() reserves the next free slot, one interval after the previous one,
+ * and sleeps until it arrives. Slots are not saved up while idle, so requests never
+ * burst above the configured rate.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class RateLimiter {
+
+    private final double permitsPerSecond;
+    private final long intervalNanos;
+    private long next;
+    private long acquired = 0;
+    private long waitedNanos = 0;
+
+    /**
+     * Constructor.
+     * @param permitsPerSecond maximum requests per second, greater than zero.
+     */
+    public RateLimiter(double permitsPerSecond) {
+        if (!(permitsPerSecond > 0))
+            throw new IllegalArgumentException("permitsPerSecond must be greater than zero: "+permitsPerSecond);
+        this.permitsPerSecond = permitsPerSecond;
+        this.intervalNanos = (long)(1e9 / permitsPerSecond);
+        this.next = System.nanoTime();
+    }
+
+    /**
+     * Wait until the next request is allowed.
+     * @exception InterruptedException interrupted while waiting, the slot is still used.
+     */
+    public void acquire() throws InterruptedException {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (next - now < 0)
+                next = now;
+            wait = next - now;
+            next += intervalNanos;
+            acquired++;
+            waitedNanos += wait;
+        }
+        if (wait > 0)
+            TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    /**
+     * @return maximum requests per second.
+     */
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * @return number of requests allowed so far.
+     */
+    public synchronized long getAcquired() {
+        return acquired;
+    }
+
+    /**
+     * @return total time requests have waited, in milliseconds.
+     */
+    public synchronized long getWaitedMillis() {
+        return waitedNanos / 1000000L;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "permitsPerSecond="+permitsPerSecond+" acquired="+acquired+" waited="+(waitedNanos/1000000L)+"ms";
+    }
+}
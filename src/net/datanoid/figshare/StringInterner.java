@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.figshare;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Bounded table of canonical String instances for low-cardinality figshare values.
+ * <p>
+ * Across a harvest the same license names and URLs, item type names, category titles,
+ * funder names and custom field names are decoded into fresh Strings for every article.
+ * After each JSON response is decoded, internArticle() swaps these known fields for a
+ * shared instance, so any cache of articles held in memory only keeps one copy.
+ * The parser has already allocated the duplicates by then, so this does not reduce
+ * allocation, it only lets the duplicates be collected while the articles are held.
+ * <p>
+ * The table stops growing once maxSize entries are held, after which unseen values are
+ * passed through unchanged. Lookups and hits are counted so the dedup rate can be reported.
+ * Safe for use by concurrent connections.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class StringInterner {
+
+    private final ConcurrentHashMap<String,String> table;
+    private final int maxSize;
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param maxSize maximum number of distinct values held.
+     */
+    public StringInterner(int maxSize) {
+        this.maxSize = maxSize;
+        this.table = new ConcurrentHashMap<String,String>(Math.min(maxSize, 1024));
+    }
+
+    /**
+     * Return the canonical instance equal to the given value.
+     * @param value value to intern, may be null.
+     * @return shared equal instance, or value itself if new or the table is full.
+     */
+    public String intern(String value) {
+        if (value == null)
+            return null;
+        lookups.incrementAndGet();
+        String shared = table.get(value);
+        if (shared != null) {
+            hits.incrementAndGet();
+            return shared;
+        }
+        if (table.size() >= maxSize)
+            return value;
+        shared = table.putIfAbsent(value, value);
+        if (shared != null) {
+            hits.incrementAndGet();
+            return shared;
+        }
+        return value;
+    }
+
+    /**
+     * Intern a String value held in a JSONObject, in place.
+     * @param jobj object holding the value, may be null.
+     * @param key key of the value.
+     */
+    private void internValue(JSONObject jobj, String key) {
+        if (jobj == null)
+            return;
+        Object value = jobj.get(key);
+        if (value instanceof String) {
+            String shared = intern((String)value);
+            if (shared != value)
+                jobj.put(key, shared);
+        }
+    }
+
+    /**
+     * Intern a String value of each object in a JSONArray, in place.
+     * @param jarray array of JSONObjects, may be null.
+     * @param key key of the value within each object.
+     */
+    private void internArrayValues(Object jarray, String key) {
+        if (!(jarray instanceof JSONArray))
+            return;
+        for (Object item: (JSONArray)jarray) {
+            if (item instanceof JSONObject)
+                internValue((JSONObject)item, key);
+        }
+    }
+
+    /**
+     * Intern the known low-cardinality fields of a figshare article, in place.
+     * Covers license.name, license.url, defined_type_name, categories[].title,
+     * funding_list[].funder_name and custom_fields[].name .
+     * @param article decoded figshare article or search result item.
+     */
+    public void internArticle(JSONObject article) {
+        if (article == null)
+            return;
+        internValue(article, "defined_type_name");
+        Object license = article.get("license");
+        if (license instanceof JSONObject) {
+            internValue((JSONObject)license, "name");
+            internValue((JSONObject)license, "url");
+        }
+        internArrayValues(article.get("categories"), "title");
+        internArrayValues(article.get("funding_list"), "funder_name");
+        internArrayValues(article.get("custom_fields"), "name");
+    }
+
+    /**
+     * @return number of distinct values held.
+     */
+    public int size() {
+        return table.size();
+    }
+
+    /**
+     * @return number of intern lookups performed.
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * @return number of lookups that returned an existing shared instance.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return fraction of lookups that were deduplicated, 0.0 if no lookups.
+     */
+    public double getHitRate() {
+        long l = lookups.get();
+        if (l == 0)
+            return 0.0;
+        return (double)hits.get() / l;
+    }
+
+    /**
+     * Remove all held values and reset the counters.
+     */
+    public void clear() {
+        table.clear();
+        lookups.set(0);
+        hits.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "size="+table.size()+"/"+maxSize+" lookups="+lookups.get()+" hits="+hits.get()
+                +" hitRate="+String.format("%.3f", getHitRate());
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+/**
+ * Immutable gazetteer of ISO3166 countries: names, alpha-2 and alpha-3 codes, and a
+ * representative longitude/latitude.
+ * <p>
+ * Loaded once from the resource files, on first use, by the class loader (holder idiom),
+ * so it is safe to use from any thread without locking. Lookups by alpha-2 code,
+ * alpha-3 code or country name are case insensitive, O(1) and do not allocate:
+ * all keys are held lowercased in one open-addressing hash table.
+ * <p>
+ * The countries with a point are also held in a k-d tree over their positions as
+ * unit vectors, so the nearest country to a longitude/latitude is found in O(log n)
+ * without allocating. Being based on one representative point per country, this is
+ * an approximation, intended for country level coverage of coordinates.
+ * <p>
+ * Resource files obtained from:
+ *  https://github.com/lukes/ISO-3166-Countries-with-Regional-Codes
+ *  Licensed under a Creative Commons Attribution-ShareAlike 4.0 International License.
+ *  https://github.com/eesur/country-codes-lat-long
+ *  MIT License, Copyright (c) 2022 Sundar Singh
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public final class CountryGazetteer {
+
+    private static final String ISO3166_RESOURCE = "resources/iso3166countries.json";
+    private static final String ISO3166_LATLONG_RESOURCE = "resources/iso3166country-codes-lat-long-alpha3.json";
+
+    private static final class Holder {
+        static final CountryGazetteer INSTANCE = load();
+    }
+
+    private final String[] names;
+    private final String[] alpha2;
+    private final String[] alpha3;
+    private final double[] longitude;
+    private final double[] latitude;
+    private final String[] keys;
+    private final int[] countries;
+    private final int mask;
+    // k-d tree: kdTree[lo..hi) has its node at the middle, split on axis depth%3
+    private final int[] kdTree;
+    private final double[][] unit;
+
+    private CountryGazetteer(String[] names, String[] alpha2, String[] alpha3,
+            double[] longitude, double[] latitude, HashMap<String,Integer> index) {
+        this.names = names;
+        this.alpha2 = alpha2;
+        this.alpha3 = alpha3;
+        this.longitude = longitude;
+        this.latitude = latitude;
+        // table at most half full, so probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(4, index.size()*2)-1) << 1;
+        this.keys = new String[capacity];
+        this.countries = new int[capacity];
+        this.mask = capacity-1;
+        for (Map.Entry<String,Integer> entry: index.entrySet()) {
+            String key = entry.getKey();
+            int slot = hash(key) & mask;
+            while (keys[slot] != null)
+                slot = (slot+1) & mask;
+            keys[slot] = key;
+            countries[slot] = entry.getValue();
+        }
+        // position of each country on the unit sphere, so distances are true at any latitude
+        unit = new double[3][names.length];
+        int points = 0;
+        for (int i=0; i<names.length; i++) {
+            if (!hasPoint(i))
+                continue;
+            toUnit(longitude[i], latitude[i], unit, i);
+            points++;
+        }
+        kdTree = new int[points];
+        points = 0;
+        for (int i=0; i<names.length; i++)
+            if (hasPoint(i))
+                kdTree[points++] = i;
+        buildTree(0, kdTree.length, 0);
+    }
+
+    /**
+     * Store the unit vector of a longitude/latitude.
+     */
+    private static void toUnit(double lon, double lat, double[][] unit, int i) {
+        double lambda = Math.toRadians(lon);
+        double phi = Math.toRadians(lat);
+        unit[0][i] = Math.cos(phi) * Math.cos(lambda);
+        unit[1][i] = Math.cos(phi) * Math.sin(lambda);
+        unit[2][i] = Math.sin(phi);
+    }
+
+    /**
+     * Arrange kdTree[lo..hi) so the median on the axis is in the middle,
+     * smaller before and larger after, then arrange each half on the next axis.
+     */
+    private void buildTree(int lo, int hi, int depth) {
+        if (hi-lo < 2)
+            return;
+        final double[] axis = unit[depth % 3];
+        Integer[] range = new Integer[hi-lo];
+        for (int i=lo; i<hi; i++)
+            range[i-lo] = kdTree[i];
+        Arrays.sort(range, (a, b) -> Double.compare(axis[a], axis[b]));
+        for (int i=lo; i<hi; i++)
+            kdTree[i] = range[i-lo];
+        int mid = (lo+hi) >>> 1;
+        buildTree(lo, mid, depth+1);
+        buildTree(mid+1, hi, depth+1);
+    }
+
+    /**
+     * @return the shared gazetteer, loaded on first use.
+     */
+    public static CountryGazetteer getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Case insensitive hash of a key, the same as the hash of its lowercase form.
+     */
+    private static int hash(CharSequence key) {
+        int h = 0;
+        for (int i=0; i<key.length(); i++)
+            h = 31*h + Character.toLowerCase(key.charAt(i));
+        // spread the bits, as the table is indexed by the low bits
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Find a country by alpha-2 code, alpha-3 code or name, ignoring case.
+     * @param key code or name, surrounding whitespace is not ignored.
+     * @return index of the country, or -1 if not found.
+     */
+    public int find(CharSequence key) {
+        if (key == null)
+            return -1;
+        int length = key.length();
+        int slot = hash(key) & mask;
+        String candidate;
+        while ((candidate = keys[slot]) != null) {
+            if (candidate.length() == length) {
+                int i = 0;
+                while ( (i < length) && (candidate.charAt(i) == Character.toLowerCase(key.charAt(i))) )
+                    i++;
+                if (i == length)
+                    return countries[slot];
+            }
+            slot = (slot+1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return number of countries.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param country index of the country.
+     * @return ISO3166 country name.
+     */
+    public String getName(int country) {
+        return names[country];
+    }
+
+    /**
+     * @param country index of the country.
+     * @return ISO3166 alpha-2 code.
+     */
+    public String getAlpha2(int country) {
+        return alpha2[country];
+    }
+
+    /**
+     * @param country index of the country.
+     * @return ISO3166 alpha-3 code.
+     */
+    public String getAlpha3(int country) {
+        return alpha3[country];
+    }
+
+    /**
+     * @param country index of the country.
+     * @return true if the country has a longitude and latitude.
+     */
+    public boolean hasPoint(int country) {
+        return !Double.isNaN(longitude[country]);
+    }
+
+    /**
+     * @param country index of the country.
+     * @return longitude of the country, or NaN if not known.
+     */
+    public double getLongitude(int country) {
+        return longitude[country];
+    }
+
+    /**
+     * @param country index of the country.
+     * @return latitude of the country, or NaN if not known.
+     */
+    public double getLatitude(int country) {
+        return latitude[country];
+    }
+
+    /**
+     * Find the country whose point is nearest to a longitude/latitude.
+     * @param lon longitude in degrees.
+     * @param lat latitude in degrees.
+     * @return index of the nearest country, or -1 if no country has a point.
+     */
+    public int nearestCountry(double lon, double lat) {
+        double lambda = Math.toRadians(lon);
+        double phi = Math.toRadians(lat);
+        double x = Math.cos(phi) * Math.cos(lambda);
+        double y = Math.cos(phi) * Math.sin(lambda);
+        double z = Math.sin(phi);
+        return nearest(0, kdTree.length, 0, x, y, z, -1, Double.MAX_VALUE);
+    }
+
+    /**
+     * Search kdTree[lo..hi) for a point nearer than the best so far.
+     * @return the nearest country found, or best if none is nearer.
+     */
+    private int nearest(int lo, int hi, int depth, double x, double y, double z, int best, double bestDistance) {
+        if (lo >= hi)
+            return best;
+        int mid = (lo+hi) >>> 1;
+        int country = kdTree[mid];
+        double distance = distanceSquared(country, x, y, z);
+        if (distance < bestDistance) {
+            best = country;
+            bestDistance = distance;
+        }
+        int axis = depth % 3;
+        double diff = ((axis == 0) ? x : (axis == 1) ? y : z) - unit[axis][country];
+        // search the side containing the point first, the other only if it could be nearer
+        int nearLo = (diff < 0) ? lo : mid+1;
+        int nearHi = (diff < 0) ? mid : hi;
+        int found = nearest(nearLo, nearHi, depth+1, x, y, z, best, bestDistance);
+        if (found != best) {
+            best = found;
+            bestDistance = distanceSquared(found, x, y, z);
+        }
+        if (diff*diff < bestDistance) {
+            int farLo = (diff < 0) ? mid+1 : lo;
+            int farHi = (diff < 0) ? hi : mid;
+            best = nearest(farLo, farHi, depth+1, x, y, z, best, bestDistance);
+        }
+        return best;
+    }
+
+    private double distanceSquared(int country, double x, double y, double z) {
+        double dx = unit[0][country]-x;
+        double dy = unit[1][country]-y;
+        double dz = unit[2][country]-z;
+        return dx*dx + dy*dy + dz*dz;
+    }
+
+    /**
+     * Parse a JSON array resource.
+     */
+    private static JSONArray loadArray(String resource) {
+        InputStream in = CountryGazetteer.class.getResourceAsStream(resource);
+        if (in == null)
+            throw new IllegalStateException("Cannot find resource "+resource);
+        try (InputStreamReader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            Object obj = new JSONParser().parse(reader);
+            if (!(obj instanceof JSONArray))
+                throw new IllegalStateException("Resource "+resource+" did not return JSON array.");
+            return (JSONArray)obj;
+        } catch (IOException | org.json.simple.parser.ParseException ex) {
+            throw new IllegalStateException("Cannot JSON parse resource "+resource, ex);
+        }
+    }
+
+    private static double toDouble(Object o) {
+        return (o instanceof Number) ? ((Number)o).doubleValue() : Double.NaN;
+    }
+
+    /**
+     * Load the countries from the resource files.
+     * Countries are joined by alpha-3 code, names from both files are indexed.
+     */
+    static CountryGazetteer load() {
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<String> alpha2 = new ArrayList<String>();
+        ArrayList<String> alpha3 = new ArrayList<String>();
+        HashMap<String,Integer> index = new HashMap<String,Integer>();
+        for (Object item: loadArray(ISO3166_RESOURCE)) {
+            if (!(item instanceof JSONObject))
+                continue;
+            JSONObject jitem = (JSONObject)item;
+            String name = (String)jitem.get("name");
+            String a2 = (String)jitem.get("alpha-2");
+            String a3 = (String)jitem.get("alpha-3");
+            if ( (name == null) || (a2 == null) || (a3 == null) )
+                continue;
+            int country = names.size();
+            names.add(name);
+            alpha2.add(a2.toUpperCase(Locale.ROOT));
+            alpha3.add(a3.toUpperCase(Locale.ROOT));
+            // keys as find() lowercases them, whatever the default locale
+            index.put(a2.toLowerCase(Locale.ROOT), country);
+            index.put(a3.toLowerCase(Locale.ROOT), country);
+            index.put(name.toLowerCase(Locale.ROOT), country);
+        }
+        double[] longitude = new double[names.size()];
+        double[] latitude = new double[names.size()];
+        Arrays.fill(longitude, Double.NaN);
+        Arrays.fill(latitude, Double.NaN);
+        for (Object item: loadArray(ISO3166_LATLONG_RESOURCE)) {
+            if (!(item instanceof JSONObject))
+                continue;
+            JSONObject jitem = (JSONObject)item;
+            String a3 = (String)jitem.get("alpha3");
+            Integer country = (a3 == null) ? null : index.get(a3.toLowerCase(Locale.ROOT));
+            if (country == null)
+                continue;
+            longitude[country] = toDouble(jitem.get("longitude"));
+            latitude[country] = toDouble(jitem.get("latitude"));
+            // alternative name, eg. "United Kingdom"
+            String name = (String)jitem.get("country");
+            if (name != null)
+                index.putIfAbsent(name.toLowerCase(Locale.ROOT), country);
+        }
+        return new CountryGazetteer(names.toArray(new String[names.size()]),
+                alpha2.toArray(new String[alpha2.size()]), alpha3.toArray(new String[alpha3.size()]),
+                longitude, latitude, index);
+    }
+}
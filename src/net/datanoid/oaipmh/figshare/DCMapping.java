@@ -0,0 +1,649 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * The Dublin Core mapping of a figshare article, shared by the DC based crosswalks.
+ * <p>
+ * Each crosswalk supplies its root element and namespace, the rest of the mapping
+ * is read from the properties with the crosswalk's property prefix, eg. for JSON2qdc
+ * <pre>
+ *   JSON2qdc.dcElementAddAttributes  extra attributes of the root element
+ *   JSON2qdc.filesFormat             format of each file, see FormatTemplate
+ *   JSON2qdc.customFields.Regex.N    custom field names matched by rule N
+ *   JSON2qdc.customFields.Format.N   format of the values of custom fields matching rule N
+ *   JSON2qdc.spatialFields.Regex.N   custom field names whose values are locations
+ *   JSON2qdc.spatialFormat           format of each resolved location, see FormatTemplate
+ *   JSON2qdc.spatialCountry          true to add the nearest country of bare coordinates
+ * </pre>
+ * Values of custom fields matching a spatialFields rule are parsed by GeospatialPoint
+ * and, when resolved, also output as a DCMI-Point, by default as dcterms:spatial.
+ * With spatialCountry, coordinates without a name are also output with the
+ * nearest country from the CountryGazetteer, found offline.
+ * The properties are compiled once into this mapping: the root element start tag,
+ * compiled Patterns and FormatTemplates. The mapping is immutable, apart from the
+ * thread-safe memos of custom field name to rule and of resolved locations, so one instance is shared by all
+ * threads using a crosswalk, and each crosswalk has its own configuration.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class DCMapping {
+
+    private static final Pattern DOI_PATTERN = Pattern.compile("10\\.\\d{4,9}/[-._;()/:a-zA-Z0-9]+");
+    private static final int customFieldsRuleMaxSize = 10000;
+    private static final int spatialMemoMaxSize = 10000;
+    private static final String DEFAULT_SPATIAL_FORMAT = "<dcterms:spatial xsi:type=\"dcterms:Point\">%VALUE_CDATA%</dcterms:spatial>";
+    private static final String[] UNRESOLVED = { "", null };
+
+    private final String propertyPrefix;
+    private final String rootElementStart;
+    private final String rootElementEnd;
+    private final List<Pattern> customFieldsRegex;
+    private final List<FormatTemplate> customFieldsFormat;
+    private final ConcurrentHashMap<String,Integer> customFieldsRule = new ConcurrentHashMap<String,Integer>();
+    private final FormatTemplate filesFormat;
+    private final List<Pattern> spatialFieldsRegex;
+    private final ConcurrentHashMap<String,Boolean> spatialFieldsRule = new ConcurrentHashMap<String,Boolean>();
+    private final FormatTemplate spatialFormat;
+    /**
+     * DCMI-Point of each distinct location value, or "" if it could not be resolved.
+     * Kept by each mapping, as it depends on the gazetteers configured when compiled.
+     */
+    private final ConcurrentHashMap<String,String[]> spatialMemo = new ConcurrentHashMap<String,String[]>();
+    private final boolean spatialCountry;
+
+    /**
+     * Compile the mapping for a crosswalk.
+     *
+     * @param properties properties containing the mapping configuration.
+     * @param propertyPrefix prefix of the crosswalk's properties, eg. JSON2qdc
+     * @param rootElement qualified name of the root element, eg. qdc:qualifieddc
+     * @param rootNamespace namespace URI of the root element's prefix.
+     * @param schemaLocation schemaLocation of the crosswalk.
+     * @exception IllegalArgumentException a customFields.Regex or spatialFields.Regex is not a valid regular expression.
+     */
+    public DCMapping(Properties properties, String propertyPrefix, String rootElement,
+            String rootNamespace, String schemaLocation) {
+        this.propertyPrefix = propertyPrefix;
+        ArrayList<Pattern> regexes = new ArrayList<Pattern>();
+        ArrayList<FormatTemplate> formats = new ArrayList<FormatTemplate>();
+        for (int i=1; i<100; i++) {
+            String regex = properties.getProperty(propertyPrefix+".customFields.Regex."+i);
+            String format = properties.getProperty(propertyPrefix+".customFields.Format."+i);
+            if ((regex==null) && (format==null)) break;
+            if ((regex!=null) && (format!=null)) {
+                try {
+                    regexes.add(Pattern.compile(regex));
+                } catch (PatternSyntaxException ex) {
+                    throw new IllegalArgumentException(propertyPrefix+".customFields.Regex."+i+" is not a valid regular expression: "+ex.getMessage());
+                }
+                formats.add(FormatTemplate.compile(format));
+            }
+        }
+        customFieldsRegex = Collections.unmodifiableList(regexes);
+        customFieldsFormat = Collections.unmodifiableList(formats);
+        regexes = new ArrayList<Pattern>();
+        for (int i=1; i<100; i++) {
+            String regex = properties.getProperty(propertyPrefix+".spatialFields.Regex."+i);
+            if (regex==null) break;
+            try {
+                regexes.add(Pattern.compile(regex));
+            } catch (PatternSyntaxException ex) {
+                throw new IllegalArgumentException(propertyPrefix+".spatialFields.Regex."+i+" is not a valid regular expression: "+ex.getMessage());
+            }
+        }
+        spatialFieldsRegex = Collections.unmodifiableList(regexes);
+        String spatialformat = properties.getProperty(propertyPrefix+".spatialFormat");
+        if ( (spatialformat==null) || (spatialformat.trim().length()==0) )
+            spatialformat = DEFAULT_SPATIAL_FORMAT;
+        spatialFormat = FormatTemplate.compile(spatialformat);
+        if (!spatialFieldsRegex.isEmpty())
+            GeospatialPoint.configure(properties);
+        spatialCountry = Boolean.parseBoolean(properties.getProperty(propertyPrefix+".spatialCountry", "false").trim());
+        String dcElementAddAttributes = properties.getProperty(propertyPrefix+".dcElementAddAttributes");
+        if ( (dcElementAddAttributes==null) || (dcElementAddAttributes.trim().length()==0) )
+            dcElementAddAttributes = "";
+        String filesformat = properties.getProperty(propertyPrefix+".filesFormat");
+        if ( (filesformat!=null) && (filesformat.trim().length()==0) )
+            filesformat = null;
+        filesFormat = (filesformat==null) ? null : FormatTemplate.compile(filesformat);
+        // the root element start tag is the same for every record
+        String prefix = rootElement.substring(0, Math.max(0, rootElement.indexOf(':')));
+        rootElementStart = "<"+rootElement+" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" "
+                + "xmlns:dc=\"http://purl.org/dc/elements/1.1/\" "
+                + "xmlns:dcterms=\"http://purl.org/dc/terms/\" "
+                + "xmlns:"+prefix+"=\""+rootNamespace+"\" "
+                + "xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" "
+                + "xsi:schemaLocation=\"" + schemaLocation + "\" "
+                + dcElementAddAttributes + ">\n";
+        rootElementEnd = "</"+rootElement+">";
+    }
+
+    /**
+     * @return prefix of the properties this mapping was read from.
+     */
+    public String getPropertyPrefix() {
+        return propertyPrefix;
+    }
+
+    /**
+     * Find the first customFields rule whose Regex matches the custom field name.
+     * Custom field names repeat across the repository, so the decision is
+     * remembered for each distinct name (up to customFieldsRuleMaxSize names).
+     * @param name custom field name.
+     * @return index of the matching rule, or -1 if no rule matches.
+     */
+    private int findCustomFieldRule(String name) {
+        if (name==null) return -1;
+        Integer rule = customFieldsRule.get(name);
+        if (rule != null)
+            return rule;
+        int found = -1;
+        for (int i=0; i<customFieldsRegex.size(); i++) {
+            if (customFieldsRegex.get(i).matcher(name).matches()) {
+                found = i;
+                break;
+            }
+        }
+        if (customFieldsRule.size() < customFieldsRuleMaxSize)
+            customFieldsRule.put(name, found);
+        return found;
+    }
+
+    /**
+     * Check if any spatialFields rule matches the custom field name.
+     * The decision is remembered for each distinct name, as for customFields rules.
+     * @param name custom field name.
+     * @return true if the values of the custom field are locations.
+     */
+    private boolean isSpatialField(String name) {
+        if ( (name==null) || (spatialFieldsRegex.isEmpty()) ) return false;
+        Boolean rule = spatialFieldsRule.get(name);
+        if (rule != null)
+            return rule;
+        boolean found = false;
+        for (Pattern regex: spatialFieldsRegex) {
+            if (regex.matcher(name).matches()) {
+                found = true;
+                break;
+            }
+        }
+        if (spatialFieldsRule.size() < customFieldsRuleMaxSize)
+            spatialFieldsRule.put(name, found);
+        return found;
+    }
+
+    /**
+     * Resolve a location value to a DCMI-Point, eg. "name=Poland; east=20.0; north=52.0",
+     * and for bare coordinates, the DCMI-Point of the nearest country.
+     * The same locations repeat across many articles, so the result for each distinct
+     * value, including failure, is remembered (up to spatialMemoMaxSize values).
+     * @param value location value of a custom field.
+     * @return shared array of the DCMI-Point encoding, or "" if the location could not be resolved,
+     *  and the nearest country's DCMI-Point, or null if the location is named. Not to be modified.
+     */
+    String[] resolveSpatial(String value) {
+        String[] resolved = spatialMemo.get(value);
+        if (resolved != null)
+            return resolved;
+        try {
+            GeospatialPoint point = GeospatialPoint.parse(value);
+            String country = null;
+            if (point.location == null) {
+                CountryGazetteer gazetteer = CountryGazetteer.getInstance();
+                int nearest = gazetteer.nearestCountry(point.longitude, point.latitude);
+                if (nearest >= 0)
+                    country = new GeospatialPoint(gazetteer.getName(nearest),
+                            gazetteer.getLongitude(nearest), gazetteer.getLatitude(nearest)).toString();
+            }
+            resolved = new String[] { point.toString(), country };
+        } catch (ParseException ex) {
+            resolved = UNRESOLVED;
+        }
+        if (spatialMemo.size() < spatialMemoMaxSize)
+            spatialMemo.put(value, resolved);
+        return resolved;
+    }
+
+    /**
+     * Within a shared core scope, the DC core elements of an article are computed once
+     * and reused by every DCMapping writing the same article instance on this thread.
+     */
+    private static final class SharedCore {
+        Object item = null;
+        String core = null;
+    }
+    private static final ThreadLocal<SharedCore> sharedCore = new ThreadLocal<SharedCore>();
+
+    /**
+     * Begin a scope on the current thread within which the DC core elements of an article
+     * (everything except files and custom fields, which are configured per mapping)
+     * are only computed once, eg. while rendering one article in several formats.
+     * Must be followed by endSharedCore() in a finally block.
+     */
+    public static void beginSharedCore() {
+        sharedCore.set(new SharedCore());
+    }
+
+    /**
+     * End the shared core scope of the current thread.
+     */
+    public static void endSharedCore() {
+        sharedCore.remove();
+    }
+
+    /**
+     * Write the DC record of a figshare article.
+     *
+     * @param jitem figshare article details.
+     * @param out destination of the XML.
+     * @exception IOException the destination could not be written.
+     */
+    public void write(JSONObject jitem, Appendable out) throws IOException {
+        out.append(rootElementStart);
+        SharedCore shared = sharedCore.get();
+        if (shared == null) {
+            writeCore(jitem, out);
+        } else {
+            if (shared.item != jitem) {
+                StringBuilder sb = new StringBuilder(4096);
+                writeCore(jitem, sb);
+                shared.core = sb.toString();
+                shared.item = jitem;
+            }
+            out.append(shared.core);
+        }
+        writeCustom(jitem, out);
+        out.append(rootElementEnd);
+    }
+
+    /**
+     * Write the DC core elements, which do not depend on the mapping configuration.
+     *
+     * @param jitem figshare article details.
+     * @param out destination of the XML.
+     * @exception IOException the destination could not be written.
+     */
+    private static void writeCore(JSONObject jitem, Appendable out) throws IOException {
+        // Output the title
+        out.append("<dc:title>");
+        Utils.XML_cdata_escape(out, jitem.get("title"));
+        out.append("</dc:title>\n");
+        // Output a DOI & DOI URL, and/or a Handle URI, or a figshare URI
+        String uri = null;
+        String doi = (String)jitem.get("doi");
+        if ( (doi != null) && (doi.length()>0) ) {
+            if (!doi.startsWith("http"))
+                doi = "https://doi.org/"+doi;
+            // NOTE: The DOI identifier is a URI, as per DC recommendations.
+            // 2005 citation guidelines indicate "info:doi/10.1045/july99-caplan"
+            // URL links are far more useful (opinion).
+            // Does not follow figshare's OAI-PMH implementation which does neither "10.1045/july99-caplan"
+            out.append("<dc:identifier xsi:type=\"dcterms:URI\">");
+            out.append( doi );
+            out.append("</dc:identifier>\n");
+            uri = doi;
+        }
+        String hdl = (String)jitem.get("handle");
+        if ( (hdl != null) && (hdl.length()>0) ) {
+            if (!hdl.startsWith("http"))
+                hdl = "https://hdl.handle.net/"+hdl;
+            out.append("<dc:identifier xsi:type=\"dcterms:URI\">");
+            out.append( hdl );
+            out.append("</dc:identifier>\n");
+            if (uri==null)
+                uri = hdl;
+        }
+        String figshareurl = (String) jitem.get("url_public_html");
+        if (uri==null) {
+            // if no DOI or Handle, use the figshare URL as identifier
+            out.append("<dc:identifier xsi:type=\"dcterms:URI\">");
+            out.append( figshareurl );
+            out.append("</dc:identifier>\n");
+        }
+        // Make the output compatible to figshare's OAI-PMH output
+        out.append("<!-- figshare link -->\n<dc:relation xsi:type=\"dcterms:URI\">");
+        out.append( figshareurl );
+        out.append("</dc:relation>\n");
+        // Get the most recent update datetime
+        String datetime = JSONRecordFactory.calcDatestamp(jitem);
+        if (datetime != null) {
+            out.append("<dc:date>");
+            out.append( datetime );
+            out.append("</dc:date>\n");
+        }
+        // Get the earliest online time timeline.firstOnline
+        JSONObject jtimeline = (JSONObject) jitem.get("timeline");
+        if (jtimeline != null) {
+            String firstonline = (String)jtimeline.get("firstOnline");
+            if ( (firstonline!=null) && (firstonline.length()>0) ) {
+                // if date+time format, ensure ends with a Z
+                if ( (firstonline.length()>10) && (!firstonline.endsWith("Z")) )
+                    firstonline = firstonline + "Z";
+                out.append("<!-- firstOnline -->\n<dcterms:issued>");
+                out.append( firstonline );
+                out.append("</dcterms:issued>\n");
+            }
+        }
+        // Get the available embargo_date time, if embargoed
+        Boolean is_embargoed = (Boolean)jitem.get("is_embargoed");
+        if (is_embargoed) {
+            String emb = (String) jitem.get("embargo_date");
+            if ( (emb!=null) && (emb.length()>0) ) {
+                // if date+time format, ensure ends with a Z
+                if ( (emb.length()>10) && (!emb.endsWith("Z")) )
+                    emb = emb + "Z";
+                out.append("<!-- Embargoed until -->\n<dcterms:available>");
+                out.append( emb );
+                out.append("</dcterms:available>\n");
+            } else {
+                out.append("<!-- Embargoed indefinitely, restricted access -->\n");
+            }
+        }
+        // Get the description, which can include HTML markup
+        if (jitem.get("description") != null) {
+            out.append("<dc:description>");
+            Utils.XML_cdata_escape(out, jitem.get("description"));
+            out.append("</dc:description>\n");
+        }
+        // Citation
+        out.append("<dcterms:bibliographicCitation>");
+        Utils.XML_cdata_escape(out, jitem.get("citation"));
+        out.append("</dcterms:bibliographicCitation>\n");
+        // type - defined_type_name
+        // Make output compatible with figshare's OAI-PMH, do the DC defined first, figshare defined second
+        String typename = (String) jitem.get("defined_type_name");
+        String dctype = null;
+        switch (typename.toLowerCase()) {
+            case "dataset":
+                dctype="Dataset";
+                break;
+            case "collection":
+                dctype="Collection";
+                break;
+            case "performance":
+            case "event":
+                dctype="Event";
+                break;
+            case "figure":
+            case "composition":
+                dctype="Image";
+                break;
+            case "media":
+                dctype="Moving Image";
+                break;
+            case "physical object":
+                dctype="Physical Object";
+                break;
+            case "service":
+                dctype="Service";
+                break;
+            case "software":
+                dctype="Software";
+                break;
+            case "poster":
+            case "journal contribution":
+            case "conference contribution":
+            case "preprint":
+            case "presentation":
+            case "thesis":
+            case "book":
+            case "online resource":
+            case "chapter":
+            case "peer review":
+            case "educational resource":
+            case "report":
+            case "standard":
+            case "data management plan":
+            case "workflow":
+            case "monograph":
+            case "model":
+            case "registration":
+            case "funding":
+            default:
+                dctype="Text";
+                break;
+        }
+        out.append("<dc:type xsi:type=\"dcterms:DCMIType\">");
+        out.append( dctype );
+        out.append("</dc:type>\n");
+        if (!dctype.equalsIgnoreCase(typename)) {
+            out.append("<dc:type xsi:type=\"figshare:types\">");
+            out.append( typename );
+            out.append("</dc:type>\n");
+        }
+        // IsReferencedBy - resource_title: resource_doi: "10.5072/FK2.developmentfigshare.2000005"
+        String refby_title = (String) jitem.get("resource_title");
+        if ( (refby_title!=null) && (refby_title.length()>0) )  {
+            out.append("<!-- Resource Title in figshare -->\n<dcterms:isReferencedBy>");
+            Utils.XML_cdata_escape(out, refby_title);
+            out.append("</dcterms:isReferencedBy>\n");
+        }
+        String refby_doi = (String) jitem.get("resource_doi");
+        if ( (refby_doi!=null) && (refby_doi.length()>0) )  {
+            if (!refby_doi.startsWith("http"))
+                refby_doi = "https://doi.org/"+refby_doi;
+            out.append("<!-- Resource DOI in figshare -->\n<dcterms:isReferencedBy  xsi:type=\"dcterms:URI\">");
+            out.append( refby_doi );
+            out.append("</dcterms:isReferencedBy>\n");
+        }
+        // rights - license.name license.url
+        JSONObject license = (JSONObject) jitem.get("license");
+        if (license!=null) {
+            out.append("<dc:rights>");
+            Utils.XML_cdata_escape(out, license.get("name"));
+            out.append("</dc:rights>\n");
+            out.append("<dc:rights xsi:type=\"dcterms:URI\">");
+            Utils.XML_text_escape(out, license.get("url"));
+            out.append("</dc:rights>\n");
+        }
+        // creator - authors[]{}
+        JSONArray authors = (JSONArray) jitem.get("authors");
+        if (authors != null)
+            for (Object item: authors) {
+                JSONObject author = (JSONObject)item;
+                String authstr = (String)author.get("full_name");
+                String orcid = (String)author.get("orcid_id");
+                Long aid = (Long)author.get("id");
+                // Determine a person URI (ORCID or figshare profile), so we can link elements
+                String personuri = null;
+                if ( (orcid!=null) && (orcid.length()>0) ) {
+                    if (!orcid.startsWith("http"))
+                        orcid = "https://orcid.org/"+orcid;
+                    personuri = orcid;
+                } else if ( (aid!=null) && (aid>0) ) {
+                    Boolean active = (Boolean)author.get("is_active");
+                    if (active)
+                        personuri = "https://figshare.com/authors/_/"+aid;
+                }
+                String rdflink = "";
+                if (personuri!=null)
+                    rdflink = " rdf:resource=\""+personuri+"\"";
+                // Make "creator" name compatible with figshare's OAI-PMH by adding figshare id
+                if ( (aid!=null) && (aid>0) ) {
+                    authstr = authstr + " ("+aid+")";
+                }
+                out.append("<dc:creator");
+                out.append( rdflink );
+                out.append(">");
+                Utils.XML_cdata_escape(out, authstr);
+                out.append("</dc:creator>\n");
+                // Add the creator link
+                if (personuri!=null) {
+                    out.append("<dcterms:creator refines=\"dc:creator\" xsi:type=\"dcterms:URI\"");
+                    out.append( rdflink );
+                    out.append(">");
+                    out.append( personuri );
+                    out.append("</dcterms:creator>\n");
+                }
+            }
+        // DC.subject - categories[]{}.title
+        JSONArray categories = (JSONArray) jitem.get("categories");
+        if (categories != null)
+            for (Object item: categories) {
+                JSONObject cat = (JSONObject)item;
+                String title = (String)cat.get("title");
+                out.append("<dc:subject xsi:type=\"figshare:categories\">");
+                Utils.XML_cdata_escape(out, title);
+                out.append("</dc:subject>\n");
+            }
+        // DC.subject - tags[]
+        JSONArray tags = (JSONArray) jitem.get("tags");
+        if (tags != null)
+            for (Object item: tags) {
+                String tag = (String)item;
+                out.append("<dc:subject xsi:type=\"figshare:tags\">");
+                Utils.XML_cdata_escape(out, tag);
+                out.append("</dc:subject>\n");
+            }
+        // DCTERMS.references - references[]
+        JSONArray refs = (JSONArray) jitem.get("references");
+        if (refs != null)
+            for (Object item: refs) {
+                String ref = (String)item;
+                // Make output compatible with figshare's OAI-PMH, add figshare id
+                if ( (ref!=null) && (ref.length()>0) ) {
+                    if (DOI_PATTERN.matcher(ref).matches())
+                        ref = "https://doi.org/"+ref;
+                    out.append("<dcterms:references");
+                    if (ref.startsWith("http"))
+                        out.append(" xsi:type=\"dcterms:URI\"");
+                    out.append(">");
+                    Utils.XML_cdata_escape(out, ref);
+                    out.append("</dcterms:references>\n");
+                }
+            }
+        // Description.funding - funding_list[]{} .title .funder_name
+        JSONArray funding_list = (JSONArray) jitem.get("funding_list");
+        if ( (funding_list != null) && (funding_list.size()>0) ) {
+            out.append("<!-- funding_list in figshare -->\n");
+            for (Object item: funding_list) {
+                JSONObject fund = (JSONObject)item;
+                String title = (String)fund.get("title");
+                String funder = (String)fund.get("funder_name");
+                String code = (String)fund.get("grant_code");
+                String fundingstr = title; // user defined just has title
+                if ((code!=null) && (code.length()>0))
+                    fundingstr = fundingstr + " (" + code + ")";
+                if ((funder!=null) && (funder.length()>0))
+                    fundingstr = fundingstr + ", funded by " + funder;
+                //out.append("<dcterms:isPartOf>");
+                out.append("<dc:description.funding>");
+                Utils.XML_cdata_escape(out, fundingstr);
+                //out.append("</dcterms:isPartOf>\n");
+                out.append("</dc:description.funding>\n");
+            }
+        }
+    }
+
+    /**
+     * Write the files and custom fields, as configured for this mapping.
+     *
+     * @param jitem figshare article details.
+     * @param out destination of the XML.
+     * @exception IOException the destination could not be written.
+     */
+    private void writeCustom(JSONObject jitem, Appendable out) throws IOException {
+        // filesFormat - files[]{} .name .download_url .computed_md5
+        // NOTE: Left completely flexible, figshare's OAI-PMH implementation seems lacking.
+        if (filesFormat!=null) {
+            JSONArray files = (JSONArray) jitem.get("files");
+            if ( (files != null) && (files.size()>0) ) {
+                out.append("<!-- files in figshare -->\n");
+                for (Object item: files) {
+                    JSONObject file = (JSONObject)item;
+                    String fname = (String)file.get("name");
+                    String md5 = (String)file.get("computed_md5");
+                    String downl = (String)file.get("download_url");
+                    if ( (downl!=null) && (downl.length()>0) ) {
+                        filesFormat.render(out,fname,downl,md5);
+                        out.append("\n");
+                    }
+                }
+            }
+        }
+        // customFieldsFormat - custom_fields[]{} .name .value=(String/[])
+        if ( (customFieldsRegex.size() > 0) || (spatialFieldsRegex.size() > 0) ) {
+            JSONArray custom_fields = (JSONArray) jitem.get("custom_fields");
+            if ( (custom_fields != null) && (custom_fields.size()>0) ) {
+                out.append("<!-- custom_fields in figshare -->\n");
+                for (Object item: custom_fields) {
+                    JSONObject custom = (JSONObject)item;
+                    String name = (String)custom.get("name");
+                    int rule = findCustomFieldRule(name);
+                    boolean spatial = isSpatialField(name);
+                    if ( (rule < 0) && (!spatial) )
+                        continue;
+                    Object values = custom.get("value");
+                    if (!(values instanceof JSONArray)) {
+                        // if a single value, add it to an array to simplify
+                        JSONArray val = new JSONArray();
+                        val.add(values);
+                        values = val;
+                    }
+                    if (rule >= 0) {
+                        FormatTemplate format = customFieldsFormat.get(rule);
+                        for (Object val: (JSONArray)values) {
+                            String valstr = val.toString();
+                            format.render(out,name,valstr,null);
+                            out.append("\n");
+                        }
+                    }
+                    if (spatial) {
+                        // the location as a DCMI-Point, the original value as %VALUE2%
+                        for (Object val: (JSONArray)values) {
+                            if (val == null)
+                                continue;
+                            String valstr = val.toString();
+                            String[] resolved = resolveSpatial(valstr);
+                            if (resolved[0].length() > 0) {
+                                spatialFormat.render(out,name,resolved[0],valstr);
+                                out.append("\n");
+                            }
+                            if ( spatialCountry && (resolved[1] != null) ) {
+                                spatialFormat.render(out,name,resolved[1],valstr);
+                                out.append("\n");
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Extract XML elements from a record, eg. the metadata payload within the OAI wrappers,
+ * as requested by -get-xml-element.
+ * <p>
+ * Elements are named "prefix:local", matched by namespace where the prefix is declared
+ * in the record, so another prefix for the same namespace also matches, or "{uri}local".
+ * Several elements can be given, separated by commas. The record is read by a small
+ * namespace-aware pull scanner: start and end tags are matched by name, and comments,
+ * CDATA sections and processing instructions are skipped, so "dc:date" never matches
+ * "dc:dateX", nor an element inside a comment or CDATA section.
+ * <p>
+ * Each matching element is copied from the record exactly as written, so the output is
+ * the same as a substring of the record. Elements nested within a matching element are
+ * copied with it. For the contents of an element, contents made only of CDATA sections
+ * are decoded, as the crosswalks use CDATA to escape text. Several matching elements are
+ * output in record order, contents separated by newlines.
+ * <p>
+ * The scanner works on any CharSequence, eg. the StringBuilder the record is written to,
+ * and appends the output straight to the destination, so nothing is copied but the
+ * output. DTDs and entity declarations are not supported, as the crosswalks output none.
+ * Instances are immutable and safe to share between threads.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class ElementExtractor {
+
+    private final String[] prefixes;
+    private final String[] localNames;
+    private final String[] namespaces;
+    private final boolean contents;
+    private final String elements;
+
+    /**
+     * Open elements and namespace declarations of a scan, kept by each thread for reuse.
+     */
+    private static final class State {
+        int[] nameStart = new int[32];
+        int[] nameEnd = new int[32];
+        int[] nsMark = new int[32];
+        final ArrayList<String> nsPrefix = new ArrayList<String>();
+        final ArrayList<String> nsUri = new ArrayList<String>();
+
+        void reset() {
+            nsPrefix.clear();
+            nsUri.clear();
+        }
+
+        /** Open an element, at depth from 1. */
+        void push(int depth, int start, int end) {
+            if (depth >= nameStart.length) {
+                nameStart = Arrays.copyOf(nameStart, depth*2);
+                nameEnd = Arrays.copyOf(nameEnd, depth*2);
+                nsMark = Arrays.copyOf(nsMark, depth*2);
+            }
+            nameStart[depth] = start;
+            nameEnd[depth] = end;
+            nsMark[depth] = nsPrefix.size();
+        }
+
+        /** Close the element at depth, forgetting its namespace declarations. */
+        void pop(int depth) {
+            for (int i=nsPrefix.size()-1; i>=nsMark[depth]; i--) {
+                nsPrefix.remove(i);
+                nsUri.remove(i);
+            }
+        }
+
+        /** @return the namespace of the prefix in the document from start to end, or null if undeclared. */
+        String resolve(CharSequence doc, int start, int end) {
+            for (int i=nsPrefix.size()-1; i>=0; i--) {
+                if (regionEquals(doc, start, end, nsPrefix.get(i)))
+                    return nsUri.get(i);
+            }
+            return null;
+        }
+
+        /** @return the namespace of the prefix, or null if undeclared. */
+        String resolve(String prefix) {
+            for (int i=nsPrefix.size()-1; i>=0; i--) {
+                if (nsPrefix.get(i).equals(prefix))
+                    return nsUri.get(i);
+            }
+            return null;
+        }
+    }
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    /**
+     * Constructor.
+     * @param elements names "prefix:local" or "{uri}local", separated by commas.
+     * @param contents true to extract the contents of the elements, without their tags.
+     */
+    public ElementExtractor(String elements, boolean contents) {
+        ArrayList<String[]> names = new ArrayList<String[]>();
+        for (String name: elements.split(",")) {
+            name = name.trim();
+            if (name.length() == 0)
+                continue;
+            if (name.startsWith("{")) {
+                int close = name.indexOf('}');
+                if ( (close < 0) || (close == name.length()-1) )
+                    throw new IllegalArgumentException("Invalid element name: "+name);
+                names.add(new String[] {null, name.substring(close+1), name.substring(1, close)});
+            } else {
+                int colon = name.indexOf(':');
+                if (colon == name.length()-1)
+                    throw new IllegalArgumentException("Invalid element name: "+name);
+                names.add(new String[] {(colon < 0) ? "" : name.substring(0, colon), name.substring(colon+1), null});
+            }
+        }
+        if (names.isEmpty())
+            throw new IllegalArgumentException("No element name given: "+elements);
+        prefixes = new String[names.size()];
+        localNames = new String[names.size()];
+        namespaces = new String[names.size()];
+        for (int i=0; i<names.size(); i++) {
+            prefixes[i] = names.get(i)[0];
+            localNames[i] = names.get(i)[1];
+            namespaces[i] = names.get(i)[2];
+        }
+        this.contents = contents;
+        this.elements = elements;
+    }
+
+    /**
+     * Append the matching elements, or their contents, to the destination.
+     * @param doc the record.
+     * @param out destination of the extracted XML.
+     * @return true if an element matched, false if none did and nothing was appended.
+     * @exception IOException the destination could not be written, or the record is not well-formed.
+     */
+    public boolean extract(CharSequence doc, Appendable out) throws IOException {
+        State state = STATE.get();
+        state.reset();
+        int len = doc.length();
+        int pos = 0;
+        int depth = 0;
+        int found = 0;
+        // the element being extracted, at matchDepth, or -1
+        int matchDepth = -1;
+        int matchStart = 0;
+        int contentStart = 0;
+        boolean cdataOnly = false;
+        boolean sawCdata = false;
+        while (true) {
+            int lt = indexOf(doc, '<', pos);
+            if (lt < 0)
+                break;
+            boolean direct = (matchDepth >= 0) && (depth == matchDepth);
+            if (direct && (lt > pos))
+                cdataOnly = false;
+            if (startsWith(doc, lt, "<!--")) {
+                pos = indexOf(doc, "-->", lt+4, "comment")+3;
+                if (direct)
+                    cdataOnly = false;
+                continue;
+            }
+            if (startsWith(doc, lt, "<![CDATA[")) {
+                pos = indexOf(doc, "]]>", lt+9, "CDATA section")+3;
+                if (direct)
+                    sawCdata = true;
+                continue;
+            }
+            if (startsWith(doc, lt, "<?")) {
+                pos = indexOf(doc, "?>", lt+2, "processing instruction")+2;
+                if (direct)
+                    cdataOnly = false;
+                continue;
+            }
+            if (startsWith(doc, lt, "<!")) {
+                // a DOCTYPE, skipped with any internal subset
+                if (depth > 0)
+                    throw malformed(lt, "markup declaration within an element");
+                int brackets = 0;
+                int p = lt+2;
+                for (; p<len; p++) {
+                    char c = doc.charAt(p);
+                    if (c == '[') brackets++;
+                    else if (c == ']') brackets--;
+                    else if ( (c == '>') && (brackets == 0) ) break;
+                }
+                if (p >= len)
+                    throw malformed(lt, "unterminated declaration");
+                pos = p+1;
+                continue;
+            }
+            if ( (lt+1 < len) && (doc.charAt(lt+1) == '/') ) {
+                int nameStart = lt+2;
+                int nameEnd = nameEnd(doc, nameStart);
+                int gt = skipSpace(doc, nameEnd);
+                if ( (gt >= len) || (doc.charAt(gt) != '>') )
+                    throw malformed(lt, "unterminated end tag");
+                if ( (depth == 0) || !regionEquals(doc, state.nameStart[depth], state.nameEnd[depth], doc, nameStart, nameEnd) )
+                    throw malformed(lt, "end tag does not match the start tag");
+                if (depth == matchDepth) {
+                    emit(doc, out, matchStart, contentStart, lt, gt+1, cdataOnly && sawCdata, found++);
+                    matchDepth = -1;
+                }
+                state.pop(depth);
+                depth--;
+                pos = gt+1;
+                continue;
+            }
+            // a start tag, with its namespace declarations
+            int nameStart = lt+1;
+            int nameEnd = nameEnd(doc, nameStart);
+            if (nameEnd == nameStart)
+                throw malformed(lt, "invalid tag");
+            if (direct)
+                cdataOnly = false;
+            depth++;
+            state.push(depth, nameStart, nameEnd);
+            boolean empty = false;
+            int p = nameEnd;
+            while (true) {
+                p = skipSpace(doc, p);
+                if (p >= len)
+                    throw malformed(lt, "unterminated start tag");
+                char c = doc.charAt(p);
+                if (c == '>') {
+                    p++;
+                    break;
+                }
+                if ( (c == '/') && (p+1 < len) && (doc.charAt(p+1) == '>') ) {
+                    empty = true;
+                    p += 2;
+                    break;
+                }
+                int attrStart = p;
+                int attrEnd = nameEnd(doc, attrStart);
+                p = skipSpace(doc, attrEnd);
+                if ( (attrEnd == attrStart) || (p >= len) || (doc.charAt(p) != '=') )
+                    throw malformed(attrStart, "invalid attribute");
+                p = skipSpace(doc, p+1);
+                if ( (p >= len) || ((doc.charAt(p) != '"') && (doc.charAt(p) != '\'')) )
+                    throw malformed(attrStart, "unquoted attribute value");
+                int valueEnd = indexOf(doc, doc.charAt(p), p+1);
+                if (valueEnd < 0)
+                    throw malformed(attrStart, "unterminated attribute value");
+                if (regionStartsWith(doc, attrStart, attrEnd, "xmlns")) {
+                    if (attrEnd == attrStart+5) {
+                        state.nsPrefix.add("");
+                        state.nsUri.add(doc.subSequence(p+1, valueEnd).toString());
+                    } else if (doc.charAt(attrStart+5) == ':') {
+                        state.nsPrefix.add(doc.subSequence(attrStart+6, attrEnd).toString());
+                        state.nsUri.add(doc.subSequence(p+1, valueEnd).toString());
+                    }
+                }
+                p = valueEnd+1;
+            }
+            if ( (matchDepth < 0) && matches(doc, state, nameStart, nameEnd) ) {
+                matchDepth = depth;
+                matchStart = lt;
+                contentStart = p;
+                cdataOnly = true;
+                sawCdata = false;
+            }
+            if (empty) {
+                if (depth == matchDepth) {
+                    emit(doc, out, lt, p, p, p, false, found++);
+                    matchDepth = -1;
+                }
+                state.pop(depth);
+                depth--;
+            }
+            pos = p;
+        }
+        if (depth > 0)
+            throw malformed(len, "unclosed element");
+        return found > 0;
+    }
+
+    /**
+     * @return true if the element named from nameStart to nameEnd is one of those to extract.
+     */
+    private boolean matches(CharSequence doc, State state, int nameStart, int nameEnd) {
+        int colon = indexOf(doc, ':', nameStart);
+        if ( (colon < 0) || (colon >= nameEnd) )
+            colon = nameStart-1;
+        int prefixStart = nameStart;
+        int prefixEnd = Math.max(nameStart, colon);
+        for (int i=0; i<localNames.length; i++) {
+            if (!regionEquals(doc, colon+1, nameEnd, localNames[i]))
+                continue;
+            String uri = state.resolve(doc, prefixStart, prefixEnd);
+            if (namespaces[i] != null) {
+                if (namespaces[i].equals(uri))
+                    return true;
+                continue;
+            }
+            String expected = state.resolve(prefixes[i]);
+            if (expected != null) {
+                if (expected.equals(uri))
+                    return true;
+            } else if (regionEquals(doc, prefixStart, prefixEnd, prefixes[i]))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Append an extracted element, or its contents.
+     */
+    private void emit(CharSequence doc, Appendable out, int start, int contentStart, int contentEnd, int end,
+            boolean decodeCdata, int found) throws IOException {
+        if (!contents) {
+            out.append(doc, start, end);
+            return;
+        }
+        if (found > 0)
+            out.append('\n');
+        if (!decodeCdata) {
+            out.append(doc, contentStart, contentEnd);
+            return;
+        }
+        // contents only of CDATA sections, eg. text split around a "]]>" it contained
+        int p = contentStart;
+        while (p < contentEnd) {
+            int cdataEnd = indexOf(doc, "]]>", p+9, "CDATA section");
+            out.append(doc, p+9, cdataEnd);
+            p = cdataEnd+3;
+        }
+    }
+
+    private static int nameEnd(CharSequence doc, int pos) {
+        int len = doc.length();
+        while (pos < len) {
+            char c = doc.charAt(pos);
+            if ( (c == '>') || (c == '/') || (c == '=') || (c <= ' ') )
+                break;
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipSpace(CharSequence doc, int pos) {
+        int len = doc.length();
+        while ( (pos < len) && (doc.charAt(pos) <= ' ') )
+            pos++;
+        return pos;
+    }
+
+    private static int indexOf(CharSequence doc, char c, int from) {
+        int len = doc.length();
+        for (int i=from; i<len; i++) {
+            if (doc.charAt(i) == c)
+                return i;
+        }
+        return -1;
+    }
+
+    private static int indexOf(CharSequence doc, String s, int from, String what) throws IOException {
+        int last = doc.length() - s.length();
+        char first = s.charAt(0);
+        for (int i=from; i<=last; i++) {
+            if ( (doc.charAt(i) == first) && startsWith(doc, i, s) )
+                return i;
+        }
+        throw malformed(from, "unterminated "+what);
+    }
+
+    private static boolean startsWith(CharSequence doc, int pos, String s) {
+        if (pos + s.length() > doc.length())
+            return false;
+        for (int i=0; i<s.length(); i++) {
+            if (doc.charAt(pos+i) != s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean regionStartsWith(CharSequence doc, int start, int end, String s) {
+        return (end - start >= s.length()) && startsWith(doc, start, s);
+    }
+
+    private static boolean regionEquals(CharSequence doc, int start, int end, String s) {
+        return (end - start == s.length()) && startsWith(doc, start, s);
+    }
+
+    private static boolean regionEquals(CharSequence doc, int start, int end, CharSequence other, int otherStart, int otherEnd) {
+        if (end - start != otherEnd - otherStart)
+            return false;
+        for (int i=0; i<end-start; i++) {
+            if (doc.charAt(start+i) != other.charAt(otherStart+i))
+                return false;
+        }
+        return true;
+    }
+
+    private static IOException malformed(int offset, String problem) {
+        return new IOException("Record is not well-formed XML, "+problem+" at character "+offset);
+    }
+
+    /**
+     * @return the element names as given.
+     */
+    @Override
+    public String toString() {
+        return elements;
+    }
+}
@@ -29,12 +29,15 @@ package net.datanoid.oaipmh.figshare;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.Vector;
 
 import ORG.oclc.oai.server.catalog.AbstractCatalog;
+import ORG.oclc.oai.server.catalog.RecordFactory;
 import ORG.oclc.oai.server.crosswalk.Crosswalk;
 import ORG.oclc.oai.server.crosswalk.CrosswalkItem;
 import ORG.oclc.oai.server.verb.BadArgumentException;
@@ -51,6 +54,8 @@ import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.datanoid.figshare.FigshareConnection;
+import net.datanoid.figshare.RateLimiter;
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 /**
@@ -77,6 +82,14 @@ public class FigshareOAICatalog extends AbstractCatalog {
     private static final Logger LOG = Logger.getLogger(FigshareOAICatalog.class.getName());
     private static String searchFilter;
     private static Integer institution = null;
+    /**
+     * rendered records of recently requested articles, in every metadataPrefix, or null if disabled
+     */
+    private RecordCache recordCache = null;
+    /**
+     * shared limit on the rate of figshare API requests, or null if unlimited
+     */
+    private RateLimiter rateLimiter = null;
 
     /**
      * pending resumption tokens
@@ -116,6 +129,15 @@ public class FigshareOAICatalog extends AbstractCatalog {
         if (institutionstring != null) {
             FigshareOAICatalog.institution = Integer.parseInt(institutionstring);
         }
+
+        // When enabled, each article is rendered in every metadataPrefix at once and cached,
+        // as harvesters often request several formats of the same records.
+        int cachesize = Integer.parseInt(properties.getProperty("FigshareOAICatalog.recordCacheSize", "0"));
+        int cacheseconds = Integer.parseInt(properties.getProperty("FigshareOAICatalog.recordCacheSeconds", "600"));
+        if ( (cachesize > 0) && (cacheseconds > 0) ) {
+            recordCache = new RecordCache(cachesize, cacheseconds * 1000L);
+            LOG.log(Level.INFO, "FigshareOAICatalog record cache of "+cachesize+" articles for "+cacheseconds+" seconds.");
+        }
     }
     
     
@@ -131,9 +153,11 @@ public class FigshareOAICatalog extends AbstractCatalog {
     private Date convertToQueryDate(String indate, boolean until) throws BadArgumentException {
         if (indate==null) return null;
         Date outdate = null;
-        LOG.log(Level.FINER, "convertToQueryDate() indate="+indate);
+        if (LOG.isLoggable(Level.FINER))
+            LOG.log(Level.FINER, "convertToQueryDate() indate="+indate);
         String finedate = toFinestUntil(indate); // throws BadArgumentException is incorrect granularity
-        LOG.log(Level.FINER, "convertToQueryDate() finedate="+finedate);
+        if (LOG.isLoggable(Level.FINER))
+            LOG.log(Level.FINER, "convertToQueryDate() finedate="+finedate);
         String formatIn1 = "yyyy-MM-dd";
         String formatIn2 = "yyyy-MM-dd'T'HH:mm:ssX";
         SimpleDateFormat strFormatIn1 = new SimpleDateFormat(formatIn1);
@@ -141,12 +165,15 @@ public class FigshareOAICatalog extends AbstractCatalog {
         SimpleDateFormat strFormatIn2 = new SimpleDateFormat(formatIn2);
         strFormatIn2.setTimeZone(TimeZone.getTimeZone("UTC"));
         if (finedate.length() == formatIn1.length()) {
-            LOG.log(Level.FINER, "convertToQueryDate() found length of formatIn1="+formatIn1);
+            if (LOG.isLoggable(Level.FINER))
+                LOG.log(Level.FINER, "convertToQueryDate() found length of formatIn1="+formatIn1);
             try {
                 outdate = strFormatIn1.parse(finedate);
-                LOG.log(Level.FINER, "convertToQueryDate() idate="+outdate.toString());
+                if (LOG.isLoggable(Level.FINER))
+                    LOG.log(Level.FINER, "convertToQueryDate() idate="+outdate.toString());
             } catch (ParseException ex) {
-                LOG.log(Level.FINE, "convertToQueryDate ParseException on '"+indate+"' (finest='"+finedate+"')", ex);
+                if (LOG.isLoggable(Level.FINE))
+                    LOG.log(Level.FINE, "convertToQueryDate ParseException on '"+indate+"' (finest='"+finedate+"')", ex);
                 if (until) {
                     LOG.log(Level.FINE, "convertToQueryDate ParseException bad until assumed.");
                     outdate = null;
@@ -154,12 +181,15 @@ public class FigshareOAICatalog extends AbstractCatalog {
                     throw new BadArgumentException();
             }
         } else if (finedate.length() == strFormatIn2.format(new Date()).length()) {
-            LOG.log(Level.FINER, "convertToQueryDate() found length of formatIn2="+formatIn2);
+            if (LOG.isLoggable(Level.FINER))
+                LOG.log(Level.FINER, "convertToQueryDate() found length of formatIn2="+formatIn2);
             try {
                 outdate = strFormatIn2.parse(finedate);
-                LOG.log(Level.FINER, "convertToQueryDate() idate="+outdate.toString());
+                if (LOG.isLoggable(Level.FINER))
+                    LOG.log(Level.FINER, "convertToQueryDate() idate="+outdate.toString());
             } catch (ParseException ex) {
-                LOG.log(Level.FINE, "convertToQueryDate ParseException on '"+indate+"' (finest='"+finedate+"')", ex);
+                if (LOG.isLoggable(Level.FINE))
+                    LOG.log(Level.FINE, "convertToQueryDate ParseException on '"+indate+"' (finest='"+finedate+"')", ex);
                 if (until) {
                     LOG.log(Level.FINE, "convertToQueryDate ParseException bad until assumed.");
                     outdate = null;
@@ -167,7 +197,8 @@ public class FigshareOAICatalog extends AbstractCatalog {
                     throw new BadArgumentException();
             }
         } else {
-            LOG.log(Level.FINE, "convertToQueryDate cannot match expected format length on '"+indate+"' (finest='"+finedate+"')");
+            if (LOG.isLoggable(Level.FINE))
+                LOG.log(Level.FINE, "convertToQueryDate cannot match expected format length on '"+indate+"' (finest='"+finedate+"')");
             throw new BadArgumentException();
         }
         return outdate;
@@ -188,11 +219,12 @@ public class FigshareOAICatalog extends AbstractCatalog {
     @Override
     public Vector getSchemaLocations(String identifier)
         throws IdDoesNotExistException, NoMetadataFormatsException, OAIInternalServerError {
-        LOG.log(Level.FINE, "getSchemaLocations() for identifier="+identifier);
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "getSchemaLocations() for identifier="+identifier);
         String localIdentifier = getRecordFactory().fromOAIIdentifier(identifier);
-        LOG.log(Level.FINE, "getSchemaLocations() for localIdentifier="+localIdentifier);
-        FigshareConnection connection = new FigshareConnection();
-        connection.setRetryCount(2);
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "getSchemaLocations() for localIdentifier="+localIdentifier);
+        FigshareConnection connection = newConnection();
         JSONObject nativeItem = null;
         int result = connection.pulbicArticleDetails(Long.parseLong(localIdentifier));
         if (result == 0) {
@@ -215,7 +247,8 @@ public class FigshareOAICatalog extends AbstractCatalog {
             String itemPrefix = (String) entry.getKey();
             CrosswalkItem crosswalkItem = (CrosswalkItem)entry.getValue();
             Crosswalk crosswalk = crosswalkItem.getCrosswalk();
-            LOG.log(Level.FINE, "getSchemaLocations() crosswalk iterator itemPrefix="+itemPrefix+" : "+crosswalk.getSchemaLocation());
+            if (LOG.isLoggable(Level.FINE))
+                LOG.log(Level.FINE, "getSchemaLocations() crosswalk iterator itemPrefix="+itemPrefix+" : "+crosswalk.getSchemaLocation());
             ret.add( crosswalk.getSchemaLocation() );
         }
         return ret;
@@ -245,7 +278,8 @@ public class FigshareOAICatalog extends AbstractCatalog {
     @Override
     public Map listIdentifiers(String from, String until, String set, String metadataPrefix)
             throws BadArgumentException, OAIInternalServerError {
-        LOG.log(Level.FINE, "listIdentifiers() for from="+from+" until="+until);
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "listIdentifiers() for from="+from+" until="+until);
         purge(); // clean out old resumptionTokens
         String filter = searchFilter;
         HashMap inputs = null;
@@ -272,7 +306,8 @@ public class FigshareOAICatalog extends AbstractCatalog {
     @Override
     public Map listIdentifiers(String resumptionToken)
         throws BadResumptionTokenException, OAIInternalServerError {
-        LOG.log(Level.FINE, "listIdentifiers() for resumptionToken="+resumptionToken);
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "listIdentifiers() for resumptionToken="+resumptionToken);
         Map items = findIdentifiers(resumptionToken);
         Map rmap = finishListIdentifiers(items);
         return rmap;
@@ -289,14 +324,17 @@ public class FigshareOAICatalog extends AbstractCatalog {
         ArrayList headers = new ArrayList();
         ArrayList identifiers = new ArrayList();
         ArrayList items = (ArrayList) findIdentifiersMap.get("items");
-        LOG.log(Level.FINE, "listIdentifiers(map) got items count="+items.size());
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "listIdentifiers(map) got items count="+items.size());
         for (Object item: items) {
             JSONObject jitem = (JSONObject)item;
             String[] header = getRecordFactory().createHeader(jitem);
             headers.add(header[0]);
             identifiers.add(header[1]);
-            LOG.log(Level.FINER, "listIdentifiers(map) added header[1]="+header[1]);
-            LOG.log(Level.FINER, "listIdentifiers(map) added header[0]="+header[0]);
+            if (LOG.isLoggable(Level.FINER)) {
+                LOG.log(Level.FINER, "listIdentifiers(map) added header[1]="+header[1]);
+                LOG.log(Level.FINER, "listIdentifiers(map) added header[0]="+header[0]);
+            }
         }
         listIdentifiersMap.put("headers", headers.iterator());
         listIdentifiersMap.put("identifiers", identifiers.iterator());
@@ -321,15 +359,17 @@ public class FigshareOAICatalog extends AbstractCatalog {
         Map findIdentifiersMap = new HashMap();
         ArrayList items = new ArrayList();
         ArrayList ids = new ArrayList();
-        LOG.log(Level.FINE, "findIdentifiers() page="+page+" filter="+filter);
-        FigshareConnection connection = new FigshareConnection();
-        connection.setRetryCount(2);
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "findIdentifiers() page="+page+" filter="+filter);
+        FigshareConnection connection = newConnection();
         int result = connection.publicArticlesSearch(filter, page, maxListSize, inputs,
                 convertToQueryDate(from,false),
                 convertToQueryDate(until,true) );
-        LOG.log(Level.FINE, "findIdentifiers() figshare publicArticlesSearch return="+result);
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "findIdentifiers() figshare publicArticlesSearch return="+result);
         if (result == 0) {
-            LOG.log(Level.FINE, "findIdentifiers() publicArticlesSearch count="+connection.responseArrayJSON.size());
+            if (LOG.isLoggable(Level.FINE))
+                LOG.log(Level.FINE, "findIdentifiers() publicArticlesSearch count="+connection.responseArrayJSON.size());
             for (Object item: connection.responseArrayJSON) {
                 JSONObject jitem = (JSONObject)item;
                 Long id = (Long)jitem.get("id");
@@ -342,7 +382,8 @@ public class FigshareOAICatalog extends AbstractCatalog {
             if (connection.responseArrayJSON.size() == maxListSize) {
                 // RESUMPTION TOKEN NEEDED
                 String resumptionId = getResumptionId();
-                LOG.log(Level.FINE, "findIdentifiers() publicArticlesSearch resumptionId="+resumptionId);
+                if (LOG.isLoggable(Level.FINE))
+                    LOG.log(Level.FINE, "findIdentifiers() publicArticlesSearch resumptionId="+resumptionId);
                 Map resumptionData = new HashMap();
                 resumptionData.put("filter", filter);
                 resumptionData.put("page", new Integer(page+1));
@@ -371,7 +412,8 @@ public class FigshareOAICatalog extends AbstractCatalog {
      */
     private Map findIdentifiers(String resumptionToken)
             throws BadResumptionTokenException, OAIInternalServerError {
-        LOG.log(Level.FINE, "findIdentifiers() for resumptionToken="+resumptionToken);
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "findIdentifiers() for resumptionToken="+resumptionToken);
         purge(); // clean out old resumptionTokens
         Map resumptionData = (HashMap) resumptionResults.get(resumptionToken);
         if (resumptionData == null) {
@@ -410,26 +452,134 @@ public class FigshareOAICatalog extends AbstractCatalog {
     public String getRecord(String identifier, String metadataPrefix)
         throws CannotDisseminateFormatException,
                IdDoesNotExistException, OAIInternalServerError {
-        LOG.log(Level.FINE, "getRecord() for identifier="+identifier);
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "getRecord() for identifier="+identifier);
         String localIdentifier = getRecordFactory().fromOAIIdentifier(identifier);
-        LOG.log(Level.FINE, "getRecord() for localIdentifier="+localIdentifier);
-        FigshareConnection connection = new FigshareConnection();
-        connection.setRetryCount(2);
-        JSONObject nativeItem = null;
-        int result = connection.pulbicArticleDetails(Long.parseLong(localIdentifier));
-        LOG.log(Level.FINE, "getRecord() figshare pulbicArticleDetails return="+result);
-        if (result == 0) {
-            nativeItem = connection.responseJSON;
-        } else if (result == 2) {
-            LOG.log(Level.SEVERE, "getRecord() pulbicArticleDetails IdDoesNotExistException: "+connection.errorMessage);
-            throw new IdDoesNotExistException(identifier);
-        } else {
-            LOG.log(Level.SEVERE, "getRecord() pulbicArticleDetails ERROR: "+connection.errorMessage);
-            throw new OAIInternalServerError("figshare pulbicArticleDetails ERROR: "+connection.errorMessage);
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "getRecord() for localIdentifier="+localIdentifier);
+        Long id = Long.parseLong(localIdentifier);
+        if (recordCache != null) {
+            Map<String,String> cached = recordCache.get(id, null);
+            if (cached != null) {
+                LOG.log(Level.FINE, "getRecord() found in record cache");
+                return selectRecord(cached, metadataPrefix);
+            }
         }
+        JSONObject nativeItem = fetchArticle(id);
         if (nativeItem == null)
             throw new IdDoesNotExistException(identifier);
-        return constructRecord(nativeItem, metadataPrefix);
+        if (recordCache == null)
+            return constructRecord(nativeItem, metadataPrefix);
+        Set<String> failedPrefixes = new HashSet<String>();
+        Map<String,String> records = constructRecords(nativeItem, failedPrefixes);
+        if (failedPrefixes.isEmpty())
+            recordCache.put(id, JSONRecordFactory.calcDatestamp(nativeItem), records);
+        else if (failedPrefixes.contains(metadataPrefix))
+            return constructRecord(nativeItem, metadataPrefix); // reports the failure as without a cache
+        return selectRecord(records, metadataPrefix);
+    }
+
+    /**
+     * Retrieve the details of an article from figshare.
+     *
+     * @param id figshare article id.
+     * @return the article details, or null if the article does not exist.
+     * @exception OAIInternalServerError the figshare server returned an error
+     */
+    JSONObject fetchArticle(Long id) throws OAIInternalServerError {
+        FigshareConnection connection = newConnection();
+        int result = connection.pulbicArticleDetails(id);
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "fetchArticle() figshare pulbicArticleDetails return="+result);
+        if (result == 0)
+            return connection.responseJSON;
+        if (result == 2) {
+            LOG.log(Level.SEVERE, "fetchArticle() pulbicArticleDetails IdDoesNotExistException: "+connection.errorMessage);
+            return null;
+        }
+        LOG.log(Level.SEVERE, "fetchArticle() pulbicArticleDetails ERROR: "+connection.errorMessage);
+        throw new OAIInternalServerError("figshare pulbicArticleDetails ERROR: "+connection.errorMessage);
+    }
+
+    /**
+     * Retrieve one page of figshare search results, with the configured search filter
+     * and institution, most recently modified first.
+     *
+     * @param page page of search results, from 1.
+     * @param pageSize number of items per page.
+     * @param from beginning date using the proper granularity
+     * @param until ending date using the proper granularity, or null
+     * @return the search result items, fewer than pageSize if the last page.
+     * @exception BadArgumentException the data format is incorrect
+     * @exception OAIInternalServerError the figshare server returned an error
+     */
+    JSONArray searchArticles(int page, int pageSize, String from, String until)
+            throws BadArgumentException, OAIInternalServerError {
+        HashMap inputs = null;
+        if (institution != null) {
+            inputs = new HashMap();
+            inputs.put("institution", institution);
+        }
+        FigshareConnection connection = newConnection();
+        int result = connection.publicArticlesSearch(searchFilter, page, pageSize, inputs,
+                convertToQueryDate(from,false),
+                convertToQueryDate(until,true) );
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "searchArticles() page="+page+" figshare publicArticlesSearch return="+result);
+        if (result != 0) {
+            LOG.log(Level.SEVERE, "searchArticles() publicArticlesSearch ERROR: "+connection.errorMessage);
+            throw new OAIInternalServerError("figshare publicArticlesSearch ERROR: "+connection.errorMessage);
+        }
+        return connection.responseArrayJSON;
+    }
+
+    /**
+     * @return a new figshare connection with retries, using the shared rate limiter if set.
+     */
+    private FigshareConnection newConnection() {
+        FigshareConnection connection = new FigshareConnection();
+        connection.setRetryCount(2);
+        connection.setRateLimiter(rateLimiter);
+        return connection;
+    }
+
+    /**
+     * Limit the rate of all figshare API requests made by this catalog.
+     * @param rateLimiter shared rate limiter, or null for no limit (default).
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Retrieve the specified metadata for an item found by a search.
+     * The cached records are used if they were rendered from the same revision of the item,
+     * otherwise the item details are retrieved by getRecord().
+     *
+     * @param searchItem item from the figshare search results.
+     * @param identifier the OAI identifier
+     * @param metadataPrefix the OAI metadataPrefix
+     * @return the <record/> portion of the XML response.
+     * @exception CannotDisseminateFormatException the metadataPrefix is not
+     * supported by the item.
+     * @exception IdDoesNotExistException the identifier wasn't found
+     */
+    private String getListedRecord(Object searchItem, String identifier, String metadataPrefix)
+        throws CannotDisseminateFormatException,
+               IdDoesNotExistException, OAIInternalServerError {
+        if (recordCache != null) {
+            Long id = (Long) ((JSONObject)searchItem).get("id");
+            String datestamp = JSONRecordFactory.calcDatestamp(searchItem);
+            if ( (id != null) && (datestamp != null) ) {
+                Map<String,String> cached = recordCache.get(id, datestamp);
+                if (cached != null) {
+                    if (LOG.isLoggable(Level.FINE))
+                        LOG.log(Level.FINE, "getListedRecord() found in record cache identifier="+identifier);
+                    return selectRecord(cached, metadataPrefix);
+                }
+            }
+        }
+        return getRecord(identifier, metadataPrefix);
     }
 
     /**
@@ -453,7 +603,8 @@ public class FigshareOAICatalog extends AbstractCatalog {
     @Override
     public Map listRecords(String from, String until, String set, String metadataPrefix)
         throws BadArgumentException, CannotDisseminateFormatException, OAIInternalServerError {
-        LOG.log(Level.FINE, "listRecords() for from="+from+" until="+until);
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "listRecords() for from="+from+" until="+until);
         purge(); // clean out old resumptionTokens
         Map listRecordsMap = new HashMap();
         ArrayList records = new ArrayList();
@@ -472,8 +623,9 @@ public class FigshareOAICatalog extends AbstractCatalog {
         for (Object jitem: jitems) {
             try {
                 oaiid = getRecordFactory().getOAIIdentifier(jitem);
-                String record = getRecord( oaiid, metadataPrefix );
-                LOG.log(Level.FINER, "listRecords() adding record="+record);
+                String record = getListedRecord( jitem, oaiid, metadataPrefix );
+                if (LOG.isLoggable(Level.FINER))
+                    LOG.log(Level.FINER, "listRecords() adding record="+record);
                 records.add(record);
                 records_ids.add(oaiid);
             } catch (IdDoesNotExistException ex) {
@@ -509,7 +661,8 @@ public class FigshareOAICatalog extends AbstractCatalog {
     @Override
     public Map listRecords(String resumptionToken)
         throws BadResumptionTokenException, OAIInternalServerError {
-        LOG.log(Level.FINE, "listRecords() for resumptionToken="+resumptionToken);
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "listRecords() for resumptionToken="+resumptionToken);
         Map listRecordsMap = new HashMap();
         ArrayList records = new ArrayList();
         ArrayList records_ids = new ArrayList();
@@ -528,8 +681,9 @@ public class FigshareOAICatalog extends AbstractCatalog {
         for (Object jitem: jitems) {
             try {
                 oaiid = getRecordFactory().getOAIIdentifier(jitem);
-                String record = getRecord( oaiid, metadataPrefix );
-                LOG.log(Level.FINER, "listRecords() adding record="+record);
+                String record = getListedRecord( jitem, oaiid, metadataPrefix );
+                if (LOG.isLoggable(Level.FINER))
+                    LOG.log(Level.FINER, "listRecords() adding record="+record);
                 records.add(record);
                 records_ids.add(oaiid);
             } catch (IdDoesNotExistException ex) {
@@ -561,18 +715,102 @@ public class FigshareOAICatalog extends AbstractCatalog {
      * @exception CannotDisseminateFormatException the record is not available
      * for the specified metadataPrefix.
      */
-    private String constructRecord(Object nativeItem, String metadataPrefix)
+    String constructRecord(Object nativeItem, String metadataPrefix)
         throws CannotDisseminateFormatException {
         String schemaURL = null;
 
         if (metadataPrefix != null) {
-            LOG.log(Level.FINER, "constructRecord() getting schemaURL for metadataPrefix="+metadataPrefix);
+            if (LOG.isLoggable(Level.FINER))
+                LOG.log(Level.FINER, "constructRecord() getting schemaURL for metadataPrefix="+metadataPrefix);
             if ((schemaURL = getCrosswalks().getSchemaURL(metadataPrefix)) == null)
                 throw new CannotDisseminateFormatException(metadataPrefix);
         }
         return getRecordFactory().create(nativeItem, schemaURL, metadataPrefix);
     }
 
+    /**
+     * Append the record of a native item to a builder, as constructRecord() creates it.
+     * With a streaming crosswalk the record is written straight to the builder.
+     *
+     * @param nativeItem native item from the database
+     * @param metadataPrefix the desired metadataPrefix for performing the crosswalk
+     * @param out destination of the <record/>
+     * @exception CannotDisseminateFormatException the record is not available
+     * for the specified metadataPrefix.
+     */
+    void writeRecord(Object nativeItem, String metadataPrefix, StringBuilder out)
+        throws CannotDisseminateFormatException {
+        RecordFactory factory = getRecordFactory();
+        if ( (metadataPrefix != null) && (factory instanceof JSONRecordFactory) ) {
+            String schemaURL = getCrosswalks().getSchemaURL(metadataPrefix);
+            if (schemaURL == null)
+                throw new CannotDisseminateFormatException(metadataPrefix);
+            if (((JSONRecordFactory)factory).quickCreate(nativeItem, schemaURL, metadataPrefix, out))
+                return;
+        }
+        out.append(constructRecord(nativeItem, metadataPrefix));
+    }
+
+    /**
+     * Construct the records of a native item in every configured metadataPrefix, in one pass.
+     * The DC core elements shared by the DC crosswalks are computed only once.
+     *
+     * A metadataPrefix whose crosswalk fails is logged and left out, so it does not
+     * prevent the other records being served.
+     *
+     * @param nativeItem native item from the database
+     * @param failedPrefixes receives each metadataPrefix whose crosswalk failed
+     * @return Map of metadataPrefix to <record/> String, excluding any
+     * metadataPrefix not available for the item.
+     */
+    private Map<String,String> constructRecords(Object nativeItem, Set<String> failedPrefixes) {
+        Map<String,String> records = new HashMap<String,String>();
+        DCMapping.beginSharedCore();
+        try {
+            Iterator iterator = getCrosswalks().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry entry = (Map.Entry)iterator.next();
+                String itemPrefix = (String) entry.getKey();
+                try {
+                    records.put(itemPrefix, constructRecord(nativeItem, itemPrefix));
+                } catch (CannotDisseminateFormatException ex) {
+                    if (LOG.isLoggable(Level.FINE))
+                        LOG.log(Level.FINE, "constructRecords() not available for metadataPrefix="+itemPrefix);
+                } catch (RuntimeException ex) {
+                    LOG.log(Level.WARNING, "constructRecords() failed for metadataPrefix="+itemPrefix, ex);
+                    failedPrefixes.add(itemPrefix);
+                }
+            }
+        } finally {
+            DCMapping.endSharedCore();
+        }
+        return records;
+    }
+
+    /**
+     * Select the record of one metadataPrefix from those constructed.
+     *
+     * @param records Map of metadataPrefix to <record/> String.
+     * @param metadataPrefix the desired metadataPrefix
+     * @return the <record/> String
+     * @exception CannotDisseminateFormatException the record is not available
+     * for the specified metadataPrefix.
+     */
+    private static String selectRecord(Map<String,String> records, String metadataPrefix)
+        throws CannotDisseminateFormatException {
+        String record = records.get(metadataPrefix);
+        if (record == null)
+            throw new CannotDisseminateFormatException(metadataPrefix);
+        return record;
+    }
+
+    /**
+     * @return the record cache, or null if not enabled.
+     */
+    public RecordCache getRecordCache() {
+        return recordCache;
+    }
+
     /**
      * Not implemented.
      * Retrieve a list of sets that satisfy the specified criteria.
@@ -640,8 +878,10 @@ public class FigshareOAICatalog extends AbstractCatalog {
             String key = (String)keySet.next();
             String dateprefix = key.substring(0,key.indexOf("-"));
             Date then = new Date(Long.parseLong(dateprefix) + getMillisecondsToLive());
-            LOG.log(Level.FINER, "getMillisecondsToLive="+getMillisecondsToLive());
-            LOG.log(Level.FINER, "purge-check ID="+key+"\nthen="+dateprefix+" now="+now.getTime()+" expires="+then.getTime());
+            if (LOG.isLoggable(Level.FINER)) {
+                LOG.log(Level.FINER, "getMillisecondsToLive="+getMillisecondsToLive());
+                LOG.log(Level.FINER, "purge-check ID="+key+"\nthen="+dateprefix+" now="+now.getTime()+" expires="+then.getTime());
+            }
             if (now.after(then)) {
                 old.add(key);
                 LOG.log(Level.FINER, "purge!");
@@ -29,17 +29,17 @@ package net.datanoid.oaipmh.figshare;
 import ORG.oclc.oai.server.OAIHandler;
 import ORG.oclc.oai.server.catalog.AbstractCatalog;
 import ORG.oclc.oai.server.verb.BadArgumentException;
-import ORG.oclc.oai.server.verb.BadResumptionTokenException;
 import ORG.oclc.oai.server.verb.CannotDisseminateFormatException;
 import ORG.oclc.oai.server.verb.IdDoesNotExistException;
 import ORG.oclc.oai.server.verb.OAIInternalServerError;
-import java.io.BufferedWriter;
+import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -50,14 +50,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.TimeZone;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import net.datanoid.figshare.FigshareConnection;
+import org.json.simple.JSONObject;
 
 /**
  * Command-line interface to allow harvesting of recent figshare records
@@ -88,6 +89,22 @@ public class FigshareOAIMain {
         ArrayList argslist = new ArrayList( Arrays.asList(args) );
         String xmlelement = "";
         boolean xmlcontent = false;
+        String checkpointFileName = null;
+        boolean resume = false;
+        String manifestFileName = null;
+        String outputFormat = null;
+        int backfill = 0;
+        boolean sharded = false;
+        int shard = 0;
+        int shards = 0;
+        String shardBy = "date";
+        String shardManifestFileName = null;
+        String watchFileName = null;
+        long watchInterval = 3600;
+        String idsFileName = null;
+        int progressSeconds = -1;
+        String summaryFileName = null;
+        boolean badNumber = false;
         while (argslist.size()>0) {
             String firstarg = (String) argslist.get(0);
             if (firstarg.equals("-debug")) {
@@ -115,15 +132,125 @@ public class FigshareOAIMain {
                 xmlcontent = true;
                 continue;
             }
+            if (firstarg.equals("-output-format") && (argslist.size()>1)) {
+                argslist.remove(0);
+                outputFormat = (String) argslist.get(0);
+                argslist.remove(0);
+                continue;
+            }
+            if (firstarg.equals("-backfill") && (argslist.size()>1)) {
+                argslist.remove(0);
+                String value = ((String) argslist.get(0)).trim();
+                if (value.matches("\\d{1,9}"))
+                    backfill = Integer.parseInt(value);
+                else
+                    badNumber = true;
+                argslist.remove(0);
+                continue;
+            }
+            if (firstarg.equals("-shard") && (argslist.size()>1)) {
+                argslist.remove(0);
+                // only k/N, anything else is reported rather than harvesting everything unsharded
+                String value = ((String) argslist.get(0)).trim();
+                sharded = true;
+                if (value.matches("\\d{1,9}/\\d{1,9}")) {
+                    shard = Integer.parseInt(value.substring(0, value.indexOf('/')));
+                    shards = Integer.parseInt(value.substring(value.indexOf('/')+1));
+                }
+                argslist.remove(0);
+                continue;
+            }
+            if (firstarg.equals("-shard-by") && (argslist.size()>1)) {
+                argslist.remove(0);
+                shardBy = (String) argslist.get(0);
+                argslist.remove(0);
+                continue;
+            }
+            if (firstarg.equals("-shard-manifest") && (argslist.size()>1)) {
+                argslist.remove(0);
+                shardManifestFileName = (String) argslist.get(0);
+                argslist.remove(0);
+                continue;
+            }
+            if (firstarg.equals("-watch") && (argslist.size()>1)) {
+                argslist.remove(0);
+                watchFileName = (String) argslist.get(0);
+                argslist.remove(0);
+                continue;
+            }
+            if (firstarg.equals("-watch-interval") && (argslist.size()>1)) {
+                argslist.remove(0);
+                String value = ((String) argslist.get(0)).trim();
+                if (value.matches("\\d{1,18}"))
+                    watchInterval = Long.parseLong(value);
+                else
+                    badNumber = true;
+                argslist.remove(0);
+                continue;
+            }
+            if (firstarg.equals("-progress") && (argslist.size()>1)) {
+                argslist.remove(0);
+                String value = ((String) argslist.get(0)).trim();
+                if (value.matches("\\d{1,9}"))
+                    progressSeconds = Integer.parseInt(value);
+                else
+                    badNumber = true;
+                argslist.remove(0);
+                continue;
+            }
+            if (firstarg.equals("-summary") && (argslist.size()>1)) {
+                argslist.remove(0);
+                summaryFileName = (String) argslist.get(0);
+                argslist.remove(0);
+                continue;
+            }
+            if (firstarg.equals("-ids") && (argslist.size()>1)) {
+                argslist.remove(0);
+                idsFileName = (String) argslist.get(0);
+                argslist.remove(0);
+                continue;
+            }
+            if (firstarg.equals("-manifest") && (argslist.size()>1)) {
+                argslist.remove(0);
+                manifestFileName = (String) argslist.get(0);
+                argslist.remove(0);
+                continue;
+            }
+            if ( (firstarg.equals("-checkpoint") || firstarg.equals("-resume")) && (argslist.size()>1) ) {
+                argslist.remove(0);
+                checkpointFileName = (String) argslist.get(0);
+                resume = firstarg.equals("-resume");
+                argslist.remove(0);
+                continue;
+            }
             break;
         }
-        if (argslist.size() != 5) {
+        boolean badShard = sharded && ( (shards < 1) || (shard < 1) || (shard > shards) || !(shardBy.equals("date") || shardBy.equals("id")) );
+        boolean badWatch = (watchFileName != null) && ( (checkpointFileName != null) || (shards > 0) || (watchInterval < 1) );
+        boolean badIds = (idsFileName != null) && ( (checkpointFileName != null) || (shards > 0) || (watchFileName != null) || (backfill > 1) );
+        if ( (argslist.size() != (resume ? 1 : ((idsFileName != null) ? 3 : 5))) || badShard || badWatch || badIds || badNumber ) {
             System.err.println("ERROR: Required arguments not found.\n"
-                    + "Use:  Emulate an OAI-PMH \"ListRecords\" request outputing the returned records to separate files.\n"
-                    + "Arguments:  [-debug|-ddebug] [-get-xml-element xml-element] [-get-xml-content] /path/to/oaicat-figshare.properties output-folder from-date until-date metadataPrefix\n"
-                    + "   xml-element = specify name \"namespace:element\" to extract from within each record (eg. qdc:qualifieddc, oai_dc:dc or json:element)\n"
-                    + "   -get-xml-content - return the contents of the element, not the including the XML element"
-                    + "   output-folder = folder location to write new record files\n"
+                    + "Use:  Emulate an OAI-PMH \"ListRecords\" request outputing the returned records to separate files, an archive or a stream.\n"
+                    + "Arguments:  [-debug|-ddebug] [-get-xml-element xml-element] [-get-xml-content] [-output-format format] [-manifest manifest-file] [-checkpoint checkpoint-file] [-backfill windows] [-shard k/N [-shard-by date|id] [-shard-manifest file]] /path/to/oaicat-figshare.properties output from-date until-date metadataPrefix\n"
+                    + "       OR:  [-debug|-ddebug] [-get-xml-element xml-element] [-get-xml-content] [-output-format format] [-manifest manifest-file] [-backfill windows] -watch state-file [-watch-interval seconds] /path/to/oaicat-figshare.properties output from-date - metadataPrefix\n"
+                    + "       OR:  [-debug|-ddebug] [-get-xml-element xml-element] [-get-xml-content] [-output-format format] [-manifest manifest-file] -ids ids-file /path/to/oaicat-figshare.properties output metadataPrefix\n"
+                    + "       OR:  [-debug|-ddebug] [-output-format format] [-manifest manifest-file] [-shard k/N [-shard-by date|id] [-shard-manifest file]] -resume checkpoint-file /path/to/oaicat-figshare.properties\n"
+                    + "   xml-element = specify name \"namespace:element\" or \"{uri}element\" to extract from within each record (eg. qdc:qualifieddc, oai_dc:dc or json:element), several separated by commas\n"
+                    + "   -get-xml-content - return the contents of the element, not the including the XML element, several separated by newlines\n"
+                    + "   -output-format - folder, zip, tgz, jsonl or xml, the default is from the output name (.zip .tar.gz .tgz .jsonl .xml, otherwise folder)\n"
+                    + "   -backfill - split from-date to until-date into this many date windows searched concurrently, an until-date of - is fixed to the start time\n"
+                    + "   -shard - harvest shard k of N (1 to N), by date window (default) or by article id hash, for merging with HarvestMerge\n"
+                    + "   -shard-manifest - record of the shard's records for the merge, default output.shard.jsonl\n"
+                    + "   -manifest - only write records new or changed since the last run that used manifest-file, a hash per record\n"
+                    + "   -checkpoint - save progress to checkpoint-file at each completed search page, an until-date of - is fixed to the start time, output must be a folder, jsonl or -\n"
+                    + "   -resume - continue the harvest saved in checkpoint-file, without repeating its completed pages\n"
+                    + "   -ids - harvest only the articles listed in ids-file, or - dash for standard input, one article id or OAI identifier per line,\n"
+                    + "          fetched HarvestPipeline.fetchThreads at a time, with the outcome of each reported\n"
+                    + "   -progress - report the rate, stage time shares, figshare latency and time to finish every this many seconds\n"
+                    + "   -summary - add a JSON line summarising each run to this file, eg. to follow harvest performance over time\n"
+                    + "   -watch - keep running, harvesting every interval (default 3600 seconds) from the watermark in state-file until now, from-date is the first watermark\n"
+                    + "            state-file also holds the statistics of the last run, output must be a folder or jsonl file, until-date must be -\n"
+                    + "   output = folder location to write new record files, OR  archive/single file name  OR  - dash for standard output (jsonl by default)\n"
                     + "   from-date = yyyy-MM-dd  OR  yyyy-MM-ddTHH:mm:ssX  (eg. 2022-07-02T14:23:48Z best practice to use UTC timezone indicated by X=Z)\n"
                     + "   until-date = as above  OR  - dash for current time\n"
                     + "   metadataPrefix = qdc  OR  oai_dc  OR  json\n"
@@ -131,19 +258,149 @@ public class FigshareOAIMain {
             System.exit(-1);
         }
         String confFileName = (String) argslist.get(0);
-        String outputFolderName = (String) argslist.get(1);
-        String fromDate = (String) argslist.get(2);
-        String toDate = (String) argslist.get(3);
-        if (toDate.equals("-"))
+        HarvestCheckpoint checkpoint = null;
+        String outputName;
+        String fromDate;
+        String toDate;
+        String metadataPrefix;
+        if (resume) {
+            // the harvest parameters are those saved in the checkpoint
+            try {
+                checkpoint = HarvestCheckpoint.load(Paths.get(checkpointFileName));
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, "checkpoint-file could not be read.", ex);
+                System.exit(-1);
+            }
+            outputName = checkpoint.getOutput();
+            fromDate = checkpoint.getFrom();
+            toDate = checkpoint.getUntil();
+            metadataPrefix = checkpoint.getMetadataPrefix();
+            xmlelement = checkpoint.getXmlElement();
+            xmlcontent = checkpoint.isXmlContent();
+        } else if (idsFileName != null) {
+            outputName = (String) argslist.get(1);
+            fromDate = null;
             toDate = null;
-        String metadataPrefix = (String) argslist.get(4);
-        System.out.println("### properties-file="+confFileName);
-        System.out.println("### output-folder="+outputFolderName);
-        System.out.println("### xml-element="+xmlelement);
-        System.out.println("### get-xml-content="+xmlcontent);
-        System.out.println("### from-date="+fromDate);
-        System.out.println("### until-date="+toDate);
-        System.out.println("### metadataPrefix="+metadataPrefix);
+            metadataPrefix = (String) argslist.get(2);
+        } else {
+            outputName = (String) argslist.get(1);
+            fromDate = (String) argslist.get(2);
+            toDate = (String) argslist.get(3);
+            if ( (watchFileName != null) && (!toDate.equals("-")) ) {
+                LOG.log(Level.SEVERE, "-watch harvests until the time of each run, until-date must be - dash.");
+                System.exit(-1);
+            }
+            if (toDate.equals("-") && (shards > 0)) {
+                LOG.log(Level.SEVERE, "-shard needs the same until-date for every shard, not - dash.");
+                System.exit(-1);
+            }
+            if (toDate.equals("-")) {
+                toDate = null;
+                if ( ((checkpointFileName != null) || (backfill > 1)) && (watchFileName == null) ) {
+                    // a resumed search must list the same articles, and windows need an end, so fix the until date now
+                    SimpleDateFormat strFormatOut = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssX");
+                    strFormatOut.setTimeZone(TimeZone.getTimeZone("UTC"));
+                    toDate = strFormatOut.format(new Date());
+                }
+            }
+            metadataPrefix = (String) argslist.get(4);
+        }
+        if (outputFormat == null)
+            outputFormat = RecordSinks.formatOf(outputName);
+        JSONObject shardHeader = null;
+        if (shards > 0) {
+            if (outputName.equals("-")) {
+                LOG.log(Level.SEVERE, "-shard needs output to a folder or file, so the shards can be merged.");
+                System.exit(-1);
+            }
+            if (shardManifestFileName == null)
+                shardManifestFileName = outputName+".shard.jsonl";
+            if (!resume) {
+                // a resumed shard continues its manifest, and its checkpoint holds the shard's window
+                shardHeader = new JSONObject();
+                shardHeader.put("shard", shard);
+                shardHeader.put("shards", shards);
+                shardHeader.put("by", shardBy);
+                shardHeader.put("from", fromDate);
+                shardHeader.put("until", toDate);
+                shardHeader.put("metadataPrefix", metadataPrefix);
+                shardHeader.put("xmlElement", xmlelement);
+                shardHeader.put("xmlContent", xmlcontent);
+                shardHeader.put("output", Paths.get(outputName).toAbsolutePath().toString());
+                shardHeader.put("format", outputFormat);
+                if (shardBy.equals("date")) {
+                    try {
+                        String[][] shardWindows = HarvestPipeline.partition(fromDate, toDate, shards);
+                        if (shardWindows.length != shards)
+                            throw new BadArgumentException();
+                        fromDate = shardWindows[shard-1][0];
+                        toDate = shardWindows[shard-1][1];
+                    } catch (BadArgumentException ex) {
+                        LOG.log(Level.SEVERE, "from-date and until-date cannot be split into "+shards+" shards.");
+                        System.exit(2);
+                    }
+                    shardHeader.put("windowFrom", fromDate);
+                    shardHeader.put("windowUntil", toDate);
+                }
+            }
+        }
+        if (checkpoint != null)
+            backfill = checkpoint.getWindows();
+        String[][] windows = new String[][] {{fromDate, toDate}};
+        if ( (backfill > 1) && (watchFileName == null) ) {
+            try {
+                windows = HarvestPipeline.partition(fromDate, toDate, backfill);
+            } catch (BadArgumentException ex) {
+                LOG.log(Level.SEVERE, "from-date and until-date cannot be split into windows.");
+                System.exit(2);
+            }
+        }
+        // keep standard output for the records when they are piped
+        PrintStream console = outputName.equals("-") ? System.err : System.out;
+        if (checkpoint != null) {
+            console.println("### resume "+checkpoint.toString());
+            console.println("### last-identifier="+checkpoint.getLastIdentifier());
+        }
+        console.println("### properties-file="+confFileName);
+        console.println("### output="+outputName);
+        console.println("### output-format="+outputFormat);
+        console.println("### xml-element="+xmlelement);
+        console.println("### get-xml-content="+xmlcontent);
+        if (idsFileName != null)
+            console.println("### ids="+idsFileName);
+        else {
+            console.println("### from-date="+fromDate);
+            console.println("### until-date="+toDate);
+        }
+        console.println("### metadataPrefix="+metadataPrefix);
+        if (shards > 0)
+            console.println("### shard="+shard+"/"+shards+"; by="+shardBy+"; shard-manifest="+shardManifestFileName);
+        for (int w=0; (windows.length > 1) && (w < windows.length); w++)
+            console.println("### window="+w+"; from-date="+windows[w][0]+"; until-date="+windows[w][1]);
+        if ( (watchFileName != null) && (outputName.equals("-") || (!RecordSinks.canAppend(outputFormat))) ) {
+            LOG.log(Level.SEVERE, "-watch needs output to a folder or a jsonl file, added to by each run.");
+            System.exit(-1);
+        }
+        if (watchFileName != null)
+            console.println("### watch="+watchFileName+"; interval="+watchInterval+" seconds");
+        if ( (checkpointFileName != null) && (!outputName.equals("-")) && (!RecordSinks.canAppend(outputFormat)) ) {
+            LOG.log(Level.SEVERE, "-checkpoint and -resume need output to a folder, a jsonl file or standard output.");
+            System.exit(-1);
+        }
+        
+        // Read the list of articles, before standard input could be needed for anything else
+        List<Long> ids = null;
+        List<String> invalidIds = new ArrayList<String>();
+        if (idsFileName != null) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(idsFileName.equals("-") ? System.in
+                    : new FileInputStream(idsFileName), StandardCharsets.UTF_8))) {
+                ids = HarvestPipeline.readIds(in, invalidIds);
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, "ids-file could not be read.", ex);
+                System.exit(-1);
+            }
+            console.println("### ids-count="+ids.size()+"; invalid="+invalidIds.size());
+        }
         
         // Load properties and create main classes
         InputStream in = null;
@@ -161,16 +418,16 @@ public class FigshareOAIMain {
             LOG.log(Level.SEVERE, null, ex);
             System.exit(-1);
         }
+        // each record is harvested once, in one format, so the record cache is of no use
+        properties.setProperty("FigshareOAICatalog.recordCacheSize", "0");
+        if (progressSeconds >= 0)
+            properties.setProperty("HarvestPipeline.progressSeconds", Integer.toString(progressSeconds));
+        // page numbers saved in a checkpoint are only meaningful with the same page size
+        if (checkpoint != null)
+            properties.setProperty("HarvestPipeline.pageSize", Integer.toString(checkpoint.getPageSize()));
         FigshareOAICatalog figshareOAICatalog = new FigshareOAICatalog(properties);
         figshareOAICatalog.setRecordFactory(new JSONRecordFactory(properties));
         
-        // Check outputs folder exists
-        Path outputFolderNamePath = Paths.get(outputFolderName);
-        if ( (!Files.isDirectory(outputFolderNamePath)) || (!Files.isWritable(outputFolderNamePath)) ) {
-            LOG.log(Level.SEVERE, "output-folder not found or not writeable.");
-            System.exit(-1);
-        }
-        
         // Setup some defaults which normally would have been set by OAI-CAT and AbstractCatalogue factory
         String harvestable = properties.getProperty("AbstractCatalog.harvestable");
         if (harvestable != null && harvestable.equals("false")) {
@@ -188,106 +445,234 @@ public class FigshareOAIMain {
             }
         }
         
-        // Begin retrieving the records
-        int count=0;
+        if (watchFileName != null) {
+            watch(figshareOAICatalog, watchFileName, watchInterval, backfill, manifestFileName, summaryFileName,
+                    outputName, outputFormat, fromDate, metadataPrefix, xmlelement, xmlcontent, console);
+            return;
+        }
+
+        // Begin retrieving the records, search/fetch/crosswalk/write stages run concurrently
+        HarvestPipeline pipeline = new HarvestPipeline(figshareOAICatalog, properties);
+        pipeline.setExtract(xmlelement, xmlcontent);
+        pipeline.setConsole(console);
+        if (checkpoint != null) {
+            if (checkpoint.isFinished()) {
+                console.println("### Checkpoint harvest already finished, "+checkpoint.getWritten()+" records written");
+                console.println("### Next from-date="+toDate);
+                System.exit(0);
+            }
+        } else if (checkpointFileName != null) {
+            Path checkpointPath = Paths.get(checkpointFileName);
+            try {
+                if (Files.exists(checkpointPath) && !HarvestCheckpoint.load(checkpointPath).isFinished()) {
+                    LOG.log(Level.SEVERE, "checkpoint-file holds an unfinished harvest, continue it with -resume or remove it.");
+                    System.exit(-1);
+                }
+                checkpoint = HarvestCheckpoint.create(checkpointPath, fromDate, toDate, metadataPrefix,
+                        xmlelement, xmlcontent, outputName, pipeline.getPageSize(), windows.length);
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, "checkpoint-file could not be written.", ex);
+                System.exit(-1);
+            }
+        }
+        pipeline.setCheckpoint(checkpoint);
+        if (manifestFileName != null) {
+            try {
+                RecordManifest manifest = RecordManifest.load(Paths.get(manifestFileName));
+                console.println("### manifest "+manifest.toString());
+                pipeline.setManifest(manifest);
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, "manifest-file could not be read.", ex);
+                System.exit(-1);
+            }
+        }
+        // Open the output, a resumed harvest adds to it
+        RecordSink sink = null;
+        try {
+            sink = RecordSinks.open(outputName, outputFormat, !xmlcontent, resume && !outputName.equals("-"));
+        } catch (IOException | IllegalArgumentException ex) {
+            LOG.log(Level.SEVERE, "output could not be opened: "+ex.getMessage());
+            System.exit(-1);
+        }
+        pipeline.setSink(sink);
+        ShardManifest shardManifest = null;
+        if (shards > 0) {
+            if (shardBy.equals("id"))
+                pipeline.setShard(shard-1, shards);
+            try {
+                shardManifest = ShardManifest.create(Paths.get(shardManifestFileName), shardHeader, resume);
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, "shard-manifest could not be written.", ex);
+                System.exit(-1);
+            }
+            pipeline.setShardManifest(shardManifest);
+        }
         Instant start = Instant.now();
         Date lastretrieve = new Date();
         int exit_code=0;
+        Map<Long,String> outcomes = null;
         try {
-            // retrieve the first lot from the commandline settings
-            LOG.log(Level.FINE, "main() run initial figshareOAICatalog.listRecords()");
-            System.out.println("Retrieving up to "+figshareOAICatalog.maxListSize+" records...");
-            Map records = figshareOAICatalog.listRecords(fromDate, toDate, null, metadataPrefix);
-            while (1==1) {
-                // extract returned list
-                Iterator records_it = (Iterator) records.get("records");
-                Iterator recordids_it = (Iterator) records.get("records_ids");
-                Map resumption_map = (Map) records.get("resumptionMap");
-                if ((records_it==null) || (recordids_it==null)) {
-                    LOG.log(Level.SEVERE, "Missing records iterators. Unexpected failure.");
-                    exit_code = 2;
-                    break;
-                }
-                // output each returned record to a file
-                while (records_it.hasNext()) {
-                    count++;
-                    LOG.log(Level.FINE, "Processing record #"+count);
-                    String record = (String) records_it.next();
-                    String recordid = (String) recordids_it.next();
-                    // sanitise a filename base on recordID
-                    String fileout = recordid.replaceAll("[\\s\\.<>:\"'/\\|\\?\\*\\\\]", "_")+".xml";
-                    System.out.println("### record="+count+"; id="+recordid+"; filename="+fileout);
-                    // find requested element, eg. to remove the OAI wrappers and get metadata payload
-                    if (xmlelement.length()>0) {
-                        if (xmlcontent)
-                            record = Utils.XML_get_element_contents(record,xmlelement);
-                        else
-                            record = Utils.XML_get_element(record,xmlelement);
-                    }
-                    // save to file
-                    //System.out.println(record);
-                    try {
-                        if (record == null)
-                            System.out.println("Warning: no XML element found, output file skipped");
-                        else {
-                            Path fileoutpath = Paths.get(outputFolderName, fileout);
-                            LOG.log(Level.FINER, "Creating file: " + fileoutpath.toString());
-                            BufferedWriter out = new BufferedWriter(
-                                    new OutputStreamWriter(
-                                            new FileOutputStream(fileoutpath.toFile()),
-                                            "UTF-8")
-                            );
-                            if (!xmlcontent) {
-                                // literal copied from OAICat
-                                out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
-                            }
-                            out.write(record);
-                            out.write("\n");
-                            out.close();
-                            LOG.log(Level.FINER, "Done writing file: " + fileoutpath.toString());
-                        }
-                    } catch (IOException iOException) {
-                        LOG.log(Level.SEVERE, "Problem writing record to file.",iOException);
-                        System.exit(-1);
-                    }
-                    
-                }
-                // Check if more to resume
-                if (resumption_map==null) break;
-                String resumptionToken = (String) resumption_map.get("resumptionToken");
-                if ((resumptionToken==null) || (resumptionToken.length()<=0)) break;
-                // add a pause between calls to be friendly to the figshare API
-                System.out.println("Pausing for 10 seconds...");
-                try {
-                    TimeUnit.SECONDS.sleep(10);
-                } catch (InterruptedException ex) { }
-                // retrieve the next lot of records starting from resumptionToken
-                LOG.log(Level.FINE, "main() run additional figshareOAICatalog.listRecords() resumptionToken="+resumptionToken);
-                lastretrieve = new Date();
-                System.out.println("Retrieving up to next "+figshareOAICatalog.maxListSize+" records...");
-                records = figshareOAICatalog.listRecords(resumptionToken);
-            }
+            LOG.log(Level.FINE, "main() run HarvestPipeline");
+            console.println("Retrieving records, at most "+pipeline.getRateLimiter().getPermitsPerSecond()+" figshare requests per second...");
+            if (ids != null)
+                outcomes = pipeline.runIds(ids, metadataPrefix);
+            else
+                pipeline.run(windows, metadataPrefix);
         } catch (BadArgumentException | CannotDisseminateFormatException ex) {
             Logger.getLogger(FigshareOAIMain.class.getName()).log(Level.SEVERE, "Server responded with an EXCEPTION", ex);
             exit_code = 2;
-        } catch (BadResumptionTokenException ex) {
-            Logger.getLogger(FigshareOAIMain.class.getName()).log(Level.SEVERE, "Resumption Token may have timed out. Unexpected.", ex);
-            exit_code = 2;
         } catch (OAIInternalServerError ex) {
             Logger.getLogger(FigshareOAIMain.class.getName()).log(Level.SEVERE, "Server connection EXCEPTION.", ex);
             exit_code = 1;
+        } catch (IOException iOException) {
+            LOG.log(Level.SEVERE, "Problem writing record to file.",iOException);
+            exit_code = -1;
+        } catch (InterruptedException ex) {
+            LOG.log(Level.SEVERE, "Harvest interrupted.", ex);
+            exit_code = 1;
+        }
+        try {
+            // completes an archive, even after a failure
+            sink.close();
+        } catch (IOException ex) {
+            LOG.log(Level.SEVERE, "Problem completing the output.", ex);
+            exit_code = -1;
         }
+        try {
+            if (shardManifest != null)
+                shardManifest.close();
+        } catch (IOException ex) {
+            LOG.log(Level.SEVERE, "Problem completing the shard-manifest.", ex);
+            exit_code = -1;
+        }
+        if (pipeline.getLastSearch() != null)
+            lastretrieve = pipeline.getLastSearch();
+        int count = (int)pipeline.getWrittenCount();
         Instant end = Instant.now();
         Duration timeElapsed = Duration.between(start, end);
-        System.out.println("### Harvested "+count+" records in "+ timeElapsed.toMillis()/1000.0 +" seconds");
+        if (ids != null) {
+            // the outcome of each article, for a repair to be checked or repeated
+            int notHarvested = invalidIds.size();
+            for (String invalid: invalidIds)
+                console.println("### id="+invalid+"; status=invalid");
+            for (Long id: (outcomes == null) ? ids : outcomes.keySet()) {
+                String outcome = (outcomes == null) ? null : outcomes.get(id);
+                if (outcome == null)
+                    outcome = "not harvested";
+                if ( !(outcome.equals("written") || outcome.equals("unchanged")) )
+                    notHarvested++;
+                console.println("### id="+id+"; status="+outcome);
+            }
+            console.println("### Ids listed="+(ids.size()+invalidIds.size())+" not-harvested="+notHarvested);
+            if ( (notHarvested > 0) && (exit_code == 0) )
+                exit_code = 1;
+        }
+        if (manifestFileName != null)
+            console.println("### Manifest new="+pipeline.getNewCount()+" changed="+pipeline.getChangedCount()
+                    +" unchanged="+pipeline.getUnchangedCount());
+        console.println("### Harvested "+count+" records in "+ timeElapsed.toMillis()/1000.0 +" seconds");
+        console.println("### Pipeline "+pipeline.toString());
+        if (checkpoint != null)
+            console.println("### Checkpoint "+checkpoint.toString());
+        console.println("### String dedup "+FigshareConnection.getStringInterner().toString());
+        console.println("### Latency "+FigshareConnection.getLatencyHistogram().toString());
+        if (summaryFileName != null) {
+            SimpleDateFormat strFormatOut = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssX");
+            strFormatOut.setTimeZone(TimeZone.getTimeZone("UTC"));
+            JSONObject summary = pipeline.getSummary();
+            summary.put("started", strFormatOut.format(Date.from(start)));
+            summary.put("ended", strFormatOut.format(Date.from(end)));
+            summary.put("exitCode", exit_code);
+            summary.put("mode", (ids != null) ? "ids" : "search");
+            summary.put("from", fromDate);
+            summary.put("until", toDate);
+            summary.put("windows", windows.length);
+            summary.put("metadataPrefix", metadataPrefix);
+            summary.put("output", outputName);
+            summary.put("format", outputFormat);
+            if (shards > 0)
+                summary.put("shard", shard+"/"+shards);
+            try {
+                HarvestPipeline.appendSummary(Paths.get(summaryFileName), summary);
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, "summary-file could not be written.", ex);
+                if (exit_code == 0)
+                    exit_code = -1;
+            }
+        }
+        if (ids != null)
+            System.exit(exit_code);
         if (toDate==null) {
             String formatOut = "yyyy-MM-dd'T'HH:mm:ssX";
             SimpleDateFormat strFormatOut = new SimpleDateFormat(formatOut);
             strFormatOut.setTimeZone(TimeZone.getTimeZone("UTC"));
             toDate=strFormatOut.format(lastretrieve);
         }
-        System.out.println("### Next from-date="+toDate);
+        console.println("### Next from-date="+toDate);
         System.exit(exit_code);
     }
     
+    /**
+     * Harvest every interval, until the process is stopped.
+     * The catalog and manifest are kept between runs, and the watermark and statistics
+     * of the last run are saved in the state file.
+     */
+    private static void watch(FigshareOAICatalog figshareOAICatalog, String watchFileName, long watchInterval,
+            int backfill, String manifestFileName, String summaryFileName, String outputName, String outputFormat, String fromDate,
+            String metadataPrefix, String xmlelement, boolean xmlcontent, PrintStream console) {
+        final HarvestDaemon daemon = new HarvestDaemon(figshareOAICatalog, properties, Paths.get(watchFileName),
+                outputName, outputFormat, metadataPrefix, xmlelement, xmlcontent);
+        daemon.setInterval(watchInterval);
+        daemon.setBackfill(backfill);
+        daemon.setConsole(console);
+        if (summaryFileName != null)
+            daemon.setSummary(Paths.get(summaryFileName));
+        if (manifestFileName != null) {
+            try {
+                RecordManifest manifest = RecordManifest.load(Paths.get(manifestFileName));
+                console.println("### manifest "+manifest.toString());
+                daemon.setManifest(manifest);
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, "manifest-file could not be read.", ex);
+                System.exit(-1);
+            }
+        }
+        try {
+            daemon.open(fromDate);
+        } catch (IOException ex) {
+            LOG.log(Level.SEVERE, "state-file could not be used: "+ex.getMessage());
+            System.exit(-1);
+        }
+        console.println("### Watch "+daemon.toString());
+        // on SIGTERM or Ctrl-C stop the harvest in progress, and wait for its state to be saved
+        final Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            daemon.stop();
+            try {
+                main.join(60000);
+            } catch (InterruptedException ex) {
+            }
+        }));
+        int exit_code = 0;
+        try {
+            daemon.run();
+        } catch (BadArgumentException | CannotDisseminateFormatException ex) {
+            LOG.log(Level.SEVERE, "Watch stopped, the request cannot be harvested.", ex);
+            exit_code = 2;
+        } catch (IOException ex) {
+            LOG.log(Level.SEVERE, "Watch stopped, state-file could not be saved.", ex);
+            exit_code = -1;
+        }
+        try {
+            daemon.close();
+        } catch (IOException ex) {
+            LOG.log(Level.SEVERE, "Problem releasing the state-file lock.", ex);
+        }
+        console.println("### Watch stopped "+daemon.toString());
+        console.println("### Next from-date="+daemon.getWatermark());
+        // the JVM is already exiting when stopped by the shutdown hook
+        if (!daemon.isStopped())
+            System.exit(exit_code);
+    }
+    
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A filesFormat / customFields.Format.N string compiled into literal and placeholder segments.
+ * <p>
+ * Supported placeholders are %NAME% %VALUE% %VALUE2% and their escaped variants
+ * %NAME_ELEMENT% %NAME_CDATA% %NAME_ATTRIB% %VALUE_CDATA% %VALUE_ATTRIB%
+ * %VALUE2_CDATA% %VALUE2_ATTRIB%. Any other %TEXT% is kept as literal text.
+ * <p>
+ * The format is parsed once, then render() appends the output in a single pass,
+ * escaping values directly into the destination.
+ * Substituted values are never rescanned for placeholders.
+ * Instances are immutable and safe to share between threads.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class FormatTemplate {
+
+    private static final String[] PLACEHOLDERS = {
+        "NAME", "NAME_ELEMENT", "NAME_CDATA", "NAME_ATTRIB",
+        "VALUE", "VALUE_CDATA", "VALUE_ATTRIB",
+        "VALUE2", "VALUE2_CDATA", "VALUE2_ATTRIB"
+    };
+    private static final int NAME = 0;
+    private static final int NAME_ELEMENT = 1;
+    private static final int NAME_CDATA = 2;
+    private static final int NAME_ATTRIB = 3;
+    private static final int VALUE = 4;
+    private static final int VALUE_CDATA = 5;
+    private static final int VALUE_ATTRIB = 6;
+    private static final int VALUE2 = 7;
+    private static final int VALUE2_CDATA = 8;
+    private static final int VALUE2_ATTRIB = 9;
+    private static final int LITERAL = -1;
+
+    private final String format;
+    private final String[] literals;
+    private final int[] segments;
+
+    private FormatTemplate(String format, String[] literals, int[] segments) {
+        this.format = format;
+        this.literals = literals;
+        this.segments = segments;
+    }
+
+    /**
+     * Parse a format string into segments.
+     * @param format format string containing %PLACEHOLDER% substitutions.
+     * @return compiled template.
+     */
+    public static FormatTemplate compile(String format) {
+        ArrayList<String> literals = new ArrayList<String>();
+        ArrayList<Integer> segments = new ArrayList<Integer>();
+        StringBuilder literal = new StringBuilder();
+        int pos = 0;
+        while (pos < format.length()) {
+            int start = format.indexOf('%', pos);
+            int end = (start < 0) ? -1 : format.indexOf('%', start+1);
+            if (end < 0) {
+                literal.append(format, pos, format.length());
+                break;
+            }
+            int placeholder = placeholderIndex(format.substring(start+1, end));
+            if (placeholder == LITERAL) {
+                // not a placeholder, keep the first % and look again from the second
+                literal.append(format, pos, end);
+                pos = end;
+                continue;
+            }
+            literal.append(format, pos, start);
+            if (literal.length() > 0) {
+                literals.add(literal.toString());
+                segments.add(LITERAL);
+                literal.setLength(0);
+            }
+            literals.add(null);
+            segments.add(placeholder);
+            pos = end+1;
+        }
+        if (literal.length() > 0) {
+            literals.add(literal.toString());
+            segments.add(LITERAL);
+        }
+        int[] segs = new int[segments.size()];
+        for (int i=0; i<segs.length; i++)
+            segs[i] = segments.get(i);
+        return new FormatTemplate(format, literals.toArray(new String[literals.size()]), segs);
+    }
+
+    private static int placeholderIndex(String token) {
+        for (int i=0; i<PLACEHOLDERS.length; i++)
+            if (PLACEHOLDERS[i].equals(token)) return i;
+        return LITERAL;
+    }
+
+    /**
+     * Append the formatted name/value to the destination.
+     * Escaped variants are written straight to the destination, without intermediate Strings.
+     * Null name or values are output as empty text.
+     * @param out destination to append to.
+     * @param name name of the custom field, or name of a file.
+     * @param value value of the custom field, or link to the file.
+     * @param value2 second value, eg. MD5 hash of the file, or null.
+     * @exception IOException the destination could not be written.
+     */
+    public void render(Appendable out, String name, String value, String value2) throws IOException {
+        if (name == null) name = "";
+        if (value == null) value = "";
+        if (value2 == null) value2 = "";
+        for (int i=0; i<segments.length; i++) {
+            switch (segments[i]) {
+                case LITERAL: out.append(literals[i]); break;
+                case NAME: out.append(name); break;
+                case NAME_ELEMENT: out.append(Utils.XML_element_escape(name)); break;
+                case NAME_CDATA: Utils.XML_cdata_escape(out, name); break;
+                case NAME_ATTRIB: Utils.XML_attrib_escape(out, name); break;
+                case VALUE: out.append(value); break;
+                case VALUE_CDATA: Utils.XML_cdata_escape(out, value); break;
+                case VALUE_ATTRIB: Utils.XML_attrib_escape(out, value); break;
+                case VALUE2: out.append(value2); break;
+                case VALUE2_CDATA: Utils.XML_cdata_escape(out, value2); break;
+                case VALUE2_ATTRIB: Utils.XML_attrib_escape(out, value2); break;
+            }
+        }
+    }
+
+    /**
+     * @return the original format string.
+     */
+    @Override
+    public String toString() {
+        return format;
+    }
+}
@@ -27,16 +27,16 @@
 package net.datanoid.oaipmh.figshare;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.ParseException;
-import java.util.HashMap;
+import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  *
@@ -97,15 +97,22 @@ public class GeospatialPoint {
      * Create geospatial point with given some location name or encoding.
      * Supports:
      *  conversion of ISO3166 country alpha codes and names;
-     *  ???
+     *  DCMI-Point "name=Perth, W.A.; east=115.85717; north=-31.95301";
+     *  DCMI-Box "name=Western Australia; northlimit=-13.5; southlimit=-35.5; westlimit=112.5; eastlimit=129",
+     *   returning the centre of the box;
+     *  degrees, minutes and seconds with hemispheres, eg. "S 21 09' 12\" E 149 09' 56\"",
+     *   "21deg 09' 12'' S, 149deg 09' 56'' E", "25 00 00 S 149 56 00 E", "37.81 S 144.96 E";
+     *  decimal degrees "144.962311 -37.814726", taken as east north;
+     *  GeoNames URIs "https://sws.geonames.org/2159220/" and Getty TGN URIs
+     *   "http://vocab.getty.edu/tgn/7001959" or "TGN:7001959", looked up offline in the
+     *   PlaceGazetteer files given to configure(), never over the network.
      * @param location String value of longitude
      * @return GeospatialPoint of the identified location.
      * @throws ParseException If no location can be identified.
      */
     public static GeospatialPoint parse(String location) throws ParseException {
         // ISO3166 country codes
-        String pattern="[a-zA-Z]{2,3}";
-        if (location.matches(pattern)) {
+        if (COUNTRY_CODE_PATTERN.matcher(location).matches()) {
             // guess ISO3166 2 or 3 letter country code
             try {
                 String country = iso3166AlphaToCountry(location);
@@ -114,248 +121,381 @@ public class GeospatialPoint {
                 // try the next guess
             }
         }
+        // ISO3166 country names, in any case
+        try {
+            return countryToGeospatialPoint(location.trim());
+        } catch (ParseException ex) {
+            // try the next guess
+        }
+
+        // GeoNames or Getty TGN, from the offline gazetteers
+        Matcher matcher = GEONAMES_PATTERN.matcher(location);
+        if (matcher.matches())
+            return placeToGeospatialPoint(geonamesGazetteer, "GeoNames", matcher.group(1), location);
+        matcher = TGN_PATTERN.matcher(location);
+        if (matcher.matches())
+            return placeToGeospatialPoint(tgnGazetteer, "Getty TGN", matcher.group(1), location);
+
+        // DCMI-Point or DCMI-Box
+        if (location.indexOf('=') >= 0)
+            return parseDCMI(location);
+
+        // Coordinates, degrees minutes seconds or decimal
+        Coordinates coords = new Coordinates();
+        if (coords.scan(location) == 2)
+            return coords.toPoint(location);
+
+        throw new ParseException("Location '"+location+"' is not an identified country, point, box or coordinates.",0);
+    }
+
+    private static final Pattern COUNTRY_CODE_PATTERN = Pattern.compile("[a-zA-Z]{2,3}");
+    // eg. https://sws.geonames.org/2159220/ https://sws.geonames.org/2159220/about.rdf
+    //  http://www.geonames.org/2159220/mackay.html
+    private static final Pattern GEONAMES_PATTERN = Pattern.compile(
+            "\\s*(?:https?://)?(?:sws\\.|www\\.)?geonames\\.org/(\\d{1,10})(?:/\\S*)?\\s*");
+    // eg. http://vocab.getty.edu/tgn/7001959 http://vocab.getty.edu/page/tgn/7001959
+    //  http://vocab.getty.edu/tgn/7001959.json TGN:7001959
+    private static final Pattern TGN_PATTERN = Pattern.compile(
+            "\\s*(?:(?:https?://)?vocab\\.getty\\.edu/(?:page/)?tgn/|(?i:tgn):)(\\d{2,10})(?:[-./]\\S*)?\\s*");
+
+    /*
+     * Offline gazetteers of GeoNames and Getty TGN places, null if not configured.
+     */
+    private static volatile PlaceGazetteer geonamesGazetteer = null;
+    private static volatile PlaceGazetteer tgnGazetteer = null;
+
+    /**
+     * Open the offline gazetteers named in the properties, if not already open.
+     * <pre>
+     *   GeospatialPoint.geonamesGazetteer  PlaceGazetteer file of GeoNames places
+     *   GeospatialPoint.tgnGazetteer       PlaceGazetteer file of Getty TGN places
+     * </pre>
+     * A gazetteer that cannot be opened is logged, and its URIs are left unresolved.
+     * @param properties configuration properties.
+     */
+    public static synchronized void configure(Properties properties) {
+        geonamesGazetteer = openGazetteer(properties.getProperty("GeospatialPoint.geonamesGazetteer"), geonamesGazetteer);
+        tgnGazetteer = openGazetteer(properties.getProperty("GeospatialPoint.tgnGazetteer"), tgnGazetteer);
+    }
+
+    private static PlaceGazetteer openGazetteer(String file, PlaceGazetteer current) {
+        if ( (file == null) || (file.trim().length() == 0) )
+            return current;
+        Path path = Paths.get(file.trim());
+        if ( (current != null) && current.getPath().equals(path) )
+            return current;
+        try {
+            PlaceGazetteer gazetteer = PlaceGazetteer.open(path);
+            LOG.log(Level.INFO, "Opened place gazetteer "+gazetteer);
+            return gazetteer;
+        } catch (IOException ex) {
+            LOG.log(Level.SEVERE, "ERROR: Cannot open place gazetteer "+path, ex);
+            return current;
+        }
+    }
+
+    /**
+     * Returns GeopatialPoint of a place in an offline gazetteer.
+     * @throws ParseException if the gazetteer is not configured or does not have the place.
+     */
+    private static GeospatialPoint placeToGeospatialPoint(PlaceGazetteer gazetteer, String source,
+            String id, String location) throws ParseException {
+        if (gazetteer == null)
+            throw new ParseException("No "+source+" gazetteer configured to resolve '"+location+"'.",0);
+        int place = gazetteer.find(Long.parseLong(id));
+        if (place < 0)
+            throw new ParseException(source+" place "+id+" is not in the gazetteer.",0);
+        return new GeospatialPoint(gazetteer.getName(place), gazetteer.getLongitude(place), gazetteer.getLatitude(place));
+    }
+
+    /**
+     * Parse a DCMI-Point or DCMI-Box encoding, https://www.dublincore.org/specifications/dublin-core/dcmi-point/
+     * Components other than name, east, north and the limits (eg. units, elevation) are ignored.
+     * @param value DCMI-Point or DCMI-Box encoded value.
+     * @return point, or centre of the box.
+     * @throws ParseException if neither east and north, nor all four limits, are present.
+     */
+    private static GeospatialPoint parseDCMI(String value) throws ParseException {
+        String name = null;
+        double east = Double.NaN, north = Double.NaN;
+        double northlimit = Double.NaN, southlimit = Double.NaN, westlimit = Double.NaN, eastlimit = Double.NaN;
+        int pos = 0;
+        int length = value.length();
+        while (pos < length) {
+            int end = value.indexOf(';', pos);
+            if (end < 0)
+                end = length;
+            int eq = value.indexOf('=', pos);
+            if ( (eq > pos) && (eq < end) ) {
+                String component = value.substring(pos, eq).trim();
+                String text = value.substring(eq+1, end).trim();
+                try {
+                    switch (component) {
+                        case "name": name = text; break;
+                        case "east": east = Double.parseDouble(text); break;
+                        case "north": north = Double.parseDouble(text); break;
+                        case "northlimit": northlimit = Double.parseDouble(text); break;
+                        case "southlimit": southlimit = Double.parseDouble(text); break;
+                        case "westlimit": westlimit = Double.parseDouble(text); break;
+                        case "eastlimit": eastlimit = Double.parseDouble(text); break;
+                        default: break;
+                    }
+                } catch (NumberFormatException ex) {
+                    throw new ParseException("DCMI component '"+component+"' is not a number in '"+value+"'.",pos);
+                }
+            }
+            pos = end+1;
+        }
+        if ( (name != null) && (name.length() == 0) )
+            name = null;
+        if ( !Double.isNaN(east) && !Double.isNaN(north) )
+            return checkedPoint(name, east, north, value);
+        if ( !Double.isNaN(northlimit) && !Double.isNaN(southlimit) && !Double.isNaN(westlimit) && !Double.isNaN(eastlimit) ) {
+            // a box crossing the antimeridian has eastlimit < westlimit
+            if (eastlimit < westlimit)
+                eastlimit += 360;
+            double lon = (westlimit+eastlimit)/2;
+            if (lon > 180)
+                lon -= 360;
+            return checkedPoint(name, lon, (northlimit+southlimit)/2, value);
+        }
+        throw new ParseException("Value '"+value+"' is not a DCMI-Point or DCMI-Box.",0);
+    }
+
+    /**
+     * @return new point, if longitude and latitude are within range.
+     * @throws ParseException if the longitude or latitude is out of range.
+     */
+    private static GeospatialPoint checkedPoint(String name, double lon, double lat, String value) throws ParseException {
+        if ( (Math.abs(lon) > 180) || (Math.abs(lat) > 90) )
+            throw new ParseException("Longitude or latitude out of range in '"+value+"'.",0);
+        return new GeospatialPoint(name, lon, lat);
+    }
+
+    /**
+     * Hand-written scanner for one or two coordinates, each written as decimal degrees,
+     * or as degrees, minutes and seconds, with an optional N S E W hemisphere before or after.
+     * Minutes and seconds are recognised by their marks (eg. ' " '' or the prime symbols), or by position
+     * when only separated by spaces, eg. "25 00 00 S".
+     */
+    private static final class Coordinates {
+        private static final int MAX = 2;
+        final double[] values = new double[MAX];
+        /** 'N' for a latitude, 'E' for a longitude, 0 if no hemisphere given. */
+        final char[] axes = new char[MAX];
+        int count;
+        boolean marked;
+        // coordinate being scanned
+        private double degrees, minutes, seconds;
+        private boolean negative;
+        private int slot;
+        private char hemisphere;
+        private boolean fraction;
+
+        private void reset() {
+            degrees = 0; minutes = 0; seconds = 0;
+            negative = false;
+            slot = 0;
+            hemisphere = 0;
+            fraction = false;
+        }
 
-        //TODO
-        // DCMI-Point "name=Perth, W.A.; east=115.85717; north=-31.95301"
-        pattern = "east=(-*[0-9.]+);";
-        pattern = "north=(-*[0-9.]+);";
-        pattern = "name=([^;]+);"; // optional
-        
-        // TODO
-        // DCMI-Box "name=Western Australia; northlimit=-13.5; southlimit=-35.5; westlimit=112.5; eastlimit=129"
-        
-        // Old style written degrees,minutes,seconds
-        // Old style sub-pattern "23° 26' 21''" "21°09′12″"
-        String pattern_old = "(\\d+)(°|deg|degrees)\\s*(\\d+)('|′)\\s*(\\d+)(\"|″|''|′′)";
-        
-        // "S 21°09′12″ E 149°09′56″"
-        pattern = "(N|S|E|W)\\s+"+pattern_old+"[\\s,]+(N|S|E|W)\\s+"+pattern_old;
-        // "21°09′12″ N 149°09′56″ W"
-        pattern = pattern_old+"\\s+(N|S|E|W)[\\s,]+"+pattern_old+"\\s+(N|S|E|W)";
-        // "23° 26' 21'' N" try a single lat or long
-        pattern = pattern_old+"\\s+(N|S|E|W)";
-        
-        
-        // TODO
-        // Getty TGN
-        // Page Link: http://vocab.getty.edu/page/tgn/7001959
-        // perhaps TGN:1234567
-        // JSON http://vocab.getty.edu/tgn/7001959.json
-        pattern = "http://vocab.getty.edu/tgn/(\\d{2,8})";
-        pattern = "http://vocab.getty.edu/page/tgn/(\\d{2,8})";
-        pattern = "TGN:(\\d{2,8})";
-        /*
-        {
-      "Subject" : {
-        "type" : "uri",
-        "value" : "http://vocab.getty.edu/tgn/term/98378"
-      },
-      "Predicate" : {
-        "type" : "uri",
-        "value" : "http://vocab.getty.edu/ontology#term"
-      },
-      "Object" : {
-        "type" : "literal",
-        "value" : "Mackay"
-      }
-      ...
-      {
-      "Subject" : {
-        "type" : "uri",
-        "value" : "http://vocab.getty.edu/tgn/7001959-place"
-      },
-      "Predicate" : {
-        "type" : "uri",
-        "value" : "http://www.w3.org/2003/01/geo/wgs84_pos#lat"
-      },
-      "Object" : {
-        "datatype" : "http://www.w3.org/2001/XMLSchema#decimal",
-        "type" : "literal",
-        "value" : "-21.15345"
-       }, {
-      "Subject" : {
-        "type" : "uri",
-        "value" : "http://vocab.getty.edu/tgn/7001959-place"
-      },
-      "Predicate" : {
-        "type" : "uri",
-        "value" : "http://www.w3.org/2003/01/geo/wgs84_pos#long"
-      },
-      "Object" : {
-        "datatype" : "http://www.w3.org/2001/XMLSchema#decimal",
-        "type" : "literal",
-        "value" : "149.165543"
-      }
-        */
-        
-        
-        // GeoNames????
-        // rdf:about="https://sws.geonames.org/2159220/"  eg. Mackay
-        // rdf:resource="https://sws.geonames.org/2159220/about.rdf"
-        //  contains:
-        //   <gn:name>Mackay</gn:name>
-        //   <wgs84_pos:lat>-21.15345</wgs84_pos:lat>
-        //   <wgs84_pos:long>149.16554</wgs84_pos:long>
-        // rdf:resource="https://www.geonames.org/2159220/mackay.html"
-        // link http://www.geonames.org/2159220/mackay.html
-        pattern="https://(www|sws).geonames.org/(\\d+)/";
-        String code="2159220";
-        String url = "https://sws.geonames.org/"+code+"/about.rdf";
+        /**
+         * Complete the coordinate being scanned.
+         * @return false if the coordinate is invalid.
+         */
+        private boolean close() {
+            if (slot == 0) {
+                // a hemisphere alone is not a coordinate
+                boolean valid = (hemisphere == 0);
+                reset();
+                return valid;
+            }
+            if ( (count >= MAX) || (minutes >= 60) || (seconds >= 60) || ((slot > 1) && (degrees != Math.floor(degrees))) )
+                return false;
+            double value = degrees + minutes/60 + seconds/3600;
+            if ( negative || (hemisphere == 'S') || (hemisphere == 'W') )
+                value = -value;
+            values[count] = value;
+            axes[count] = ((hemisphere == 'N') || (hemisphere == 'S')) ? 'N' : (hemisphere == 0) ? 0 : 'E';
+            count++;
+            reset();
+            return true;
+        }
+
+        private static boolean isLetter(String text, int pos) {
+            return (pos >= 0) && (pos < text.length()) && Character.isLetter(text.charAt(pos));
+        }
+
+        /**
+         * Scan the text.
+         * @return number of coordinates found, or -1 if the text is not coordinates.
+         */
+        int scan(String text) {
+            count = 0;
+            marked = false;
+            reset();
+            int length = text.length();
+            int pos = 0;
+            while (pos < length) {
+                char c = text.charAt(pos);
+                if ( ((c >= '0') && (c <= '9')) || (c == '.')
+                        || (((c == '-') || (c == '+')) && (pos+1 < length) && (Character.isDigit(text.charAt(pos+1)) || (text.charAt(pos+1) == '.'))) ) {
+                    // number
+                    int start = pos;
+                    pos++;
+                    while ( (pos < length) && ((Character.isDigit(text.charAt(pos))) || (text.charAt(pos) == '.')) )
+                        pos++;
+                    double number;
+                    try {
+                        number = Double.parseDouble(text.substring(start, pos));
+                    } catch (NumberFormatException ex) {
+                        return -1;
+                    }
+                    boolean signed = (c == '-') || (c == '+');
+                    while ( (pos < length) && (text.charAt(pos) == ' ') )
+                        pos++;
+                    // mark following the number
+                    int target = -1;
+                    if (pos < length) {
+                        char m = text.charAt(pos);
+                        char m2 = (pos+1 < length) ? text.charAt(pos+1) : 0;
+                        if ( (m == '\u00b0') || (m == '\u00ba') || (m == '\u02da') ) {
+                            target = 0; pos++;
+                        } else if (text.startsWith("deg", pos)) {
+                            target = 0; pos += text.startsWith("degrees", pos) ? 7 : 3;
+                        } else if ( (m == '"') || (m == '\u2033') || (m == '\u201d')
+                                || (((m == '\'') || (m == '\u2032') || (m == '\u2019')) && (m2 == m)) ) {
+                            target = 2; pos += (m == m2) ? 2 : 1;
+                        } else if ( (m == '\'') || (m == '\u2032') || (m == '\u2019') ) {
+                            target = 1; pos++;
+                        }
+                    }
+                    if (target >= 0) {
+                        marked = true;
+                    } else if ( (slot > 0) && (signed || fraction) ) {
+                        // unmarked, after decimal degrees or with a sign, the next coordinate begins
+                        target = 0;
+                    } else {
+                        target = slot;
+                    }
+                    if ( (target < slot) || (target > 2) ) {
+                        // the next coordinate begins
+                        if (!close())
+                            return -1;
+                        if (target != 0)
+                            return -1;
+                    }
+                    if ( signed && (target > 0) )
+                        return -1;
+                    fraction = (number != Math.floor(number));
+                    if (target == 0) {
+                        negative = (number < 0) || (c == '-');
+                        degrees = Math.abs(number);
+                    } else if (target == 1) {
+                        minutes = number;
+                    } else {
+                        seconds = number;
+                    }
+                    slot = target+1;
+                } else if ( ("NSEWnsew".indexOf(c) >= 0) && !isLetter(text, pos-1) && !isLetter(text, pos+1) ) {
+                    // hemisphere, before or after a coordinate
+                    char h = Character.toUpperCase(c);
+                    if ( (slot > 0) && (hemisphere == 0) ) {
+                        hemisphere = h;
+                        if (!close())
+                            return -1;
+                    } else {
+                        if (!close())
+                            return -1;
+                        hemisphere = h;
+                    }
+                    pos++;
+                } else if ( (c == ',') || (c == ';') || (c == '/') ) {
+                    if (!close())
+                        return -1;
+                    pos++;
+                } else if (Character.isWhitespace(c)) {
+                    pos++;
+                } else {
+                    return -1;
+                }
+            }
+            if (!close())
+                return -1;
+            return count;
+        }
 
-        // Last resort...
-        // WGS84 EPSG:4326 https://epsg.io/4326
-        // eg. Melbourne "144.962311 -37.814726", looks like East North
-        pattern="((-*[0-9.]+)[\\s,]+(-*[0-9.]+)";
-        
-        return new GeospatialPoint();
+        /**
+         * Convert two scanned coordinates to a point.
+         * With hemispheres given they decide which is the latitude. Without them,
+         * degrees minutes seconds are read as latitude longitude, as usually written,
+         * and decimal degrees as longitude latitude (east north), unless out of range.
+         */
+        GeospatialPoint toPoint(String text) throws ParseException {
+            boolean latFirst;
+            if ( (axes[0] != 0) && (axes[0] == axes[1]) )
+                throw new ParseException("Coordinates '"+text+"' have two latitudes or longitudes.",0);
+            if (axes[0] != 0)
+                latFirst = (axes[0] == 'N');
+            else if (axes[1] != 0)
+                latFirst = (axes[1] == 'E');
+            else if (Math.abs(values[0]) > 90)
+                latFirst = false;
+            else if (Math.abs(values[1]) > 90)
+                latFirst = true;
+            else
+                latFirst = marked;
+            if (latFirst)
+                return checkedPoint(null, values[1], values[0], text);
+            return checkedPoint(null, values[0], values[1], text);
+        }
     }
 
     /**
      * Parse a string value as a Longitude or Latitude.
+     * Decimal degrees, or degrees minutes and seconds, with an optional hemisphere,
+     * eg. "-37.814726", "23deg 26' 21'' N", "25 00 00 S".
      * @param value String value of longitude
-     * @return The floating point value of the passed value.
+     * @return The floating point value of the passed value, negative if S or W.
      * @throws ParseException If no value can be identified.
      */
     public static double parseLongitude(String value) throws ParseException {
-        // Old style sub-pattern "23° 26' 21''" "21°09′12″"
-        String pattern_old = "(\\d+)(°|deg|degrees)\\s*(\\d+)('|′)\\s*(\\d+)(\"|″|''|′′)";
-        // "S 21°09′12″ E 149°09′56″"
-        String pattern = "(N|S|E|W)\\s+"+pattern_old+"[\\s,]+(N|S|E|W)\\s+"+pattern_old;
-        // "21°09′12″ N 149°09′56″ W"
-        pattern = pattern_old+"\\s+(N|S|E|W)[\\s,]+"+pattern_old+"\\s+(N|S|E|W)";
-        // "23° 26' 21'' N" try a single lat or long
-        pattern = pattern_old+"\\s+(N|S|E|W)";
-        
-        // "25 00 00 S degrees minutes"
-        pattern = pattern_old+"(\\d+)\\s(\\d+)\\s(\\d+)\\s(N|S|E|W)";
-        
-        // straight number
-        return Double.parseDouble(value);
+        Coordinates coords = new Coordinates();
+        if (coords.scan(value) != 1)
+            throw new ParseException("Value '"+value+"' is not a longitude or latitude.",0);
+        return coords.values[0];
     }
     
-    /*
-     * Configuration and storage for ISO3166.
-     * Resource file obtained from:
-     *  https://github.com/lukes/ISO-3166-Countries-with-Regional-Codes
-     *  Licensed under a Creative Commons Attribution-ShareAlike 4.0 International License.
-     * Resource file obtained from:
-     *  https://github.com/eesur/country-codes-lat-long
-     *  MIT License, Copyright (c) 2022 Sundar Singh
-    */
-    private static String iso3166resource = "resources/iso3166countries.json";
-    private static String iso3166latlongresource = "resources/iso3166country-codes-lat-long-alpha3.json";
-    private static HashMap alpha2ToCountry = null;
-    private static HashMap alpha3ToCountry = new HashMap();
-    private static HashMap countryToAlpha2 = new HashMap();
-    private static HashMap countryToPoint = new HashMap();
-
     /**
      * Return country name of a given a 2 or 3 letter country code. 
-     * @param code 2 or 3 letter country code.
+     * @param code 2 or 3 letter country code, in any case.
      * @return country name.
      * @throws ParseException if no country could be identified.
      */
     public static String iso3166AlphaToCountry(String code) throws ParseException {
-        if ((alpha2ToCountry==null) || (alpha3ToCountry==null)) {
-            // load country codes
-            alpha2ToCountry = new HashMap();
-            alpha3ToCountry = new HashMap();
-            InputStreamReader reader = new InputStreamReader( GeospatialPoint.class.getResourceAsStream(iso3166resource) );
-            JSONParser parser = new JSONParser();
-            Object obj;
-            try {
-                obj = parser.parse(reader);
-            } catch (IOException ex) {
-                LOG.log(Level.SEVERE, "ERROR: Cannot file resource "+iso3166resource, ex);
-                return null;
-            } catch (org.json.simple.parser.ParseException ex) {
-                LOG.log(Level.SEVERE, "ERROR: Cannot JSON parse file resource "+iso3166resource, ex);
-                return null;
-            }
-            if (!(obj instanceof JSONArray)) {
-                LOG.log(Level.SEVERE, "ERROR: Resource "+iso3166resource+" did not return JSON array.");
-                return null;
-            }
-            JSONArray jarray = (JSONArray)obj;
-            for (Object item: jarray) {
-                if (!(item instanceof JSONObject))
-                    LOG.log(Level.WARNING, "WARNING: JSON array item is not a JSON item."+item.toString());
-                JSONObject jitem = (JSONObject)item;
-                String name = (String)jitem.get("name");
-                String a2 = (String)jitem.get("alpha-2");
-                String a3 = (String)jitem.get("alpha-3");
-                alpha2ToCountry.put(a2.toUpperCase(), name);
-                alpha2ToCountry.put(a3.toUpperCase(), name);
-                countryToAlpha2.put(name.toLowerCase(), a2.toUpperCase());
-                // Insert dummy country lon/lat flagging needs to load
-                countryToPoint.put(name.toLowerCase(), new GeospatialPoint());
-            }
-            // load country lat long
-            reader = new InputStreamReader( GeospatialPoint.class.getResourceAsStream(iso3166latlongresource) );
-            try {
-                obj = parser.parse(reader);
-            } catch (IOException ex) {
-                LOG.log(Level.SEVERE, "ERROR: Cannot file resource "+iso3166latlongresource, ex);
-                return null;
-            } catch (org.json.simple.parser.ParseException ex) {
-                LOG.log(Level.SEVERE, "ERROR: Cannot JSON parse file resource "+iso3166latlongresource, ex);
-                return null;
-            }
-            if (!(obj instanceof JSONArray)) {
-                LOG.log(Level.SEVERE, "ERROR: Resource "+iso3166latlongresource+" did not return JSON array.");
-                return null;
-            }
-            jarray = (JSONArray)obj;
-            for (Object item: jarray) {
-                if (!(item instanceof JSONObject))
-                    LOG.log(Level.WARNING, "WARNING: JSON array item is not a JSON item."+item.toString());
-                JSONObject jitem = (JSONObject)item;
-                String name = (String)jitem.get("country");
-                double lat = 9999;
-                double lon = 9999;                
-                Object o = jitem.get("latitude");
-                if (o instanceof Long)
-                    lat = (Long)o * 1.0;
-                else if (o instanceof Double)
-                    lat = (Double)o * 1.0;
-                else
-                    System.out.println("LYLE:" + o.getClass().getName());
-                o = jitem.get("longitude");
-                if (o instanceof Long)
-                    lon = (Long)o * 1.0;
-                else if (o instanceof Double)
-                    lon = (Double)o * 1.0;
-                else
-                    System.out.println("LYLE:" + o.getClass().getName());
-                countryToPoint.put(name.toLowerCase(), new GeospatialPoint(name,lon,lat));
-            }
-        }
-        if (alpha2ToCountry.get(code.toUpperCase())!=null)
-            return (String)alpha2ToCountry.get(code);
-        if (alpha3ToCountry.get(code.toUpperCase())!=null)
-            return (String)alpha3ToCountry.get(code);
-        throw new ParseException("Code '"+code+"' does not match any 2 or 3 digit ISO3166 country code.",0);
+        CountryGazetteer gazetteer = CountryGazetteer.getInstance();
+        // names are all longer than 3 letters, so only codes match
+        int country = ((code.length() == 2) || (code.length() == 3)) ? gazetteer.find(code) : -1;
+        if (country < 0)
+            throw new ParseException("Code '"+code+"' does not match any 2 or 3 digit ISO3166 country code.",0);
+        return gazetteer.getName(country);
     }
 
     /**
      * Returns GeopatialPoint given an ISO3166 country name.
-     * @param country ISO3166 country name.
-     * @return GeopatialPoint point of identified country or null if no country.
+     * @param country ISO3166 country name, in any case.
+     * @return new GeopatialPoint of identified country.
      * @throws ParseException if not an identified country with lon/lat.
      */
     public static GeospatialPoint countryToGeospatialPoint(String country) throws ParseException {
-        if ((alpha2ToCountry==null) || (alpha3ToCountry==null)) {
-            // first call, use dummy call to trigger a load of country info
-            iso3166AlphaToCountry("AU");
-        }
-        Object point = countryToPoint.get(country.toLowerCase());
-        if (point!=null) {
-            GeospatialPoint gpoint = (GeospatialPoint)point;
-            if (gpoint.longitude>=9999)
-                throw new ParseException("Country '"+country+"' does not have a latitude and longitude.",0);
-            return gpoint;
-        }
-        throw new ParseException("Country '"+country+"' is not an idenfied ISO3166 country name.",0);
+        CountryGazetteer gazetteer = CountryGazetteer.getInstance();
+        int found = gazetteer.find(country);
+        if (found < 0)
+            throw new ParseException("Country '"+country+"' is not an idenfied ISO3166 country name.",0);
+        if (!gazetteer.hasPoint(found))
+            throw new ParseException("Country '"+country+"' does not have a latitude and longitude.",0);
+        return new GeospatialPoint(gazetteer.getName(found), gazetteer.getLongitude(found), gazetteer.getLatitude(found));
     }
     
     public String toString() {
@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.TreeSet;
+
+/**
+ * Durable record of the progress of a command-line harvest, so an interrupted run
+ * can be resumed without searching or fetching the pages it already completed.
+ * <p>
+ * The file holds the harvest parameters (from, until, metadataPrefix, extracted
+ * element, output and search page size), the search pages completed, and the last
+ * record written. A page is complete once every article it listed has been written
+ * or skipped. Pages complete out of order when the pipeline runs several threads,
+ * so pagesDone is the number of leading pages complete, and pagesDoneAfter lists
+ * any later complete pages. A backfill split into date windows has these for each
+ * window, those of window 0 as above and the others prefixed "window.N.".
+ * <p>
+ * The file is saved at each page boundary by writing a temporary file beside it,
+ * syncing it to disk, then moving it over the old file. A crash therefore leaves
+ * either the previous or the new checkpoint, never a partial one.
+ * <p>
+ * The until date must be fixed when the checkpoint is created, so resumed searches
+ * list the same articles on the same pages.
+ * Safe for use by concurrent pipeline threads.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class HarvestCheckpoint {
+
+    private final Path file;
+    private final String from;
+    private final String until;
+    private final String metadataPrefix;
+    private final String xmlElement;
+    private final boolean xmlContent;
+    private final String output;
+    private final int pageSize;
+    private final String started;
+    private final int windows;
+
+    private final int[] pagesDone;
+    private final List<TreeSet<Integer>> pagesDoneAfter;
+    private final int[] lastPage;
+    private String lastIdentifier = "";
+    private long written = 0;
+    private long writtenBefore = 0;
+    private boolean finished = false;
+
+    private HarvestCheckpoint(Path file, String from, String until, String metadataPrefix,
+            String xmlElement, boolean xmlContent, String output, int pageSize, String started, int windows) {
+        this.file = file;
+        this.from = from;
+        this.until = until;
+        this.metadataPrefix = metadataPrefix;
+        this.xmlElement = (xmlElement == null) ? "" : xmlElement;
+        this.xmlContent = xmlContent;
+        this.output = output;
+        this.pageSize = pageSize;
+        this.started = started;
+        if (windows < 1)
+            throw new IllegalArgumentException("HarvestCheckpoint requires at least 1 window");
+        this.windows = windows;
+        pagesDone = new int[windows];
+        lastPage = new int[windows];
+        pagesDoneAfter = new ArrayList<TreeSet<Integer>>(windows);
+        for (int w=0; w<windows; w++)
+            pagesDoneAfter.add(new TreeSet<Integer>());
+    }
+
+    /**
+     * Create a new checkpoint for a harvest, and save it.
+     * @param file checkpoint file, replaced if it exists.
+     * @param from beginning date of the harvest.
+     * @param until ending date of the harvest, must not be null.
+     * @param metadataPrefix the OAI metadataPrefix.
+     * @param xmlElement name of the element extracted from each record, or "".
+     * @param xmlContent true if the contents of the element are extracted.
+     * @param output output location of the records.
+     * @param pageSize search results per page.
+     * @return the saved checkpoint.
+     * @exception IOException the checkpoint could not be saved.
+     */
+    public static HarvestCheckpoint create(Path file, String from, String until, String metadataPrefix,
+            String xmlElement, boolean xmlContent, String output, int pageSize) throws IOException {
+        return create(file, from, until, metadataPrefix, xmlElement, xmlContent, output, pageSize, 1);
+    }
+
+    /**
+     * Create a new checkpoint for a backfill split into date windows, and save it.
+     * @param file checkpoint file, replaced if it exists.
+     * @param from beginning date of the harvest.
+     * @param until ending date of the harvest, must not be null.
+     * @param metadataPrefix the OAI metadataPrefix.
+     * @param xmlElement name of the element extracted from each record, or "".
+     * @param xmlContent true if the contents of the element are extracted.
+     * @param output output location of the records.
+     * @param pageSize search results per page.
+     * @param windows number of date windows, from HarvestPipeline.partition().
+     * @return the saved checkpoint.
+     * @exception IOException the checkpoint could not be saved.
+     */
+    public static HarvestCheckpoint create(Path file, String from, String until, String metadataPrefix,
+            String xmlElement, boolean xmlContent, String output, int pageSize, int windows) throws IOException {
+        if (until == null)
+            throw new IllegalArgumentException("HarvestCheckpoint requires a fixed until date");
+        HarvestCheckpoint checkpoint = new HarvestCheckpoint(file, from, until, metadataPrefix,
+                xmlElement, xmlContent, output, pageSize, formatDate(new Date()), windows);
+        checkpoint.save();
+        return checkpoint;
+    }
+
+    /**
+     * Load a saved checkpoint.
+     * @param file checkpoint file.
+     * @return the checkpoint, which continues to be saved to the same file.
+     * @exception IOException the file could not be read, or is not a complete checkpoint.
+     */
+    public static HarvestCheckpoint load(Path file) throws IOException {
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            p.load(in);
+        }
+        HarvestCheckpoint checkpoint;
+        try {
+            checkpoint = new HarvestCheckpoint(file, required(p, "from"), required(p, "until"),
+                    required(p, "metadataPrefix"), p.getProperty("xmlElement", ""),
+                    Boolean.parseBoolean(p.getProperty("xmlContent", "false")), required(p, "output"),
+                    Integer.parseInt(required(p, "pageSize")), p.getProperty("started", ""),
+                    Integer.parseInt(p.getProperty("windows", "1")));
+            for (int w=0; w<checkpoint.windows; w++) {
+                checkpoint.pagesDone[w] = Integer.parseInt(p.getProperty(key(w, "pagesDone"), "0"));
+                for (String page: p.getProperty(key(w, "pagesDoneAfter"), "").split(",")) {
+                    if (page.trim().length() > 0)
+                        checkpoint.pagesDoneAfter.get(w).add(Integer.parseInt(page.trim()));
+                }
+                checkpoint.lastPage[w] = Integer.parseInt(p.getProperty(key(w, "lastPage"), "0"));
+            }
+            checkpoint.lastIdentifier = p.getProperty("lastIdentifier", "");
+            checkpoint.written = Long.parseLong(p.getProperty("written", "0"));
+            checkpoint.writtenBefore = checkpoint.written;
+            checkpoint.finished = Boolean.parseBoolean(p.getProperty("finished", "false"));
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Invalid checkpoint file "+file+": "+ex.getMessage());
+        }
+        return checkpoint;
+    }
+
+    private static String required(Properties p, String name) throws IOException {
+        String value = p.getProperty(name);
+        if (value == null)
+            throw new IOException("Invalid checkpoint file, "+name+" not found");
+        return value;
+    }
+
+    /**
+     * @return property name of a window's state, window 0 without a prefix.
+     */
+    private static String key(int window, String name) {
+        return (window == 0) ? name : "window."+window+"."+name;
+    }
+
+    private static String formatDate(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssX");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+    /**
+     * Save the checkpoint, replacing the file atomically.
+     */
+    private void save() throws IOException {
+        Properties p = new Properties();
+        p.setProperty("from", from);
+        p.setProperty("until", until);
+        p.setProperty("metadataPrefix", metadataPrefix);
+        p.setProperty("xmlElement", xmlElement);
+        p.setProperty("xmlContent", Boolean.toString(xmlContent));
+        p.setProperty("output", output);
+        p.setProperty("pageSize", Integer.toString(pageSize));
+        p.setProperty("started", started);
+        p.setProperty("updated", formatDate(new Date()));
+        p.setProperty("windows", Integer.toString(windows));
+        for (int w=0; w<windows; w++) {
+            p.setProperty(key(w, "pagesDone"), Integer.toString(pagesDone[w]));
+            StringBuilder after = new StringBuilder();
+            for (Integer page: pagesDoneAfter.get(w)) {
+                if (after.length() > 0) after.append(',');
+                after.append(page);
+            }
+            p.setProperty(key(w, "pagesDoneAfter"), after.toString());
+            p.setProperty(key(w, "lastPage"), Integer.toString(lastPage[w]));
+        }
+        p.setProperty("lastIdentifier", lastIdentifier);
+        p.setProperty("written", Long.toString(written));
+        p.setProperty("finished", Boolean.toString(finished));
+        Path dir = file.toAbsolutePath().getParent();
+        Path temp = dir.resolve(file.getFileName().toString()+".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+            p.store(out, "FigshareOAIMain harvest checkpoint");
+            out.getFD().sync();
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Record a completed search page, and save if the leading pages complete advance.
+     * @param page the page whose articles have all been written or skipped.
+     * @param lastPage the last page of the search, or 0 if not yet known.
+     * @param lastIdentifier OAI identifier of the most recent record written.
+     * @param runWritten number of records written by this run.
+     * @exception IOException the checkpoint could not be saved.
+     */
+    public void pageDone(int page, int lastPage, String lastIdentifier, long runWritten)
+            throws IOException {
+        pageDone(0, page, lastPage, lastIdentifier, runWritten);
+    }
+
+    /**
+     * Record a completed search page of a date window, and save.
+     * @param window index of the date window.
+     * @param page the page whose articles have all been written or skipped.
+     * @param lastPage the last page of the window's search, or 0 if not yet known.
+     * @param lastIdentifier OAI identifier of the most recent record written.
+     * @param runWritten number of records written by this run.
+     * @exception IOException the checkpoint could not be saved.
+     */
+    public synchronized void pageDone(int window, int page, int lastPage, String lastIdentifier, long runWritten)
+            throws IOException {
+        if (page <= pagesDone[window])
+            return;
+        TreeSet<Integer> after = pagesDoneAfter.get(window);
+        after.add(page);
+        while (after.remove(pagesDone[window]+1))
+            pagesDone[window]++;
+        if (lastPage > 0) {
+            this.lastPage[window] = lastPage;
+            // pages searched past the end of the results are of no interest
+            after.tailSet(lastPage, false).clear();
+        }
+        if (lastIdentifier != null)
+            this.lastIdentifier = lastIdentifier;
+        written = writtenBefore + runWritten;
+        save();
+    }
+
+    /**
+     * Mark the harvest as finished, and save.
+     * @param runWritten number of records written by this run.
+     * @exception IOException the checkpoint could not be saved.
+     */
+    public synchronized void finish(long runWritten) throws IOException {
+        written = writtenBefore + runWritten;
+        finished = true;
+        save();
+    }
+
+    /**
+     * @param page search page number, from 1.
+     * @return true if the page was completed, by this or an earlier run.
+     */
+    public boolean isPageDone(int page) {
+        return isPageDone(0, page);
+    }
+
+    /**
+     * @param window index of the date window.
+     * @param page search page number, from 1.
+     * @return true if the page of the window was completed, by this or an earlier run.
+     */
+    public synchronized boolean isPageDone(int window, int page) {
+        return (page <= pagesDone[window]) || pagesDoneAfter.get(window).contains(page);
+    }
+
+    /**
+     * @return number of leading search pages completed.
+     */
+    public int getPagesDone() {
+        return getPagesDone(0);
+    }
+
+    /**
+     * @param window index of the date window.
+     * @return number of leading search pages of the window completed.
+     */
+    public synchronized int getPagesDone(int window) {
+        return pagesDone[window];
+    }
+
+    /**
+     * @return the last page of the search, or 0 if not yet known.
+     */
+    public int getLastPage() {
+        return getLastPage(0);
+    }
+
+    /**
+     * @param window index of the date window.
+     * @return the last page of the window's search, or 0 if not yet known.
+     */
+    public synchronized int getLastPage(int window) {
+        return lastPage[window];
+    }
+
+    /**
+     * @return number of date windows, 1 unless a backfill.
+     */
+    public int getWindows() {
+        return windows;
+    }
+
+    /**
+     * @return OAI identifier of the last record written before the checkpoint was saved, or "".
+     */
+    public synchronized String getLastIdentifier() {
+        return lastIdentifier;
+    }
+
+    /**
+     * @return number of records written by all runs, including any written again on resume.
+     */
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return true if the harvest completed.
+     */
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return checkpoint file.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return beginning date of the harvest.
+     */
+    public String getFrom() {
+        return from;
+    }
+
+    /**
+     * @return fixed ending date of the harvest.
+     */
+    public String getUntil() {
+        return until;
+    }
+
+    /**
+     * @return the OAI metadataPrefix.
+     */
+    public String getMetadataPrefix() {
+        return metadataPrefix;
+    }
+
+    /**
+     * @return name of the element extracted from each record, or "".
+     */
+    public String getXmlElement() {
+        return xmlElement;
+    }
+
+    /**
+     * @return true if the contents of the element are extracted.
+     */
+    public boolean isXmlContent() {
+        return xmlContent;
+    }
+
+    /**
+     * @return output location of the records.
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * @return search results per page, page numbers are only meaningful with the same size.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "file="+file+" windows="+windows+" pagesDone="+Arrays.toString(pagesDone)
+                +" pagesDoneAfter="+pagesDoneAfter+" lastPage="+Arrays.toString(lastPage)
+                +" written="+written+" finished="+finished;
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import ORG.oclc.oai.server.verb.BadArgumentException;
+import ORG.oclc.oai.server.verb.CannotDisseminateFormatException;
+import ORG.oclc.oai.server.verb.OAIInternalServerError;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.simple.JSONObject;
+
+/**
+ * Continuous incremental harvest in one long-running process, in place of a scheduled
+ * command-line run that pays JVM start-up and figshare connection set-up every time.
+ * <p>
+ * Each run harvests from the watermark until the time the run started, then moves the
+ * watermark to that time. A failed run leaves the watermark, so the next run repeats
+ * its period. Runs start every interval, and never overlap: a run longer than the
+ * interval is followed immediately by the next.
+ * <p>
+ * The watermark and the statistics of the last run are kept in a state file, a
+ * properties file replaced atomically after each run, which monitoring can read.
+ * The state file also holds the harvest request, and a daemon for a different request
+ * refuses to use it. A lock on a ".lock" file beside it stops a second daemon
+ * running on the same state.
+ * <p>
+ * The catalog, with its figshare connection and caches, and any RecordManifest are
+ * kept for the life of the daemon. Each run has its own HarvestPipeline and opens the
+ * output to add to it, so the output must be a folder or a jsonl file.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class HarvestDaemon implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(HarvestDaemon.class.getName());
+
+    private final FigshareOAICatalog catalog;
+    private final Properties properties;
+    private final Path stateFile;
+    private final String output;
+    private final String outputFormat;
+    private final String metadataPrefix;
+    private final String xmlElement;
+    private final boolean xmlContent;
+
+    private long intervalMillis = 3600*1000L;
+    private int backfill = 0;
+    private RecordManifest manifest = null;
+    private Path summary = null;
+    private PrintStream console = System.out;
+
+    private final Properties state = new Properties();
+    private FileChannel lockChannel = null;
+    private FileLock lock = null;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile Thread runner = null;
+
+    private static String formatDate(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssX");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+    /**
+     * Constructor.
+     * @param catalog catalog used by each run, with its record factory set.
+     * @param properties properties containing the pipeline configuration.
+     * @param stateFile file holding the watermark and last run statistics.
+     * @param output folder or jsonl file the records are added to.
+     * @param outputFormat RecordSinks.FOLDER or RecordSinks.JSONL.
+     * @param metadataPrefix the OAI metadataPrefix.
+     * @param xmlElement element to extract from each record, or empty for the whole record.
+     * @param xmlContent true to extract only the content of the element.
+     */
+    public HarvestDaemon(FigshareOAICatalog catalog, Properties properties, Path stateFile,
+            String output, String outputFormat, String metadataPrefix, String xmlElement, boolean xmlContent) {
+        if ( output.equals("-") || (!RecordSinks.canAppend(outputFormat)) )
+            throw new IllegalArgumentException("Watched output must be a folder or a jsonl file, not "+output);
+        this.catalog = catalog;
+        this.properties = properties;
+        this.stateFile = stateFile;
+        this.output = output;
+        this.outputFormat = outputFormat;
+        this.metadataPrefix = metadataPrefix;
+        this.xmlElement = xmlElement;
+        this.xmlContent = xmlContent;
+    }
+
+    /**
+     * @param seconds time between the starts of consecutive runs.
+     */
+    public void setInterval(long seconds) {
+        this.intervalMillis = seconds*1000L;
+    }
+
+    /**
+     * @param windows number of date windows to split each run into, as for a backfill, or 0.
+     */
+    public void setBackfill(int windows) {
+        this.backfill = windows;
+    }
+
+    /**
+     * @param manifest manifest kept across runs, so unchanged records are not rewritten, or null.
+     */
+    public void setManifest(RecordManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * @param summary file to add a JSON line summarising each run to, or null.
+     */
+    public void setSummary(Path summary) {
+        this.summary = summary;
+    }
+
+    /**
+     * @param console stream for progress messages.
+     */
+    public void setConsole(PrintStream console) {
+        this.console = console;
+    }
+
+    /**
+     * Lock the state file and read the watermark, or start it at the given date.
+     * @param from watermark of the first run when there is no state file.
+     * @exception IOException another daemon holds the lock, the state file is for another request, or it could not be read or written.
+     */
+    public void open(String from) throws IOException {
+        Path lockFile = stateFile.resolveSibling(stateFile.getFileName().toString()+".lock");
+        lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException ex) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            lockChannel = null;
+            throw new IOException("Another watch is running on "+stateFile);
+        }
+        state.clear();
+        if (Files.exists(stateFile)) {
+            try (InputStream in = Files.newInputStream(stateFile)) {
+                state.load(in);
+            }
+            String[][] request = {
+                {"metadataPrefix", metadataPrefix}, {"output", output}, {"format", outputFormat},
+                {"xmlElement", xmlElement}, {"xmlContent", Boolean.toString(xmlContent)}};
+            for (String[] expected: request) {
+                if (!expected[1].equals(state.getProperty(expected[0])))
+                    throw new IOException("Watch state "+stateFile+" is for "+expected[0]+"="
+                            +state.getProperty(expected[0])+", not "+expected[1]);
+            }
+            if (state.getProperty("watermark") == null)
+                throw new IOException("Watch state "+stateFile+" has no watermark");
+        } else {
+            state.setProperty("metadataPrefix", metadataPrefix);
+            state.setProperty("output", output);
+            state.setProperty("format", outputFormat);
+            state.setProperty("xmlElement", xmlElement);
+            state.setProperty("xmlContent", Boolean.toString(xmlContent));
+            state.setProperty("watermark", from);
+            state.setProperty("runs", "0");
+            state.setProperty("failures", "0");
+            state.setProperty("consecutiveFailures", "0");
+        }
+        state.setProperty("process", ManagementFactory.getRuntimeMXBean().getName());
+        state.setProperty("intervalSeconds", Long.toString(intervalMillis/1000));
+        save();
+    }
+
+    /**
+     * @return pipeline for a run, overridden by tests.
+     */
+    protected HarvestPipeline createPipeline() {
+        return new HarvestPipeline(catalog, properties);
+    }
+
+    /**
+     * Harvest once from the watermark until now, and save the outcome to the state file.
+     * Failures of figshare or of writing are recorded, for the next run to retry.
+     * A call waits for any run already in progress, so runs never overlap.
+     * @return true if the run succeeded and the watermark moved.
+     * @exception BadArgumentException the watermark cannot be harvested from, retrying will not help.
+     * @exception CannotDisseminateFormatException the metadataPrefix is not supported, retrying will not help.
+     * @exception IOException the state file could not be saved.
+     * @exception InterruptedException interrupted while harvesting, eg. by stop().
+     */
+    public synchronized boolean runOnce()
+            throws BadArgumentException, CannotDisseminateFormatException, IOException, InterruptedException {
+        Date start = new Date();
+        String from = state.getProperty("watermark");
+        String until = formatDate(start);
+        String[][] windows = new String[][] {{from, until}};
+        if (backfill > 1)
+            windows = HarvestPipeline.partition(from, until, backfill);
+        long run = Long.parseLong(state.getProperty("runs", "0"))+1;
+        console.println("### Watch run="+run+"; from-date="+from+"; until-date="+until);
+        HarvestPipeline pipeline = createPipeline();
+        pipeline.setExtract(xmlElement, xmlContent);
+        pipeline.setConsole(console);
+        pipeline.setManifest(manifest);
+        String status = "failed";
+        String error = "";
+        try {
+            try (RecordSink sink = RecordSinks.open(output, outputFormat, !xmlContent, true)) {
+                pipeline.setSink(sink);
+                pipeline.run(windows, metadataPrefix);
+            }
+            status = "ok";
+        } catch (OAIInternalServerError | IOException ex) {
+            LOG.log(Level.SEVERE, "Watch run "+run+" failed, it will be repeated by the next run.", ex);
+            error = String.valueOf(ex.getMessage());
+        } catch (BadArgumentException | CannotDisseminateFormatException ex) {
+            error = ex.toString();
+            throw ex;
+        } catch (InterruptedException ex) {
+            status = "interrupted";
+            throw ex;
+        } finally {
+            record(run, start, from, until, status, error, pipeline);
+            if (summary != null) {
+                JSONObject runSummary = pipeline.getSummary();
+                runSummary.put("started", formatDate(start));
+                runSummary.put("run", run);
+                runSummary.put("status", status);
+                runSummary.put("mode", "watch");
+                runSummary.put("from", from);
+                runSummary.put("until", until);
+                runSummary.put("metadataPrefix", metadataPrefix);
+                runSummary.put("output", output);
+                runSummary.put("format", outputFormat);
+                try {
+                    HarvestPipeline.appendSummary(summary, runSummary);
+                } catch (IOException ex) {
+                    LOG.log(Level.WARNING, "Watch summary could not be written.", ex);
+                }
+            }
+            console.println("### Watch run="+run+"; status="+status+"; written="+pipeline.getWrittenCount()
+                    +"; seconds="+state.getProperty("lastSeconds")+"; watermark="+state.getProperty("watermark"));
+        }
+        return status.equals("ok");
+    }
+
+    /**
+     * Record the outcome of a run in the state, moving the watermark if it succeeded, and save it.
+     */
+    private void record(long run, Date start, String from, String until, String status, String error,
+            HarvestPipeline pipeline) throws IOException {
+        Date end = new Date();
+        synchronized (state) {
+            state.setProperty("runs", Long.toString(run));
+            state.setProperty("lastStart", formatDate(start));
+            state.setProperty("lastEnd", formatDate(end));
+            state.setProperty("lastSeconds", Double.toString((end.getTime()-start.getTime())/1000.0));
+            state.setProperty("lastFrom", from);
+            state.setProperty("lastUntil", until);
+            state.setProperty("lastStatus", status);
+            state.setProperty("lastError", error);
+            state.setProperty("lastListed", Long.toString(pipeline.getListedCount()));
+            state.setProperty("lastSkipped", Long.toString(pipeline.getSkippedCount()));
+            state.setProperty("lastWritten", Long.toString(pipeline.getWrittenCount()));
+            if (manifest != null) {
+                state.setProperty("lastNew", Long.toString(pipeline.getNewCount()));
+                state.setProperty("lastChanged", Long.toString(pipeline.getChangedCount()));
+                state.setProperty("lastUnchanged", Long.toString(pipeline.getUnchangedCount()));
+            }
+            if (status.equals("ok")) {
+                state.setProperty("watermark", until);
+                state.setProperty("lastSuccess", formatDate(end));
+                state.setProperty("consecutiveFailures", "0");
+            } else {
+                state.setProperty("failures", Long.toString(Long.parseLong(state.getProperty("failures", "0"))+1));
+                state.setProperty("consecutiveFailures",
+                        Long.toString(Long.parseLong(state.getProperty("consecutiveFailures", "0"))+1));
+            }
+            save();
+        }
+    }
+
+    /**
+     * Run every interval until stop() is called.
+     * Returns at once if already stopped.
+     * @exception BadArgumentException the watermark cannot be harvested from.
+     * @exception CannotDisseminateFormatException the metadataPrefix is not supported.
+     * @exception IOException the state file could not be saved.
+     */
+    public void run() throws BadArgumentException, CannotDisseminateFormatException, IOException {
+        runner = Thread.currentThread();
+        try {
+            while (stopped.getCount() > 0) {
+                long next = System.currentTimeMillis()+intervalMillis;
+                try {
+                    runOnce();
+                } catch (InterruptedException ex) {
+                    if (stopped.getCount() > 0)
+                        LOG.log(Level.WARNING, "Watch run interrupted.", ex);
+                    return;
+                }
+                synchronized (state) {
+                    state.setProperty("nextRun", formatDate(new Date(Math.max(next, System.currentTimeMillis()))));
+                    save();
+                }
+                try {
+                    stopped.await(Math.max(0, next-System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        } finally {
+            runner = null;
+            // an interrupt meant for the harvest must not reach the caller
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Stop run(), interrupting a harvest in progress, eg. from a shutdown hook.
+     * The interrupted harvest is recorded and repeated by the next daemon.
+     */
+    public void stop() {
+        stopped.countDown();
+        Thread thread = runner;
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    /**
+     * @return true once stop() has been called.
+     */
+    public boolean isStopped() {
+        return stopped.getCount() == 0;
+    }
+
+    /**
+     * @return the date the next run harvests from.
+     */
+    public String getWatermark() {
+        return state.getProperty("watermark");
+    }
+
+    /**
+     * @return copy of the state, the watermark and last run statistics.
+     */
+    public Properties getState() {
+        Properties copy = new Properties();
+        synchronized (state) {
+            copy.putAll(state);
+        }
+        return copy;
+    }
+
+    /**
+     * Save the state, replacing the file atomically.
+     */
+    private void save() throws IOException {
+        state.setProperty("updated", formatDate(new Date()));
+        Path temp = stateFile.resolveSibling(stateFile.getFileName().toString()+".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+            state.store(out, "FigshareOAIMain watch state");
+            out.getFD().sync();
+        }
+        try {
+            Files.move(temp, stateFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Release the lock on the state file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (lockChannel != null) {
+            // closing the channel releases the lock
+            lockChannel.close();
+            lockChannel = null;
+            lock = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "watermark="+state.getProperty("watermark")+" runs="+state.getProperty("runs")
+                +" failures="+state.getProperty("failures")+" lastStatus="+state.getProperty("lastStatus")
+                +" lastWritten="+state.getProperty("lastWritten");
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import ORG.oclc.oai.server.verb.BadArgumentException;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+/**
+ * Verify and combine the outputs of a sharded command-line harvest.
+ * <p>
+ * Each shard process writes its own output and a ShardManifest. The merge first checks
+ * the manifests describe the same harvest, that every shard from 1 to N is present and
+ * finished, and for shards by date that their windows are those of partition(), so the
+ * shards together cover the whole period. An article modified during the harvest can be
+ * written by two date shards, in which case the record with the latest modified date is
+ * kept. The records are then read back from each shard output in turn, checked against
+ * the content hash in the manifest, and written once to the merged output.
+ * <p>
+ * Shard outputs can be a folder, zip, tgz or jsonl. Run this class without arguments to
+ * obtain help on what arguments are required.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class HarvestMerge {
+
+    /** Header values that must be the same for every shard of a harvest. */
+    private static final String[] SAME = { "shards", "by", "from", "until", "metadataPrefix", "xmlElement", "xmlContent" };
+
+    private final List<ShardManifest.Contents> shards = new ArrayList<ShardManifest.Contents>();
+    /** Record kept for each identifier, from the manifests. */
+    private final Map<String,JSONObject> kept = new HashMap<String,JSONObject>();
+    private long records = 0;
+    private long duplicates = 0;
+    private long written = 0;
+
+    /**
+     * Read the shard manifests, and choose the record kept for each identifier.
+     * @param manifests shard manifest files, in any order.
+     * @exception IOException a manifest could not be read.
+     */
+    public HarvestMerge(List<Path> manifests) throws IOException {
+        for (Path file: manifests)
+            shards.add(ShardManifest.read(file));
+        shards.sort((a, b) -> Long.compare(number(a.header.get("shard")), number(b.header.get("shard"))));
+        for (ShardManifest.Contents shard: shards) {
+            for (JSONObject record: shard.records) {
+                records++;
+                JSONObject previous = kept.get((String)record.get("identifier"));
+                if (previous != null)
+                    duplicates++;
+                // a later line of a shard, or a later shard, wins a tie
+                if ( (previous == null) || (compareModified(record, previous) >= 0) )
+                    kept.put((String)record.get("identifier"), record);
+            }
+        }
+    }
+
+    private static long number(Object value) {
+        return (value instanceof Number) ? ((Number)value).longValue() : -1;
+    }
+
+    private static int compareModified(JSONObject a, JSONObject b) {
+        String ma = (a.get("modified") == null) ? "" : a.get("modified").toString();
+        String mb = (b.get("modified") == null) ? "" : b.get("modified").toString();
+        return ma.compareTo(mb);
+    }
+
+    /**
+     * Check the shards are complete and make up one harvest.
+     * @return a description of each problem found, empty if the shards can be merged.
+     */
+    public List<String> validate() {
+        List<String> problems = new ArrayList<String>();
+        if (shards.isEmpty()) {
+            problems.add("No shard manifests");
+            return problems;
+        }
+        JSONObject first = shards.get(0).header;
+        long count = number(first.get("shards"));
+        boolean[] found = new boolean[(int)Math.max(0, Math.min(count, 100000))];
+        for (ShardManifest.Contents shard: shards) {
+            for (String key: SAME) {
+                Object value = shard.header.get(key);
+                if ( (value == null) ? (first.get(key) != null) : !value.equals(first.get(key)) )
+                    problems.add(shard.file+": "+key+"="+value+" differs from "+first.get(key)+" of "+shards.get(0).file);
+            }
+            long index = number(shard.header.get("shard"));
+            if ( (index < 1) || (index > found.length) )
+                problems.add(shard.file+": shard "+index+" is not from 1 to "+count);
+            else if (found[(int)index-1])
+                problems.add(shard.file+": shard "+index+" is given twice");
+            else
+                found[(int)index-1] = true;
+            if (!shard.isComplete())
+                problems.add(shard.file+": shard "+index+" did not finish");
+            String format = (String)shard.header.get("format");
+            if (RecordSinks.XML.equals(format) || (format == null))
+                problems.add(shard.file+": output format "+format+" cannot be read back, use folder, zip, tgz or jsonl");
+            Object output = shard.header.get("output");
+            if ( (output == null) || !Files.exists(Paths.get(output.toString())) )
+                problems.add(shard.file+": output "+output+" not found");
+        }
+        for (int i=0; i<found.length; i++) {
+            if (!found[i])
+                problems.add("shard "+(i+1)+" of "+count+" is missing");
+        }
+        if ("date".equals(first.get("by")) && (count > 0)) {
+            // the windows must be those every shard computed, so none are missed
+            try {
+                String[][] windows = HarvestPipeline.partition((String)first.get("from"), (String)first.get("until"), (int)count);
+                if (windows.length != count)
+                    problems.add("period "+first.get("from")+" to "+first.get("until")+" only has "+windows.length+" windows");
+                for (ShardManifest.Contents shard: shards) {
+                    int index = (int)number(shard.header.get("shard"));
+                    if ( (index >= 1) && (index <= windows.length) && ( !windows[index-1][0].equals(shard.header.get("windowFrom"))
+                            || !windows[index-1][1].equals(shard.header.get("windowUntil")) ) )
+                        problems.add(shard.file+": window "+shard.header.get("windowFrom")+" to "+shard.header.get("windowUntil")
+                                +" is not "+windows[index-1][0]+" to "+windows[index-1][1]);
+                }
+            } catch (BadArgumentException | RuntimeException ex) {
+                problems.add("period "+first.get("from")+" to "+first.get("until")+" cannot be split: "+ex);
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Write the kept record of each identifier to the merged output.
+     * @param sink merged output.
+     * @exception IOException a shard output could not be read, or is missing records of its manifest.
+     */
+    public void merge(RecordSink sink) throws IOException {
+        for (ShardManifest.Contents shard: shards) {
+            String format = (String)shard.header.get("format");
+            Path output = Paths.get(shard.header.get("output").toString());
+            // names of the files or entries of this shard's kept records
+            Map<String,String> names = new HashMap<String,String>();
+            for (JSONObject record: shard.records) {
+                String identifier = (String)record.get("identifier");
+                if (kept.get(identifier) == record)
+                    names.put(RecordSinks.fileName(identifier), identifier);
+            }
+            switch (format) {
+                case RecordSinks.FOLDER:
+                    for (Map.Entry<String,String> name: names.entrySet()) {
+                        Path file = output.resolve(name.getKey());
+                        if (Files.exists(file))
+                            copy(sink, name.getValue(), new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+                    }
+                    break;
+                case RecordSinks.ZIP:
+                    try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(output), StandardCharsets.UTF_8)) {
+                        ZipEntry entry;
+                        while ((entry = zip.getNextEntry()) != null) {
+                            String identifier = names.get(entry.getName());
+                            if (identifier != null)
+                                copy(sink, identifier, new String(readAll(zip), StandardCharsets.UTF_8));
+                        }
+                    }
+                    break;
+                case RecordSinks.TGZ:
+                    try (InputStream tar = new GZIPInputStream(Files.newInputStream(output), 65536)) {
+                        readTar(tar, names, sink);
+                    }
+                    break;
+                case RecordSinks.JSONL:
+                    try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                            Files.newInputStream(output), StandardCharsets.UTF_8), 65536)) {
+                        String line;
+                        while ((line = in.readLine()) != null) {
+                            Object parsed = JSONValue.parse(line);
+                            if (parsed instanceof JSONObject)
+                                copy(sink, (String)((JSONObject)parsed).get("identifier"), (String)((JSONObject)parsed).get("record"));
+                        }
+                    }
+                    break;
+                default:
+                    throw new IOException("Cannot read shard output format "+format);
+            }
+        }
+        if (!kept.isEmpty())
+            throw new IOException(kept.size()+" records of the manifests were not found in the shard outputs, eg. "
+                    +kept.keySet().iterator().next());
+    }
+
+    /**
+     * Write a record read from a shard output, if it is the kept record of its identifier.
+     * An older copy, eg. written again by a resumed shard, does not match the kept hash.
+     */
+    private void copy(RecordSink sink, String identifier, String text) throws IOException {
+        JSONObject record = kept.get(identifier);
+        if ( (record == null) || (text == null) )
+            return;
+        if (text.startsWith(RecordSinks.XML_DECLARATION))
+            text = text.substring(RecordSinks.XML_DECLARATION.length());
+        if (text.endsWith("\n") && !record.get("hash").equals(ShardManifest.hexHash(RecordManifest.hash(text))))
+            text = text.substring(0, text.length()-1);
+        if (!record.get("hash").equals(ShardManifest.hexHash(RecordManifest.hash(text))))
+            return;
+        sink.write(identifier, text);
+        kept.remove(identifier);
+        written++;
+    }
+
+    /**
+     * Read the entries of a ustar archive, with pax path headers, as written by RecordSinks.
+     */
+    private void readTar(InputStream tar, Map<String,String> names, RecordSink sink) throws IOException {
+        byte[] header = new byte[512];
+        String paxPath = null;
+        while (readFully(tar, header) && (header[0] != 0)) {
+            int end = 0;
+            while ( (end < 100) && (header[end] != 0) )
+                end++;
+            String name = new String(header, 0, end, StandardCharsets.UTF_8);
+            long size = Long.parseLong(new String(header, 124, 11, StandardCharsets.US_ASCII).trim(), 8);
+            byte[] data = new byte[(int)size];
+            if (!readFully(tar, data))
+                throw new IOException("Truncated tar entry "+name);
+            int pad = (int)((512 - size%512) % 512);
+            if ( (pad > 0) && !readFully(tar, new byte[pad]) )
+                throw new IOException("Truncated tar entry "+name);
+            if (header[156] == 'x') {
+                String pax = new String(data, StandardCharsets.UTF_8);
+                int path = pax.indexOf(" path=");
+                if (path >= 0)
+                    paxPath = pax.substring(path+6, pax.indexOf('\n', path));
+                continue;
+            }
+            if (paxPath != null) {
+                name = paxPath;
+                paxPath = null;
+            }
+            String identifier = names.get(name);
+            if (identifier != null)
+                copy(sink, identifier, new String(data, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static boolean readFully(InputStream in, byte[] buffer) throws IOException {
+        int pos = 0;
+        while (pos < buffer.length) {
+            int n = in.read(buffer, pos, buffer.length-pos);
+            if (n < 0)
+                return false;
+            pos += n;
+        }
+        return true;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0)
+            out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the header of the first shard, eg. to check xmlContent.
+     */
+    public JSONObject getHeader() {
+        return shards.isEmpty() ? new JSONObject() : shards.get(0).header;
+    }
+
+    /**
+     * @return number of record lines in all manifests.
+     */
+    public long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * @return number of records written by more than one shard, or twice by one.
+     */
+    public long getDuplicateCount() {
+        return duplicates;
+    }
+
+    /**
+     * @return number of records written to the merged output.
+     */
+    public long getWrittenCount() {
+        return written;
+    }
+
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        ArrayList<String> argslist = new ArrayList<String>(Arrays.asList(args));
+        String outputFormat = null;
+        if ( (argslist.size() > 1) && argslist.get(0).equals("-output-format") ) {
+            outputFormat = argslist.get(1);
+            argslist.remove(0);
+            argslist.remove(0);
+        }
+        if (argslist.size() < 2) {
+            System.err.println("ERROR: Required arguments not found.\n"
+                    + "Use:  Verify the shards of a FigshareOAIMain -shard harvest are complete, and merge their outputs.\n"
+                    + "Arguments:  [-output-format format] merged-output shard-manifest...\n"
+                    + "   -output-format - folder, zip, tgz, jsonl or xml, the default is from the merged-output name\n"
+                    + "   merged-output = folder location, OR  archive/single file name  OR  - dash for standard output\n"
+                    + "   shard-manifest = the manifest written by each shard, all N are required");
+            System.exit(-1);
+        }
+        String outputName = argslist.get(0);
+        PrintStream console = outputName.equals("-") ? System.err : System.out;
+        List<Path> manifests = new ArrayList<Path>();
+        for (String name: argslist.subList(1, argslist.size()))
+            manifests.add(Paths.get(name));
+        try {
+            HarvestMerge merge = new HarvestMerge(manifests);
+            List<String> problems = merge.validate();
+            for (String problem: problems)
+                System.err.println("ERROR: "+problem);
+            if (!problems.isEmpty())
+                System.exit(2);
+            boolean xmlContent = Boolean.TRUE.equals(merge.getHeader().get("xmlContent"));
+            try (RecordSink sink = RecordSinks.open(outputName, outputFormat, !xmlContent, false)) {
+                merge.merge(sink);
+            }
+            console.println("### Merged "+merge.getWrittenCount()+" records from "+manifests.size()+" shards, "
+                    +merge.getDuplicateCount()+" duplicates reconciled");
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("ERROR: "+ex.getMessage());
+            System.exit(-1);
+        }
+    }
+}
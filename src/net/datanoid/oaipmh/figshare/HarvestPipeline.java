@@ -0,0 +1,1148 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import ORG.oclc.oai.server.verb.BadArgumentException;
+import ORG.oclc.oai.server.verb.CannotDisseminateFormatException;
+import ORG.oclc.oai.server.verb.OAIInternalServerError;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.datanoid.figshare.FigshareConnection;
+import net.datanoid.figshare.LatencyHistogram;
+import net.datanoid.figshare.RateLimiter;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Command-line harvest run as a pipeline of stages connected by bounded queues:
+ * <pre>
+ *   search pages  -&gt;  fetch article details  -&gt;  crosswalk / extract  -&gt;  write
+ * </pre>
+ * Each stage has its own number of threads, so network requests, crosswalking and
+ * disk writes overlap, and a full queue blocks the stage feeding it (backpressure).
+ * All figshare requests share one RateLimiter, which replaces fixed pauses between pages.
+ * <p>
+ * Configured by properties, all optional:
+ * <pre>
+ *   HarvestPipeline.searchThreads      concurrent search page requests, default 1
+ *   HarvestPipeline.fetchThreads       concurrent article detail requests, default 4
+ *   HarvestPipeline.crosswalkThreads   crosswalk threads, default number of processors
+ *   HarvestPipeline.writeThreads       writer threads, default 2
+ *   HarvestPipeline.queueSize          capacity of each queue between stages, default 100
+ *   HarvestPipeline.pageSize           search results per page, default FigshareOAICatalog.maxListSize
+ *   HarvestPipeline.requestsPerSecond  figshare API request rate limit, default 1
+ *   HarvestPipeline.progressSeconds    interval between progress reports, default 0 for none
+ * </pre>
+ * The figshare search has no total count, so the searchers request increasing page
+ * numbers until a page is short. With several search threads a few requests past
+ * the last page return nothing. Articles listed twice, eg. as pages shift when an
+ * article is modified during the harvest, are only fetched once.
+ * <p>
+ * For a backfill, the harvest can be split into date windows with partition(), each
+ * searched by its own page cursor. There is at least one search thread per window, each
+ * starting on its own window and moving on to help the others once it is exhausted.
+ * The windows share the rate limiter and the stages after the search, and an article
+ * listed by two windows is only fetched once.
+ * <p>
+ * With a HarvestCheckpoint set, each search page is tracked until all of its articles
+ * are written or skipped, then the checkpoint is saved. A resumed run skips the pages
+ * the checkpoint records as complete.
+ * <p>
+ * With a RecordManifest set, a record is only written if the hash of its content differs
+ * from the manifest, ie. it is new or changed since the last run. The manifest is saved
+ * at the end of the run, including after a failure, as it only holds records written.
+ * <p>
+ * For a harvest sharded by id across several processes, setShard() keeps only the
+ * articles whose id hashes to this shard. A ShardManifest, if set, records each record
+ * written and each article skipped, and is marked complete when the run finishes.
+ * <p>
+ * runIds() harvests a list of article ids in place of the search, eg. to repair records
+ * reported missing. The ids are fetched by the fetch threads, so at most fetchThreads
+ * at once. An article that cannot be fetched or crosswalked is reported in the outcome
+ * of its id, and does not stop the others.
+ * <p>
+ * The time each stage spends in search(), fetch(), crosswalk() and write() is measured.
+ * Progress reports give the rate of records and bytes written, each stage's share of
+ * that time, percentiles of the figshare response times, and the time to finish. The
+ * figshare search gives no total, so until the search is complete the total is estimated
+ * from how far the most recently modified first results have reached into each window.
+ * getSummary() gives the same measures for the whole run.
+ * <p>
+ * The stage methods search(), fetch(), crosswalk() and write() can be overridden.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class HarvestPipeline {
+
+    private static final Logger LOG = Logger.getLogger(HarvestPipeline.class.getName());
+    /** Marks the end of a queue, one per consumer thread. */
+    private static final Object END = new Object();
+    private static final String[] STAGES = {"search", "fetch", "crosswalk", "write"};
+    private static final int SEARCH = 0;
+    private static final int FETCH = 1;
+    private static final int CROSSWALK = 2;
+    private static final int WRITE = 3;
+    private static final int STOP_SECONDS = 60;
+    // buffers for extracting elements, kept by each crosswalk thread unless grown larger than this
+    private static final int MAX_BUFFER = 1 << 20;
+    private static final ThreadLocal<StringBuilder> recordBuffer = ThreadLocal.withInitial(() -> new StringBuilder(8192));
+    private static final ThreadLocal<StringBuilder> extractBuffer = ThreadLocal.withInitial(() -> new StringBuilder(8192));
+
+    /**
+     * A date window of the harvest, and the state of its search pages.
+     */
+    private static final class Window {
+        final int index;
+        final String from;
+        final String until;
+        final AtomicInteger nextPage = new AtomicInteger(1);
+        final AtomicInteger lastPage = new AtomicInteger(Integer.MAX_VALUE);
+        /** modified_date of the least recently modified article listed, the search reaches back to it. */
+        volatile String oldest = null;
+        /** Articles of each page not yet written or skipped. */
+        final ConcurrentHashMap<Integer,AtomicInteger> pending = new ConcurrentHashMap<Integer,AtomicInteger>();
+        Window(int index, String from, String until) {
+            this.index = index;
+            this.from = from;
+            this.until = until;
+        }
+    }
+
+    /**
+     * An article search result or details, with the search page that listed it.
+     */
+    private static final class Listed {
+        final Window window;
+        final int page;
+        final JSONObject item;
+        Listed(Window window, int page, JSONObject item) {
+            this.window = window;
+            this.page = page;
+            this.item = item;
+        }
+    }
+
+    /**
+     * A crosswalked record, ready to write.
+     */
+    static final class Harvested {
+        final String identifier;
+        final String record;
+        Listed source;
+        Harvested(String identifier, String record) {
+            this.identifier = identifier;
+            this.record = record;
+        }
+    }
+
+    private final FigshareOAICatalog catalog;
+    private final int searchThreads;
+    private final int fetchThreads;
+    private final int crosswalkThreads;
+    private final int writeThreads;
+    private final int queueSize;
+    private final int pageSize;
+    private final RateLimiter rateLimiter;
+    private final int progressSeconds;
+
+    private ElementExtractor extractor = null;
+    private RecordSink sink = null;
+    private PrintStream console = System.out;
+    private HarvestCheckpoint checkpoint = null;
+    private RecordManifest manifest = null;
+    private ShardManifest shardManifest = null;
+    private int shardIndex = 0;
+    private int shardCount = 1;
+
+    // state of a run
+    private final Set<Object> seen = ConcurrentHashMap.newKeySet();
+    private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong listed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong changed = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong numbered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    /** Outcome of each article of a runIds(), null for a search. */
+    private volatile ConcurrentHashMap<Long,String> idStatus = null;
+    private volatile Date lastSearch = null;
+    private volatile String lastWritten = null;
+    private final AtomicInteger searching = new AtomicInteger();
+    private final AtomicLongArray stageNanos = new AtomicLongArray(STAGES.length);
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile Window[] cursors = new Window[0];
+    private volatile long expected = -1;
+    private volatile long startMillis = 0;
+    private volatile long startNanos = 0;
+    private volatile long endNanos = 0;
+
+    /**
+     * Constructor.
+     * @param catalog catalog used to search, fetch and crosswalk, with its record factory set.
+     * @param properties properties containing the pipeline configuration.
+     */
+    public HarvestPipeline(FigshareOAICatalog catalog, Properties properties) {
+        this.catalog = catalog;
+        searchThreads = intProperty(properties, "HarvestPipeline.searchThreads", 1);
+        fetchThreads = intProperty(properties, "HarvestPipeline.fetchThreads", 4);
+        crosswalkThreads = intProperty(properties, "HarvestPipeline.crosswalkThreads", Runtime.getRuntime().availableProcessors());
+        writeThreads = intProperty(properties, "HarvestPipeline.writeThreads", 2);
+        queueSize = intProperty(properties, "HarvestPipeline.queueSize", 100);
+        pageSize = intProperty(properties, "HarvestPipeline.pageSize", Math.max(1, FigshareOAICatalog.maxListSize));
+        double rate = Double.parseDouble(properties.getProperty("HarvestPipeline.requestsPerSecond", "1").trim());
+        rateLimiter = new RateLimiter(rate);
+        progressSeconds = Integer.parseInt(properties.getProperty("HarvestPipeline.progressSeconds", "0").trim());
+        if (catalog != null)
+            catalog.setRateLimiter(rateLimiter);
+    }
+
+    private static int intProperty(Properties properties, String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        if ( (value == null) || (value.trim().length() == 0) )
+            return defaultValue;
+        int i = Integer.parseInt(value.trim());
+        if (i < 1)
+            throw new IllegalArgumentException(name+" must be at least 1: "+value);
+        return i;
+    }
+
+    /**
+     * Extract XML elements from each record, with an ElementExtractor.
+     * @param xmlelement names "namespace:element" or "{uri}element" to extract, separated by commas,
+     * or "" for the whole record.
+     * @param xmlcontent true to extract the contents of the elements only.
+     */
+    public void setExtract(String xmlelement, boolean xmlcontent) {
+        if ( (xmlelement == null) || (xmlelement.trim().length() == 0) )
+            this.extractor = null;
+        else
+            this.extractor = new ElementExtractor(xmlelement, xmlcontent);
+    }
+
+    /**
+     * @param sink destination of the records, closed by the caller after run().
+     */
+    public void setSink(RecordSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * @param console destination of progress messages, System.err if the records go to standard output.
+     */
+    public void setConsole(PrintStream console) {
+        this.console = console;
+    }
+
+    /**
+     * Save progress to a checkpoint, and skip the pages it records as complete.
+     * The checkpoint should be created with the same until date and page size.
+     * @param checkpoint new or loaded checkpoint, or null for none.
+     */
+    public void setCheckpoint(HarvestCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Only write records whose content differs from the manifest, and record those written.
+     * @param manifest loaded manifest, or null to write every record.
+     */
+    public void setManifest(RecordManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Only harvest the articles whose id hashes to one shard of a harvest split by id.
+     * @param index shard of this process, from 0.
+     * @param count number of shards, 1 for all articles.
+     */
+    public void setShard(int index, int count) {
+        if ( (count < 1) || (index < 0) || (index >= count) )
+            throw new IllegalArgumentException("Invalid shard "+index+" of "+count);
+        this.shardIndex = index;
+        this.shardCount = count;
+    }
+
+    /**
+     * The shard of an article, the same for every process and Java version.
+     * @param id figshare article id.
+     * @param count number of shards.
+     * @return shard from 0 to count-1.
+     */
+    public static int shardOf(Object id, int count) {
+        return (int)Long.remainderUnsigned(RecordManifest.hash(String.valueOf(id)), count);
+    }
+
+    /**
+     * @param shardManifest manifest of the records written, completed by a successful run, or null.
+     */
+    public void setShardManifest(ShardManifest shardManifest) {
+        this.shardManifest = shardManifest;
+    }
+
+    /**
+     * @return search results per page.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return the rate limiter shared by all figshare requests.
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Split a harvest into date windows of equal length, for a backfill.
+     * <p>
+     * Dates of the form yyyy-MM-dd are split on whole days, each window's until being the
+     * day before the next window starts, as an OAI until date includes the whole day.
+     * Otherwise the windows are to the second, and share their boundaries.
+     * The split only depends on the arguments, so a resumed backfill gets the same windows.
+     *
+     * @param from beginning date, yyyy-MM-dd or yyyy-MM-ddTHH:mm:ssZ
+     * @param until ending date, in either form
+     * @param windows number of windows wanted, fewer are returned for a short period
+     * @return {from, until} of each window, in date order
+     * @exception BadArgumentException a date does not parse, or until is before from
+     */
+    public static String[][] partition(String from, String until, int windows) throws BadArgumentException {
+        boolean days = (from.length() == 10);
+        SimpleDateFormat format = new SimpleDateFormat(days ? "yyyy-MM-dd" : "yyyy-MM-dd'T'HH:mm:ss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long start = parseUTC(from);
+        long end = parseUTC(until);
+        long unit = days ? 86400000L : 1000L;
+        // days count the until day, as it is included
+        long units = (end - start)/unit + (days ? 1 : 0);
+        if (units < (days ? 1 : 0))
+            throw new BadArgumentException();
+        int n = (int)Math.max(1, Math.min(windows, units));
+        String[][] result = new String[n][];
+        for (int i=0; i<n; i++) {
+            long windowStart = start + (units*i/n)*unit;
+            long windowEnd = start + (units*(i+1)/n)*unit - (days ? unit : 0);
+            result[i] = new String[] {
+                (i == 0) ? from : format.format(new Date(windowStart)),
+                (i == n-1) ? until : format.format(new Date(windowEnd))
+            };
+        }
+        return result;
+    }
+
+    private static long parseUTC(String date) throws BadArgumentException {
+        SimpleDateFormat format = new SimpleDateFormat((date.length() == 10) ? "yyyy-MM-dd" : "yyyy-MM-dd'T'HH:mm:ssX");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        format.setLenient(false);
+        try {
+            return format.parse(date).getTime();
+        } catch (ParseException ex) {
+            throw new BadArgumentException();
+        }
+    }
+
+    /**
+     * Run the harvest until every listed article is written, or a stage fails.
+     *
+     * @param from beginning date using the proper granularity
+     * @param until ending date using the proper granularity, or null
+     * @param metadataPrefix the OAI metadataPrefix
+     * @exception BadArgumentException the date format is incorrect
+     * @exception CannotDisseminateFormatException the metadataPrefix is not supported
+     * @exception OAIInternalServerError figshare returned an error, or a stage failed unexpectedly
+     * @exception IOException a record could not be written
+     * @exception InterruptedException interrupted while waiting for the stages
+     */
+    public void run(String from, String until, String metadataPrefix)
+            throws BadArgumentException, CannotDisseminateFormatException, OAIInternalServerError,
+                   IOException, InterruptedException {
+        run(new String[][] {{from, until}}, metadataPrefix);
+    }
+
+    /**
+     * Run the harvest of several date windows concurrently, until every listed article
+     * is written, or a stage fails.
+     *
+     * @param windows {from, until} of each window, eg. from partition(), window 0 alone for a normal harvest
+     * @param metadataPrefix the OAI metadataPrefix
+     * @exception BadArgumentException the date format is incorrect
+     * @exception CannotDisseminateFormatException the metadataPrefix is not supported
+     * @exception OAIInternalServerError figshare returned an error, or a stage failed unexpectedly
+     * @exception IOException a record could not be written
+     * @exception InterruptedException interrupted while waiting for the stages
+     */
+    public void run(String[][] windows, final String metadataPrefix)
+            throws BadArgumentException, CannotDisseminateFormatException, OAIInternalServerError,
+                   IOException, InterruptedException {
+        if ( (checkpoint != null) && (checkpoint.getWindows() != windows.length) )
+            throw new IllegalArgumentException("Checkpoint has "+checkpoint.getWindows()+" windows, not "+windows.length);
+        final Window[] cursors = new Window[windows.length];
+        for (int w=0; w<windows.length; w++) {
+            cursors[w] = new Window(w, windows[w][0], windows[w][1]);
+            if ( (checkpoint != null) && (checkpoint.getLastPage(w) > 0) )
+                cursors[w].lastPage.set(checkpoint.getLastPage(w));
+        }
+        idStatus = null;
+        expected = -1;
+        run(cursors, null, metadataPrefix);
+    }
+
+    /**
+     * Run the harvest of a list of articles, until every article is written or has failed.
+     * Failures to fetch or crosswalk an article are reported in its outcome, only
+     * failures to write stop the run.
+     *
+     * @param ids figshare article ids, an id listed twice is harvested once.
+     * @param metadataPrefix the OAI metadataPrefix
+     * @return outcome of each id in the order listed: written, unchanged (as in the manifest),
+     *         not found, no element, or failed: and the error.
+     * @exception CannotDisseminateFormatException the metadataPrefix is not supported
+     * @exception OAIInternalServerError a stage failed unexpectedly
+     * @exception IOException a record could not be written
+     * @exception InterruptedException interrupted while waiting for the stages
+     */
+    public Map<Long,String> runIds(List<Long> ids, final String metadataPrefix)
+            throws CannotDisseminateFormatException, OAIInternalServerError, IOException, InterruptedException {
+        if ( (checkpoint != null) || (shardCount > 1) )
+            throw new IllegalArgumentException("A list of ids cannot be checkpointed or sharded");
+        idStatus = new ConcurrentHashMap<Long,String>();
+        try {
+            expected = new HashSet<Long>(ids).size();
+            run(new Window[] {new Window(0, null, null)}, ids, metadataPrefix);
+        } catch (BadArgumentException ex) {
+            // there are no dates to be wrong
+            throw new OAIInternalServerError(ex.toString());
+        }
+        Map<Long,String> outcomes = new LinkedHashMap<Long,String>();
+        for (Long id: ids)
+            outcomes.put(id, idStatus.get(id));
+        return outcomes;
+    }
+
+    /**
+     * Read a list of articles for runIds(), one per line as a figshare article id, or an OAI
+     * identifier or URL ending with /id. Blank lines and lines starting with # are ignored.
+     * @param in the list.
+     * @param invalid receives the lines that are not an article id.
+     * @return article ids in the order listed.
+     * @exception IOException the list could not be read.
+     */
+    static List<Long> readIds(BufferedReader in, List<String> invalid) throws IOException {
+        List<Long> ids = new ArrayList<Long>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if ( (line.length() == 0) || line.startsWith("#") )
+                continue;
+            String id = line.substring(line.lastIndexOf('/')+1);
+            try {
+                long value = Long.parseLong(id);
+                if (value > 0) {
+                    ids.add(value);
+                    continue;
+                }
+            } catch (NumberFormatException ex) {
+            }
+            invalid.add(line);
+        }
+        return ids;
+    }
+
+    /**
+     * Run the stages, with search threads listing the windows, or one thread listing the ids.
+     */
+    private void run(final Window[] cursors, final List<Long> ids, final String metadataPrefix)
+            throws BadArgumentException, CannotDisseminateFormatException, OAIInternalServerError,
+                   IOException, InterruptedException {
+        if ( (catalog != null) && (catalog.getCrosswalks().getSchemaURL(metadataPrefix) == null) )
+            throw new CannotDisseminateFormatException(metadataPrefix);
+        seen.clear();
+        failure.set(null);
+        pages.set(0);
+        listed.set(0);
+        skipped.set(0);
+        written.set(0);
+        created.set(0);
+        changed.set(0);
+        unchanged.set(0);
+        numbered.set(0);
+        failed.set(0);
+        lastWritten = null;
+        for (int i=0; i<STAGES.length; i++)
+            stageNanos.set(i, 0);
+        bytes.set(0);
+        this.cursors = cursors;
+        // the latency of this run's requests only
+        FigshareConnection.getLatencyHistogram().reset();
+        startMillis = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        endNanos = 0;
+        final BlockingQueue<Object> found = new ArrayBlockingQueue<Object>(queueSize);
+        final BlockingQueue<Object> fetched = new ArrayBlockingQueue<Object>(queueSize);
+        final BlockingQueue<Object> crosswalked = new ArrayBlockingQueue<Object>(queueSize);
+        final int searchers = (ids != null) ? 1 : Math.max(searchThreads, cursors.length);
+        searching.set(searchers);
+        final AtomicInteger fetching = new AtomicInteger(fetchThreads);
+        final AtomicInteger crosswalking = new AtomicInteger(crosswalkThreads);
+        final CountDownLatch done = new CountDownLatch(searchers+fetchThreads+crosswalkThreads+writeThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(searchers+fetchThreads+crosswalkThreads+writeThreads);
+        ScheduledExecutorService reporter = null;
+        if (progressSeconds > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor();
+            reporter.scheduleAtFixedRate(() -> console.println("### progress "+getProgress()),
+                    progressSeconds, progressSeconds, TimeUnit.SECONDS);
+        }
+        try {
+            if (ids != null)
+                executor.execute(worker(done, searching, found, fetchThreads, () -> {
+                    // page 1 of the window is held open until every article is queued
+                    Window window = cursors[0];
+                    AtomicInteger remaining = new AtomicInteger(1);
+                    window.pending.put(1, remaining);
+                    for (Long id: ids) {
+                        if ( (failure.get() != null) || (!seen.add(id)) )
+                            continue;
+                        JSONObject item = new JSONObject();
+                        item.put("id", id);
+                        listed.incrementAndGet();
+                        remaining.incrementAndGet();
+                        found.put(new Listed(window, 1, item));
+                    }
+                    itemDone(window, 1);
+                }));
+            for (int i=0; (ids == null) && (i<searchers); i++) {
+                final int first = i % cursors.length;
+                executor.execute(worker(done, searching, found, fetchThreads, () -> {
+                    Window window;
+                    while ( ((window = nextWindow(cursors, first)) != null) && (failure.get() == null) ) {
+                        int page = window.nextPage.getAndIncrement();
+                        if (page > window.lastPage.get())
+                            continue;
+                        if ( (checkpoint != null) && checkpoint.isPageDone(window.index, page) )
+                            continue;
+                        lastSearch = new Date();
+                        long started = System.nanoTime();
+                        JSONArray items = search(page, pageSize, window.from, window.until);
+                        stageNanos.addAndGet(SEARCH, System.nanoTime()-started);
+                        pages.incrementAndGet();
+                        if (items.size() < pageSize)
+                            window.lastPage.accumulateAndGet(page, Math::min);
+                        // held open by the search until every article is queued
+                        AtomicInteger remaining = new AtomicInteger(1);
+                        window.pending.put(page, remaining);
+                        for (Object item: items) {
+                            Object id = ((JSONObject)item).get("id");
+                            if ( (shardCount > 1) && (shardOf(id, shardCount) != shardIndex) )
+                                continue;
+                            // skip articles already listed on an earlier page or by another window
+                            if (seen.add(id)) {
+                                Object modified = ((JSONObject)item).get("modified_date");
+                                if ( (modified instanceof String) && ((window.oldest == null) || (window.oldest.compareTo((String)modified) > 0)) )
+                                    window.oldest = (String)modified;
+                                listed.incrementAndGet();
+                                remaining.incrementAndGet();
+                                found.put(new Listed(window, page, (JSONObject)item));
+                            }
+                        }
+                        itemDone(window, page);
+                    }
+                }));
+            }
+            for (int i=0; i<fetchThreads; i++)
+                executor.execute(worker(done, fetching, fetched, crosswalkThreads, () -> {
+                    Object item;
+                    while ((item = found.take()) != END) {
+                        Listed listedItem = (Listed)item;
+                        JSONObject nativeItem;
+                        long started = System.nanoTime();
+                        try {
+                            nativeItem = fetch(listedItem.item);
+                        } catch (InterruptedException ex) {
+                            throw ex;
+                        } catch (Exception ex) {
+                            if (idStatus == null)
+                                throw ex;
+                            itemFailed(listedItem, ex);
+                            continue;
+                        } finally {
+                            stageNanos.addAndGet(FETCH, System.nanoTime()-started);
+                        }
+                        if (nativeItem == null) {
+                            // it is possible that the item has just been unpublished
+                            skipped.incrementAndGet();
+                            LOG.log(Level.WARNING, "HarvestPipeline cannot find article "+listedItem.item.get("id"));
+                            if (shardManifest != null)
+                                shardManifest.skipped(listedItem.item.get("id"), "not found");
+                            status(listedItem.item, "not found");
+                            itemDone(listedItem.window, listedItem.page);
+                        } else
+                            fetched.put(new Listed(listedItem.window, listedItem.page, nativeItem));
+                    }
+                }));
+            for (int i=0; i<crosswalkThreads; i++)
+                executor.execute(worker(done, crosswalking, crosswalked, writeThreads, () -> {
+                    Object item;
+                    while ((item = fetched.take()) != END) {
+                        Listed listedItem = (Listed)item;
+                        Harvested harvested;
+                        long started = System.nanoTime();
+                        try {
+                            harvested = crosswalk(listedItem.item, metadataPrefix);
+                        } catch (InterruptedException ex) {
+                            throw ex;
+                        } catch (Exception ex) {
+                            if (idStatus == null)
+                                throw ex;
+                            itemFailed(listedItem, ex);
+                            continue;
+                        } finally {
+                            stageNanos.addAndGet(CROSSWALK, System.nanoTime()-started);
+                        }
+                        harvested.source = listedItem;
+                        if (harvested.record == null) {
+                            skipped.incrementAndGet();
+                            console.println("Warning: no XML element found for "+harvested.identifier+", output file skipped");
+                            if (shardManifest != null)
+                                shardManifest.skipped(listedItem.item.get("id"), "no element");
+                            status(listedItem.item, "no element");
+                            itemDone(listedItem.window, listedItem.page);
+                        } else
+                            crosswalked.put(harvested);
+                    }
+                }));
+            for (int i=0; i<writeThreads; i++)
+                executor.execute(worker(done, null, null, 0, () -> {
+                    Object item;
+                    while ((item = crosswalked.take()) != END) {
+                        Harvested harvested = (Harvested)item;
+                        long contentHash = 0;
+                        long previous = 0;
+                        if ( (manifest != null) || (shardManifest != null) )
+                            contentHash = RecordManifest.hash(harvested.record);
+                        if (manifest != null) {
+                            previous = manifest.get(harvested.identifier);
+                            if (previous == contentHash) {
+                                unchanged.incrementAndGet();
+                                status(harvested.source.item, "unchanged");
+                                itemDone(harvested.source.window, harvested.source.page);
+                                continue;
+                            }
+                        }
+                        long started = System.nanoTime();
+                        write(harvested);
+                        stageNanos.addAndGet(WRITE, System.nanoTime()-started);
+                        bytes.addAndGet(utf8Length(harvested.record));
+                        written.incrementAndGet();
+                        if (manifest != null) {
+                            // only once written, so a failed write is retried by the next run
+                            manifest.put(harvested.identifier, contentHash);
+                            if (previous == 0)
+                                created.incrementAndGet();
+                            else
+                                changed.incrementAndGet();
+                        }
+                        if (shardManifest != null)
+                            shardManifest.record(harvested.identifier, harvested.source.item.get("id"),
+                                    harvested.source.item.get("modified_date"), contentHash);
+                        lastWritten = harvested.identifier;
+                        status(harvested.source.item, "written");
+                        itemDone(harvested.source.window, harvested.source.page);
+                    }
+                }));
+            // wait for the writers to finish, or the first failure
+            while (!done.await(200, TimeUnit.MILLISECONDS)) {
+                if (failure.get() != null)
+                    break;
+            }
+        } finally {
+            // stops any stage still blocked on a queue after a failure
+            executor.shutdownNow();
+            if (reporter != null)
+                reporter.shutdownNow();
+            endNanos = System.nanoTime();
+            // wait for writers still finishing a record, so the sink and manifest are not
+            // in use once run() returns and the caller closes them
+            awaitStages(executor);
+            // saved even if run() is interrupted, as it only holds records written
+            if (manifest != null) {
+                try {
+                    manifest.save();
+                } catch (IOException ex) {
+                    if (failure.compareAndSet(null, ex))
+                        LOG.log(Level.SEVERE, "HarvestPipeline manifest could not be saved", ex);
+                }
+            }
+        }
+        Exception ex = failure.get();
+        if (ex == null) {
+            if (shardManifest != null)
+                shardManifest.complete(listed.get(), skipped.get(), written.get());
+            if (checkpoint != null)
+                checkpoint.finish(written.get());
+            return;
+        }
+        if (ex instanceof BadArgumentException)
+            throw (BadArgumentException)ex;
+        if (ex instanceof CannotDisseminateFormatException)
+            throw (CannotDisseminateFormatException)ex;
+        if (ex instanceof OAIInternalServerError)
+            throw (OAIInternalServerError)ex;
+        if (ex instanceof IOException)
+            throw (IOException)ex;
+        throw new OAIInternalServerError("HarvestPipeline stage failed: "+ex.toString());
+    }
+
+    /**
+     * Wait for the stage threads to end after shutdownNow(), even if interrupted.
+     * If they do not end within STOP_SECONDS the run is failed, as a writer may
+     * still be using the sink.
+     */
+    private void awaitStages(ExecutorService executor) {
+        boolean interrupted = false;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STOP_SECONDS);
+        try {
+            while (true) {
+                try {
+                    if (!executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                        IOException ex = new IOException("HarvestPipeline stages did not stop within "+STOP_SECONDS+" seconds");
+                        if (failure.compareAndSet(null, ex))
+                            LOG.log(Level.SEVERE, ex.getMessage());
+                    }
+                    return;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A stage body, which may throw any exception.
+     */
+    private interface StageBody {
+        void run() throws Exception;
+    }
+
+    /**
+     * Wrap a stage body so the first failure is recorded, and the last thread of the
+     * stage to finish tells every consumer thread of the next stage to end.
+     */
+    private Runnable worker(final CountDownLatch done, final AtomicInteger running,
+            final BlockingQueue<Object> next, final int consumers, final StageBody body) {
+        return () -> {
+            boolean stopped = false;
+            try {
+                body.run();
+            } catch (InterruptedException ex) {
+                // stopped after a failure elsewhere, or run() was interrupted
+                stopped = true;
+            } catch (Exception ex) {
+                if (failure.compareAndSet(null, ex))
+                    LOG.log(Level.SEVERE, "HarvestPipeline stage failed", ex);
+            } finally {
+                try {
+                    // once stopped the next stage may have ended, so END could never be taken
+                    if ( (running != null) && (running.decrementAndGet() == 0) && (failure.get() == null) && !stopped ) {
+                        for (int i=0; i<consumers; i++)
+                            next.put(END);
+                    }
+                } catch (InterruptedException ex) {
+                    // stopped after a failure elsewhere
+                }
+                done.countDown();
+            }
+        };
+    }
+
+    /**
+     * The window a search thread should take its next page from: its first window while
+     * pages remain, otherwise the next window with pages remaining.
+     * @return the window, or null if every window has been searched.
+     */
+    private static Window nextWindow(Window[] cursors, int first) {
+        for (int i=0; i<cursors.length; i++) {
+            Window window = cursors[(first+i) % cursors.length];
+            if (window.nextPage.get() <= window.lastPage.get())
+                return window;
+        }
+        return null;
+    }
+
+    /**
+     * An article listed on the page was written or skipped, or the search finished queuing
+     * the page. When nothing remains of the page it is recorded in the checkpoint.
+     */
+    private void itemDone(Window window, int page) throws IOException {
+        AtomicInteger remaining = window.pending.get(page);
+        if (remaining.decrementAndGet() > 0)
+            return;
+        window.pending.remove(page);
+        if (checkpoint != null) {
+            // the page's manifest lines must not be lost once the page is saved as done
+            if (shardManifest != null)
+                shardManifest.sync();
+            int last = window.lastPage.get();
+            checkpoint.pageDone(window.index, page, (last == Integer.MAX_VALUE) ? 0 : last, lastWritten, written.get());
+        }
+    }
+
+    /**
+     * Record the outcome of an article of runIds().
+     */
+    private void status(JSONObject item, String status) {
+        if (idStatus != null)
+            idStatus.put((Long)item.get("id"), status);
+    }
+
+    /**
+     * An article of runIds() could not be fetched or crosswalked, it is reported and the others continue.
+     */
+    private void itemFailed(Listed listedItem, Exception ex) throws IOException {
+        failed.incrementAndGet();
+        LOG.log(Level.WARNING, "HarvestPipeline failed article "+listedItem.item.get("id")+": "+ex);
+        status(listedItem.item, "failed: "+ex.getMessage());
+        itemDone(listedItem.window, listedItem.page);
+    }
+
+    /**
+     * Search stage: one page of figshare search results.
+     */
+    protected JSONArray search(int page, int pageSize, String from, String until) throws Exception {
+        if (LOG.isLoggable(Level.FINE))
+            LOG.log(Level.FINE, "search() page="+page);
+        return catalog.searchArticles(page, pageSize, from, until);
+    }
+
+    /**
+     * Fetch stage: the details of an article found by the search.
+     * @return the article details, or null if it no longer exists.
+     */
+    protected JSONObject fetch(JSONObject searchItem) throws Exception {
+        return catalog.fetchArticle((Long)searchItem.get("id"));
+    }
+
+    /**
+     * Crosswalk stage: the record of an article, with the XML element extracted if requested.
+     * @return the OAI identifier and record, the record is null if the element was not found.
+     */
+    protected Harvested crosswalk(JSONObject nativeItem, String metadataPrefix) throws Exception {
+        String identifier = catalog.getRecordFactory().getOAIIdentifier(nativeItem);
+        if (extractor == null)
+            return new Harvested(identifier, catalog.constructRecord(nativeItem, metadataPrefix));
+        // find requested elements, eg. to remove the OAI wrappers and get metadata payload,
+        // the whole record is only kept in this thread's buffer until they are extracted
+        StringBuilder buffer = recordBuffer.get();
+        StringBuilder extracted = extractBuffer.get();
+        buffer.setLength(0);
+        extracted.setLength(0);
+        try {
+            catalog.writeRecord(nativeItem, metadataPrefix, buffer);
+            if (!extractor.extract(buffer, extracted))
+                return new Harvested(identifier, null);
+            return new Harvested(identifier, extracted.toString());
+        } finally {
+            if (buffer.capacity() > MAX_BUFFER)
+                recordBuffer.remove();
+            if (extracted.capacity() > MAX_BUFFER)
+                extractBuffer.remove();
+        }
+    }
+
+    /**
+     * Write stage: the record to the sink.
+     */
+    protected void write(Harvested harvested) throws IOException {
+        String written = sink.write(harvested.identifier, harvested.record);
+        console.println("### record="+numbered.incrementAndGet()+"; id="+harvested.identifier+"; "+written);
+    }
+
+    /**
+     * @return number of bytes of a String encoded as UTF-8, without encoding it.
+     */
+    static long utf8Length(CharSequence s) {
+        long n = s.length();
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80)
+                n += (c >= 0x800 && !Character.isSurrogate(c)) ? 2 : 1;
+        }
+        return n;
+    }
+
+    /**
+     * @return seconds since the run started, to its end once finished.
+     */
+    private double elapsedSeconds() {
+        long end = (endNanos != 0) ? endNanos : System.nanoTime();
+        return (startNanos == 0) ? 0.0 : (end - startNanos) / 1e9;
+    }
+
+    /**
+     * Estimate the number of articles the run will list.
+     * @return the estimate, or -1 if there is nothing to estimate from yet.
+     */
+    private long estimateTotal() {
+        if (expected >= 0)
+            return expected;
+        long n = listed.get();
+        if (searching.get() == 0)
+            return n;
+        // results are listed most recently modified first, so the oldest listed shows how far back each window is searched
+        double span = 0;
+        double covered = 0;
+        try {
+            for (Window window: cursors) {
+                long from = parseUTC(window.from);
+                long until = (window.until == null) ? startMillis
+                        : parseUTC(window.until) + ((window.until.length() == 10) ? 86400000L : 0);
+                if (until <= from)
+                    continue;
+                span += until - from;
+                if (window.nextPage.get() > window.lastPage.get())
+                    covered += until - from;
+                else if (window.oldest != null)
+                    covered += until - Math.max(from, Math.min(until, parseUTC(window.oldest)));
+            }
+        } catch (BadArgumentException | NullPointerException ex) {
+            return -1;
+        }
+        if (covered <= 0)
+            return -1;
+        return Math.max(n, (long)(n * span / covered));
+    }
+
+    /**
+     * The progress of the run so far.
+     * @return a line of records and bytes per second, time share of each stage, figshare
+     *         latency percentiles, and the estimated time to finish.
+     */
+    public String getProgress() {
+        double seconds = elapsedSeconds();
+        long done = written.get() + unchanged.get() + skipped.get() + failed.get();
+        long total = estimateTotal();
+        String totalText = Long.toString(total);
+        if (total < 0)
+            totalText = "?";
+        else if ( (searching.get() > 0) && (expected < 0) )
+            totalText = "~"+total;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("elapsed=%.0fs done=%d/%s", seconds, done, totalText));
+        sb.append(String.format(" rate=%.1f rec/s %.1f KB/s", (seconds > 0) ? written.get()/seconds : 0.0,
+                (seconds > 0) ? bytes.get()/1024.0/seconds : 0.0));
+        long busy = 0;
+        for (int i=0; i<STAGES.length; i++)
+            busy += stageNanos.get(i);
+        sb.append(" stages");
+        for (int i=0; i<STAGES.length; i++)
+            sb.append(' ').append(STAGES[i]).append('=').append((busy > 0) ? Math.round(100.0*stageNanos.get(i)/busy) : 0).append('%');
+        LatencyHistogram latency = FigshareConnection.getLatencyHistogram();
+        sb.append(String.format(" latency p50=%.0fms p90=%.0fms p99=%.0fms", latency.getPercentileMillis(50),
+                latency.getPercentileMillis(90), latency.getPercentileMillis(99)));
+        String eta = "?";
+        if ( (total >= 0) && (done > 0) && (seconds > 0) )
+            eta = Math.round(Math.max(0, total - done) * seconds / done)+"s";
+        sb.append(" eta=").append(eta);
+        return sb.toString();
+    }
+
+    /**
+     * Measures of the whole run, for a machine-readable record of harvest performance.
+     * @return counts, rates, time spent in each stage, figshare latency and rate limiting, and configuration.
+     */
+    public JSONObject getSummary() {
+        double seconds = elapsedSeconds();
+        JSONObject summary = new JSONObject();
+        summary.put("seconds", seconds);
+        summary.put("pages", pages.get());
+        summary.put("listed", listed.get());
+        summary.put("skipped", skipped.get());
+        summary.put("written", written.get());
+        summary.put("failed", failed.get());
+        if (manifest != null) {
+            summary.put("new", created.get());
+            summary.put("changed", changed.get());
+            summary.put("unchanged", unchanged.get());
+        }
+        summary.put("bytes", bytes.get());
+        summary.put("recordsPerSecond", (seconds > 0) ? written.get()/seconds : 0.0);
+        summary.put("bytesPerSecond", (seconds > 0) ? bytes.get()/seconds : 0.0);
+        long busy = 0;
+        for (int i=0; i<STAGES.length; i++)
+            busy += stageNanos.get(i);
+        JSONObject stages = new JSONObject();
+        for (int i=0; i<STAGES.length; i++) {
+            JSONObject stage = new JSONObject();
+            stage.put("seconds", stageNanos.get(i)/1e9);
+            stage.put("share", (busy > 0) ? (double)stageNanos.get(i)/busy : 0.0);
+            stages.put(STAGES[i], stage);
+        }
+        summary.put("stages", stages);
+        LatencyHistogram histogram = FigshareConnection.getLatencyHistogram();
+        JSONObject latency = new JSONObject();
+        latency.put("requests", histogram.getCount());
+        latency.put("p50Millis", histogram.getPercentileMillis(50));
+        latency.put("p90Millis", histogram.getPercentileMillis(90));
+        latency.put("p99Millis", histogram.getPercentileMillis(99));
+        latency.put("maxMillis", histogram.getMaxMillis());
+        latency.put("meanMillis", histogram.getMeanMillis());
+        summary.put("latency", latency);
+        JSONObject limiter = new JSONObject();
+        limiter.put("permitsPerSecond", rateLimiter.getPermitsPerSecond());
+        limiter.put("acquired", rateLimiter.getAcquired());
+        limiter.put("waitedMillis", rateLimiter.getWaitedMillis());
+        summary.put("rateLimiter", limiter);
+        JSONObject threads = new JSONObject();
+        threads.put("search", searchThreads);
+        threads.put("fetch", fetchThreads);
+        threads.put("crosswalk", crosswalkThreads);
+        threads.put("write", writeThreads);
+        summary.put("threads", threads);
+        summary.put("queueSize", queueSize);
+        summary.put("pageSize", pageSize);
+        return summary;
+    }
+
+    /**
+     * Add a summary to a file of JSON lines, one per run, so performance can be followed over time.
+     * @param file the file, created if needed.
+     * @param summary the summary of a run.
+     * @exception IOException the file could not be written.
+     */
+    public static void appendSummary(Path file, JSONObject summary) throws IOException {
+        Files.write(file, (summary.toJSONString()+"\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @return number of search pages retrieved.
+     */
+    public long getPageCount() {
+        return pages.get();
+    }
+
+    /**
+     * @return number of distinct articles listed by the search.
+     */
+    public long getListedCount() {
+        return listed.get();
+    }
+
+    /**
+     * @return number of articles not written, as no longer found or without the element.
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * @return number of records written.
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * @return number of records written that were not in the manifest.
+     */
+    public long getNewCount() {
+        return created.get();
+    }
+
+    /**
+     * @return number of records written as their content differs from the manifest.
+     */
+    public long getChangedCount() {
+        return changed.get();
+    }
+
+    /**
+     * @return number of records not written as their content matches the manifest.
+     */
+    public long getUnchangedCount() {
+        return unchanged.get();
+    }
+
+    /**
+     * @return number of articles of runIds() that could not be fetched or crosswalked.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return time of the most recent search page request, or null if none.
+     */
+    public Date getLastSearch() {
+        return lastSearch;
+    }
+
+    @Override
+    public String toString() {
+        return "pages="+pages.get()+" listed="+listed.get()+" skipped="+skipped.get()+" written="+written.get()
+                +((idStatus == null) ? "" : " failed="+failed.get())
+                +((manifest == null) ? "" : " new="+created.get()+" changed="+changed.get()+" unchanged="+unchanged.get())
+                +" threads="+searchThreads+"/"+fetchThreads+"/"+crosswalkThreads+"/"+writeThreads
+                +" queueSize="+queueSize+" pageSize="+pageSize+" rateLimiter: "+rateLimiter;
+    }
+}
@@ -28,10 +28,12 @@ package net.datanoid.oaipmh.figshare;
 
 import ORG.oclc.oai.server.crosswalk.Crosswalk;
 import ORG.oclc.oai.server.verb.CannotDisseminateFormatException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import net.datanoid.figshare.FigshareJSONObject;
 import org.json.simple.JSONObject;
 
 /**
@@ -40,9 +42,10 @@ import org.json.simple.JSONObject;
  * 
  * @author Lyle Winton <lyle@winton.id.au>
  */
-public class JSON2json  extends Crosswalk {
+public class JSON2json  extends Crosswalk implements StreamingCrosswalk {
 
     private static final Logger LOG = Logger.getLogger(JSON2oai_dc.class.getName());
+    private final String rootElementStart;
     
         /**
      * The constructor assigns the schemaLocation associated with this crosswalk. Since
@@ -52,6 +55,12 @@ public class JSON2json  extends Crosswalk {
      */
     public JSON2json(Properties properties) {
 	super("http://www.w3.org/2001/XMLSchema http://www.w3.org/2001/XMLSchema.xsd"); // dummy values
+        //TODO seek a better schema element to use than XSD element itself
+        rootElementStart = "<json:element xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" "
+                + "xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
+                + "xmlns:json=\"http://www.w3.org/2001/XMLSchema\" "
+                + "xsi:schemaLocation=\"" + this.getSchemaLocation() + "\" "
+                + "name=\"json\" type=\"xs:string\" >";
     }
 
 
@@ -74,18 +83,33 @@ public class JSON2json  extends Crosswalk {
      */
     @Override
     public String createMetadata(Object nativeItem) throws CannotDisseminateFormatException {
-        LOG.log(Level.FINER, "createMetadata() nativeItem="+nativeItem.toString());
+	StringBuilder sb = new StringBuilder(8192);
+        try {
+            writeMetadata(nativeItem, sb);
+        } catch (IOException ex) {
+            // not thrown by StringBuilder
+            throw new IllegalStateException(ex);
+        }
+        if (LOG.isLoggable(Level.FINER))
+            LOG.log(Level.FINER, "createMetadata() metadata="+sb.toString());
+	return sb.toString();
+    }
+
+    /**
+     * Perform the actual crosswalk, appending the XML wrapped JSON to the destination.
+     *
+     * @param nativeItem the native JSONObject "item".
+     * @param out destination of the XML to be stored within the <metadata> element.
+     * @exception CannotDisseminateFormatException nativeItem doesn't support this format.
+     * @exception IOException the destination could not be written.
+     */
+    @Override
+    public void writeMetadata(Object nativeItem, Appendable out)
+        throws CannotDisseminateFormatException, IOException {
+        if (LOG.isLoggable(Level.FINER))
+            LOG.log(Level.FINER, "writeMetadata() nativeItem="+nativeItem.toString());
         JSONObject jitem = (JSONObject) nativeItem;
-	StringBuffer sb = new StringBuffer();
-        //TODO seek a better schema element to use than XSD element itself
-	sb.append("<json:element xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" "
-                + "xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
-                + "xmlns:json=\"http://www.w3.org/2001/XMLSchema\" "
-                + "xsi:schemaLocation=\"");
-        sb.append(this.getSchemaLocation());
-	sb.append("\" ");
-        sb.append("name=\"json\" type=\"xs:string\" ");
-        sb.append(">");
+        out.append(rootElementStart);
         // The JSON standard (EMCA-404) allows for any UTF-8 characters to be within
         // a string, except backslash and doublequote which are to be escaped (\\ and \").
         // Typically \n \r \f \b \t and \/ are escaped also.
@@ -97,11 +121,17 @@ public class JSON2json  extends Crosswalk {
         // This may allow better browser compatibility with JSON, as the whole
         // of JSON can then effectively be 7 bit ASCI. 
         // If this is ever required the following will work.
-        //sb.append( Utils.XML_cdata_escape( Utils.StringToUTF8Escaped( jitem.toJSONString() ) ) );
-        sb.append( Utils.XML_cdata_escape( jitem.toJSONString() ) );
-        sb.append("</json:element>");
-        LOG.log(Level.FINER, "createMetadata() metadata="+sb.toString());
-	return sb.toString();
+        //Utils.XML_cdata_escape(out, Utils.StringToUTF8Escaped(jitem.toJSONString()));
+        // When the original JSON text of the article is known it is output as is,
+        // keeping figshare's key order and escaping, without re-serialising.
+        String raw = null;
+        if (jitem instanceof FigshareJSONObject)
+            raw = ((FigshareJSONObject)jitem).getRawJSON();
+        if (raw != null)
+            Utils.XML_cdata_escape(out, raw);
+        else
+            Utils.XML_cdata_escape(out, jitem.toJSONString());
+        out.append("</json:element>");
     }
 
 
@@ -25,9 +25,16 @@
  */
 package net.datanoid.oaipmh.figshare;
 
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Properties;
 import ORG.oclc.oai.server.catalog.RecordFactory;
+import ORG.oclc.oai.server.crosswalk.Crosswalk;
+import ORG.oclc.oai.server.crosswalk.CrosswalkItem;
+import ORG.oclc.oai.server.verb.CannotDisseminateFormatException;
+import ORG.oclc.oai.util.OAIUtil;
 import java.util.StringTokenizer;
 import org.json.simple.JSONObject;
 
@@ -40,6 +47,15 @@ import org.json.simple.JSONObject;
 public class JSONRecordFactory extends RecordFactory {
     
     private String repositoryIdentifier = null;
+    /** XML encoded OAI identifier up to the article id */
+    private String identifierPrefix = null;
+    /** crosswalks that can write into the record, by metadataPrefix */
+    private final Map<String,StreamingCrosswalk> streamingCrosswalks = new HashMap<String,StreamingCrosswalk>();
+
+    private static final String RECORD_START = "<record><header><identifier>";
+    private static final String IDENTIFIER_END = "</identifier><datestamp>";
+    private static final String DATESTAMP_END = "</datestamp></header><metadata>";
+    private static final String RECORD_END = "</metadata></record>";
     
     /**
      * Construct an JSONRecordFactory capable of producing the Crosswalk(s)
@@ -55,6 +71,14 @@ public class JSONRecordFactory extends RecordFactory {
 	if (repositoryIdentifier == null) {
 	    throw new IllegalArgumentException("JSONRecordFactory.repositoryIdentifier is missing from the properties file");
 	}
+        identifierPrefix = OAIUtil.xmlEncode("oai:"+repositoryIdentifier+":article/");
+        Iterator iterator = getCrosswalks().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry entry = (Map.Entry)iterator.next();
+            Crosswalk crosswalk = ((CrosswalkItem)entry.getValue()).getCrosswalk();
+            if (crosswalk instanceof StreamingCrosswalk)
+                streamingCrosswalks.put((String)entry.getKey(), (StreamingCrosswalk)crosswalk);
+        }
     }
 
     /**
@@ -103,7 +127,7 @@ public class JSONRecordFactory extends RecordFactory {
         String date = calcDatestamp(nativeItem);
         if (date == null)
             throw new IllegalArgumentException("getDatestamp() JSON cannot find timeline.revision / published_date");
-        return calcDatestamp(nativeItem);
+        return date;
     }
     /**
      * get the datestamp from the JSON item.
@@ -169,13 +193,59 @@ public class JSONRecordFactory extends RecordFactory {
      * This is useful, for example, if the entire &lt;record&gt; is already packaged as the native
      * record. Return null if you want the default handler to create it by calling the methods
      * above individually.
+     * <p>
+     * Records are never deleted and have no setSpecs or abouts, so when the metadataPrefix
+     * has a StreamingCrosswalk the whole &lt;record&gt; is written here in one pass, into
+     * a single builder, with the datestamp calculated once. The output is the same as
+     * the default method's.
      * 
      * @param nativeItem the native record
+     * @param schemaLocation the schemaURL of the metadataPrefix
+     * @param metadataPrefix the metadataPrefix to create
      * @return a String containing the OAI &lt;record&gt; or null if the default method should be
      * used.
+     * @exception CannotDisseminateFormatException nativeItem doesn't support this format.
      */
-    public String quickCreate(Object nativeItem, String schemaLocation, String metadataPrefix) {
-	// Don't perform quick creates
-	return null;
+    public String quickCreate(Object nativeItem, String schemaLocation, String metadataPrefix)
+        throws CannotDisseminateFormatException {
+        StringBuilder sb = new StringBuilder(8192);
+        if (!quickCreate(nativeItem, schemaLocation, metadataPrefix, sb))
+            return null;
+        return sb.toString();
+    }
+
+    /**
+     * Append the OAI &lt;record&gt; to a builder, as quickCreate() creates it, eg. to a
+     * builder reused for each record when only part of the record is kept.
+     *
+     * @param nativeItem the native record
+     * @param schemaLocation the schemaURL of the metadataPrefix
+     * @param metadataPrefix the metadataPrefix to create
+     * @param sb destination of the record
+     * @return true if the record was appended, false if the default method should be used.
+     * @exception CannotDisseminateFormatException nativeItem doesn't support this format.
+     */
+    boolean quickCreate(Object nativeItem, String schemaLocation, String metadataPrefix, StringBuilder sb)
+        throws CannotDisseminateFormatException {
+        if ( (schemaLocation == null) || (metadataPrefix == null) )
+            return false;
+        StreamingCrosswalk crosswalk = streamingCrosswalks.get(metadataPrefix);
+        if (crosswalk == null)
+            return false;
+        JSONObject jitem = (JSONObject) nativeItem;
+        sb.append(RECORD_START);
+        sb.append(identifierPrefix);
+        sb.append(jitem.get("id"));
+        sb.append(IDENTIFIER_END);
+        sb.append(getDatestamp(nativeItem));
+        sb.append(DATESTAMP_END);
+        try {
+            crosswalk.writeMetadata(nativeItem, sb);
+        } catch (IOException ex) {
+            // not thrown by StringBuilder
+            throw new IllegalStateException(ex);
+        }
+        sb.append(RECORD_END);
+        return true;
     }
 }
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Offline gazetteer of places by numeric id, eg. GeoNames or Getty TGN, held in a
+ * compact binary file that is memory-mapped and searched in place.
+ * <p>
+ * Opening only maps the file, and lookups are a binary search over the mapped records,
+ * so a gazetteer of millions of places costs no heap and no parsing at startup.
+ * Instances are immutable and safe to share between threads.
+ * <p>
+ * File layout, big-endian:
+ * <pre>
+ *   header   int magic "FGAZ", int version 1, int count
+ *   records  count x { long id, double latitude, double longitude, int nameOffset, int nameLength }
+ *            sorted by id
+ *   names    UTF-8 names, offsets relative to the start of this section
+ * </pre>
+ * Files are built offline from a GeoNames dump or a simple TSV with main():
+ * <pre>
+ *   java -cp oaicat-figshare.jar net.datanoid.oaipmh.figshare.PlaceGazetteer geonames allCountries.txt geonames.gaz
+ *   java -cp oaicat-figshare.jar net.datanoid.oaipmh.figshare.PlaceGazetteer tsv tgn-places.tsv tgn.gaz
+ * </pre>
+ * The GeoNames dump columns are id, name, asciiname, alternatenames, latitude, longitude, ...
+ * The TSV columns are id, name, latitude, longitude.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class PlaceGazetteer {
+
+    private static final int MAGIC = 0x46474158; // "FGAZ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_SIZE = 32;
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int namesStart;
+
+    private PlaceGazetteer(Path path, ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        if ( (buffer.capacity() < HEADER_SIZE) || (buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION) )
+            throw new IOException("Not a version "+VERSION+" place gazetteer: "+path);
+        count = buffer.getInt(8);
+        namesStart = HEADER_SIZE + count*RECORD_SIZE;
+        if ( (count < 0) || (namesStart > buffer.capacity()) )
+            throw new IOException("Truncated place gazetteer: "+path);
+    }
+
+    /**
+     * Memory-map a gazetteer file.
+     * @param path gazetteer file, as written by build().
+     * @return gazetteer.
+     * @exception IOException the file could not be mapped, or is not a gazetteer.
+     */
+    public static PlaceGazetteer open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Place gazetteer larger than 2GB: "+path);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            // the mapping remains valid after the channel is closed
+            return new PlaceGazetteer(path, mapped.order(ByteOrder.BIG_ENDIAN));
+        }
+    }
+
+    /**
+     * @return the gazetteer file.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return number of places.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Binary search for a place.
+     * @param id place id, eg. GeoNames id.
+     * @return index of the place, or -1 if not found.
+     */
+    public int find(long id) {
+        int lo = 0;
+        int hi = count-1;
+        while (lo <= hi) {
+            int mid = (lo+hi) >>> 1;
+            long midId = buffer.getLong(HEADER_SIZE + mid*RECORD_SIZE);
+            if (midId < id)
+                lo = mid+1;
+            else if (midId > id)
+                hi = mid-1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * @param place index of the place.
+     * @return place id.
+     */
+    public long getId(int place) {
+        return buffer.getLong(HEADER_SIZE + place*RECORD_SIZE);
+    }
+
+    /**
+     * @param place index of the place.
+     * @return latitude of the place.
+     */
+    public double getLatitude(int place) {
+        return buffer.getDouble(HEADER_SIZE + place*RECORD_SIZE + 8);
+    }
+
+    /**
+     * @param place index of the place.
+     * @return longitude of the place.
+     */
+    public double getLongitude(int place) {
+        return buffer.getDouble(HEADER_SIZE + place*RECORD_SIZE + 16);
+    }
+
+    /**
+     * @param place index of the place.
+     * @return name of the place.
+     */
+    public String getName(int place) {
+        int offset = buffer.getInt(HEADER_SIZE + place*RECORD_SIZE + 24);
+        int length = buffer.getInt(HEADER_SIZE + place*RECORD_SIZE + 28);
+        byte[] utf8 = new byte[length];
+        ByteBuffer names = buffer.duplicate();
+        names.position(namesStart + offset);
+        names.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Build a gazetteer file from tab separated places.
+     * Places with an id repeated keep the first entry. Lines starting with # are ignored.
+     *
+     * @param reader tab separated lines.
+     * @param geonames true for the GeoNames dump columns, false for id, name, latitude, longitude.
+     * @param path gazetteer file to write, replaced atomically.
+     * @return number of places written.
+     * @exception IOException the input could not be read, or the file written.
+     * @exception ParseException a line could not be parsed, with the line number as error offset.
+     */
+    public static int build(Reader reader, boolean geonames, Path path) throws IOException, ParseException {
+        int latColumn = geonames ? 4 : 2;
+        int lonColumn = geonames ? 5 : 3;
+        int size = 0;
+        long[] ids = new long[1024];
+        double[] lats = new double[1024];
+        double[] lons = new double[1024];
+        int[] offsets = new int[1024];
+        int[] lengths = new int[1024];
+        ByteArrayOutputStream names = new ByteArrayOutputStream(65536);
+        BufferedReader in = new BufferedReader(reader, 65536);
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            if ( (line.length() == 0) || (line.charAt(0) == '#') )
+                continue;
+            String[] columns = line.split("\t", lonColumn+2);
+            if (columns.length <= lonColumn)
+                throw new ParseException("Line "+lineNumber+" has too few columns.", lineNumber);
+            if (size == ids.length) {
+                int capacity = size*2;
+                ids = Arrays.copyOf(ids, capacity);
+                lats = Arrays.copyOf(lats, capacity);
+                lons = Arrays.copyOf(lons, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            try {
+                ids[size] = Long.parseLong(columns[0].trim());
+                lats[size] = Double.parseDouble(columns[latColumn].trim());
+                lons[size] = Double.parseDouble(columns[lonColumn].trim());
+            } catch (NumberFormatException ex) {
+                throw new ParseException("Line "+lineNumber+" has an invalid id, latitude or longitude.", lineNumber);
+            }
+            if ( (ids[size] < 0) || (ids[size] > 0xFFFFFFFFL) )
+                throw new ParseException("Line "+lineNumber+" has an id out of range.", lineNumber);
+            byte[] name = columns[1].getBytes(StandardCharsets.UTF_8);
+            offsets[size] = names.size();
+            lengths[size] = name.length;
+            names.write(name, 0, name.length);
+            size++;
+        }
+        // sort by id, packing the id and the line's index into one long
+        long[] order = new long[size];
+        for (int i=0; i<size; i++)
+            order[i] = (ids[i] << 31) | i;
+        Arrays.sort(order);
+        int unique = 0;
+        for (int i=0; i<size; i++)
+            if ( (i == 0) || ((order[i] >>> 31) != (order[i-1] >>> 31)) )
+                order[unique++] = order[i];
+        if ((long)HEADER_SIZE + (long)unique*RECORD_SIZE + names.size() > Integer.MAX_VALUE)
+            throw new IOException("Place gazetteer would be larger than 2GB.");
+        ByteBuffer records = ByteBuffer.allocate(HEADER_SIZE + unique*RECORD_SIZE).order(ByteOrder.BIG_ENDIAN);
+        records.putInt(MAGIC).putInt(VERSION).putInt(unique);
+        for (int i=0; i<unique; i++) {
+            int place = (int)(order[i] & 0x7FFFFFFFL);
+            records.putLong(ids[place]).putDouble(lats[place]).putDouble(lons[place])
+                    .putInt(offsets[place]).putInt(lengths[place]);
+        }
+        records.flip();
+        Path temp = path.resolveSibling(path.getFileName()+".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (records.hasRemaining())
+                channel.write(records);
+            ByteBuffer namebytes = ByteBuffer.wrap(names.toByteArray());
+            while (namebytes.hasRemaining())
+                channel.write(namebytes);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return unique;
+    }
+
+    @Override
+    public String toString() {
+        return "path="+path+" places="+count;
+    }
+
+    /**
+     * Build a gazetteer file.
+     * @param args geonames|tsv input output
+     */
+    public static void main(String[] args) {
+        if ( (args.length != 3) || !(args[0].equals("geonames") || args[0].equals("tsv")) ) {
+            System.err.println("Usage: PlaceGazetteer geonames|tsv <input.txt> <output.gaz>");
+            System.exit(1);
+        }
+        try (Reader reader = new InputStreamReader(Files.newInputStream(Paths.get(args[1])), StandardCharsets.UTF_8)) {
+            int places = build(reader, args[0].equals("geonames"), Paths.get(args[2]));
+            System.out.println("Wrote "+places+" places to "+args[2]);
+        } catch (IOException | ParseException ex) {
+            System.err.println("ERROR: "+ex.getMessage());
+            System.exit(2);
+        }
+    }
+}
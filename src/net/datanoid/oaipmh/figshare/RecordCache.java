@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, least recently used cache of the rendered &lt;record&gt; Strings of articles.
+ * <p>
+ * Each entry holds every metadataPrefix variant of one article, keyed by the figshare
+ * article id, along with the datestamp the records were rendered from. Entries expire
+ * after a time-to-live, and a lookup giving a datestamp only matches an entry rendered
+ * from that same datestamp, so records updated in figshare are fetched again.
+ * Safe for use by concurrent requests.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class RecordCache {
+
+    private static final class CachedRecord {
+        final String datestamp;
+        final Map<String,String> records;
+        final long expires;
+        CachedRecord(String datestamp, Map<String,String> records, long expires) {
+            this.datestamp = datestamp;
+            this.records = records;
+            this.expires = expires;
+        }
+    }
+
+    private final int maxSize;
+    private final long millisecondsToLive;
+    private final LinkedHashMap<Long,CachedRecord> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param maxSize maximum number of articles held.
+     * @param millisecondsToLive how long the records of an article are kept.
+     */
+    public RecordCache(final int maxSize, long millisecondsToLive) {
+        this.maxSize = maxSize;
+        this.millisecondsToLive = millisecondsToLive;
+        this.entries = new LinkedHashMap<Long,CachedRecord>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long,CachedRecord> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the records of an article.
+     * @param id figshare article id.
+     * @param datestamp current datestamp of the article if known, otherwise null.
+     * @return unmodifiable Map of metadataPrefix to &lt;record&gt;, or null if not cached,
+     * expired, or rendered from a different datestamp.
+     */
+    public synchronized Map<String,String> get(Long id, String datestamp) {
+        CachedRecord entry = entries.get(id);
+        if (entry != null) {
+            if ( (System.currentTimeMillis() >= entry.expires)
+                    || ( (datestamp != null) && (!datestamp.equals(entry.datestamp)) ) ) {
+                entries.remove(id);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.records;
+    }
+
+    /**
+     * Store the records of an article, replacing any held.
+     * @param id figshare article id.
+     * @param datestamp datestamp of the article the records were rendered from.
+     * @param records Map of metadataPrefix to &lt;record&gt;.
+     */
+    public synchronized void put(Long id, String datestamp, Map<String,String> records) {
+        long expires = System.currentTimeMillis() + millisecondsToLive;
+        entries.put(id, new CachedRecord(datestamp, Collections.unmodifiableMap(records), expires));
+    }
+
+    /**
+     * @return number of articles held.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Remove all held records and reset the counters.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * @return number of lookups that found the records.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of lookups that did not find the records.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "size="+size()+"/"+maxSize+" hits="+hits.get()+" misses="+misses.get();
+    }
+}
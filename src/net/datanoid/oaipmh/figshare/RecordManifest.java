@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Manifest of the content hash of each record last written by the command-line harvest,
+ * so an incremental run only writes the records that are new or have changed.
+ * <p>
+ * Records are keyed by a 64-bit hash of their OAI identifier, and hold a 64-bit hash of
+ * the record content. Both are held in memory in an open-addressing table of longs.
+ * The index file is the magic "FMAN", a version int and a count int, followed by the
+ * count (identifier hash, content hash) long pairs sorted by identifier hash, 16 bytes
+ * per record. It is replaced atomically on save().
+ * <p>
+ * A hash is 0 only for "no record", computed hashes of 0 are stored as 1.
+ * Safe for use by concurrent writer threads.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class RecordManifest {
+
+    private static final int MAGIC = 0x464d414e; // "FMAN"
+    private static final int VERSION = 1;
+    private static final int HEADER = 12;
+
+    private final Path file;
+    private long[] keys;
+    private long[] values;
+    private int size = 0;
+
+    private RecordManifest(Path file, int capacity) {
+        this.file = file;
+        int tableSize = 16;
+        // table at most half full, so probe sequences stay short
+        while (tableSize < capacity*2)
+            tableSize <<= 1;
+        keys = new long[tableSize];
+        values = new long[tableSize];
+    }
+
+    /**
+     * Load a manifest, or start an empty one if the file does not exist.
+     * @param file manifest index file.
+     * @return the manifest, saved to the same file.
+     * @exception IOException the file could not be read, or is not a manifest.
+     */
+    public static RecordManifest load(Path file) throws IOException {
+        if (!Files.exists(file))
+            return new RecordManifest(file, 0);
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+        if ( (data.remaining() < HEADER) || (data.getInt() != MAGIC) || (data.getInt() != VERSION) )
+            throw new IOException("Not a record manifest file: "+file);
+        int count = data.getInt();
+        if ( (count < 0) || (data.remaining() != count*16L) )
+            throw new IOException("Truncated record manifest file: "+file);
+        RecordManifest manifest = new RecordManifest(file, count);
+        for (int i=0; i<count; i++)
+            manifest.put(data.getLong(), data.getLong());
+        return manifest;
+    }
+
+    /**
+     * 64-bit hash of text, FNV-1a over the UTF-16 chars followed by the MurmurHash3 finaliser.
+     * @param text text to hash.
+     * @return non-zero hash.
+     */
+    public static long hash(CharSequence text) {
+        long h = 0xcbf29ce484222325L;
+        for (int i=0; i<text.length(); i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (h == 0) ? 1 : h;
+    }
+
+    private int slot(long key) {
+        int mask = keys.length-1;
+        int slot = (int)(key ^ (key >>> 32)) & mask;
+        while ( (keys[slot] != 0) && (keys[slot] != key) )
+            slot = (slot+1) & mask;
+        return slot;
+    }
+
+    private void put(long key, long value) {
+        int slot = slot(key);
+        if (keys[slot] == 0) {
+            if ((size+1)*2 > keys.length) {
+                grow();
+                slot = slot(key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length*2];
+        values = new long[oldValues.length*2];
+        for (int i=0; i<oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * @param identifier OAI identifier of the record.
+     * @return content hash of the record last written, or 0 if none.
+     */
+    public synchronized long get(String identifier) {
+        return values[slot(hash(identifier))];
+    }
+
+    /**
+     * Record the content hash of a record just written.
+     * @param identifier OAI identifier of the record.
+     * @param contentHash hash of the content written, from hash().
+     */
+    public synchronized void put(String identifier, long contentHash) {
+        put(hash(identifier), contentHash);
+    }
+
+    /**
+     * @return number of records in the manifest.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Save the manifest, replacing the file atomically.
+     * @exception IOException the file could not be written.
+     */
+    public synchronized void save() throws IOException {
+        long[] sorted = new long[size];
+        int n = 0;
+        for (int i=0; i<keys.length; i++) {
+            if (keys[i] != 0)
+                sorted[n++] = keys[i];
+        }
+        Arrays.sort(sorted);
+        Path temp = file.toAbsolutePath().getParent().resolve(file.getFileName().toString()+".tmp");
+        try (FileOutputStream fout = new FileOutputStream(temp.toFile());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout, 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            for (long key: sorted) {
+                out.writeLong(key);
+                out.writeLong(values[slot(key)]);
+            }
+            out.flush();
+            fout.getFD().sync();
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return manifest index file.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "file="+file+" records="+size;
+    }
+}
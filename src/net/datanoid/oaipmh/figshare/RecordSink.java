@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of the records harvested by the command-line tool.
+ * <p>
+ * Implementations are in RecordSinks: a folder of files, a zip or tar.gz archive,
+ * newline-delimited JSON, a single XML document, or standard output.
+ * write() may be called by several writer threads at once.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public interface RecordSink extends Closeable {
+
+    /**
+     * Write a record.
+     * @param identifier OAI identifier of the record.
+     * @param record record text, an XML record or element, or element contents.
+     * @return where the record was written, for progress output, eg. "filename=..."
+     * @exception IOException the record could not be written.
+     */
+    String write(String identifier, String record) throws IOException;
+
+    /**
+     * Flush any buffered records and complete the output, eg. the archive directory.
+     * @exception IOException the output could not be completed.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.json.simple.JSONValue;
+
+/**
+ * The RecordSink implementations, and selection of one from the output argument.
+ * <p>
+ * Apart from the folder of files, every sink is a single sequential stream through
+ * a large buffer. Records are encoded to UTF-8 by the calling writer thread, and only
+ * the append to the stream is synchronized, so several writer threads can share a sink.
+ * <ul>
+ * <li>folder: a file per record named from the sanitised OAI identifier.
+ * <li>zip: a zip entry per record, with the same names as the folder.
+ * <li>tgz: a tar.gz entry per record, ustar format with a pax header for long names.
+ * <li>jsonl: a line per record, {"identifier":"...","record":"..."}.
+ * <li>xml: a single XML document, the records wrapped as
+ *     &lt;records&gt;&lt;item identifier="..."&gt;record&lt;/item&gt;...&lt;/records&gt;
+ * </ul>
+ * An output of "-" writes to standard output, as jsonl unless another stream format is given.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public final class RecordSinks {
+
+    public static final String FOLDER = "folder";
+    public static final String ZIP = "zip";
+    public static final String TGZ = "tgz";
+    public static final String JSONL = "jsonl";
+    public static final String XML = "xml";
+    static final String[] FORMATS = { FOLDER, ZIP, TGZ, JSONL, XML };
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    // literal copied from OAICat
+    static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n";
+
+    private RecordSinks() {
+    }
+
+    /**
+     * Determine the output format from the output argument, when not given.
+     * @param output folder, file name, or "-" for standard output.
+     * @return one of the format constants.
+     */
+    public static String formatOf(String output) {
+        String lower = output.toLowerCase(Locale.ROOT);
+        if (output.equals("-"))
+            return JSONL;
+        if (lower.endsWith(".zip"))
+            return ZIP;
+        if (lower.endsWith(".tar.gz") || lower.endsWith(".tgz"))
+            return TGZ;
+        if (lower.endsWith(".jsonl") || lower.endsWith(".ndjson"))
+            return JSONL;
+        if (lower.endsWith(".xml"))
+            return XML;
+        return FOLDER;
+    }
+
+    /**
+     * @param format one of the format constants.
+     * @return true if a sink of the format can add to the output of an earlier run.
+     */
+    public static boolean canAppend(String format) {
+        return format.equals(FOLDER) || format.equals(JSONL);
+    }
+
+    /**
+     * Open a sink.
+     * @param output folder, file name, or "-" for standard output.
+     * @param format one of the format constants, or null to determine it from the output.
+     * @param xmlDeclaration true to start each file or archive entry with an XML declaration.
+     * @param append true to add to the records of an earlier run, for folder and jsonl only.
+     * @return the open sink.
+     * @exception IOException the output could not be created.
+     */
+    public static RecordSink open(String output, String format, boolean xmlDeclaration, boolean append)
+            throws IOException {
+        if (format == null)
+            format = formatOf(output);
+        if (!Arrays.asList(FORMATS).contains(format))
+            throw new IllegalArgumentException("Unknown output format: "+format);
+        if (append && !canAppend(format))
+            throw new IllegalArgumentException("Output format cannot be appended to: "+format);
+        if (format.equals(FOLDER)) {
+            if (output.equals("-"))
+                throw new IllegalArgumentException("Standard output cannot be a folder");
+            Path folder = Paths.get(output);
+            if ( (!Files.isDirectory(folder)) || (!Files.isWritable(folder)) )
+                throw new IOException("output-folder not found or not writeable: "+output);
+            return new FolderSink(folder, xmlDeclaration);
+        }
+        OutputStream out;
+        if (output.equals("-"))
+            out = new FileOutputStream(FileDescriptor.out);
+        else if (append)
+            out = Files.newOutputStream(Paths.get(output), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        else
+            out = Files.newOutputStream(Paths.get(output));
+        switch (format) {
+            case ZIP: return new ZipSink(out, xmlDeclaration);
+            case TGZ: return new TarGzSink(out, xmlDeclaration);
+            case JSONL: return new JSONLinesSink(out);
+            default: return new XMLDocumentSink(out);
+        }
+    }
+
+    /**
+     * @param identifier OAI identifier.
+     * @return file name for the record, the identifier with unsafe characters replaced by _
+     */
+    static String fileName(String identifier) {
+        return identifier.replaceAll("[\\s\\.<>:\"'/\\|\\?\\*\\\\]", "_")+".xml";
+    }
+
+    private static byte[] utf8(String declaration, String record) {
+        if (declaration == null)
+            return (record+"\n").getBytes(StandardCharsets.UTF_8);
+        return (declaration+record+"\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A file per record in a folder.
+     */
+    static final class FolderSink implements RecordSink {
+        private final Path folder;
+        private final boolean xmlDeclaration;
+
+        FolderSink(Path folder, boolean xmlDeclaration) {
+            this.folder = folder;
+            this.xmlDeclaration = xmlDeclaration;
+        }
+
+        @Override
+        public String write(String identifier, String record) throws IOException {
+            String fileout = fileName(identifier);
+            try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(folder.resolve(fileout)), StandardCharsets.UTF_8))) {
+                if (xmlDeclaration)
+                    out.write(XML_DECLARATION);
+                out.write(record);
+                out.write("\n");
+            }
+            return "filename="+fileout;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A zip archive entry per record.
+     */
+    static final class ZipSink implements RecordSink {
+        private final ZipOutputStream zip;
+        private final boolean xmlDeclaration;
+
+        ZipSink(OutputStream out, boolean xmlDeclaration) {
+            this.zip = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE), StandardCharsets.UTF_8);
+            this.xmlDeclaration = xmlDeclaration;
+        }
+
+        @Override
+        public String write(String identifier, String record) throws IOException {
+            String name = fileName(identifier);
+            byte[] data = utf8(xmlDeclaration ? XML_DECLARATION : null, record);
+            synchronized (this) {
+                zip.putNextEntry(new ZipEntry(name));
+                zip.write(data);
+                zip.closeEntry();
+            }
+            return "entry="+name;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            zip.close();
+        }
+    }
+
+    /**
+     * A tar.gz archive entry per record, written as ustar.
+     */
+    static final class TarGzSink implements RecordSink {
+        private static final int BLOCK = 512;
+        private final OutputStream tar;
+        private final boolean xmlDeclaration;
+        private final byte[] header = new byte[BLOCK];
+
+        TarGzSink(OutputStream out, boolean xmlDeclaration) throws IOException {
+            this.tar = new BufferedOutputStream(new GZIPOutputStream(
+                    new BufferedOutputStream(out, BUFFER_SIZE), 65536), BUFFER_SIZE);
+            this.xmlDeclaration = xmlDeclaration;
+        }
+
+        @Override
+        public String write(String identifier, String record) throws IOException {
+            String name = fileName(identifier);
+            byte[] data = utf8(xmlDeclaration ? XML_DECLARATION : null, record);
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            long mtime = System.currentTimeMillis()/1000;
+            synchronized (this) {
+                if (nameBytes.length > 100) {
+                    // a pax extended header holds the full name
+                    byte[] pax = paxRecord("path", name);
+                    writeHeader(Arrays.copyOf(nameBytes, 100), 'x', pax.length, mtime);
+                    writeData(pax);
+                    nameBytes = Arrays.copyOf(nameBytes, 100);
+                }
+                writeHeader(nameBytes, '0', data.length, mtime);
+                writeData(data);
+            }
+            return "entry="+name;
+        }
+
+        /**
+         * A pax record "length key=value\n", where length counts itself.
+         */
+        static byte[] paxRecord(String key, String value) {
+            int length = (" "+key+"="+value+"\n").getBytes(StandardCharsets.UTF_8).length;
+            int total = length + Integer.toString(length).length();
+            if (Integer.toString(total).length() > Integer.toString(length).length())
+                total++;
+            return (total+" "+key+"="+value+"\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        private void writeHeader(byte[] name, char type, long size, long mtime) throws IOException {
+            Arrays.fill(header, (byte)0);
+            System.arraycopy(name, 0, header, 0, Math.min(name.length, 100));
+            octal(header, 100, 8, 0644);
+            octal(header, 108, 8, 0);
+            octal(header, 116, 8, 0);
+            octal(header, 124, 12, size);
+            octal(header, 136, 12, mtime);
+            header[156] = (byte)type;
+            System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+            // checksum is calculated with its own field as spaces
+            Arrays.fill(header, 148, 156, (byte)' ');
+            long checksum = 0;
+            for (byte b: header)
+                checksum += b & 0xff;
+            octal(header, 148, 7, checksum);
+            tar.write(header);
+        }
+
+        /**
+         * Zero padded octal number, with a terminating NUL.
+         */
+        private static void octal(byte[] buf, int offset, int length, long value) {
+            buf[offset+length-1] = 0;
+            for (int i=offset+length-2; i>=offset; i--) {
+                buf[i] = (byte)('0' + (value & 7));
+                value >>>= 3;
+            }
+        }
+
+        private void writeData(byte[] data) throws IOException {
+            tar.write(data);
+            int pad = (BLOCK - data.length%BLOCK) % BLOCK;
+            if (pad > 0)
+                tar.write(new byte[pad]);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            // end of archive is two zero blocks
+            tar.write(new byte[BLOCK*2]);
+            tar.close();
+        }
+    }
+
+    /**
+     * A line of JSON per record.
+     */
+    static final class JSONLinesSink implements RecordSink {
+        private final OutputStream out;
+        private long lines = 0;
+
+        JSONLinesSink(OutputStream out) {
+            this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+        }
+
+        @Override
+        public String write(String identifier, String record) throws IOException {
+            StringBuilder line = new StringBuilder(record.length()+identifier.length()+64);
+            line.append("{\"identifier\":\"").append(JSONValue.escape(identifier))
+                .append("\",\"record\":\"").append(JSONValue.escape(record)).append("\"}\n");
+            byte[] data = line.toString().getBytes(StandardCharsets.UTF_8);
+            long n;
+            synchronized (this) {
+                out.write(data);
+                n = ++lines;
+            }
+            return "line="+n;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * A single XML document, each record in an item element.
+     */
+    static final class XMLDocumentSink implements RecordSink {
+        private final OutputStream out;
+        private long items = 0;
+
+        XMLDocumentSink(OutputStream out) throws IOException {
+            this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+            this.out.write((XML_DECLARATION+"<records>\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String write(String identifier, String record) throws IOException {
+            StringBuilder item = new StringBuilder(record.length()+identifier.length()+64);
+            item.append("<item identifier=\"");
+            Utils.XML_attrib_escape(item, identifier);
+            item.append("\">").append(record).append("</item>\n");
+            byte[] data = item.toString().getBytes(StandardCharsets.UTF_8);
+            long n;
+            synchronized (this) {
+                out.write(data);
+                n = ++items;
+            }
+            return "item="+n;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.write("</records>\n".getBytes(StandardCharsets.UTF_8));
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+/**
+ * Manifest written by each shard of a sharded harvest, read by HarvestMerge to verify
+ * and combine the shard outputs.
+ * <p>
+ * The file is JSON lines. The first line is the header describing the shard and the
+ * harvest it is part of, eg. shard, shards, by, from, until, metadataPrefix, output, format.
+ * Then a line per record written {"identifier","id","modified","hash"}, where hash is the
+ * RecordManifest hash of the record, and a line per listed article that was not written
+ * {"id","skipped"}. A shard that finished writes a last line {"complete":true,...} with
+ * its counts, so a merge can tell a finished shard from one that stopped part way.
+ * Lines are only appended, so a resumed shard continues the same manifest.
+ * With a checkpoint, sync() is called before each page is saved as done, so a resumed
+ * shard never skips a page whose records are missing from its manifest. A line left
+ * part written by a crash is removed when the manifest is continued.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class ShardManifest implements Closeable {
+
+    private final Path file;
+    private final FileChannel channel;
+    private final BufferedWriter out;
+    private long records = 0;
+
+    private ShardManifest(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+        this.out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8), 65536);
+    }
+
+    /**
+     * Create a shard manifest, or continue one for a resumed shard.
+     * @param file manifest file.
+     * @param header description of the shard, written as the first line of a new manifest, may be null to append.
+     * @param append true to add to an existing manifest, its header is kept.
+     * @return the open manifest.
+     * @exception IOException the file could not be written.
+     */
+    public static ShardManifest create(Path file, JSONObject header, boolean append) throws IOException {
+        boolean exists = append && Files.exists(file);
+        if ( (!exists) && (header == null) )
+            throw new IOException("Shard manifest to continue not found: "+file);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ);
+        try {
+            if (exists) {
+                // continue after the last complete line, dropping a line part written by a crash
+                long length = completeLength(channel);
+                if (length == 0)
+                    throw new IOException("Shard manifest to continue has no header: "+file);
+                channel.truncate(length);
+                channel.position(length);
+            } else
+                channel.truncate(0);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        ShardManifest manifest = new ShardManifest(file, channel);
+        if (!exists)
+            manifest.writeLine(header);
+        return manifest;
+    }
+
+    /**
+     * @return length of the file up to the end of its last complete line.
+     */
+    private static long completeLength(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long end = channel.size();
+        while (end > 0) {
+            long start = Math.max(0, end - buffer.capacity());
+            buffer.clear();
+            buffer.limit((int)(end - start));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0)
+                    throw new IOException("Shard manifest changed while being read");
+            }
+            for (int i=buffer.limit()-1; i>=0; i--) {
+                if (buffer.get(i) == '\n')
+                    return start + i + 1;
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    private synchronized void writeLine(JSONObject line) throws IOException {
+        out.write(line.toJSONString());
+        out.write('\n');
+    }
+
+    /**
+     * Record a record written to the shard output.
+     * @param identifier OAI identifier.
+     * @param id figshare article id.
+     * @param modified figshare modified_date of the article, or null.
+     * @param contentHash RecordManifest.hash() of the record.
+     * @exception IOException the manifest could not be written.
+     */
+    public void record(String identifier, Object id, Object modified, long contentHash) throws IOException {
+        JSONObject line = new JSONObject();
+        line.put("identifier", identifier);
+        line.put("id", id);
+        line.put("modified", modified);
+        line.put("hash", hexHash(contentHash));
+        synchronized (this) {
+            writeLine(line);
+            records++;
+        }
+    }
+
+    /**
+     * Record a listed article that was not written.
+     * @param id figshare article id.
+     * @param reason why the article was skipped.
+     * @exception IOException the manifest could not be written.
+     */
+    public void skipped(Object id, String reason) throws IOException {
+        JSONObject line = new JSONObject();
+        line.put("id", id);
+        line.put("skipped", reason);
+        writeLine(line);
+    }
+
+    /**
+     * Mark the shard as finished, and flush.
+     * @param listed articles listed by the shard's search.
+     * @param skipped articles not written.
+     * @param written records written.
+     * @exception IOException the manifest could not be written.
+     */
+    public synchronized void complete(long listed, long skipped, long written) throws IOException {
+        JSONObject line = new JSONObject();
+        line.put("complete", Boolean.TRUE);
+        line.put("listed", listed);
+        line.put("skipped", skipped);
+        line.put("written", written);
+        writeLine(line);
+        out.flush();
+    }
+
+    /**
+     * Write the lines so far through to the disk, eg. before a checkpoint records
+     * their page as done.
+     * @exception IOException the manifest could not be written.
+     */
+    public synchronized void sync() throws IOException {
+        out.flush();
+        channel.force(false);
+    }
+
+    /**
+     * @return records added to the manifest by this process.
+     */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * @return manifest file.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * @return a content hash as 16 hex digits.
+     */
+    static String hexHash(long contentHash) {
+        return String.format("%016x", contentHash);
+    }
+
+    /**
+     * A shard manifest read back.
+     */
+    public static final class Contents {
+        final Path file;
+        final JSONObject header;
+        final List<JSONObject> records = new ArrayList<JSONObject>();
+        final List<JSONObject> skipped = new ArrayList<JSONObject>();
+        JSONObject complete = null;
+
+        Contents(Path file, JSONObject header) {
+            this.file = file;
+            this.header = header;
+        }
+
+        /**
+         * @return true if the shard finished, after any resumes.
+         */
+        public boolean isComplete() {
+            return complete != null;
+        }
+    }
+
+    /**
+     * Read a shard manifest.
+     * @param file manifest file.
+     * @return the header, records, skipped articles and completion.
+     * @exception IOException the file could not be read, or a line is not JSON.
+     */
+    public static Contents read(Path file) throws IOException {
+        Contents contents = null;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String text;
+            int number = 0;
+            while ((text = in.readLine()) != null) {
+                number++;
+                if (text.trim().length() == 0)
+                    continue;
+                Object parsed = JSONValue.parse(text);
+                if (!(parsed instanceof JSONObject))
+                    throw new IOException("Invalid shard manifest line "+number+" in "+file);
+                JSONObject line = (JSONObject)parsed;
+                if (contents == null)
+                    contents = new Contents(file, line);
+                else if (line.containsKey("complete"))
+                    contents.complete = line;
+                else if (line.containsKey("skipped"))
+                    contents.skipped.add(line);
+                else
+                    contents.records.add(line);
+            }
+        }
+        if (contents == null)
+            throw new IOException("Empty shard manifest "+file);
+        return contents;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import ORG.oclc.oai.server.verb.CannotDisseminateFormatException;
+import java.io.IOException;
+
+/**
+ * A Crosswalk that can write its metadata straight to a caller supplied destination,
+ * eg. the record being assembled, a file Writer or an output stream Writer,
+ * rather than returning a new String per record.
+ * Crosswalk.createMetadata() is then simply writeMetadata() into a StringBuilder.
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public interface StreamingCrosswalk {
+
+    /**
+     * Perform the crosswalk, appending the XML to be stored within the &lt;metadata&gt; element.
+     *
+     * @param nativeItem the native JSONObject "item".
+     * @param out destination of the XML.
+     * @exception CannotDisseminateFormatException nativeItem doesn't support this format.
+     * @exception IOException the destination could not be written.
+     */
+    void writeMetadata(Object nativeItem, Appendable out)
+        throws CannotDisseminateFormatException, IOException;
+
+}
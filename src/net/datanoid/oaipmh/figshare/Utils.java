@@ -26,13 +26,116 @@
  /* SPDX-License-Identifier: BSD-2-Clause  */
 package net.datanoid.oaipmh.figshare;
 
-import java.util.regex.Matcher;
+import java.io.IOException;
 
 /**
  * Static class with common utility functions.
+ * <p>
+ * The XML and JSON escaping is table driven and single pass. Each escaping has
+ * a form that writes straight into an Appendable, and a form returning a String.
+ * Characters that are not allowed in XML 1.0 (control characters other than
+ * tab, newline and carriage return) are dropped from XML output.
  * @author Lyle Winton <lyle@winton.id.au>
  */
 public class Utils {
+
+    private static final String[] TEXT_ESCAPES = new String[128];
+    private static final String[] ATTRIB_ESCAPES = new String[128];
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    static {
+        for (char c=0; c<0x20; c++) {
+            TEXT_ESCAPES[c] = "";
+            ATTRIB_ESCAPES[c] = "";
+        }
+        TEXT_ESCAPES['\t'] = null;
+        TEXT_ESCAPES['\n'] = null;
+        TEXT_ESCAPES['\r'] = null;
+        TEXT_ESCAPES['&'] = "&amp;";
+        TEXT_ESCAPES['<'] = "&lt;";
+        TEXT_ESCAPES['>'] = "&gt;";
+        ATTRIB_ESCAPES['\t'] = "&#x9;";
+        ATTRIB_ESCAPES['\n'] = "&#xA;";
+        ATTRIB_ESCAPES['\r'] = "&#xD;";
+        ATTRIB_ESCAPES['&'] = "&amp;";
+        ATTRIB_ESCAPES['<'] = "&lt;";
+        ATTRIB_ESCAPES['>'] = "&gt;";
+        ATTRIB_ESCAPES['"'] = "&quot;";
+        ATTRIB_ESCAPES['\''] = "&apos;";
+    }
+
+    /**
+     * Is the character not allowed in XML 1.0 text.
+     */
+    private static boolean isXMLInvalid(char c) {
+        return ( (c<0x20) && (c!='\t') && (c!='\n') && (c!='\r') ) || (c==0xFFFE) || (c==0xFFFF);
+    }
+
+    /**
+     * Append the string, replacing characters that have an entry in the escape table.
+     */
+    private static void appendEscaped(Appendable out, CharSequence in, String[] escapes) throws IOException {
+        int len = in.length();
+        int last = 0;
+        for (int i=0; i<len; i++) {
+            char c = in.charAt(i);
+            String esc;
+            if (c < 128)
+                esc = escapes[c];
+            else if ((c==0xFFFE) || (c==0xFFFF))
+                esc = "";
+            else
+                continue;
+            if (esc == null)
+                continue;
+            if (i > last)
+                out.append(in, last, i);
+            out.append(esc);
+            last = i+1;
+        }
+        if (len > last)
+            out.append(in, last, len);
+    }
+
+    /**
+     * Does the string need escaping before it can be used as XML text.
+     * True if it contains &lt; or &amp; or ]]&gt; or any character not allowed in XML.
+     */
+    private static boolean needsXMLTextEscape(CharSequence in) {
+        int len = in.length();
+        for (int i=0; i<len; i++) {
+            char c = in.charAt(i);
+            if ((c=='<') || (c=='&') || isXMLInvalid(c))
+                return true;
+            if ((c=='>') && (i>=2) && (in.charAt(i-1)==']') && (in.charAt(i-2)==']'))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * IOException is never thrown when appending to a StringBuilder.
+     */
+    private static IllegalStateException unexpected(IOException ex) {
+        return new IllegalStateException(ex);
+    }
+
+    /**
+     * Escape string as a safe XML text element, enclosed in CDATA if needed.
+     * Text without XML markup (no &lt; &amp; or ]]&gt;) is appended as is.
+     * @param out destination of the escaped text
+     * @param item object to convert to string, nothing is appended if null
+     * @throws IOException if the Appendable fails
+     */
+    protected static void XML_cdata_escape(Appendable out, Object item) throws IOException {
+        if (item==null)
+            return;
+        CharSequence in = (item instanceof CharSequence) ? (CharSequence)item : item.toString();
+        if (needsXMLTextEscape(in))
+            XML_cdata_wrap(out, in);
+        else
+            out.append(in);
+    }
+
     /**
      * Escape string as a safe XML text element, enclosed in CDATA if needed.
      * @param item object to convert to string
@@ -41,14 +144,77 @@ public class Utils {
     protected static String XML_cdata_escape(Object item) {
         if (item==null)
             return null;
-        String out = item.toString();
-        // don't XML_cdata_escape if no XML code
-        if (out.indexOf("<")<0)
-            return out;
-        // XML_cdata_escape any end of CDATA occurences
-        out = out.replaceAll("]]>", "]]]]><![CDATA[>");
-        // return as CDATA
-        return "<![CDATA["+out+"]]>";
+        String in = item.toString();
+        // don't escape if no XML code
+        if (!needsXMLTextEscape(in))
+            return in;
+        StringBuilder sb = new StringBuilder(in.length()+24);
+        try {
+            XML_cdata_wrap(sb, in);
+        } catch (IOException ex) {
+            throw unexpected(ex);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Append string enclosed in CDATA, splitting any end of CDATA occurrences.
+     * @param out destination of the CDATA section
+     * @param in text to enclose
+     * @throws IOException if the Appendable fails
+     */
+    protected static void XML_cdata_wrap(Appendable out, CharSequence in) throws IOException {
+        out.append("<![CDATA[");
+        int len = in.length();
+        int last = 0;
+        // the last two characters written, as dropping invalid characters can join "]]" and ">"
+        char prev1 = 0;
+        char prev2 = 0;
+        for (int i=0; i<len; i++) {
+            char c = in.charAt(i);
+            if (isXMLInvalid(c)) {
+                out.append(in, last, i);
+                last = i+1;
+            } else if ((c=='>') && (prev1==']') && (prev2==']')) {
+                out.append(in, last, i);
+                out.append("]]><![CDATA[>");
+                last = i+1;
+                prev2 = 0;
+                prev1 = c;
+            } else {
+                prev2 = prev1;
+                prev1 = c;
+            }
+        }
+        if (len > last)
+            out.append(in, last, len);
+        out.append("]]>");
+    }
+
+    /**
+     * Escape string as XML text using character entities (&amp;amp; &amp;lt; &amp;gt;).
+     * @param out destination of the escaped text
+     * @param item object to convert to string, nothing is appended if null
+     * @throws IOException if the Appendable fails
+     */
+    protected static void XML_text_escape(Appendable out, Object item) throws IOException {
+        if (item==null)
+            return;
+        CharSequence in = (item instanceof CharSequence) ? (CharSequence)item : item.toString();
+        appendEscaped(out, in, TEXT_ESCAPES);
+    }
+
+    /**
+     * Escape string as a safe XML attribute value.
+     * @param out destination of the escaped text
+     * @param item object to convert to string, nothing is appended if null
+     * @throws IOException if the Appendable fails
+     */
+    protected static void XML_attrib_escape(Appendable out, Object item) throws IOException {
+        if (item==null)
+            return;
+        CharSequence in = (item instanceof CharSequence) ? (CharSequence)item : item.toString();
+        appendEscaped(out, in, ATTRIB_ESCAPES);
     }
 
     /**
@@ -59,15 +225,14 @@ public class Utils {
     protected static String XML_attrib_escape(Object item) {
         if (item==null)
             return null;
-        String out = item.toString();
-        out = out.replaceAll("&", "&amp;");
-        out = out.replaceAll("<", "&lt;");
-        out = out.replaceAll(">", "&gt;");
-        out = out.replaceAll("\"", "&quot;");
-        out = out.replaceAll("'", "&apos;");
-        out = out.replaceAll("\n", "&xA;");
-        out = out.replaceAll("\r", "&xD;");
-        return out;
+        String in = item.toString();
+        StringBuilder sb = new StringBuilder(in.length()+16);
+        try {
+            appendEscaped(sb, in, ATTRIB_ESCAPES);
+        } catch (IOException ex) {
+            throw unexpected(ex);
+        }
+        return sb.toString();
     }
 
     /**
@@ -78,37 +243,37 @@ public class Utils {
     protected static String XML_element_escape(Object item) {
         if (item==null)
             return null;
-        String out = item.toString();
-        return out.toLowerCase().replaceAll("[!\\W]", "_");
+        String in = item.toString();
+        char[] out = new char[in.length()];
+        for (int i=0; i<out.length; i++) {
+            char c = in.charAt(i);
+            if ((c>='A') && (c<='Z'))
+                out[i] = (char)(c+('a'-'A'));
+            else if ( ((c>='a') && (c<='z')) || ((c>='0') && (c<='9')) || (c=='_') )
+                out[i] = c;
+            else
+                out[i] = '_';
+        }
+        return new String(out);
     }
 
     /**
-     * Escape string as a safe XML element name, replacing non-alphanumeric with underscore.
-     * @param item object to convert to string
-     * @return escaped string.
+     * Substitute a name and values into a format string, see FormatTemplate.
+     * Compiles the format on every call, so repeated formats should use a FormatTemplate.
+     * @param format format string containing %PLACEHOLDER% substitutions
+     * @param name name of the custom field, or name of a file
+     * @param value value of the custom field, or link to the file
+     * @param value2 second value, eg. MD5 hash of the file, or null
+     * @return formatted string.
      */
     protected static String XML_format_name_value(String format, String name, String value, String value2) {
-        String name_element = XML_element_escape(name);
-        String name_cdata = XML_cdata_escape(name);
-        String name_attrib = XML_attrib_escape(name);
-        String val_cdata = XML_cdata_escape(value);
-        String val_attrib = XML_attrib_escape(value);
-        String out = format;
-        out = out.replaceAll("%NAME%",Matcher.quoteReplacement(name));
-        out = out.replaceAll("%NAME_ELEMENT%",Matcher.quoteReplacement(name_element));
-        out = out.replaceAll("%NAME_CDATA%",Matcher.quoteReplacement(name_cdata));
-        out = out.replaceAll("%NAME_ATTRIB%",Matcher.quoteReplacement(name_attrib));
-        out = out.replaceAll("%VALUE%",Matcher.quoteReplacement(value));
-        out = out.replaceAll("%VALUE_CDATA%",Matcher.quoteReplacement(val_cdata));
-        out = out.replaceAll("%VALUE_ATTRIB%",Matcher.quoteReplacement(val_attrib));
-        if (value2!=null) {
-            String val2_cdata = XML_cdata_escape(value2);
-            String val2_attrib = XML_attrib_escape(value2);
-            out = out.replaceAll("%VALUE2%",Matcher.quoteReplacement(value));
-            out = out.replaceAll("%VALUE2_CDATA%",Matcher.quoteReplacement(val2_cdata));
-            out = out.replaceAll("%VALUE2_ATTRIB%",Matcher.quoteReplacement(val2_attrib));
+        StringBuilder out = new StringBuilder(format.length()+64);
+        try {
+            FormatTemplate.compile(format).render(out, name, value, value2);
+        } catch (IOException ex) {
+            throw unexpected(ex);
         }
-        return out;
+        return out.toString();
     }
 
 
@@ -153,6 +318,31 @@ public class Utils {
         return element;
     }
     
+    /**
+     * Convert java String (native UTF16) to UTF-8 string with typical
+     * software code escaping of non ASCII chars as hex codes.  eg. \u0000
+     * @param out destination of the escaped string.
+     * @param input string to be escaped.
+     * @throws IOException if the Appendable fails
+     */
+    protected static void StringToUTF8Escaped(Appendable out, CharSequence input) throws IOException {
+        int len = input.length();
+        int last = 0;
+        for (int i=0; i<len; i++) {
+            char ch = input.charAt(i);
+            if (ch >= 0x20 && ch <= 0x7E)
+                continue;
+            if (i > last)
+                out.append(input, last, i);
+            out.append('\\').append('u')
+               .append(HEX[(ch >> 12) & 0xF]).append(HEX[(ch >> 8) & 0xF])
+               .append(HEX[(ch >> 4) & 0xF]).append(HEX[ch & 0xF]);
+            last = i+1;
+        }
+        if (len > last)
+            out.append(input, last, len);
+    }
+
     /**
      * Convert java String (native UTF16) to UTF-8 string with typical
      * software code escaping of non ASCII chars as hex codes.  eg. \u0000
@@ -160,15 +350,13 @@ public class Utils {
      * @return escaped string.
      */
     protected static String StringToUTF8Escaped(String input) {
-        StringBuilder builder = new StringBuilder();
-        for(char ch: input.toCharArray()) {
-            if(ch >= 0x20 && ch <= 0x7E) {
-                builder.append(ch);
-            } else {
-                builder.append(String.format("\\u%04X", (int)ch));
-            }
+        StringBuilder builder = new StringBuilder(input.length()+16);
+        try {
+            StringToUTF8Escaped(builder, input);
+        } catch (IOException ex) {
+            throw unexpected(ex);
         }
-        return builder.toString();        
+        return builder.toString();
     }
     
 }
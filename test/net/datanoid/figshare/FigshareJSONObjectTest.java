@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.figshare;
+
+import org.json.simple.JSONArray;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class FigshareJSONObjectTest {
+    
+    public FigshareJSONObjectTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of setRawJSON method, with brackets, quotes and escapes within strings.
+     */
+    @Test
+    public void testSetRawJSON() throws Exception {
+        System.out.println("#### setRawJSON");
+        String item1 = "{\"id\":1,\"title\":\"a } ] , \\\" \\\\\",\"tags\":[\"x\",\"{y}\"],\"timeline\":{\"posted\":\"2022\"}}";
+        String item2 = "{\"id\":2,\"title\":\"\\u00e9t\\u00e9\"}";
+        String json = "[ " + item1 + " ,\n" + item2 + "]";
+        JSONArray array = (JSONArray) new JSONParser().parse(json, FigshareJSONObject.CONTAINER_FACTORY);
+        FigshareJSONObject.setRawJSON(array, json);
+        assertEquals(2, array.size());
+        FigshareJSONObject first = (FigshareJSONObject) array.get(0);
+        assertEquals(item1, first.getRawJSON());
+        assertEquals(item2, ((FigshareJSONObject) array.get(1)).getRawJSON());
+        assertEquals("été", ((FigshareJSONObject) array.get(1)).get("title"));
+        // nested objects are decoded, but have no raw JSON
+        assertNull(((FigshareJSONObject) first.get("timeline")).getRawJSON());
+    }
+}
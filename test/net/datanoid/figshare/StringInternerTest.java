@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.figshare;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class StringInternerTest {
+    
+    public StringInternerTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of intern, the shared instance is returned and the lookups and hits counted.
+     */
+    @Test
+    public void testIntern() {
+        System.out.println("#### intern");
+        StringInterner interner = new StringInterner(10);
+        String first = new String("CC BY 4.0");
+        String second = new String("CC BY 4.0");
+        assertNull(interner.intern(null));
+        assertSame(first, interner.intern(first));
+        assertSame(first, interner.intern(second));
+        assertSame(first, interner.intern(first));
+        assertEquals(1, interner.size());
+        assertEquals(3, interner.getLookups());
+        assertEquals(2, interner.getHits());
+        assertEquals(2.0/3, interner.getHitRate(), 1e-9);
+        interner.clear();
+        assertEquals(0, interner.size());
+        assertEquals(0, interner.getLookups());
+        assertEquals(0, interner.getHits());
+        assertEquals(0.0, interner.getHitRate(), 0.0);
+    }
+
+    /**
+     * Test the table stops growing at maxSize, unseen values are then passed through.
+     */
+    @Test
+    public void testMaxSize() {
+        System.out.println("#### maxSize");
+        StringInterner interner = new StringInterner(2);
+        String a = new String("a");
+        String b = new String("b");
+        interner.intern(a);
+        interner.intern(b);
+        String c = new String("c");
+        assertSame(c, interner.intern(c));
+        assertNotSame(c, interner.intern(new String("c")));
+        assertEquals(2, interner.size());
+        // held values are still shared
+        assertSame(a, interner.intern(new String("a")));
+        assertSame(b, interner.intern(new String("b")));
+        assertEquals(2, interner.getHits());
+        assertEquals(6, interner.getLookups());
+    }
+
+    /**
+     * Test of internArticle, known fields of nested objects and arrays are replaced in place.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testInternArticle() {
+        System.out.println("#### internArticle");
+        StringInterner interner = new StringInterner(100);
+        JSONObject first = article();
+        interner.internArticle(first);
+        JSONObject second = article();
+        JSONObject license = (JSONObject)second.get("license");
+        JSONArray categories = (JSONArray)second.get("categories");
+        interner.internArticle(second);
+        // the same objects, with their values swapped for those of the first article
+        assertSame(license, second.get("license"));
+        assertSame(categories, second.get("categories"));
+        assertSame(first.get("defined_type_name"), second.get("defined_type_name"));
+        assertSame(((JSONObject)first.get("license")).get("name"), license.get("name"));
+        assertSame(((JSONObject)first.get("license")).get("url"), license.get("url"));
+        for (String[] array: new String[][] {{"categories", "title"}, {"funding_list", "funder_name"}, {"custom_fields", "name"}}) {
+            for (int i=0; i<2; i++) {
+                Object expected = ((JSONObject)((JSONArray)first.get(array[0])).get(i)).get(array[1]);
+                Object actual = ((JSONObject)((JSONArray)second.get(array[0])).get(i)).get(array[1]);
+                assertEquals(expected, actual);
+                assertSame(expected, actual);
+            }
+        }
+        // other fields and values that are not Strings are left alone
+        assertNotSame(first.get("title"), second.get("title"));
+        assertEquals(1L, ((JSONObject)((JSONArray)second.get("categories")).get(0)).get("id"));
+        JSONObject odd = new JSONObject();
+        odd.put("license", "CC0");
+        odd.put("categories", "none");
+        odd.put("defined_type_name", 3L);
+        interner.internArticle(odd);
+        interner.internArticle(null);
+        assertEquals("CC0", odd.get("license"));
+        assertEquals(3L, odd.get("defined_type_name"));
+    }
+
+    /**
+     * @return an article with fresh Strings for each value.
+     */
+    @SuppressWarnings("unchecked")
+    private static JSONObject article() {
+        JSONObject article = new JSONObject();
+        article.put("title", new String("A dataset"));
+        article.put("defined_type_name", new String("dataset"));
+        JSONObject license = new JSONObject();
+        license.put("name", new String("CC BY 4.0"));
+        license.put("url", new String("https://creativecommons.org/licenses/by/4.0/"));
+        article.put("license", license);
+        article.put("categories", array("title", "Ecology", "Genetics"));
+        ((JSONObject)((JSONArray)article.get("categories")).get(0)).put("id", 1L);
+        article.put("funding_list", array("funder_name", "ARC", "NHMRC"));
+        article.put("custom_fields", array("name", "Location", "Method"));
+        return article;
+    }
+
+    /**
+     * @return array of objects with one String value each.
+     */
+    @SuppressWarnings("unchecked")
+    private static JSONArray array(String key, String... values) {
+        JSONArray array = new JSONArray();
+        for (String value: values) {
+            JSONObject item = new JSONObject();
+            item.put(key, new String(value));
+            array.add(item);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.ArrayList;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class CountryGazetteerTest {
+    
+    public CountryGazetteerTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test every country is found by its own codes and name, of class CountryGazetteer.
+     */
+    @Test
+    public void testFindAll() {
+        System.out.println("#### findAll");
+        CountryGazetteer gazetteer = CountryGazetteer.getInstance();
+        assertTrue(gazetteer.size() > 240);
+        int withPoint = 0;
+        for (int i=0; i<gazetteer.size(); i++) {
+            assertEquals(i, gazetteer.find(gazetteer.getAlpha2(i)));
+            assertEquals(i, gazetteer.find(gazetteer.getAlpha3(i).toLowerCase()));
+            assertEquals(i, gazetteer.find(gazetteer.getName(i).toUpperCase()));
+            if (gazetteer.hasPoint(i))
+                withPoint++;
+        }
+        // every current country in the lat/long resource is joined by code,
+        // only withdrawn Netherlands Antilles (ANT) is left out
+        assertEquals(242, withPoint);
+        assertEquals(-1, gazetteer.find("XX"));
+        assertEquals(-1, gazetteer.find(""));
+        assertEquals(-1, gazetteer.find(null));
+        int au = gazetteer.find("au");
+        assertEquals("AUS", gazetteer.getAlpha3(au));
+        assertEquals(au, gazetteer.find("Australia"));
+    }
+
+    /**
+     * Test names and codes containing "I" are found whatever the default locale.
+     */
+    @Test
+    public void testTurkishLocale() {
+        System.out.println("#### turkishLocale");
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            // "I".toLowerCase() is a dotless i in Turkish
+            CountryGazetteer gazetteer = CountryGazetteer.load();
+            assertEquals("IND", gazetteer.getAlpha3(gazetteer.find("India")));
+            assertEquals("IND", gazetteer.getAlpha3(gazetteer.find("IN")));
+            assertEquals("ITA", gazetteer.getAlpha3(gazetteer.find("ITALY")));
+            assertEquals("IT", gazetteer.getAlpha2(gazetteer.find("ita")));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    /**
+     * Test the k-d tree nearest country against a linear search, of class CountryGazetteer.
+     */
+    @Test
+    public void testNearestCountry() {
+        System.out.println("#### nearestCountry");
+        CountryGazetteer gazetteer = CountryGazetteer.getInstance();
+        assertEquals("AUS", gazetteer.getAlpha3(gazetteer.nearestCountry(133.0, -27.0)));
+        assertEquals("NZL", gazetteer.getAlpha3(gazetteer.nearestCountry(174.78, -41.29)));
+        assertEquals("FJI", gazetteer.getAlpha3(gazetteer.nearestCountry(-179.9, -17.8)));
+        for (double lat=-89.5; lat<90; lat+=7.0) {
+            for (double lon=-179.5; lon<180; lon+=7.0) {
+                double best = Double.MAX_VALUE;
+                for (int i=0; i<gazetteer.size(); i++) {
+                    if (gazetteer.hasPoint(i))
+                        best = Math.min(best, angle(lon, lat, gazetteer.getLongitude(i), gazetteer.getLatitude(i)));
+                }
+                int found = gazetteer.nearestCountry(lon, lat);
+                assertEquals(lon+" "+lat, best,
+                        angle(lon, lat, gazetteer.getLongitude(found), gazetteer.getLatitude(found)), 1e-9);
+            }
+        }
+    }
+
+    /**
+     * Great circle angle between two points, in radians.
+     */
+    private static double angle(double lon1, double lat1, double lon2, double lat2) {
+        double p1 = Math.toRadians(lat1), p2 = Math.toRadians(lat2);
+        double c = Math.sin(p1)*Math.sin(p2) + Math.cos(p1)*Math.cos(p2)*Math.cos(Math.toRadians(lon2-lon1));
+        return Math.acos(Math.max(-1.0, Math.min(1.0, c)));
+    }
+
+    /**
+     * Test concurrent first use and lookups, of class CountryGazetteer.
+     */
+    @Test
+    public void testConcurrentFind() throws Exception {
+        System.out.println("#### concurrentFind");
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            ArrayList<Future<String>> results = new ArrayList<Future<String>>();
+            for (int t=0; t<32; t++)
+                results.add(pool.submit(() -> {
+                    String name = null;
+                    for (int i=0; i<1000; i++)
+                        name = GeospatialPoint.iso3166AlphaToCountry((i % 2 == 0) ? "NZ" : "nzl");
+                    return name;
+                }));
+            for (Future<String> result: results)
+                assertEquals("New Zealand", result.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
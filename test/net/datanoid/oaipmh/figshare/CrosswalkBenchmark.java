@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+/**
+ * Simple throughput benchmarks for the crosswalks, run by hand (not part of the unit tests).
+ * Each section warms up, then reports the best of several timed rounds.
+ * <pre>{@code
+ *   ant compile-test
+ *   java -cp build/classes:build/test/classes:lib/oaicat-1.5.63.jar:lib/json-simple-1.1.1.jar \
+ *        net.datanoid.oaipmh.figshare.CrosswalkBenchmark [section ...]
+ * }</pre>
+ * Sections: rules escaping logging record geo
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class CrosswalkBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final long ROUND_MILLIS = 500;
+
+    /**
+     * A task run repeatedly by the benchmark.
+     */
+    interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * Load the sample figshare article from the test resources.
+     * @return decoded article.
+     */
+    static JSONObject loadSampleArticle() throws Exception {
+        InputStreamReader reader = new InputStreamReader(
+                CrosswalkBenchmark.class.getResourceAsStream("resources/sample-article.json"),
+                StandardCharsets.UTF_8);
+        return (JSONObject) new JSONParser().parse(reader);
+    }
+
+    /**
+     * Run a task repeatedly and return the best observed operations per second.
+     * @param task task to run.
+     * @return operations per second.
+     */
+    static double opsPerSecond(Task task) throws Exception {
+        // warm up
+        long end = System.currentTimeMillis() + ROUND_MILLIS;
+        while (System.currentTimeMillis() < end)
+            task.run();
+        double best = 0;
+        for (int r=0; r<ROUNDS; r++) {
+            long count = 0;
+            long start = System.nanoTime();
+            long stop = start + ROUND_MILLIS*1000000L;
+            long now;
+            do {
+                for (int i=0; i<100; i++)
+                    task.run();
+                count += 100;
+                now = System.nanoTime();
+            } while (now < stop);
+            best = Math.max(best, count * 1e9 / (now-start));
+        }
+        return best;
+    }
+
+    /**
+     * Crosswalk properties with a given number of customFields rules.
+     * All but the last rule never match, the last catches everything,
+     * so every custom field is tested against every rule.
+     * @param prefix property prefix, eg. JSON2qdc
+     * @param rules number of rules.
+     * @return properties.
+     */
+    static Properties customFieldProperties(String prefix, int rules) {
+        Properties properties = new Properties();
+        properties.setProperty(prefix+".filesFormat", "<dcterms:hasPart rdf:resource=\"%VALUE_ATTRIB%\">%NAME_CDATA%</dcterms:hasPart>");
+        for (int i=1; i<rules; i++) {
+            properties.setProperty(prefix+".customFields.Regex."+i, "(?i)unused\\s+field\\s+"+i+"\\b.*");
+            properties.setProperty(prefix+".customFields.Format."+i, "<dc:description.unused"+i+">%VALUE_CDATA%</dc:description.unused"+i+">");
+        }
+        properties.setProperty(prefix+".customFields.Regex."+rules, ".*");
+        properties.setProperty(prefix+".customFields.Format."+rules, "<dc:description.%NAME_ELEMENT%>%NAME_CDATA% = %VALUE_CDATA%</dc:description.%NAME_ELEMENT%>");
+        return properties;
+    }
+
+    /**
+     * Records/second for JSON2qdc with 10-50 customFields rules, alongside the
+     * cost of routing the custom fields by String.matches() as previously done.
+     */
+    static void benchmarkCustomFieldRules(final JSONObject article) throws Exception {
+        System.out.println("## customFields rules: JSON2qdc.createMetadata() records/second");
+        final JSONArray custom_fields = (JSONArray) article.get("custom_fields");
+        for (int rules: new int[] {10, 25, 50}) {
+            final Properties properties = customFieldProperties("JSON2qdc", rules);
+            final JSON2qdc crosswalk = new JSON2qdc(properties);
+            double compiled = opsPerSecond(() -> crosswalk.createMetadata(article));
+            final String[] regex = new String[rules];
+            for (int i=0; i<rules; i++)
+                regex[i] = properties.getProperty("JSON2qdc.customFields.Regex."+(i+1));
+            double matches = opsPerSecond(() -> {
+                for (Object item: custom_fields) {
+                    String name = (String)((JSONObject)item).get("name");
+                    for (String r: regex)
+                        if (name.matches(r)) break;
+                }
+            });
+            System.out.printf("rules=%2d  createMetadata=%,10.0f rec/s   routing by String.matches() alone=%,10.0f rec/s%n",
+                    rules, compiled, matches);
+        }
+    }
+
+    /**
+     * Previous regex based Utils.XML_cdata_escape(), kept as the baseline.
+     */
+    static String legacyCdataEscape(Object item) {
+        String out = item.toString();
+        if (out.indexOf("<")<0)
+            return out;
+        out = out.replaceAll("]]>", "]]]]><![CDATA[>");
+        return "<![CDATA["+out+"]]>";
+    }
+
+    /**
+     * Previous regex based Utils.XML_attrib_escape(), kept as the baseline.
+     */
+    static String legacyAttribEscape(Object item) {
+        String out = item.toString();
+        out = out.replaceAll("&", "&amp;");
+        out = out.replaceAll("<", "&lt;");
+        out = out.replaceAll(">", "&gt;");
+        out = out.replaceAll("\"", "&quot;");
+        out = out.replaceAll("'", "&apos;");
+        out = out.replaceAll("\n", "&xA;");
+        out = out.replaceAll("\r", "&xD;");
+        return out;
+    }
+
+    /**
+     * Previous String.format based Utils.StringToUTF8Escaped(), kept as the baseline.
+     */
+    static String legacyUTF8Escaped(String input) {
+        StringBuilder builder = new StringBuilder();
+        for(char ch: input.toCharArray()) {
+            if(ch >= 0x20 && ch <= 0x7E) {
+                builder.append(ch);
+            } else {
+                builder.append(String.format("\\u%04X", (int)ch));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Escaping of figshare descriptions: the previous regex implementations against
+     * the single-pass escapers appending into a reused builder.
+     */
+    static void benchmarkEscaping(JSONObject article) throws Exception {
+        System.out.println("## escaping: descriptions/second, previous vs single-pass");
+        final String shortDesc = (String) article.get("description");
+        StringBuilder longsb = new StringBuilder();
+        for (int i=0; i<12; i++)
+            longsb.append(shortDesc).append("<p>Para ").append(i).append(": Données, Māori & Ελληνικά text.</p>");
+        final String longDesc = longsb.toString();
+        final String url = "https://ndownloader.figshare.com/files/8013422?private_link=a1b2&download=\"VO model\"";
+        final StringBuilder sb = new StringBuilder(longDesc.length()*2);
+        for (final String desc: new String[] {shortDesc, longDesc}) {
+            System.out.printf("description length=%d%n", desc.length());
+            double before = opsPerSecond(() -> legacyCdataEscape(desc));
+            double after = opsPerSecond(() -> { sb.setLength(0); Utils.XML_cdata_escape(sb, desc); });
+            System.out.printf("  XML_cdata_escape     previous=%,12.0f/s  single-pass=%,12.0f/s  x%.1f%n", before, after, after/before);
+            before = opsPerSecond(() -> legacyAttribEscape(desc));
+            after = opsPerSecond(() -> { sb.setLength(0); Utils.XML_attrib_escape(sb, desc); });
+            System.out.printf("  XML_attrib_escape    previous=%,12.0f/s  single-pass=%,12.0f/s  x%.1f%n", before, after, after/before);
+            before = opsPerSecond(() -> legacyUTF8Escaped(desc));
+            after = opsPerSecond(() -> { sb.setLength(0); Utils.StringToUTF8Escaped(sb, desc); });
+            System.out.printf("  StringToUTF8Escaped  previous=%,12.0f/s  single-pass=%,12.0f/s  x%.1f%n", before, after, after/before);
+        }
+        double before = opsPerSecond(() -> legacyAttribEscape(url));
+        double after = opsPerSecond(() -> { sb.setLength(0); Utils.XML_attrib_escape(sb, url); });
+        System.out.printf("file URL XML_attrib_escape  previous=%,12.0f/s  single-pass=%,12.0f/s  x%.1f%n", before, after, after/before);
+    }
+
+    /**
+     * Bytes allocated by the current thread per run of a task, averaged over many runs.
+     * @param task task to run.
+     * @return bytes allocated per run.
+     */
+    static double bytesPerRun(Task task) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        final int runs = 100000;
+        // warm up so the task is compiled
+        for (int i=0; i<runs; i++)
+            task.run();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i=0; i<runs; i++)
+            task.run();
+        long after = threads.getThreadAllocatedBytes(thread);
+        return (double)(after-before) / runs;
+    }
+
+    /**
+     * Allocation of FINER logging on the crosswalk hot path with the logger at INFO:
+     * the previous unguarded message concatenation against the level-guarded form.
+     */
+    static void benchmarkLogging(final JSONObject article) throws Exception {
+        System.out.println("## logging at INFO: bytes allocated per call");
+        Logger.getLogger("net.datanoid").setLevel(Level.INFO);
+        final Logger log = Logger.getLogger(JSON2qdc.class.getName());
+        double unguarded = bytesPerRun(() -> log.log(Level.FINER, "writeMetadata() nativeItem="+article.toString()));
+        double guarded = bytesPerRun(() -> {
+            if (log.isLoggable(Level.FINER))
+                log.log(Level.FINER, "writeMetadata() nativeItem="+article.toString());
+        });
+        System.out.printf("  FINER nativeItem message  unguarded=%,10.0f bytes  guarded=%,10.1f bytes%n", unguarded, guarded);
+        final String record = new JSON2qdc(new Properties()).createMetadata(article);
+        unguarded = bytesPerRun(() -> log.log(Level.FINER, "listRecords() adding record="+record));
+        guarded = bytesPerRun(() -> {
+            if (log.isLoggable(Level.FINER))
+                log.log(Level.FINER, "listRecords() adding record="+record);
+        });
+        System.out.printf("  FINER record message      unguarded=%,10.0f bytes  guarded=%,10.1f bytes%n", unguarded, guarded);
+        final JSON2qdc crosswalk = new JSON2qdc(customFieldProperties("JSON2qdc", 2));
+        final StringBuilder sb = new StringBuilder(65536);
+        double write = bytesPerRun(() -> { sb.setLength(0); crosswalk.writeMetadata(article, sb); });
+        System.out.printf("  JSON2qdc.writeMetadata() into a reused builder=%,10.0f bytes/record (none from logging)%n", write);
+    }
+
+    /**
+     * JSONRecordFactory properties with the three crosswalks of the example properties.
+     * @return properties.
+     */
+    static Properties recordFactoryProperties() {
+        Properties properties = customFieldProperties("JSON2qdc", 2);
+        properties.putAll(customFieldProperties("JSON2oai_dc", 2));
+        properties.setProperty("JSONRecordFactory.repositoryIdentifier", "figshare.com");
+        properties.setProperty("Crosswalks.oai_dc", "net.datanoid.oaipmh.figshare.JSON2oai_dc");
+        properties.setProperty("Crosswalks.qdc", "net.datanoid.oaipmh.figshare.JSON2qdc");
+        properties.setProperty("Crosswalks.json", "net.datanoid.oaipmh.figshare.JSON2json");
+        return properties;
+    }
+
+    /**
+     * Records/second of the whole &lt;record&gt;, by quickCreate() against the default
+     * OAICat RecordFactory method assembling the header and metadata separately.
+     */
+    static void benchmarkRecord(final JSONObject article) throws Exception {
+        System.out.println("## record: JSONRecordFactory records/second, default create vs quickCreate");
+        final JSONRecordFactory factory = new JSONRecordFactory(recordFactoryProperties());
+        for (final String prefix: new String[] {"oai_dc", "qdc", "json"}) {
+            final String schemaURL = factory.getCrosswalks().getSchemaURL(prefix);
+            double before = opsPerSecond(() -> factory.create(article, schemaURL, prefix,
+                    factory.getOAIIdentifier(article), factory.getDatestamp(article),
+                    factory.getSetSpecs(article), factory.getAbouts(article), factory.isDeleted(article)));
+            double after = opsPerSecond(() -> factory.quickCreate(article, schemaURL, prefix));
+            System.out.printf("  %-7s default=%,10.0f rec/s  quickCreate=%,10.0f rec/s  x%.2f%n", prefix, before, after, after/before);
+        }
+    }
+
+    /**
+     * Location values as found in figshare custom fields: country codes and names,
+     * DCMI-Point and DCMI-Box, degrees minutes seconds, decimal degrees, and free text.
+     */
+    static final String[] LOCATION_CORPUS = {
+        "AU", "NZL", "PHL", "gb", "Australia", "New Zealand", "united states",
+        "name=Melbourne, Vic.; east=144.96332; north=-37.814",
+        "name=Perth, W.A.; east=115.85717; north=-31.95301",
+        "east=149.16554; north=-21.15345; units=signed decimal degrees; projection=WGS84",
+        "name=Western Australia; northlimit=-13.5; southlimit=-35.5; westlimit=112.5; eastlimit=129",
+        "northlimit=-34.0; southlimit=-43.7; westlimit=140.9; eastlimit=150.0; units=signed decimal degrees",
+        "S 21\u00b009\u203212\u2033 E 149\u00b009\u203256\u2033",
+        "21\u00b009\u203212\u2033S, 149\u00b009\u203256\u2033E",
+        "23\u00b0 26' 21'' N, 10\u00b0 5' W",
+        "37\u00b048'52\"S 144\u00b057'47\"E",
+        "25 00 00 S 149 56 00 E",
+        "37.8136 S, 144.9631 E",
+        "144.962311 -37.814726",
+        "-37.814726, 144.962311",
+        "115.857, -31.953",
+        "Great Barrier Reef", "Melbourne, Australia", "Various sites", "n/a", "",
+    };
+
+    /**
+     * Location strings/second parsed by GeospatialPoint.parse() over the corpus,
+     * then through the spatial memo, and records/second with spatialFields enabled.
+     */
+    static void benchmarkGeo(final JSONObject article) throws Exception {
+        System.out.println("## geo: location parsing over "+LOCATION_CORPUS.length+" real-world strings");
+        int resolved = 0;
+        for (String location: LOCATION_CORPUS) {
+            try {
+                System.out.println("  "+location+"  =>  "+GeospatialPoint.parse(location));
+                resolved++;
+            } catch (java.text.ParseException ex) {
+                System.out.println("  "+location+"  =>  unresolved");
+            }
+        }
+        double parse = opsPerSecond(() -> {
+            for (String location: LOCATION_CORPUS) {
+                try {
+                    GeospatialPoint.parse(location);
+                } catch (java.text.ParseException ex) {
+                    // free text is expected
+                }
+            }
+        }) * LOCATION_CORPUS.length;
+        final DCMapping mapping = new DCMapping(new Properties(), "JSON2qdc", "qdc:qualifieddc", "", "");
+        double memo = opsPerSecond(() -> {
+            for (String location: LOCATION_CORPUS)
+                mapping.resolveSpatial(location);
+        }) * LOCATION_CORPUS.length;
+        System.out.printf("  resolved %d/%d  parse=%,12.0f strings/s  memoised=%,12.0f strings/s%n",
+                resolved, LOCATION_CORPUS.length, parse, memo);
+        final CountryGazetteer gazetteer = CountryGazetteer.getInstance();
+        double nearest = opsPerSecond(() -> gazetteer.nearestCountry(144.962311, -37.814726));
+        double nearestBytes = bytesPerRun(() -> gazetteer.nearestCountry(-0.1276, 51.5072));
+        System.out.printf("  nearestCountry=%,12.0f lookups/s  %.1f bytes/lookup%n", nearest, nearestBytes);
+        // a synthetic place gazetteer the size of a GeoNames country extract
+        StringBuilder tsv = new StringBuilder();
+        for (int i=0; i<1000000; i++)
+            tsv.append(i*7+1).append("\tPlace ").append(i).append('\t').append(i%180-90).append('\t').append(i%360-180).append('\n');
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("places", ".gaz");
+        long start = System.nanoTime();
+        PlaceGazetteer.build(new java.io.StringReader(tsv.toString()), false, file);
+        long built = System.nanoTime();
+        final PlaceGazetteer places = PlaceGazetteer.open(file);
+        long opened = System.nanoTime();
+        final long[] id = { 1 };
+        double find = opsPerSecond(() -> { places.find(id[0]); id[0] = (id[0]+7919*7) % 7000000; });
+        double findBytes = bytesPerRun(() -> places.find(3500001));
+        System.out.printf("  PlaceGazetteer %,d places  build=%,.0f ms  open=%,.2f ms  find=%,12.0f lookups/s  %.1f bytes/lookup%n",
+                places.size(), (built-start)/1e6, (opened-built)/1e6, find, findBytes);
+        java.nio.file.Files.delete(file);
+        final JSON2qdc plain = new JSON2qdc(customFieldProperties("JSON2qdc", 2));
+        Properties properties = customFieldProperties("JSON2qdc", 2);
+        properties.setProperty("JSON2qdc.spatialFields.Regex.1", "(?i)(country|location)");
+        final JSON2qdc spatial = new JSON2qdc(properties);
+        double before = opsPerSecond(() -> plain.createMetadata(article));
+        double after = opsPerSecond(() -> spatial.createMetadata(article));
+        System.out.printf("  JSON2qdc  without spatialFields=%,10.0f rec/s  with=%,10.0f rec/s%n", before, after);
+    }
+
+    /**
+     * @param args names of the sections to run, or none to run all.
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> sections = Arrays.asList(args);
+        JSONObject article = loadSampleArticle();
+        if (sections.isEmpty() || sections.contains("rules"))
+            benchmarkCustomFieldRules(article);
+        if (sections.isEmpty() || sections.contains("escaping"))
+            benchmarkEscaping(article);
+        if (sections.isEmpty() || sections.contains("logging"))
+            benchmarkLogging(article);
+        if (sections.isEmpty() || sections.contains("record"))
+            benchmarkRecord(article);
+        if (sections.isEmpty() || sections.contains("geo"))
+            benchmarkGeo(article);
+    }
+}
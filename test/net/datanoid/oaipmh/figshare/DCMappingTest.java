@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.util.Properties;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class DCMappingTest {
+    
+    private static JSONObject article;
+
+    public DCMappingTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        article = CrosswalkBenchmark.loadSampleArticle();
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Each crosswalk keeps its own configuration, regardless of construction order.
+     */
+    @Test
+    public void testIndependentConfiguration() throws Exception {
+        System.out.println("#### independent configuration");
+        Properties properties = new Properties();
+        properties.setProperty("JSON2qdc.customFields.Regex.1", "Location");
+        properties.setProperty("JSON2qdc.customFields.Format.1", "<dcterms:spatial>%VALUE_CDATA%</dcterms:spatial>");
+        properties.setProperty("JSON2qdc.dcElementAddAttributes", "xmlns:figshare=\"https://figshare.com/\"");
+        properties.setProperty("JSON2oai_dc.filesFormat", "<dc:relation>%VALUE%</dc:relation>");
+        JSON2qdc qdc = new JSON2qdc(properties);
+        JSON2oai_dc oai_dc = new JSON2oai_dc(properties);
+        String qdcxml = qdc.createMetadata(article);
+        String oaidcxml = oai_dc.createMetadata(article);
+        assertTrue(qdcxml.startsWith("<qdc:qualifieddc "));
+        assertTrue(qdcxml.endsWith("</qdc:qualifieddc>"));
+        assertTrue(qdcxml.contains(" xmlns:figshare=\"https://figshare.com/\">\n"));
+        assertTrue(qdcxml.contains("<dcterms:spatial>"));
+        assertFalse(qdcxml.contains("<dc:relation>https://ndownloader"));
+        assertTrue(oaidcxml.startsWith("<oai_dc:dc "));
+        assertTrue(oaidcxml.endsWith("</oai_dc:dc>"));
+        assertFalse(oaidcxml.contains("xmlns:figshare"));
+        assertFalse(oaidcxml.contains("<dcterms:spatial>"));
+        assertTrue(oaidcxml.contains("<dc:relation>https://ndownloader"));
+    }
+
+    /**
+     * Within a shared core scope each crosswalk still outputs its own complete record.
+     */
+    @Test
+    public void testSharedCore() throws Exception {
+        System.out.println("#### shared core");
+        Properties properties = CrosswalkBenchmark.customFieldProperties("JSON2qdc", 2);
+        properties.setProperty("JSON2oai_dc.customFields.Regex.1", "Location");
+        properties.setProperty("JSON2oai_dc.customFields.Format.1", "<dcterms:spatial>%VALUE_CDATA%</dcterms:spatial>");
+        JSON2qdc qdc = new JSON2qdc(properties);
+        JSON2oai_dc oai_dc = new JSON2oai_dc(properties);
+        String qdcxml = qdc.createMetadata(article);
+        String oaidcxml = oai_dc.createMetadata(article);
+        DCMapping.beginSharedCore();
+        try {
+            assertEquals(qdcxml, qdc.createMetadata(article));
+            assertEquals(oaidcxml, oai_dc.createMetadata(article));
+            assertEquals(qdcxml, qdc.createMetadata(article));
+        } finally {
+            DCMapping.endSharedCore();
+        }
+    }
+
+    /**
+     * Values of spatialFields are resolved to DCMI-Points, remembering each distinct value.
+     */
+    @Test
+    public void testSpatialFields() throws Exception {
+        System.out.println("#### spatialFields");
+        Properties properties = new Properties();
+        properties.setProperty("JSON2qdc.spatialFields.Regex.1", "(?i)country");
+        JSON2qdc qdc = new JSON2qdc(properties);
+        String qdcxml = qdc.createMetadata(article);
+        assertTrue(qdcxml.contains("<dcterms:spatial xsi:type=\"dcterms:Point\">name=Australia; east=133.0; north=-27.0</dcterms:spatial>\n"));
+        assertTrue(qdcxml.contains("<dcterms:spatial xsi:type=\"dcterms:Point\">name=New Zealand; east=174.0; north=-41.0</dcterms:spatial>\n"));
+        // not configured for oai_dc
+        assertFalse(new JSON2oai_dc(properties).createMetadata(article).contains("<dcterms:spatial"));
+        properties.setProperty("JSON2oai_dc.spatialFields.Regex.1", "Country");
+        properties.setProperty("JSON2oai_dc.spatialFormat", "<dc:coverage>%VALUE2_CDATA%: %VALUE_CDATA%</dc:coverage>");
+        String oaidcxml = new JSON2oai_dc(properties).createMetadata(article);
+        assertTrue(oaidcxml.contains("<dc:coverage>NZ: name=New Zealand; east=174.0; north=-41.0</dc:coverage>\n"));
+        // resolved once per distinct value by each mapping
+        DCMapping mapping = new DCMapping(properties, "JSON2qdc", "qdc:qualifieddc", "https://www.dublincore.org/schemas/xmls/qdc/", "");
+        assertSame(mapping.resolveSpatial("AU"), mapping.resolveSpatial("AU"));
+        assertEquals("", mapping.resolveSpatial("Atlantis")[0]);
+        DCMapping other = new DCMapping(properties, "JSON2qdc", "qdc:qualifieddc", "https://www.dublincore.org/schemas/xmls/qdc/", "");
+        assertNotSame(mapping.resolveSpatial("AU"), other.resolveSpatial("AU"));
+        // the nearest country of bare coordinates
+        assertNull(mapping.resolveSpatial("AU")[1]);
+        assertEquals("name=Australia; east=133.0; north=-27.0", mapping.resolveSpatial("144.96 -37.81")[1]);
+        properties.setProperty("JSON2qdc.spatialFields.Regex.1", "Location");
+        properties.setProperty("JSON2qdc.spatialCountry", "true");
+        qdcxml = new JSON2qdc(properties).createMetadata(article);
+        assertTrue(qdcxml.contains("<dcterms:spatial xsi:type=\"dcterms:Point\">name=Melbourne, Vic.; east=144.96332; north=-37.814</dcterms:spatial>\n"));
+        // the Location is named, so no country is added
+        assertFalse(qdcxml.contains("name=Australia"));
+    }
+
+    /**
+     * An invalid customFields.Regex is reported with its property name.
+     */
+    @Test
+    public void testInvalidRegex() {
+        System.out.println("#### invalid customFields.Regex");
+        Properties properties = new Properties();
+        properties.setProperty("JSON2oai_dc.customFields.Regex.1", "(unclosed");
+        properties.setProperty("JSON2oai_dc.customFields.Format.1", "%VALUE%");
+        try {
+            new JSON2oai_dc(properties);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().startsWith("JSON2oai_dc.customFields.Regex.1 "));
+        }
+    }
+}
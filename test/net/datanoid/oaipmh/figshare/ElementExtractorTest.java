@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.IOException;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class ElementExtractorTest {
+
+    private static final String DOC = "<record><header><identifier>oai:figshare.com:article/1</identifier></header>"
+            + "<metadata><qdc:qualifieddc xmlns:qdc=\"http://example.org/qdc/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+            + "<dc:dateX>2020</dc:dateX><dc:date>2021-01-02</dc:date>"
+            + "<!-- <dc:title>commented</dc:title> -->"
+            + "<dc:title lang=\"a>b\">First</dc:title>"
+            + "<d:title xmlns:d=\"http://purl.org/dc/elements/1.1/\">Second</d:title>"
+            + "<dc:description><![CDATA[a <b> ]]]]><![CDATA[> c]]></dc:description>"
+            + "<dc:rights/>"
+            + "</qdc:qualifieddc></metadata></record>";
+
+    public ElementExtractorTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static String extract(String elements, boolean contents, String doc) throws IOException {
+        StringBuilder out = new StringBuilder();
+        if (!new ElementExtractor(elements, contents).extract(doc, out)) {
+            assertEquals(0, out.length());
+            return null;
+        }
+        return out.toString();
+    }
+
+    /**
+     * Test an element is not confused with another whose name it starts, eg. dc:date and dc:dateX.
+     */
+    @Test
+    public void testPrefixMismatch() throws Exception {
+        System.out.println("#### prefixMismatch");
+        assertEquals("<dc:date>2021-01-02</dc:date>", extract("dc:date", false, DOC));
+        assertEquals("2021-01-02", extract("dc:date", true, DOC));
+        assertEquals("2020", extract("dc:dateX", true, DOC));
+        assertNull(extract("dc:dat", false, DOC));
+    }
+
+    /**
+     * Test elements are matched by namespace, and commented out elements and attribute values are skipped.
+     */
+    @Test
+    public void testNamespaces() throws Exception {
+        System.out.println("#### namespaces");
+        assertEquals("First\nSecond", extract("dc:title", true, DOC));
+        assertEquals("First\nSecond", extract("{http://purl.org/dc/elements/1.1/}title", true, DOC));
+        assertEquals("<d:title xmlns:d=\"http://purl.org/dc/elements/1.1/\">Second</d:title>",
+                extract("d:title", false, "<a><d:title xmlns:d=\"http://purl.org/dc/elements/1.1/\">Second</d:title></a>"));
+        assertNull(extract("{http://example.org/other/}title", true, DOC));
+        // an undeclared prefix is matched as written
+        assertEquals("<x:a>1</x:a>", extract("x:a", false, "<r><x:a>1</x:a><y:a>2</y:a></r>"));
+        // default namespace
+        assertEquals("<a>1</a>", extract("{urn:n}a", false, "<r xmlns=\"urn:n\"><a>1</a></r>"));
+    }
+
+    /**
+     * Test several elements are extracted in record order, and nested elements only once.
+     */
+    @Test
+    public void testMultiple() throws Exception {
+        System.out.println("#### multiple");
+        assertEquals("2021-01-02\nFirst\nSecond", extract("dc:title, dc:date", true, DOC));
+        assertEquals("<dc:date>2021-01-02</dc:date><dc:rights/>", extract("dc:date,dc:rights", false, DOC));
+        assertEquals("<a><a>1</a></a><a>2</a>", extract("a", false, "<r><a><a>1</a></a><a>2</a></r>"));
+        assertEquals("<a>1</a>", extract("a", true, "<r><a><a>1</a></a></r>"));
+    }
+
+    /**
+     * Test contents only of CDATA sections are decoded, as Utils.XML_get_element_contents() does.
+     */
+    @Test
+    public void testCdata() throws Exception {
+        System.out.println("#### cdata");
+        assertEquals("a <b> ]]> c", extract("dc:description", true, DOC));
+        assertEquals("<![CDATA[x]]> y", extract("a", true, "<r><a><![CDATA[x]]> y</a></r>"));
+        assertNull(extract("b", true, "<r><a><![CDATA[<b>1</b>]]></a></r>"));
+        assertEquals("", extract("dc:rights", true, DOC));
+        assertEquals("<dc:rights/>", extract("dc:rights", false, DOC));
+    }
+
+    /**
+     * Test a record that is not well-formed is reported.
+     */
+    @Test
+    public void testMalformed() throws Exception {
+        System.out.println("#### malformed");
+        for (String doc: new String[] {"<r><a>1</b></r>", "<r><a>1</a>", "<r><a x=1>1</a></r>", "<r><!-- x </r>"}) {
+            try {
+                extract("a", false, doc);
+                fail("not reported: "+doc);
+            } catch (IOException ex) {
+                assertTrue(ex.getMessage().startsWith("Record is not well-formed XML"));
+            }
+        }
+        try {
+            new ElementExtractor(" , ", false);
+            fail("no element name");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    /**
+     * Test the metadata of the crosswalked sample article is extracted as by Utils.XML_get_element().
+     */
+    @Test
+    public void testCompatible() throws Exception {
+        System.out.println("#### compatible");
+        JSONObject article = CrosswalkBenchmark.loadSampleArticle();
+        JSONRecordFactory factory = new JSONRecordFactory(CrosswalkBenchmark.recordFactoryProperties());
+        String[][] formats = {{"oai_dc", "oai_dc:dc"}, {"qdc", "qdc:qualifieddc"}, {"json", "json:element"}};
+        for (String[] format: formats) {
+            String record = factory.create(article, factory.getCrosswalks().getSchemaURL(format[0]), format[0]);
+            assertEquals(Utils.XML_get_element(record, format[1]), extract(format[1], false, record));
+            assertEquals(Utils.XML_get_element_contents(record, format[1]), extract(format[1], true, record));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.IOException;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class FormatTemplateTest {
+    
+    public FormatTemplateTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    private static String render(String format, String name, String value, String value2) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        FormatTemplate.compile(format).render(sb, name, value, value2);
+        return sb.toString();
+    }
+
+    /**
+     * Test of render method with the example customFields format.
+     */
+    @Test
+    public void testRenderCustomField() throws IOException {
+        System.out.println("#### render customFields.Format");
+        String format = "<dc:description.%NAME_ELEMENT%>%NAME_CDATA% = %VALUE_CDATA%</dc:description.%NAME_ELEMENT%>";
+        String result = render(format, "Temporal Coverage", "2004-2006", null);
+        assertEquals("<dc:description.temporal_coverage>Temporal Coverage = 2004-2006</dc:description.temporal_coverage>", result);
+        result = render(format, "Note", "a <b>bold</b> note", null);
+        assertEquals("<dc:description.note>Note = <![CDATA[a <b>bold</b> note]]></dc:description.note>", result);
+    }
+
+    /**
+     * Test of render method with the example filesFormat.
+     */
+    @Test
+    public void testRenderFile() throws IOException {
+        System.out.println("#### render filesFormat");
+        String format = "<dcterms:hasPart rdf:resource=\"%VALUE_ATTRIB%\" md5=\"%VALUE2_ATTRIB%\">%NAME%</dcterms:hasPart>";
+        String result = render(format, "data.csv", "https://example.org/?a=1&b=\"2\"", "abc123");
+        assertEquals("<dcterms:hasPart rdf:resource=\"https://example.org/?a=1&amp;b=&quot;2&quot;\" md5=\"abc123\">data.csv</dcterms:hasPart>", result);
+        result = render("%VALUE2%", "data.csv", "link", null);
+        assertEquals("", result);
+    }
+
+    /**
+     * Unknown placeholders stay literal, and substituted values are not rescanned.
+     */
+    @Test
+    public void testLiteralsAndValues() throws IOException {
+        System.out.println("#### render literals");
+        assertEquals("100% of %UNKNOWN% x", render("100% of %UNKNOWN% %NAME%", "x", "", null));
+        assertEquals("50%%", render("50%%", "x", "y", null));
+        assertEquals("%VALUE%=y", render("%NAME%=%VALUE%", "%VALUE%", "y", null));
+        assertEquals("$1\\n", render("%VALUE%", "x", "$1\\n", null));
+        assertEquals("no placeholders", render("no placeholders", "x", "y", null));
+    }
+    
+}
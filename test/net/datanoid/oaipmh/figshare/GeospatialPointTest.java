@@ -71,6 +71,76 @@ public class GeospatialPointTest {
         assertEquals("Philippines", result.location);
     }
 
+    /**
+     * Test of parse method with DCMI-Point and DCMI-Box, of class GeospatialPoint.
+     */
+    @Test
+    public void testParseDCMI() throws Exception {
+        System.out.println("#### parse DCMI");
+        GeospatialPoint result = GeospatialPoint.parse("name=Perth, W.A.; east=115.85717; north=-31.95301");
+        assertEquals("name=Perth, W.A.; east=115.85717; north=-31.95301", result.toString());
+        result = GeospatialPoint.parse("name=Western Australia; northlimit=-13.5; southlimit=-35.5; westlimit=112.5; eastlimit=129");
+        assertEquals("name=Western Australia; east=120.75; north=-24.5", result.toString());
+        // box across the antimeridian
+        result = GeospatialPoint.parse("northlimit=-10; southlimit=-50; westlimit=170; eastlimit=-160");
+        assertEquals(-175.0, result.longitude, 1e-9);
+        assertNull(result.location);
+        try {
+            GeospatialPoint.parse("name=Nowhere; units=signed decimal degrees");
+            fail("Expected ParseException");
+        } catch (java.text.ParseException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test of parse method with degrees minutes seconds and decimal degrees, of class GeospatialPoint.
+     */
+    @Test
+    public void testParseCoordinates() throws Exception {
+        System.out.println("#### parse coordinates");
+        for (String location: new String[] {"S 21\u00b009\u203212\u2033 E 149\u00b009\u203256\u2033",
+                "21\u00b009\u203212\u2033S, 149\u00b009\u203256\u2033E", "21deg 9' 12'' S 149deg 9' 56'' E",
+                "21 09 12 S 149 09 56 E", "-21\u00b0 9' 12\", 149\u00b0 9' 56\""}) {
+            GeospatialPoint result = GeospatialPoint.parse(location);
+            assertEquals(location, -21.15333333, result.latitude, 1e-6);
+            assertEquals(location, 149.16555556, result.longitude, 1e-6);
+        }
+        // decimal degrees are east north, unless out of range or with hemispheres
+        GeospatialPoint result = GeospatialPoint.parse("144.962311 -37.814726");
+        assertEquals(144.962311, result.longitude, 1e-9);
+        assertEquals(-37.814726, result.latitude, 1e-9);
+        result = GeospatialPoint.parse("-37.814726, 144.962311");
+        assertEquals(144.962311, result.longitude, 1e-9);
+        result = GeospatialPoint.parse("37.8136 S, 144.9631 E");
+        assertEquals(-37.8136, result.latitude, 1e-9);
+        for (String location: new String[] {"Great Barrier Reef", "12 34", "N 10 N 20", "95 N 10 E", "n/a", ""}) {
+            try {
+                GeospatialPoint.parse(location);
+                fail("Expected ParseException for "+location);
+            } catch (java.text.ParseException ex) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Test of parseLongitude method, of class GeospatialPoint.
+     */
+    @Test
+    public void testParseLongitude() throws Exception {
+        System.out.println("#### parseLongitude");
+        assertEquals(-37.814726, GeospatialPoint.parseLongitude("-37.814726"), 1e-9);
+        assertEquals(23.43916667, GeospatialPoint.parseLongitude("23\u00b0 26\u2032 21\u2033 N"), 1e-6);
+        assertEquals(-25.0, GeospatialPoint.parseLongitude("25 00 00 S"), 1e-9);
+        try {
+            GeospatialPoint.parseLongitude("10 E 20 W");
+            fail("Expected ParseException");
+        } catch (java.text.ParseException ex) {
+            // expected
+        }
+    }
+
     /**
      * Test of iso3166AlphaToCountry method, of class GeospatialPoint.
      */
@@ -99,6 +169,30 @@ public class GeospatialPointTest {
         System.out.println("point returned: "+result.toString());
         assertEquals(new Double(20.0), new Double(result.longitude));
         assertEquals(new Double(52.0), new Double(result.latitude));
+        // lower case, and the name used by the lat/long resource
+        result = GeospatialPoint.countryToGeospatialPoint("united kingdom");
+        assertEquals("United Kingdom of Great Britain and Northern Ireland", result.location);
+        assertEquals(new Double(-2.0), new Double(result.longitude));
+        assertEquals(new Double(54.0), new Double(result.latitude));
+        try {
+            GeospatialPoint.countryToGeospatialPoint("Atlantis");
+            fail("Expected ParseException");
+        } catch (java.text.ParseException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test of parse method with alpha-3 codes, of class GeospatialPoint.
+     */
+    @Test
+    public void testParseAlpha3() throws Exception {
+        System.out.println("#### parse alpha-3");
+        GeospatialPoint result = GeospatialPoint.parse("gbr");
+        assertEquals("United Kingdom of Great Britain and Northern Ireland", result.location);
+        result = GeospatialPoint.parse("USA");
+        assertEquals("United States of America", result.location);
+        assertEquals(new Double(-97.0), new Double(result.longitude));
     }
     
 }
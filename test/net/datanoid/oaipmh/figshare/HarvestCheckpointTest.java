@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class HarvestCheckpointTest {
+
+    private Path dir;
+
+    public HarvestCheckpointTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("HarvestCheckpointTest");
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir.resolve("harvest.checkpoint"));
+        Files.deleteIfExists(dir.resolve("harvest.checkpoint.tmp"));
+        Files.deleteIfExists(dir);
+    }
+
+    /**
+     * Test of create and load, the parameters are saved.
+     */
+    @Test
+    public void testCreateLoad() throws IOException {
+        System.out.println("#### createLoad");
+        Path file = dir.resolve("harvest.checkpoint");
+        HarvestCheckpoint checkpoint = HarvestCheckpoint.create(file, "2022-01-01", "2022-07-02T14:23:48Z",
+                "qdc", "qdc:qualifieddc", true, "/tmp/out", 50);
+        assertTrue(Files.exists(file));
+        assertFalse(Files.exists(dir.resolve("harvest.checkpoint.tmp")));
+        HarvestCheckpoint loaded = HarvestCheckpoint.load(file);
+        assertEquals("2022-01-01", loaded.getFrom());
+        assertEquals("2022-07-02T14:23:48Z", loaded.getUntil());
+        assertEquals("qdc", loaded.getMetadataPrefix());
+        assertEquals("qdc:qualifieddc", loaded.getXmlElement());
+        assertTrue(loaded.isXmlContent());
+        assertEquals("/tmp/out", loaded.getOutput());
+        assertEquals(50, loaded.getPageSize());
+        assertEquals(0, loaded.getPagesDone());
+        assertFalse(loaded.isFinished());
+        try {
+            HarvestCheckpoint.create(file, "2022-01-01", null, "qdc", "", false, "/tmp/out", 50);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    /**
+     * Test of pageDone, pages completed out of order.
+     */
+    @Test
+    public void testPageDone() throws IOException {
+        System.out.println("#### pageDone");
+        Path file = dir.resolve("harvest.checkpoint");
+        HarvestCheckpoint checkpoint = HarvestCheckpoint.create(file, "2022-01-01", "2022-07-02T14:23:48Z",
+                "oai_dc", "", false, "out", 10);
+        checkpoint.pageDone(2, 0, "oai:test:article/15", 5);
+        checkpoint.pageDone(4, 0, "oai:test:article/35", 12);
+        HarvestCheckpoint loaded = HarvestCheckpoint.load(file);
+        assertEquals(0, loaded.getPagesDone());
+        assertFalse(loaded.isPageDone(1));
+        assertTrue(loaded.isPageDone(2));
+        assertFalse(loaded.isPageDone(3));
+        assertTrue(loaded.isPageDone(4));
+        assertEquals("oai:test:article/35", loaded.getLastIdentifier());
+        checkpoint.pageDone(1, 0, "oai:test:article/5", 20);
+        assertEquals(2, HarvestCheckpoint.load(file).getPagesDone());
+        // the last page found, searches beyond it are dropped
+        checkpoint.pageDone(7, 0, null, 20);
+        checkpoint.pageDone(3, 5, "oai:test:article/25", 30);
+        loaded = HarvestCheckpoint.load(file);
+        assertEquals(4, loaded.getPagesDone());
+        assertEquals(5, loaded.getLastPage());
+        assertFalse(loaded.isPageDone(7));
+        assertEquals(30, loaded.getWritten());
+        // a resumed run adds to the records written
+        loaded.finish(3);
+        loaded = HarvestCheckpoint.load(file);
+        assertTrue(loaded.isFinished());
+        assertEquals(33, loaded.getWritten());
+    }
+
+    /**
+     * Test of load, an incomplete file is rejected.
+     */
+    @Test
+    public void testLoadInvalid() throws IOException {
+        System.out.println("#### loadInvalid");
+        Path file = dir.resolve("harvest.checkpoint");
+        Files.write(file, "from=2022-01-01\n".getBytes("UTF-8"));
+        try {
+            HarvestCheckpoint.load(file);
+            fail("Expected IOException");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("until"));
+        }
+    }
+
+    /**
+     * Test of pageDone with date windows, each tracked separately.
+     */
+    @Test
+    public void testWindows() throws IOException {
+        System.out.println("#### windows");
+        Path file = dir.resolve("harvest.checkpoint");
+        HarvestCheckpoint checkpoint = HarvestCheckpoint.create(file, "2022-01-01", "2022-01-30",
+                "oai_dc", "", false, "out", 10, 3);
+        checkpoint.pageDone(0, 1, 0, "oai:test:article/1", 10);
+        checkpoint.pageDone(2, 1, 0, "oai:test:article/2", 20);
+        checkpoint.pageDone(2, 2, 2, "oai:test:article/3", 30);
+        HarvestCheckpoint loaded = HarvestCheckpoint.load(file);
+        assertEquals(3, loaded.getWindows());
+        assertEquals(1, loaded.getPagesDone(0));
+        assertEquals(0, loaded.getPagesDone(1));
+        assertEquals(2, loaded.getPagesDone(2));
+        assertEquals(0, loaded.getLastPage(1));
+        assertEquals(2, loaded.getLastPage(2));
+        assertTrue(loaded.isPageDone(2, 2));
+        assertFalse(loaded.isPageDone(1, 1));
+    }
+}
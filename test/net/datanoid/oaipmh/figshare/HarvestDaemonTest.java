@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class HarvestDaemonTest {
+
+    private Path dir;
+    private Path stateFile;
+    private String output;
+
+    /**
+     * Daemon running a FakePipeline of 25 articles, failing on request.
+     */
+    static class FakeDaemon extends HarvestDaemon {
+        final AtomicInteger pipelines = new AtomicInteger();
+        volatile long failing = -1;
+
+        FakeDaemon(Path stateFile, String output, String metadataPrefix) {
+            super(null, new Properties(), stateFile, output, RecordSinks.JSONL, metadataPrefix, "", false);
+            setConsole(new PrintStream(new ByteArrayOutputStream()));
+        }
+
+        @Override
+        protected HarvestPipeline createPipeline() {
+            pipelines.incrementAndGet();
+            HarvestPipelineTest.FakePipeline pipeline =
+                    new HarvestPipelineTest.FakePipeline(HarvestPipelineTest.pipelineProperties(1, 5), 25);
+            pipeline.failing = failing;
+            return pipeline;
+        }
+    }
+
+    public HarvestDaemonTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("HarvestDaemonTest");
+        stateFile = dir.resolve("watch.properties");
+        output = dir.resolve("records.jsonl").toString();
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private Properties readState() throws IOException {
+        Properties state = new Properties();
+        try (InputStream in = Files.newInputStream(stateFile)) {
+            state.load(in);
+        }
+        return state;
+    }
+
+    /**
+     * Test of runOnce, the watermark moves on success and stays on failure.
+     */
+    @Test
+    public void testRunOnce() throws Exception {
+        System.out.println("#### runOnce");
+        try (FakeDaemon daemon = new FakeDaemon(stateFile, output, "oai_dc")) {
+            daemon.open("2022-01-01");
+            assertEquals("2022-01-01", readState().getProperty("watermark"));
+            assertTrue(daemon.runOnce());
+            Properties state = readState();
+            assertEquals("1", state.getProperty("runs"));
+            assertEquals("ok", state.getProperty("lastStatus"));
+            assertEquals("25", state.getProperty("lastWritten"));
+            assertEquals("2022-01-01", state.getProperty("lastFrom"));
+            assertEquals(state.getProperty("lastUntil"), state.getProperty("watermark"));
+            assertEquals(state.getProperty("watermark"), daemon.getWatermark());
+            String watermark = daemon.getWatermark();
+
+            daemon.failing = 7;
+            assertFalse(daemon.runOnce());
+            state = readState();
+            assertEquals("2", state.getProperty("runs"));
+            assertEquals("failed", state.getProperty("lastStatus"));
+            assertTrue(state.getProperty("lastError").contains("test"));
+            assertEquals("1", state.getProperty("failures"));
+            assertEquals("1", state.getProperty("consecutiveFailures"));
+            assertEquals(watermark, state.getProperty("watermark"));
+            assertEquals(watermark, state.getProperty("lastFrom"));
+        }
+    }
+
+    /**
+     * Test of open, the state is locked, kept between daemons, and only for the same request.
+     */
+    @Test
+    public void testOpen() throws Exception {
+        System.out.println("#### open");
+        String watermark;
+        try (FakeDaemon daemon = new FakeDaemon(stateFile, output, "oai_dc")) {
+            daemon.open("2022-01-01");
+            try (FakeDaemon second = new FakeDaemon(stateFile, output, "oai_dc")) {
+                second.open("2022-01-01");
+                fail("second daemon on the same state");
+            } catch (IOException ex) {
+                assertTrue(ex.getMessage().contains("Another watch"));
+            }
+            daemon.runOnce();
+            watermark = daemon.getWatermark();
+        }
+        try (FakeDaemon daemon = new FakeDaemon(stateFile, output, "oai_dc")) {
+            daemon.open("2022-01-01");
+            assertEquals(watermark, daemon.getWatermark());
+            assertEquals("1", daemon.getState().getProperty("runs"));
+        }
+        try (FakeDaemon daemon = new FakeDaemon(stateFile, output, "qdc")) {
+            daemon.open("2022-01-01");
+            fail("state of another request");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("metadataPrefix=oai_dc"));
+        }
+        try {
+            new FakeDaemon(stateFile, "-", "oai_dc");
+            fail("standard output cannot be added to by each run");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    /**
+     * Test of run and stop, runs repeat every interval without overlapping.
+     */
+    @Test
+    public void testRun() throws Exception {
+        System.out.println("#### run");
+        try (FakeDaemon daemon = new FakeDaemon(stateFile, output, "oai_dc")) {
+            daemon.setInterval(0);
+            daemon.open("2022-01-01");
+            Thread thread = new Thread(() -> {
+                try {
+                    daemon.run();
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+            thread.start();
+            long deadline = System.currentTimeMillis()+10000;
+            while ( (daemon.pipelines.get() < 3) && (System.currentTimeMillis() < deadline) )
+                Thread.sleep(10);
+            daemon.stop();
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+            assertTrue(daemon.isStopped());
+            assertTrue(daemon.pipelines.get() >= 3);
+            Properties state = readState();
+            assertEquals(Integer.toString(daemon.pipelines.get()), state.getProperty("runs"));
+            assertNotNull(state.getProperty("lastEnd"));
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import ORG.oclc.oai.server.verb.OAIInternalServerError;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class HarvestMergeTest {
+
+    private Path dir;
+
+    public HarvestMergeTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("HarvestMergeTest");
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Header of a shard, as FigshareOAIMain writes it.
+     */
+    static JSONObject header(int shard, int shards, String by, Path output, String format) {
+        JSONObject header = new JSONObject();
+        header.put("shard", shard);
+        header.put("shards", shards);
+        header.put("by", by);
+        header.put("from", "2022-01-01");
+        header.put("until", "2022-01-30");
+        header.put("metadataPrefix", "oai_dc");
+        header.put("xmlElement", "");
+        header.put("xmlContent", false);
+        header.put("output", output.toAbsolutePath().toString());
+        header.put("format", format);
+        return header;
+    }
+
+    /**
+     * Pipeline of dated articles, writing the records to a real sink.
+     */
+    static class SinkPipeline extends HarvestPipelineTest.WindowPipeline {
+        private final RecordSink sink;
+
+        SinkPipeline(int articles, RecordSink sink) {
+            super(HarvestPipelineTest.pipelineProperties(2, 5), articles);
+            this.sink = sink;
+        }
+
+        @Override
+        protected Harvested crosswalk(JSONObject nativeItem, String metadataPrefix) {
+            return new Harvested("oai:test:article/"+nativeItem.get("id"),
+                    "<record id=\""+nativeItem.get("id")+"\" modified=\""+nativeItem.get("modified_date")+"\"/>");
+        }
+
+        @Override
+        protected void write(Harvested harvested) throws IOException {
+            super.write(harvested);
+            sink.write(harvested.identifier, harvested.record);
+        }
+    }
+
+    private List<Path> runShards(String by, String[] formats) throws Exception {
+        List<Path> manifests = new ArrayList<Path>();
+        int shards = formats.length;
+        String[][] windows = HarvestPipeline.partition("2022-01-01", "2022-01-30", shards);
+        for (int k=1; k<=shards; k++) {
+            String format = formats[k-1];
+            Path output = dir.resolve("shard"+k+(format.equals(RecordSinks.FOLDER) ? "" : "."+format));
+            if (format.equals(RecordSinks.FOLDER))
+                Files.createDirectory(output);
+            JSONObject header = header(k, shards, by, output, format);
+            String[][] run = new String[][] {{"2022-01-01", "2022-01-30"}};
+            if (by.equals("date")) {
+                header.put("windowFrom", windows[k-1][0]);
+                header.put("windowUntil", windows[k-1][1]);
+                run = new String[][] {windows[k-1]};
+            }
+            Path manifest = dir.resolve("shard"+k+".shard.jsonl");
+            try (RecordSink sink = RecordSinks.open(output.toString(), format, true, false);
+                    ShardManifest shardManifest = ShardManifest.create(manifest, header, false)) {
+                SinkPipeline pipeline = new SinkPipeline(300, sink);
+                if (by.equals("id"))
+                    pipeline.setShard(k-1, shards);
+                pipeline.setShardManifest(shardManifest);
+                pipeline.run(run, "oai_dc");
+            }
+            manifests.add(manifest);
+        }
+        return manifests;
+    }
+
+    private static List<String> mergedLines(Path file) throws IOException {
+        return Files.readAllLines(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Shards by id are disjoint, and merge into every article once.
+     */
+    @Test
+    public void testMergeById() throws Exception {
+        System.out.println("#### mergeById");
+        List<Path> manifests = runShards("id", new String[] {RecordSinks.JSONL, RecordSinks.ZIP, RecordSinks.TGZ, RecordSinks.FOLDER});
+        HarvestMerge merge = new HarvestMerge(manifests);
+        assertEquals(new ArrayList<String>(), merge.validate());
+        assertEquals(300, merge.getRecordCount());
+        assertEquals(0, merge.getDuplicateCount());
+        Path merged = dir.resolve("merged.jsonl");
+        try (RecordSink sink = RecordSinks.open(merged.toString(), null, true, false)) {
+            merge.merge(sink);
+        }
+        assertEquals(300, merge.getWrittenCount());
+        List<String> lines = mergedLines(merged);
+        assertEquals(300, lines.size());
+        JSONObject line = (JSONObject)JSONValue.parse(lines.get(0));
+        assertTrue(((String)line.get("record")).startsWith("<record id="));
+    }
+
+    /**
+     * A shard that stopped part way and is resumed from its checkpoint merges into every
+     * article, after a crash left a line of its manifest part written.
+     */
+    @Test
+    public void testResumeShard() throws Exception {
+        System.out.println("#### resumeShard");
+        Path output = dir.resolve("shard1.jsonl");
+        Path manifest = dir.resolve("shard1.shard.jsonl");
+        Path file = dir.resolve("shard1.checkpoint");
+        JSONObject header = header(1, 1, "id", output, RecordSinks.JSONL);
+        SinkPipeline pipeline;
+        try (RecordSink sink = RecordSinks.open(output.toString(), RecordSinks.JSONL, true, false)) {
+            pipeline = new SinkPipeline(300, sink);
+            HarvestCheckpoint checkpoint = HarvestCheckpoint.create(file, "2022-01-01", "2022-01-30",
+                    "oai_dc", "", false, output.toString(), pipeline.getPageSize());
+            pipeline.setCheckpoint(checkpoint);
+            // as a crash, the manifest is not closed, so only the lines it synced are kept
+            pipeline.setShardManifest(ShardManifest.create(manifest, header, false));
+            pipeline.failing = 150;
+            try {
+                pipeline.run("2022-01-01", "2022-01-30", "oai_dc");
+                fail("Expected OAIInternalServerError");
+            } catch (OAIInternalServerError ex) {
+            }
+        }
+        HarvestCheckpoint checkpoint = HarvestCheckpoint.load(file);
+        assertTrue(checkpoint.getPagesDone() > 0);
+        Files.write(manifest, "{\"identifier\":\"oai:te".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (RecordSink sink = RecordSinks.open(output.toString(), RecordSinks.JSONL, true, true);
+                ShardManifest shardManifest = ShardManifest.create(manifest, null, true)) {
+            SinkPipeline resumed = new SinkPipeline(300, sink);
+            resumed.setCheckpoint(checkpoint);
+            resumed.setShardManifest(shardManifest);
+            resumed.run(checkpoint.getFrom(), checkpoint.getUntil(), checkpoint.getMetadataPrefix());
+            assertTrue(resumed.getWrittenCount() < 300);
+        }
+        List<Path> manifests = new ArrayList<Path>();
+        manifests.add(manifest);
+        HarvestMerge merge = new HarvestMerge(manifests);
+        assertEquals(new ArrayList<String>(), merge.validate());
+        // records of the pages not saved as done are written again by the resumed run
+        assertEquals(300, merge.getRecordCount() - merge.getDuplicateCount());
+        Path merged = dir.resolve("merged.jsonl");
+        try (RecordSink sink = RecordSinks.open(merged.toString(), null, true, false)) {
+            merge.merge(sink);
+        }
+        assertEquals(300, merge.getWrittenCount());
+        assertEquals(300, mergedLines(merged).size());
+    }
+
+    /**
+     * Shards by date overlap at the window boundaries, the duplicates are reconciled.
+     */
+    @Test
+    public void testMergeByDate() throws Exception {
+        System.out.println("#### mergeByDate");
+        List<Path> manifests = runShards("date", new String[] {RecordSinks.TGZ, RecordSinks.JSONL, RecordSinks.ZIP});
+        HarvestMerge merge = new HarvestMerge(manifests);
+        assertEquals(new ArrayList<String>(), merge.validate());
+        assertTrue(merge.getDuplicateCount() > 0);
+        Path merged = dir.resolve("merged.zip");
+        try (RecordSink sink = RecordSinks.open(merged.toString(), null, true, false)) {
+            merge.merge(sink);
+        }
+        assertEquals(300, merge.getWrittenCount());
+    }
+
+    /**
+     * The record with the latest modified date is kept.
+     */
+    @Test
+    public void testReconcile() throws Exception {
+        System.out.println("#### reconcile");
+        List<Path> manifests = new ArrayList<Path>();
+        String[][] windows = HarvestPipeline.partition("2022-01-01", "2022-01-30", 2);
+        String[] modified = { "2022-01-10T00:00:00Z", "2022-01-20T00:00:00Z" };
+        for (int k=1; k<=2; k++) {
+            Path output = dir.resolve("shard"+k+".jsonl");
+            JSONObject header = header(k, 2, "date", output, RecordSinks.JSONL);
+            header.put("windowFrom", windows[k-1][0]);
+            header.put("windowUntil", windows[k-1][1]);
+            Path manifest = dir.resolve("shard"+k+".shard.jsonl");
+            try (RecordSink sink = RecordSinks.open(output.toString(), null, true, false);
+                    ShardManifest shardManifest = ShardManifest.create(manifest, header, false)) {
+                // the later shard is listed first, the merge must not depend on the order
+                String record = "<record version=\""+k+"\"/>";
+                sink.write("oai:test:article/1", record);
+                shardManifest.record("oai:test:article/1", 1L, modified[k-1], RecordManifest.hash(record));
+                shardManifest.complete(1, 0, 1);
+            }
+            manifests.add(0, manifest);
+        }
+        HarvestMerge merge = new HarvestMerge(manifests);
+        assertEquals(new ArrayList<String>(), merge.validate());
+        assertEquals(1, merge.getDuplicateCount());
+        Path merged = dir.resolve("merged.jsonl");
+        try (RecordSink sink = RecordSinks.open(merged.toString(), null, true, false)) {
+            merge.merge(sink);
+        }
+        List<String> lines = mergedLines(merged);
+        assertEquals(1, lines.size());
+        assertEquals("<record version=\"2\"/>", ((JSONObject)JSONValue.parse(lines.get(0))).get("record"));
+    }
+
+    /**
+     * Missing, unfinished and mismatched shards are reported.
+     */
+    @Test
+    public void testValidate() throws Exception {
+        System.out.println("#### validate");
+        Path output = dir.resolve("shard1.jsonl");
+        Files.createFile(output);
+        JSONObject header = header(1, 3, "id", output, RecordSinks.JSONL);
+        Path manifest1 = dir.resolve("shard1.shard.jsonl");
+        try (ShardManifest shardManifest = ShardManifest.create(manifest1, header, false)) {
+            shardManifest.complete(0, 0, 0);
+        }
+        header = header(2, 3, "id", output, RecordSinks.JSONL);
+        header.put("metadataPrefix", "qdc");
+        Path manifest2 = dir.resolve("shard2.shard.jsonl");
+        ShardManifest.create(manifest2, header, false).close();
+        List<Path> manifests = new ArrayList<Path>();
+        manifests.add(manifest1);
+        manifests.add(manifest2);
+        List<String> problems = new HarvestMerge(manifests).validate();
+        assertEquals(problems.toString(), 3, problems.size());
+        assertTrue(problems.get(0).contains("metadataPrefix=qdc"));
+        assertTrue(problems.get(1).contains("shard 2 did not finish"));
+        assertTrue(problems.get(2).contains("shard 3 of 3 is missing"));
+    }
+}
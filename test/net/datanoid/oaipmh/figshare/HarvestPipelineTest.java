@@ -0,0 +1,571 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import ORG.oclc.oai.server.verb.BadArgumentException;
+import ORG.oclc.oai.server.verb.OAIInternalServerError;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class HarvestPipelineTest {
+
+    /**
+     * Pipeline with the figshare stages replaced by an in-memory search of
+     * a number of articles, with ids from 1, listed most recent first.
+     */
+    static class FakePipeline extends HarvestPipeline {
+        final int articles;
+        final Set<String> writtenIds = ConcurrentHashMap.newKeySet();
+        final Set<Integer> searchedPages = ConcurrentHashMap.newKeySet();
+        final AtomicInteger maxAhead = new AtomicInteger();
+        volatile long missing = -1;
+        volatile long failing = -1;
+        volatile long writeMillis = 0;
+        volatile long modified = -1;
+
+        FakePipeline(Properties properties, int articles) {
+            super(null, properties);
+            this.articles = articles;
+        }
+
+        @Override
+        protected JSONArray search(int page, int pageSize, String from, String until) {
+            searchedPages.add(page);
+            JSONArray items = new JSONArray();
+            // repeat the last article of the previous page, as if pages shifted
+            int first = (page-1)*pageSize + ((page > 1) ? 0 : 1);
+            for (int i=first; (i<=page*pageSize) && (i<=articles); i++) {
+                JSONObject item = new JSONObject();
+                item.put("id", (long)i);
+                items.add(item);
+            }
+            return items;
+        }
+
+        @Override
+        protected JSONObject fetch(JSONObject searchItem) throws Exception {
+            long id = (Long)searchItem.get("id");
+            if (id == failing)
+                throw new OAIInternalServerError("figshare pulbicArticleDetails ERROR: test");
+            return (id == missing) ? null : searchItem;
+        }
+
+        @Override
+        protected Harvested crosswalk(JSONObject nativeItem, String metadataPrefix) {
+            long id = (Long)nativeItem.get("id");
+            return new Harvested("oai:test:article/"+id, (id == modified) ? "<record modified=\"true\"/>" : "<record/>");
+        }
+
+        @Override
+        protected void write(Harvested harvested) throws java.io.IOException {
+            maxAhead.accumulateAndGet((int)getListedCount() - writtenIds.size(), Math::max);
+            if (writeMillis > 0) {
+                try {
+                    Thread.sleep(writeMillis);
+                } catch (InterruptedException ex) {
+                    throw new java.io.InterruptedIOException();
+                }
+            }
+            assertTrue("written twice "+harvested.identifier, writtenIds.add(harvested.identifier));
+        }
+    }
+
+    static Properties pipelineProperties(int searchThreads, int queueSize) {
+        Properties properties = new Properties();
+        properties.setProperty("HarvestPipeline.searchThreads", ""+searchThreads);
+        properties.setProperty("HarvestPipeline.fetchThreads", "3");
+        properties.setProperty("HarvestPipeline.crosswalkThreads", "2");
+        properties.setProperty("HarvestPipeline.writeThreads", "2");
+        properties.setProperty("HarvestPipeline.queueSize", ""+queueSize);
+        properties.setProperty("HarvestPipeline.pageSize", "10");
+        properties.setProperty("HarvestPipeline.requestsPerSecond", "100000");
+        return properties;
+    }
+
+    public HarvestPipelineTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Every listed article is written once, with a single or several search threads.
+     */
+    @Test
+    public void testRun() throws Exception {
+        System.out.println("#### run");
+        for (int searchThreads: new int[] {1, 3}) {
+            FakePipeline pipeline = new FakePipeline(pipelineProperties(searchThreads, 5), 95);
+            pipeline.missing = 42;
+            pipeline.run("2022-01-01", null, "oai_dc");
+            assertEquals(95, pipeline.getListedCount());
+            assertEquals(1, pipeline.getSkippedCount());
+            assertEquals(94, pipeline.getWrittenCount());
+            assertEquals(94, pipeline.writtenIds.size());
+            assertFalse(pipeline.writtenIds.contains("oai:test:article/42"));
+            assertTrue(pipeline.getPageCount() >= 10);
+        }
+    }
+
+    /**
+     * A slow writer holds back the search, within the queue capacities.
+     */
+    @Test
+    public void testBackpressure() throws Exception {
+        System.out.println("#### backpressure");
+        FakePipeline pipeline = new FakePipeline(pipelineProperties(1, 2), 200);
+        pipeline.writeMillis = 1;
+        pipeline.run("2022-01-01", null, "oai_dc");
+        assertEquals(200, pipeline.getWrittenCount());
+        // 3 queues of 2, each fetch/crosswalk/write thread holding one, and the rest of a page
+        assertTrue("search ran ahead by "+pipeline.maxAhead.get(), pipeline.maxAhead.get() <= 3*2 + 3+2+2 + 10);
+    }
+
+    /**
+     * Progress is reported while running, and the summary measures the whole run.
+     */
+    @Test
+    public void testProgress() throws Exception {
+        System.out.println("#### progress");
+        Properties properties = pipelineProperties(1, 2);
+        properties.setProperty("HarvestPipeline.progressSeconds", "1");
+        FakePipeline pipeline = new FakePipeline(properties, 150);
+        pipeline.writeMillis = 20;
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        pipeline.setConsole(new PrintStream(console, true, "UTF-8"));
+        pipeline.run("2022-01-01", null, "oai_dc");
+        String output = new String(console.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(output, output.contains("### progress elapsed="));
+        assertTrue(output, output.contains(" stages search="));
+        assertTrue(pipeline.getProgress(), pipeline.getProgress().contains("done=150/150 "));
+        assertTrue(pipeline.getProgress(), pipeline.getProgress().endsWith(" eta=0s"));
+        JSONObject summary = pipeline.getSummary();
+        assertEquals(150L, summary.get("written"));
+        assertEquals(150L*"<record/>".length(), summary.get("bytes"));
+        JSONObject stages = (JSONObject)summary.get("stages");
+        double shares = 0;
+        for (Object stage: stages.values())
+            shares += (Double)((JSONObject)stage).get("share");
+        assertEquals(1.0, shares, 0.001);
+        // mostly waiting on the writers
+        assertTrue(stages.toJSONString(), (Double)((JSONObject)stages.get("write")).get("share") > 0.5);
+        assertTrue((Double)summary.get("seconds") >= 1.0);
+    }
+
+    /**
+     * While the search is running, the total is estimated from the dates listed.
+     */
+    @Test
+    public void testEstimate() throws Exception {
+        System.out.println("#### estimate");
+        final String[] progress = new String[1];
+        // 300 articles modified 2.4 hours apart, back from the end of the window
+        FakePipeline pipeline = new FakePipeline(pipelineProperties(1, 2), 300) {
+            @Override
+            protected JSONArray search(int page, int pageSize, String from, String until) {
+                JSONArray items = super.search(page, pageSize, from, until);
+                for (Object item: items) {
+                    long id = (Long)((JSONObject)item).get("id");
+                    ((JSONObject)item).put("modified_date",
+                            Instant.parse("2022-01-31T00:00:00Z").minusSeconds(id*144*60).toString());
+                }
+                return items;
+            }
+
+            @Override
+            protected void write(Harvested harvested) throws java.io.IOException {
+                super.write(harvested);
+                if (writtenIds.size() == 50)
+                    progress[0] = getProgress();
+            }
+        };
+        pipeline.writeMillis = 2;
+        pipeline.run("2022-01-01", "2022-01-30", "oai_dc");
+        assertEquals(300, pipeline.getWrittenCount());
+        // the search may have listed the next article while the estimate was made
+        Matcher estimate = Pattern.compile("done=\\d+/~(\\d+) ").matcher(progress[0]);
+        assertTrue(progress[0], estimate.find());
+        assertEquals(progress[0], 300, Integer.parseInt(estimate.group(1)), 10);
+        assertTrue(pipeline.getProgress(), pipeline.getProgress().contains("done=300/300 "));
+    }
+
+    /**
+     * Test of utf8Length.
+     */
+    @Test
+    public void testUtf8Length() {
+        System.out.println("#### utf8Length");
+        String s = "a\u00e9\u4e2d\ud83d\ude00<x/>";
+        assertEquals(s.getBytes(StandardCharsets.UTF_8).length, HarvestPipeline.utf8Length(s));
+    }
+
+    /**
+     * The first failure stops every stage and is thrown by run().
+     */
+    @Test
+    public void testFailure() throws Exception {
+        System.out.println("#### failure");
+        FakePipeline pipeline = new FakePipeline(pipelineProperties(1, 2), 1000);
+        pipeline.failing = 25;
+        try {
+            pipeline.run("2022-01-01", null, "oai_dc");
+            fail("Expected OAIInternalServerError");
+        } catch (OAIInternalServerError ex) {
+            assertTrue(ex.getMessage().endsWith("test"));
+        }
+        assertTrue(pipeline.getWrittenCount() < 1000);
+    }
+
+    /**
+     * After a failure run() only returns once writers still finishing a record have ended,
+     * so the caller can close the sink, with or without a manifest.
+     */
+    @Test
+    public void testFailureAwaitsWriters() throws Exception {
+        System.out.println("#### failureAwaitsWriters");
+        final AtomicInteger writing = new AtomicInteger();
+        FakePipeline pipeline = new FakePipeline(pipelineProperties(1, 2), 1000) {
+            @Override
+            protected void write(Harvested harvested) throws java.io.IOException {
+                writing.incrementAndGet();
+                try {
+                    // as a sink appending to a stream, not stopped by an interrupt
+                    long until = System.nanoTime() + 20000000L;
+                    while (System.nanoTime() < until)
+                        Thread.yield();
+                    super.write(harvested);
+                } finally {
+                    writing.decrementAndGet();
+                }
+            }
+        };
+        pipeline.failing = 25;
+        try {
+            pipeline.run("2022-01-01", null, "oai_dc");
+            fail("Expected OAIInternalServerError");
+        } catch (OAIInternalServerError ex) {
+            assertEquals(0, writing.get());
+        }
+    }
+
+    /**
+     * An interrupted run stops every stage, and returns once they have ended.
+     */
+    @Test
+    public void testInterrupt() throws Exception {
+        System.out.println("#### interrupt");
+        Path file = Files.createTempFile("HarvestPipelineTest", ".manifest");
+        Files.delete(file);
+        FakePipeline pipeline = new FakePipeline(pipelineProperties(1, 2), 1000);
+        pipeline.writeMillis = 5;
+        pipeline.setManifest(RecordManifest.load(file));
+        Thread thread = new Thread(() -> {
+            try {
+                pipeline.run("2022-01-01", null, "oai_dc");
+            } catch (Exception ex) {
+                // interrupted
+            }
+        });
+        thread.start();
+        long deadline = System.currentTimeMillis()+10000;
+        while ( (pipeline.getWrittenCount() < 10) && (System.currentTimeMillis() < deadline) )
+            Thread.sleep(5);
+        thread.interrupt();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        try {
+            assertTrue(pipeline.getWrittenCount() < 1000);
+            // the records written before the interrupt are kept in the manifest
+            assertEquals(pipeline.getWrittenCount(), RecordManifest.load(file).size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * A failed run resumes from its checkpoint without searching the completed pages again.
+     */
+    @Test
+    public void testResume() throws Exception {
+        System.out.println("#### resume");
+        Path file = Files.createTempFile("HarvestPipelineTest", ".checkpoint");
+        try {
+            FakePipeline pipeline = new FakePipeline(pipelineProperties(1, 2), 95);
+            HarvestCheckpoint checkpoint = HarvestCheckpoint.create(file, "2022-01-01", "2022-02-01T00:00:00Z",
+                    "oai_dc", "", false, "out", pipeline.getPageSize());
+            pipeline.setCheckpoint(checkpoint);
+            pipeline.failing = 55;
+            try {
+                pipeline.run("2022-01-01", "2022-02-01T00:00:00Z", "oai_dc");
+                fail("Expected OAIInternalServerError");
+            } catch (OAIInternalServerError ex) {
+            }
+            checkpoint = HarvestCheckpoint.load(file);
+            assertFalse(checkpoint.isFinished());
+            // article 55 is listed on page 6
+            int pagesDone = checkpoint.getPagesDone();
+            assertTrue(pagesDone >= 4);
+            assertFalse(checkpoint.isPageDone(6));
+            assertTrue(pipeline.writtenIds.contains(checkpoint.getLastIdentifier()));
+
+            FakePipeline resumed = new FakePipeline(pipelineProperties(1, 2), 95);
+            resumed.setCheckpoint(checkpoint);
+            resumed.run(checkpoint.getFrom(), checkpoint.getUntil(), checkpoint.getMetadataPrefix());
+            for (int page=1; page<=pagesDone; page++)
+                assertFalse("searched page "+page+" again", resumed.searchedPages.contains(page));
+            assertTrue(resumed.searchedPages.contains(6));
+            Set<String> all = ConcurrentHashMap.newKeySet();
+            all.addAll(pipeline.writtenIds);
+            all.addAll(resumed.writtenIds);
+            assertEquals(95, all.size());
+            checkpoint = HarvestCheckpoint.load(file);
+            assertTrue(checkpoint.isFinished());
+            assertEquals(10, checkpoint.getLastPage());
+            assertEquals(10, checkpoint.getPagesDone());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Test of runIds, each id is fetched once and its outcome reported.
+     */
+    @Test
+    public void testRunIds() throws Exception {
+        System.out.println("#### runIds");
+        FakePipeline pipeline = new FakePipeline(pipelineProperties(1, 2), 0);
+        pipeline.missing = 5;
+        pipeline.failing = 7;
+        List<Long> ids = new ArrayList<Long>();
+        for (long id=1; id<=40; id++)
+            ids.add(id);
+        ids.add(3L);
+        Map<Long,String> outcomes = pipeline.runIds(ids, "oai_dc");
+        assertEquals(40, outcomes.size());
+        assertEquals(Long.valueOf(1), outcomes.keySet().iterator().next());
+        assertEquals("not found", outcomes.get(5L));
+        assertTrue(outcomes.get(7L).startsWith("failed: "));
+        assertEquals("written", outcomes.get(3L));
+        assertEquals(38, pipeline.getWrittenCount());
+        assertEquals(38, pipeline.writtenIds.size());
+        assertEquals(1, pipeline.getFailedCount());
+        assertEquals(1, pipeline.getSkippedCount());
+        assertEquals(0, pipeline.getPageCount());
+    }
+
+    /**
+     * Test of readIds, of article ids and OAI identifiers.
+     */
+    @Test
+    public void testReadIds() throws Exception {
+        System.out.println("#### readIds");
+        String list = "123\n\n# comment\n oai:figshare.com:article/456 \nhttps://figshare.com/articles/dataset/x/789\nabc\n0\n";
+        List<String> invalid = new ArrayList<String>();
+        List<Long> ids = HarvestPipeline.readIds(new BufferedReader(new StringReader(list)), invalid);
+        assertEquals(Arrays.asList(123L, 456L, 789L), ids);
+        assertEquals(Arrays.asList("abc", "0"), invalid);
+    }
+
+    /**
+     * A second run with a manifest only writes the new and changed records.
+     */
+    @Test
+    public void testManifest() throws Exception {
+        System.out.println("#### manifest");
+        Path file = Files.createTempFile("HarvestPipelineTest", ".manifest");
+        Files.delete(file);
+        try {
+            FakePipeline pipeline = new FakePipeline(pipelineProperties(1, 5), 50);
+            pipeline.setManifest(RecordManifest.load(file));
+            pipeline.run("2022-01-01", null, "oai_dc");
+            assertEquals(50, pipeline.getNewCount());
+            assertEquals(50, pipeline.getWrittenCount());
+            assertEquals(50, RecordManifest.load(file).size());
+
+            pipeline = new FakePipeline(pipelineProperties(1, 5), 55);
+            pipeline.modified = 7;
+            pipeline.setManifest(RecordManifest.load(file));
+            pipeline.run("2022-01-01", null, "oai_dc");
+            assertEquals(5, pipeline.getNewCount());
+            assertEquals(1, pipeline.getChangedCount());
+            assertEquals(49, pipeline.getUnchangedCount());
+            assertEquals(6, pipeline.getWrittenCount());
+            assertTrue(pipeline.writtenIds.contains("oai:test:article/7"));
+            assertFalse(pipeline.writtenIds.contains("oai:test:article/8"));
+            assertEquals(55, RecordManifest.load(file).size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Pipeline searching articles 1 to articles by date, article i modified on
+     * day (i*7 % 30) of January 2022. Each search also lists the articles of the day
+     * after its until date, as overlapping windows would.
+     */
+    static class WindowPipeline extends FakePipeline {
+        final Set<String> searchedWindows = ConcurrentHashMap.newKeySet();
+
+        WindowPipeline(Properties properties, int articles) {
+            super(properties, articles);
+        }
+
+        @Override
+        protected JSONArray search(int page, int pageSize, String from, String until) {
+            searchedWindows.add(from+"/"+until);
+            LocalDate first = LocalDate.parse(from);
+            LocalDate last = LocalDate.parse(until).plusDays(1);
+            JSONArray matching = new JSONArray();
+            for (long i=articles; i>=1; i--) {
+                LocalDate modified = LocalDate.of(2022, 1, 1).plusDays(i*7 % 30);
+                if (!modified.isBefore(first) && !modified.isAfter(last)) {
+                    JSONObject item = new JSONObject();
+                    item.put("id", i);
+                    item.put("modified_date", modified+"T00:00:00Z");
+                    matching.add(item);
+                }
+            }
+            JSONArray items = new JSONArray();
+            for (int i=(page-1)*pageSize; (i<page*pageSize) && (i<matching.size()); i++)
+                items.add(matching.get(i));
+            return items;
+        }
+    }
+
+    /**
+     * Test of partition, by days and by seconds.
+     */
+    @Test
+    public void testPartition() throws Exception {
+        System.out.println("#### partition");
+        String[][] windows = HarvestPipeline.partition("2022-01-01", "2022-01-10", 3);
+        assertArrayEquals(new String[] {"2022-01-01", "2022-01-03"}, windows[0]);
+        assertArrayEquals(new String[] {"2022-01-04", "2022-01-06"}, windows[1]);
+        assertArrayEquals(new String[] {"2022-01-07", "2022-01-10"}, windows[2]);
+        windows = HarvestPipeline.partition("2022-01-01", "2022-01-02", 5);
+        assertEquals(2, windows.length);
+        assertArrayEquals(new String[] {"2022-01-02", "2022-01-02"}, windows[1]);
+        windows = HarvestPipeline.partition("2022-01-01T00:00:00Z", "2022-01-01T06:00:00Z", 4);
+        assertEquals(4, windows.length);
+        assertArrayEquals(new String[] {"2022-01-01T00:00:00Z", "2022-01-01T01:30:00Z"}, windows[0]);
+        assertArrayEquals(new String[] {"2022-01-01T04:30:00Z", "2022-01-01T06:00:00Z"}, windows[3]);
+        try {
+            HarvestPipeline.partition("2022-01-10", "2022-01-01", 3);
+            fail("Expected BadArgumentException");
+        } catch (BadArgumentException ex) {
+        }
+        try {
+            HarvestPipeline.partition("2022-13-01", "2022-12-01", 3);
+            fail("Expected BadArgumentException");
+        } catch (BadArgumentException ex) {
+        }
+    }
+
+    /**
+     * A backfill searches each window, and writes each article once.
+     */
+    @Test
+    public void testBackfill() throws Exception {
+        System.out.println("#### backfill");
+        WindowPipeline pipeline = new WindowPipeline(pipelineProperties(1, 5), 300);
+        String[][] windows = HarvestPipeline.partition("2022-01-01", "2022-01-30", 6);
+        pipeline.run(windows, "oai_dc");
+        assertEquals(6, pipeline.searchedWindows.size());
+        assertEquals(300, pipeline.getListedCount());
+        assertEquals(300, pipeline.getWrittenCount());
+        assertEquals(300, pipeline.writtenIds.size());
+
+        // resumed from a checkpoint of the windows
+        Path file = Files.createTempFile("HarvestPipelineTest", ".checkpoint");
+        try {
+            pipeline = new WindowPipeline(pipelineProperties(1, 5), 300);
+            HarvestCheckpoint checkpoint = HarvestCheckpoint.create(file, "2022-01-01", "2022-01-30",
+                    "oai_dc", "", false, "out", pipeline.getPageSize(), windows.length);
+            pipeline.setCheckpoint(checkpoint);
+            pipeline.failing = 200;
+            try {
+                pipeline.run(windows, "oai_dc");
+                fail("Expected OAIInternalServerError");
+            } catch (OAIInternalServerError ex) {
+            }
+            checkpoint = HarvestCheckpoint.load(file);
+            assertEquals(6, checkpoint.getWindows());
+            WindowPipeline resumed = new WindowPipeline(pipelineProperties(1, 5), 300);
+            resumed.setCheckpoint(checkpoint);
+            resumed.run(windows, "oai_dc");
+            Set<String> all = ConcurrentHashMap.newKeySet();
+            all.addAll(pipeline.writtenIds);
+            all.addAll(resumed.writtenIds);
+            assertEquals(300, all.size());
+            assertTrue(HarvestCheckpoint.load(file).isFinished());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.util.Properties;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class JSONRecordFactoryTest {
+    
+    private static JSONObject article;
+    private static JSONRecordFactory factory;
+
+    public JSONRecordFactoryTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        article = CrosswalkBenchmark.loadSampleArticle();
+        factory = new JSONRecordFactory(CrosswalkBenchmark.recordFactoryProperties());
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test quickCreate gives the same record as the default create method, for each format.
+     */
+    @Test
+    public void testQuickCreate() throws Exception {
+        System.out.println("#### quickCreate");
+        for (String prefix: new String[] {"oai_dc", "qdc", "json"}) {
+            String schemaURL = factory.getCrosswalks().getSchemaURL(prefix);
+            String quick = factory.quickCreate(article, schemaURL, prefix);
+            assertNotNull(quick);
+            String expected = factory.create(article, schemaURL, prefix,
+                    factory.getOAIIdentifier(article), factory.getDatestamp(article),
+                    factory.getSetSpecs(article), factory.getAbouts(article), factory.isDeleted(article));
+            assertEquals(expected, quick);
+            assertEquals(quick, factory.create(article, schemaURL, prefix));
+        }
+        assertTrue(factory.quickCreate(article, factory.getCrosswalks().getSchemaURL("qdc"), "qdc")
+                .startsWith("<record><header><identifier>oai:figshare.com:article/4689088</identifier><datestamp>"));
+        assertNull(factory.quickCreate(article, null, null));
+    }
+}
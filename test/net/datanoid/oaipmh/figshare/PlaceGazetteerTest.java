@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Properties;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class PlaceGazetteerTest {
+
+    /** Lines in the GeoNames dump format, out of id order. */
+    static final String GEONAMES =
+            "2159220\tMackay\tMackay\tMakkaj\t-21.15345\t149.16554\tP\tPPLA2\tAU\n"
+            + "2158177\tMelbourne\tMelbourne\t\t-37.814\t144.96332\tP\tPPLA\tAU\n"
+            + "3094802\tKraków\tKrakow\tCracow\t50.06143\t19.93658\tP\tPPLA\tPL\n";
+    /** Lines in the simple TSV format, with a comment and a repeated id. */
+    static final String TGN =
+            "# id\tname\tlatitude\tlongitude\n"
+            + "7001959\tMackay\t-21.15\t149.166667\n"
+            + "7000490\tAustralia\t-25\t135\n"
+            + "7001959\tMackay again\t0\t0\n";
+
+    private Path dir;
+
+    public PlaceGazetteerTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("placegazetteer");
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        for (Path file: Files.newDirectoryStream(dir))
+            Files.delete(file);
+        Files.delete(dir);
+    }
+
+    /**
+     * Test of build and open with the GeoNames dump format, of class PlaceGazetteer.
+     */
+    @Test
+    public void testGeoNames() throws Exception {
+        System.out.println("#### GeoNames");
+        Path path = dir.resolve("geonames.gaz");
+        assertEquals(3, PlaceGazetteer.build(new StringReader(GEONAMES), true, path));
+        PlaceGazetteer gazetteer = PlaceGazetteer.open(path);
+        assertEquals(3, gazetteer.size());
+        int place = gazetteer.find(3094802);
+        assertEquals("Kraków", gazetteer.getName(place));
+        assertEquals(50.06143, gazetteer.getLatitude(place), 0.0);
+        assertEquals(19.93658, gazetteer.getLongitude(place), 0.0);
+        assertEquals(2158177, gazetteer.getId(0));
+        assertEquals("Mackay", gazetteer.getName(gazetteer.find(2159220)));
+        assertEquals(-1, gazetteer.find(1));
+        assertEquals(-1, gazetteer.find(9999999));
+    }
+
+    /**
+     * Test of build with the TSV format, repeated ids and invalid lines, of class PlaceGazetteer.
+     */
+    @Test
+    public void testTsv() throws Exception {
+        System.out.println("#### TSV");
+        Path path = dir.resolve("tgn.gaz");
+        assertEquals(2, PlaceGazetteer.build(new StringReader(TGN), false, path));
+        PlaceGazetteer gazetteer = PlaceGazetteer.open(path);
+        assertEquals("Mackay", gazetteer.getName(gazetteer.find(7001959)));
+        assertEquals(135.0, gazetteer.getLongitude(gazetteer.find(7000490)), 0.0);
+        try {
+            PlaceGazetteer.build(new StringReader("1\tNowhere\tnorth\t0\n"), false, dir.resolve("bad.gaz"));
+            fail("Expected ParseException");
+        } catch (ParseException ex) {
+            assertEquals(1, ex.getErrorOffset());
+        }
+        Files.write(dir.resolve("not.gaz"), new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+        try {
+            PlaceGazetteer.open(dir.resolve("not.gaz"));
+            fail("Expected IOException");
+        } catch (java.io.IOException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test of GeospatialPoint.parse resolving GeoNames and TGN URIs offline.
+     */
+    @Test
+    public void testParseURIs() throws Exception {
+        System.out.println("#### parse URIs");
+        Path geonames = dir.resolve("geonames.gaz");
+        Path tgn = dir.resolve("tgn.gaz");
+        PlaceGazetteer.build(new StringReader(GEONAMES), true, geonames);
+        PlaceGazetteer.build(new StringReader(TGN), false, tgn);
+        // a mapping compiled before the gazetteers are configured may not resolve the URI
+        new DCMapping(new Properties(), "JSON2qdc", "qdc:qualifieddc", "", "").resolveSpatial("TGN:7001959");
+        Properties properties = new Properties();
+        properties.setProperty("GeospatialPoint.geonamesGazetteer", geonames.toString());
+        properties.setProperty("GeospatialPoint.tgnGazetteer", tgn.toString());
+        GeospatialPoint.configure(properties);
+        // but a mapping compiled after does
+        assertTrue(new DCMapping(properties, "JSON2qdc", "qdc:qualifieddc", "", "").resolveSpatial("TGN:7001959")[0].startsWith("name=Mackay"));
+        for (String uri: new String[] {"https://sws.geonames.org/2159220/", "https://sws.geonames.org/2159220/about.rdf",
+                "http://www.geonames.org/2159220/mackay.html", "http://vocab.getty.edu/tgn/7001959",
+                "http://vocab.getty.edu/page/tgn/7001959", "http://vocab.getty.edu/tgn/7001959-place", "TGN:7001959"}) {
+            GeospatialPoint point = GeospatialPoint.parse(uri);
+            assertEquals(uri, "Mackay", point.location);
+            assertEquals(uri, -21.15, point.latitude, 0.01);
+        }
+        try {
+            GeospatialPoint.parse("https://sws.geonames.org/1/");
+            fail("Expected ParseException");
+        } catch (ParseException ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class RecordCacheTest {
+    
+    public RecordCacheTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    private static Map<String,String> records(String id) {
+        Map<String,String> records = new HashMap<String,String>();
+        records.put("oai_dc", "<record>oai_dc "+id+"</record>");
+        records.put("qdc", "<record>qdc "+id+"</record>");
+        return records;
+    }
+
+    /**
+     * Test of get and put, validating by datestamp.
+     */
+    @Test
+    public void testGetPut() {
+        System.out.println("#### get put");
+        RecordCache cache = new RecordCache(10, 60000);
+        assertNull(cache.get(1L, null));
+        cache.put(1L, "2022-01-02T03:04:05Z", records("1"));
+        assertEquals("<record>qdc 1</record>", cache.get(1L, null).get("qdc"));
+        assertEquals("<record>oai_dc 1</record>", cache.get(1L, "2022-01-02T03:04:05Z").get("oai_dc"));
+        assertEquals(2, cache.getHits());
+        // a newer revision invalidates the entry
+        assertNull(cache.get(1L, "2022-02-02T03:04:05Z"));
+        assertNull(cache.get(1L, null));
+        assertEquals(3, cache.getMisses());
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Test the least recently used article is evicted, and entries expire.
+     */
+    @Test
+    public void testEvictionAndExpiry() throws Exception {
+        System.out.println("#### eviction and expiry");
+        RecordCache cache = new RecordCache(2, 60000);
+        cache.put(1L, "d", records("1"));
+        cache.put(2L, "d", records("2"));
+        assertNotNull(cache.get(1L, null));
+        cache.put(3L, "d", records("3"));
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(1L, null));
+        assertNull(cache.get(2L, null));
+        assertNotNull(cache.get(3L, null));
+        cache = new RecordCache(2, 1);
+        cache.put(1L, "d", records("1"));
+        Thread.sleep(5);
+        assertNull(cache.get(1L, null));
+    }
+}
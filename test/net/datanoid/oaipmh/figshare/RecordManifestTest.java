@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class RecordManifestTest {
+
+    private Path file;
+
+    public RecordManifestTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("RecordManifestTest", ".manifest");
+        Files.delete(file);
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Test of hash method.
+     */
+    @Test
+    public void testHash() {
+        System.out.println("#### hash");
+        assertEquals(RecordManifest.hash("<record/>"), RecordManifest.hash(new StringBuilder("<record/>")));
+        assertNotEquals(RecordManifest.hash("<record/>"), RecordManifest.hash("<record />"));
+        assertNotEquals(0, RecordManifest.hash(""));
+    }
+
+    /**
+     * Test of put, get, save and load, growing the table.
+     */
+    @Test
+    public void testSaveLoad() throws IOException {
+        System.out.println("#### saveLoad");
+        RecordManifest manifest = RecordManifest.load(file);
+        assertEquals(0, manifest.size());
+        assertEquals(0, manifest.get("oai:test:article/1"));
+        for (int i=0; i<10000; i++)
+            manifest.put("oai:test:article/"+i, RecordManifest.hash("<record id=\""+i+"\"/>"));
+        manifest.put("oai:test:article/5", RecordManifest.hash("<record changed=\"true\"/>"));
+        assertEquals(10000, manifest.size());
+        manifest.save();
+        assertEquals(12 + 10000*16, Files.size(file));
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName()+".tmp")));
+        RecordManifest loaded = RecordManifest.load(file);
+        assertEquals(10000, loaded.size());
+        assertEquals(RecordManifest.hash("<record id=\"9999\"/>"), loaded.get("oai:test:article/9999"));
+        assertEquals(RecordManifest.hash("<record changed=\"true\"/>"), loaded.get("oai:test:article/5"));
+        assertEquals(0, loaded.get("oai:test:article/10000"));
+    }
+
+    /**
+     * Test of load, a file that is not a manifest is rejected.
+     */
+    @Test
+    public void testLoadInvalid() throws IOException {
+        System.out.println("#### loadInvalid");
+        Files.write(file, "from=2022-01-01\n".getBytes("UTF-8"));
+        try {
+            RecordManifest.load(file);
+            fail("Expected IOException");
+        } catch (IOException ex) {
+        }
+    }
+}
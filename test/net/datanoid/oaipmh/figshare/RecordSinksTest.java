@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class RecordSinksTest {
+
+    private static final String RECORD = "<oai_dc:dc><dc:title>Café &amp; \"bar\"\nline</dc:title></oai_dc:dc>";
+
+    private Path dir;
+
+    public RecordSinksTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("RecordSinksTest");
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static void writeRecords(RecordSink sink, int count) throws IOException {
+        try {
+            for (int i=1; i<=count; i++)
+                sink.write("oai:figshare.com:article/"+i, RECORD);
+        } finally {
+            sink.close();
+        }
+    }
+
+    /**
+     * Test of formatOf method.
+     */
+    @Test
+    public void testFormatOf() {
+        System.out.println("#### formatOf");
+        assertEquals(RecordSinks.JSONL, RecordSinks.formatOf("-"));
+        assertEquals(RecordSinks.ZIP, RecordSinks.formatOf("dump.ZIP"));
+        assertEquals(RecordSinks.TGZ, RecordSinks.formatOf("dump.tar.gz"));
+        assertEquals(RecordSinks.TGZ, RecordSinks.formatOf("dump.tgz"));
+        assertEquals(RecordSinks.JSONL, RecordSinks.formatOf("dump.jsonl"));
+        assertEquals(RecordSinks.XML, RecordSinks.formatOf("dump.xml"));
+        assertEquals(RecordSinks.FOLDER, RecordSinks.formatOf("/tmp/records"));
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            // "I".toLowerCase() is a dotless i in Turkish
+            assertEquals(RecordSinks.ZIP, RecordSinks.formatOf("ARCHIVE.ZIP"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    /**
+     * Test of the folder sink, a file per record.
+     */
+    @Test
+    public void testFolder() throws IOException {
+        System.out.println("#### folder");
+        RecordSink sink = RecordSinks.open(dir.toString(), null, true, false);
+        assertEquals("filename=oai_figshare_com_article_1.xml", sink.write("oai:figshare.com:article/1", RECORD));
+        sink.close();
+        String file = new String(Files.readAllBytes(dir.resolve("oai_figshare_com_article_1.xml")), StandardCharsets.UTF_8);
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"+RECORD+"\n", file);
+        try {
+            RecordSinks.open(dir.resolve("missing").toString(), null, true, false);
+            fail("Expected IOException");
+        } catch (IOException ex) {
+        }
+    }
+
+    /**
+     * Test of the zip sink, written by several threads.
+     */
+    @Test
+    public void testZip() throws Exception {
+        System.out.println("#### zip");
+        Path file = dir.resolve("dump.zip");
+        final RecordSink sink = RecordSinks.open(file.toString(), null, false, false);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t=0; t<4; t++) {
+            final int first = t*250;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i=first+1; i<=first+250; i++)
+                        sink.write("oai:figshare.com:article/"+i, RECORD);
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread: threads)
+            thread.join();
+        sink.close();
+        int entries = 0;
+        try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                assertTrue(entry.getName().startsWith("oai_figshare_com_article_"));
+                assertEquals(RECORD+"\n", readAll(zip));
+                entries++;
+            }
+        }
+        assertEquals(1000, entries);
+    }
+
+    /**
+     * Test of the tar.gz sink, including a name longer than a ustar header holds.
+     */
+    @Test
+    public void testTarGz() throws IOException {
+        System.out.println("#### tarGz");
+        Path file = dir.resolve("dump.tar.gz");
+        RecordSink sink = RecordSinks.open(file.toString(), null, true, false);
+        StringBuilder longId = new StringBuilder("oai:figshare.com:article/");
+        while (longId.length() < 150)
+            longId.append('x');
+        sink.write("oai:figshare.com:article/1", RECORD);
+        sink.write(longId.toString(), RECORD);
+        sink.close();
+        byte[] tar;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            tar = readBytes(in);
+        }
+        assertEquals(0, tar.length % 512);
+        List<String> names = new ArrayList<String>();
+        String paxPath = null;
+        int pos = 0;
+        while (tar[pos] != 0) {
+            int checksum = 0;
+            for (int i=pos; i<pos+512; i++)
+                checksum += ((i >= pos+148) && (i < pos+156)) ? ' ' : (tar[i] & 0xff);
+            assertEquals(checksum, Integer.parseInt(new String(tar, pos+148, 6, StandardCharsets.US_ASCII), 8));
+            assertEquals("ustar", new String(tar, pos+257, 5, StandardCharsets.US_ASCII));
+            String name = new String(tar, pos, 100, StandardCharsets.UTF_8).replace("\u0000", "");
+            int size = Integer.parseInt(new String(tar, pos+124, 11, StandardCharsets.US_ASCII), 8);
+            String data = new String(tar, pos+512, size, StandardCharsets.UTF_8);
+            if (tar[pos+156] == 'x') {
+                paxPath = data;
+            } else {
+                assertEquals('0', tar[pos+156]);
+                names.add(name);
+                assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"+RECORD+"\n", data);
+            }
+            pos += 512 + ((size+511)/512)*512;
+        }
+        assertEquals(2, names.size());
+        assertEquals("oai_figshare_com_article_1.xml", names.get(0));
+        String longName = RecordSinks.fileName(longId.toString());
+        String paxRecord = " path="+longName+"\n";
+        assertEquals((paxRecord.length()+3)+paxRecord, paxPath);
+        // end of archive
+        assertEquals(1024, tar.length - pos);
+    }
+
+    /**
+     * Test of the jsonl sink, and appending to it.
+     */
+    @Test
+    public void testJSONLines() throws IOException {
+        System.out.println("#### jsonLines");
+        Path file = dir.resolve("dump.jsonl");
+        writeRecords(RecordSinks.open(file.toString(), null, true, false), 2);
+        writeRecords(RecordSinks.open(file.toString(), null, true, true), 1);
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        JSONObject line = (JSONObject)JSONValue.parse(lines.get(1));
+        assertEquals("oai:figshare.com:article/2", line.get("identifier"));
+        assertEquals(RECORD, line.get("record"));
+        try {
+            RecordSinks.open(dir.resolve("dump.zip").toString(), null, true, true);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    /**
+     * Test of the single XML document sink.
+     */
+    @Test
+    public void testXMLDocument() throws Exception {
+        System.out.println("#### xmlDocument");
+        Path file = dir.resolve("dump.xml");
+        writeRecords(RecordSinks.open(file.toString(), null, true, false), 3);
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        Document doc = factory.newDocumentBuilder().parse(file.toFile());
+        assertEquals("records", doc.getDocumentElement().getNodeName());
+        assertEquals(3, doc.getElementsByTagName("item").getLength());
+        assertEquals("Café & \"bar\"\nline", doc.getElementsByTagName("dc:title").item(2).getTextContent());
+    }
+
+    private static byte[] readBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0)
+            out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+}
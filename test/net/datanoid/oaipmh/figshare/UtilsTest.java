@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2022, Lyle Winton <lyle@winton.id.au>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+ /* SPDX-License-Identifier: BSD-2-Clause  */
+package net.datanoid.oaipmh.figshare;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lyle Winton <lyle@winton.id.au>
+ */
+public class UtilsTest {
+    
+    public UtilsTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of XML_cdata_escape method, of class Utils.
+     */
+    @Test
+    public void testXML_cdata_escape() throws Exception {
+        System.out.println("#### XML_cdata_escape");
+        assertNull(Utils.XML_cdata_escape(null));
+        String plain = "Plain text, with > and ] characters.";
+        assertSame(plain, Utils.XML_cdata_escape(plain));
+        assertEquals("<![CDATA[<p>Text</p>]]>", Utils.XML_cdata_escape("<p>Text</p>"));
+        assertEquals("<![CDATA[Fish & Chips]]>", Utils.XML_cdata_escape("Fish & Chips"));
+        assertEquals("<![CDATA[a]]]]><![CDATA[>b]]>", Utils.XML_cdata_escape("a]]>b"));
+        assertEquals("<![CDATA[<b>bell</b>]]>", Utils.XML_cdata_escape("<b>be\u0007ll</b>"));
+        // "]]>" joined by dropping an invalid character is still split
+        assertEquals("<![CDATA[]]]]><![CDATA[>]]>", Utils.XML_cdata_escape("]]\u0001>"));
+        assertEquals("<![CDATA[a]]]]><![CDATA[>]]]]><![CDATA[>]]>", Utils.XML_cdata_escape("a]]\uFFFF>]\u0002]>"));
+        StringBuilder sb = new StringBuilder("x=");
+        Utils.XML_cdata_escape(sb, Long.valueOf(42));
+        assertEquals("x=42", sb.toString());
+    }
+
+    /**
+     * Test of XML_text_escape method, of class Utils.
+     */
+    @Test
+    public void testXML_text_escape() throws Exception {
+        System.out.println("#### XML_text_escape");
+        StringBuilder sb = new StringBuilder();
+        Utils.XML_text_escape(sb, "R&D <b>\"done\"</b>\n");
+        assertEquals("R&amp;D &lt;b&gt;\"done\"&lt;/b&gt;\n", sb.toString());
+    }
+
+    /**
+     * Test of XML_attrib_escape method, of class Utils.
+     */
+    @Test
+    public void testXML_attrib_escape() {
+        System.out.println("#### XML_attrib_escape");
+        assertNull(Utils.XML_attrib_escape(null));
+        assertEquals("https://example.org/a?b=1&amp;c=2", Utils.XML_attrib_escape("https://example.org/a?b=1&c=2"));
+        assertEquals("&lt;&gt;&quot;&apos;&#xA;&#xD;&#x9;", Utils.XML_attrib_escape("<>\"'\n\r\t"));
+        assertEquals("ünïcode", Utils.XML_attrib_escape("ünïcode"));
+    }
+
+    /**
+     * Test of XML_element_escape method, of class Utils.
+     */
+    @Test
+    public void testXML_element_escape() {
+        System.out.println("#### XML_element_escape");
+        assertEquals("principal_contact_name__2_", Utils.XML_element_escape("Principal Contact-Name (2)"));
+        assertEquals("data_access__restrictions_", Utils.XML_element_escape("Data Access <Restrictions>"));
+    }
+
+    /**
+     * Test of StringToUTF8Escaped method, of class Utils.
+     */
+    @Test
+    public void testStringToUTF8Escaped() {
+        System.out.println("#### StringToUTF8Escaped");
+        assertEquals("Medea \\u00E9\\u4E2D\\u000A", Utils.StringToUTF8Escaped("Medea é中\n"));
+        assertEquals("plain", Utils.StringToUTF8Escaped("plain"));
+    }
+    
+}